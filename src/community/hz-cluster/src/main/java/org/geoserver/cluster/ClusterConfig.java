@@ -34,4 +34,12 @@ public class ClusterConfig extends Properties {
     public int getAckTimeoutMillis() {
         return Integer.parseInt(getProperty("acktimeout", "2000"));
     }
+
+    /**
+     * @return number of configuration deltas kept in the cluster wide log, used by the "delta"
+     *     synchronization method. Nodes falling further behind do a full reload. Defaults to 10000.
+     */
+    public int getDeltaLogSize() {
+        return Integer.parseInt(getProperty("delta_log_size", "10000"));
+    }
 }
@@ -0,0 +1,46 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.cluster;
+
+/**
+ * A committed configuration change, carrying the cluster wide revision it was assigned and, for
+ * additions and modifications, the serialized state of the changed object.
+ */
+public class ConfigDelta extends ConfigChangeEvent {
+
+    /** serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+    /** cluster wide revision of the change */
+    long revision;
+
+    /** XML representation of the object after the change, null for removals */
+    String payload;
+
+    public ConfigDelta(ConfigChangeEvent event, String payload) {
+        super(event.id, event.name, event.clazz, event.type);
+        this.workspaceId = event.workspaceId;
+        this.storeId = event.storeId;
+        setNativeName(event.getNativeName());
+        this.payload = payload;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public void setRevision(long revision) {
+        this.revision = revision;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "r" + revision + " " + super.toString();
+    }
+}
@@ -0,0 +1,726 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.cluster.hazelcast;
+
+import static java.lang.String.format;
+import static org.geoserver.cluster.hazelcast.HazelcastUtil.localAddress;
+
+import com.hazelcast.core.IMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.Info;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.cluster.ConfigChangeEvent;
+import org.geoserver.cluster.ConfigChangeEvent.Type;
+import org.geoserver.cluster.ConfigDelta;
+import org.geoserver.cluster.Event;
+import org.geoserver.config.ConfigurationListener;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerConfigPersister;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.GeoServerResourcePersister;
+import org.geoserver.config.LoggingInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.ServicePersister;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.config.util.XStreamServiceLoader;
+import org.geoserver.ows.util.ClassProperties;
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.platform.ExtensionPriority;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.resource.Resource;
+
+/**
+ * Synchronizer shipping versioned configuration deltas.
+ *
+ * <p>Each committed change gets a cluster wide revision number, and is stored, along with the XML
+ * representation of the changed object, in a distributed log of bounded size (see {@link
+ * org.geoserver.cluster.ClusterConfig#getDeltaLogSize()}). Receiving nodes apply the changes in
+ * revision order, fetching from the log the deltas they missed, and fall back on a full reload only
+ * if the deltas they need have been already evicted from the log, or cannot be applied.
+ *
+ * <p>The revision of the last change applied to each object is tracked as well, so that stale
+ * deltas are ignored. Services are not shipped in XML form, as their serialization depends on the
+ * service specific loaders, they are re-read from the data directory instead.
+ *
+ * <p>Remote changes are applied to the in memory configuration only: the node that made them has
+ * written them to the shared data directory already, so the persisters do not see the events fired
+ * while applying them. The references to other catalog objects are resolved against the local
+ * catalog before being copied into the live objects.
+ *
+ * <p>This synchronizer assumes a shared data directory among nodes in the cluster.
+ */
+public class DeltaHzSynchronizer extends HzSynchronizer {
+
+    static final String REVISION_NAME = "geoserver.config.revision";
+
+    static final String DELTA_LOG_NAME = "geoserver.config.deltas";
+
+    /** How long to wait for a delta whose revision has been allocated, but not yet stored */
+    static final long MISSING_DELTA_WAIT = 500;
+
+    /** The persisters writing the configuration to the data directory */
+    static final List<Class<?>> PERSISTERS =
+            Arrays.asList(
+                    GeoServerConfigPersister.class,
+                    GeoServerResourcePersister.class,
+                    ServicePersister.class);
+
+    /** Highest revision such that this node has applied it, and all the ones before it */
+    final AtomicLong appliedRevision = new AtomicLong();
+
+    /** Revision of the last change applied to each object, by object id */
+    final Map<String, Long> objectRevisions = new ConcurrentHashMap<>();
+
+    /** Revisions of the received deltas waiting for the ones before them to be stored */
+    final Set<Long> pendingRetries = ConcurrentHashMap.newKeySet();
+
+    /** Set while applying remote changes, the resulting events must not be published */
+    private final ThreadLocal<Boolean> applying = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /** Set when a global modification only touches the update sequence */
+    private final ThreadLocal<Boolean> updateSequenceOnly =
+            ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private volatile XStreamPersister persister;
+
+    public DeltaHzSynchronizer(HzCluster cluster, GeoServer gs) {
+        super(cluster, gs);
+    }
+
+    @Override
+    public void start() {
+        // the configuration has just been loaded from the shared data directory, it's up to date
+        appliedRevision.set(currentRevision());
+        super.start();
+    }
+
+    /** The current cluster wide revision */
+    long currentRevision() {
+        return cluster.getHz().getAtomicLong(REVISION_NAME).get();
+    }
+
+    /** Allocates a new cluster wide revision */
+    long nextRevision() {
+        return cluster.getHz().getAtomicLong(REVISION_NAME).incrementAndGet();
+    }
+
+    /** Stores the delta in the distributed log, evicting the ones exceeding the log size */
+    void storeDelta(ConfigDelta delta) {
+        IMap<Long, ConfigDelta> log = cluster.getHz().getMap(DELTA_LOG_NAME);
+        log.set(delta.getRevision(), delta);
+        long expired = delta.getRevision() - configWatcher.get().getDeltaLogSize();
+        if (expired > 0) {
+            log.delete(expired);
+        }
+    }
+
+    /** Fetches the specified deltas from the distributed log, the missing ones won't be returned */
+    Map<Long, ConfigDelta> loadDeltas(Set<Long> revisions) {
+        IMap<Long, ConfigDelta> log = cluster.getHz().getMap(DELTA_LOG_NAME);
+        return new HashMap<>(log.getAll(revisions));
+    }
+
+    @Override
+    ConfigChangeEvent newChangeEvent(Info subj, Type type) {
+        ConfigChangeEvent event = super.newChangeEvent(subj, type);
+        if (applying.get()) {
+            return event;
+        }
+        // only the committed state is shipped, services are re-read from the data directory
+        String payload = null;
+        if ((type == Type.ADD || type == Type.POST_MODIFY) && !(subj instanceof ServiceInfo)) {
+            try {
+                payload = serialize(ModificationProxy.unwrap(subj));
+            } catch (IOException e) {
+                LOGGER.log(
+                        Level.WARNING,
+                        format("%s - Failed to serialize %s, it won't be shipped", nodeId(), subj),
+                        e);
+            }
+        }
+        return new ConfigDelta(event, payload);
+    }
+
+    @Override
+    protected void dispatch(Event e) {
+        if (applying.get() || !(e instanceof ConfigDelta)) {
+            return;
+        }
+        ConfigDelta delta = (ConfigDelta) e;
+        // modifications are shipped once committed, with the post modify event
+        if (delta.getChangeType() == Type.MODIFY) {
+            return;
+        }
+        if (delta.getChangeType() == Type.POST_MODIFY
+                && delta.getPayload() == null
+                && !ServiceInfo.class.isAssignableFrom(delta.getObjectClass())) {
+            // serialization failed, let the other nodes reload
+            LOGGER.warning(format("%s - Shipping %s without its state", nodeId(), delta));
+        }
+
+        delta.setSource(localAddress(cluster.getHz()));
+        long revision = nextRevision();
+        delta.setRevision(revision);
+        storeDelta(delta);
+        objectRevisions.put(delta.getObjectId(), revision);
+        // if this node is up to date, it stays so
+        appliedRevision.compareAndSet(revision - 1, revision);
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(format("%s - Publishing delta %s", nodeId(), delta));
+        }
+        topic.publish(delta);
+        incCounter(getClass(), "dispatched");
+    }
+
+    @Override
+    public void handleGlobalChange(
+            GeoServerInfo global,
+            List<String> propertyNames,
+            List<Object> oldValues,
+            List<Object> newValues) {
+        // every catalog change bumps the update sequence, don't ship those
+        updateSequenceOnly.set(
+                propertyNames.size() == 1 && propertyNames.contains("updateSequence"));
+    }
+
+    @Override
+    public void handlePostGlobalChange(GeoServerInfo global) {
+        boolean skip = updateSequenceOnly.get();
+        updateSequenceOnly.remove();
+        if (!skip) {
+            dispatch(newChangeEvent(global, Type.POST_MODIFY));
+        }
+    }
+
+    @Override
+    public void handleSettingsPostModified(SettingsInfo settings) {
+        dispatch(newChangeEvent(settings, Type.POST_MODIFY));
+    }
+
+    @Override
+    public void handlePostLoggingChange(LoggingInfo logging) {
+        dispatch(newChangeEvent(logging, Type.POST_MODIFY));
+    }
+
+    @Override
+    protected Future<?> processEvent(Event event) {
+        if (!(event instanceof ConfigDelta)) {
+            return null;
+        }
+        try {
+            catchUp((ConfigDelta) event);
+        } catch (Exception e) {
+            String message = format("%s - Failed to apply %s, reloading", nodeId(), event);
+            LOGGER.log(Level.WARNING, message, e);
+            reload(((ConfigDelta) event).getRevision());
+        }
+        return null;
+    }
+
+    /**
+     * Applies all the deltas between the last applied revision and the one of the delta received.
+     * Events are processed by a single thread, so no two catch ups can run in parallel.
+     */
+    void catchUp(ConfigDelta received) throws Exception {
+        final long target = received.getRevision();
+        final boolean retrying = pendingRetries.remove(target);
+        final long from = appliedRevision.get() + 1;
+        if (target < from) {
+            // already applied while catching up with a later delta
+            return;
+        }
+
+        Map<Long, ConfigDelta> deltas = new HashMap<>();
+        deltas.put(target, received);
+        Set<Long> missing = new TreeSet<>();
+        for (long r = from; r < target; r++) {
+            missing.add(r);
+        }
+        if (!missing.isEmpty()) {
+            deltas.putAll(loadDeltas(missing));
+            missing.removeAll(deltas.keySet());
+            incCounter(getClass(), "fetched");
+        }
+        if (!missing.isEmpty() && !retrying && !isTruncated(missing, target)) {
+            // the revisions might have been allocated, but not stored yet, give them a chance
+            // without holding up the events received in the meantime
+            pendingRetries.add(target);
+            retry(received, MISSING_DELTA_WAIT);
+            return;
+        }
+
+        for (long r = from; r <= target; r++) {
+            ConfigDelta delta = deltas.get(r);
+            if (delta == null) {
+                LOGGER.info(format("%s - Delta r%d no longer available, reloading", nodeId(), r));
+                reload(target);
+                return;
+            }
+            apply(delta);
+            final long applied = r;
+            appliedRevision.accumulateAndGet(applied, Math::max);
+        }
+    }
+
+    private boolean isTruncated(Set<Long> missing, long target) {
+        long oldest = missing.iterator().next();
+        return target - oldest >= configWatcher.get().getDeltaLogSize();
+    }
+
+    private void apply(ConfigDelta delta) throws Exception {
+        // changes made locally have been applied already
+        if (localAddress(cluster.getHz()).equals(delta.getSource())) {
+            return;
+        }
+        Long objectRevision = objectRevisions.get(delta.getObjectId());
+        if (objectRevision != null && objectRevision >= delta.getRevision()) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(format("%s - Skipping stale delta %s", nodeId(), delta));
+            }
+            return;
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(format("%s - Applying delta %s", nodeId(), delta));
+        }
+
+        applying.set(true);
+        try {
+            applyDelta(delta);
+        } finally {
+            applying.remove();
+        }
+        objectRevisions.put(delta.getObjectId(), delta.getRevision());
+        incCounter(getClass(), "applied");
+    }
+
+    /** Applies a single delta to the local configuration, without writing it to disk */
+    void applyDelta(ConfigDelta delta) throws Exception {
+        Class<? extends Info> clazz = delta.getObjectInterface();
+        if (clazz == null) {
+            throw new IllegalStateException("Unknown object type in " + delta);
+        }
+        Runnable unmute = mutePersisters();
+        try {
+            if (CatalogInfo.class.isAssignableFrom(clazz)) {
+                applyCatalogDelta(delta, clazz);
+            } else if (ServiceInfo.class.isAssignableFrom(clazz)) {
+                applyServiceDelta(delta);
+            } else {
+                applyConfigDelta(delta, clazz);
+            }
+        } finally {
+            unmute.run();
+        }
+    }
+
+    private void applyCatalogDelta(ConfigDelta delta, Class<? extends Info> clazz)
+            throws IOException {
+        final Catalog catalog = cluster.getRawCatalog();
+        final CatalogInfo local = getCatalogInfo(catalog, delta.getObjectId(), clazz);
+        if (delta.getChangeType() == Type.REMOVE) {
+            if (local != null) {
+                remove(catalog, local);
+            }
+            return;
+        }
+
+        CatalogInfo remote = (CatalogInfo) deserialize(delta, clazz);
+        resolveReferences(catalog, remote, clazz);
+        if (local == null) {
+            add(catalog, remote);
+        } else {
+            copy(remote, local, clazz);
+            save(catalog, local);
+        }
+    }
+
+    private void applyConfigDelta(ConfigDelta delta, Class<? extends Info> clazz)
+            throws IOException {
+        if (GeoServerInfo.class.isAssignableFrom(clazz)) {
+            GeoServerInfo global = gs.getGlobal();
+            copy(deserialize(delta, GeoServerInfo.class), global, GeoServerInfo.class);
+            gs.save(global);
+        } else if (LoggingInfo.class.isAssignableFrom(clazz)) {
+            LoggingInfo logging = gs.getLogging();
+            copy(deserialize(delta, LoggingInfo.class), logging, LoggingInfo.class);
+            gs.save(logging);
+        } else if (SettingsInfo.class.isAssignableFrom(clazz)) {
+            WorkspaceInfo ws =
+                    delta.getWorkspaceId() != null
+                            ? cluster.getRawCatalog().getWorkspace(delta.getWorkspaceId())
+                            : null;
+            SettingsInfo local = ws != null ? gs.getSettings(ws) : gs.getGlobal().getSettings();
+            if (delta.getChangeType() == Type.REMOVE) {
+                if (local != null && ws != null) {
+                    gs.remove(local);
+                }
+                return;
+            }
+            SettingsInfo remote = deserialize(delta, SettingsInfo.class);
+            resolveReferences(cluster.getRawCatalog(), remote, SettingsInfo.class);
+            if (local == null) {
+                gs.add(remote);
+            } else {
+                copy(remote, local, SettingsInfo.class);
+                gs.save(local);
+            }
+        } else {
+            throw new IllegalStateException("Unknown configuration object type " + clazz);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applyServiceDelta(ConfigDelta delta) throws Exception {
+        ServiceInfo local = gs.getService(delta.getObjectId(), ServiceInfo.class);
+        if (delta.getChangeType() == Type.REMOVE) {
+            if (local != null) {
+                gs.remove(local);
+            }
+            return;
+        }
+
+        XStreamServiceLoader<ServiceInfo> loader = null;
+        for (XStreamServiceLoader<?> candidate :
+                GeoServerExtensions.extensions(XStreamServiceLoader.class)) {
+            if (candidate.getServiceClass().isAssignableFrom(delta.getObjectClass())) {
+                loader = (XStreamServiceLoader<ServiceInfo>) candidate;
+                break;
+            }
+        }
+        if (loader == null) {
+            throw new IllegalStateException("Could not find a loader for " + delta);
+        }
+
+        // re-read the service from the shared data directory
+        Catalog catalog = cluster.getRawCatalog();
+        GeoServerDataDirectory dd = new GeoServerDataDirectory(catalog.getResourceLoader());
+        String wsId = delta.getWorkspaceId();
+        WorkspaceInfo ws = wsId != null ? catalog.getWorkspace(wsId) : null;
+        Resource directory = ws != null ? dd.get(ws) : dd.getRoot();
+        ServiceInfo remote = loader.load(gs, directory);
+        resolveReferences(catalog, remote, loader.getServiceClass());
+        if (local == null) {
+            gs.add(remote);
+        } else {
+            copy(remote, local, (Class<ServiceInfo>) loader.getServiceClass());
+            gs.save(local);
+        }
+    }
+
+    /**
+     * Copies all properties from source to target, including the ones that have been set to null
+     * (which {@link OwsUtils#copy(Object, Object, Class)} skips)
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void copy(Object source, Object target, Class<T> clazz) {
+        OwsUtils.copy((T) source, (T) target, clazz);
+        ClassProperties properties = OwsUtils.getClassProperties(clazz);
+        for (String p : properties.properties()) {
+            Method getter = properties.getter(p, null);
+            if (getter == null) {
+                continue;
+            }
+            Method setter = properties.setter(p, getter.getReturnType());
+            if (setter == null) {
+                continue;
+            }
+            try {
+                if (getter.invoke(source) == null && getter.invoke(target) != null) {
+                    setter.invoke(target, new Object[] {null});
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Replaces the references to other catalog objects, deserialized as {@link ResolvingProxy},
+     * with the objects of the local catalog
+     */
+    @SuppressWarnings("unchecked")
+    static void resolveReferences(Catalog catalog, Object info, Class<?> clazz) {
+        ClassProperties properties = OwsUtils.getClassProperties(clazz);
+        for (String p : properties.properties()) {
+            Method getter = properties.getter(p, null);
+            if (getter == null) {
+                continue;
+            }
+            try {
+                Object value = getter.invoke(info);
+                // only touch what needs resolving, some collections are not modifiable
+                if (value instanceof List) {
+                    ListIterator<Object> it = ((List<Object>) value).listIterator();
+                    while (it.hasNext()) {
+                        Object item = it.next();
+                        Object resolved = resolveReference(catalog, item);
+                        if (resolved != item) {
+                            it.set(resolved);
+                        }
+                    }
+                } else if (value instanceof Set) {
+                    Set<Object> set = (Set<Object>) value;
+                    List<Object> resolved = new ArrayList<>();
+                    boolean changed = false;
+                    for (Object item : set) {
+                        Object r = resolveReference(catalog, item);
+                        changed |= r != item;
+                        resolved.add(r);
+                    }
+                    if (changed) {
+                        set.clear();
+                        set.addAll(resolved);
+                    }
+                } else {
+                    Object resolved = resolveReference(catalog, value);
+                    Method setter = properties.setter(p, getter.getReturnType());
+                    if (resolved != value && setter != null) {
+                        setter.invoke(info, resolved);
+                    }
+                }
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static Object resolveReference(Catalog catalog, Object value) {
+        if (!(value instanceof Proxy)) {
+            return value;
+        }
+        InvocationHandler handler = Proxy.getInvocationHandler(value);
+        if (!(handler instanceof ResolvingProxy)) {
+            return value;
+        }
+        Object resolved = ResolvingProxy.resolve(catalog, value);
+        if (resolved == null) {
+            String ref = ((ResolvingProxy) handler).getRef();
+            throw new IllegalStateException("Could not find " + ref + " in the local catalog");
+        }
+        return ModificationProxy.unwrap(resolved);
+    }
+
+    /**
+     * Replaces the persisters with wrappers ignoring the events fired by the thread applying the
+     * remote changes, returns the action restoring the original listeners. The wrappers are added
+     * before the persisters are removed, so a change made meanwhile by another thread might be
+     * written twice, but never skipped.
+     */
+    private Runnable mutePersisters() {
+        final Catalog catalog = cluster.getRawCatalog();
+        final Map<CatalogListener, CatalogListener> catalogPersisters = new HashMap<>();
+        for (CatalogListener listener : new ArrayList<>(catalog.getListeners())) {
+            if (isPersister(listener)) {
+                CatalogListener muted = mute(listener);
+                catalog.addListener(muted);
+                catalog.removeListener(listener);
+                catalogPersisters.put(listener, muted);
+            }
+        }
+        final Map<ConfigurationListener, ConfigurationListener> configPersisters = new HashMap<>();
+        for (ConfigurationListener listener : new ArrayList<>(gs.getListeners())) {
+            if (isPersister(listener)) {
+                ConfigurationListener muted = mute(listener);
+                gs.addListener(muted);
+                gs.removeListener(listener);
+                configPersisters.put(listener, muted);
+            }
+        }
+        return () -> {
+            catalogPersisters.forEach(
+                    (listener, muted) -> {
+                        catalog.addListener(listener);
+                        catalog.removeListener(muted);
+                    });
+            configPersisters.forEach(
+                    (listener, muted) -> {
+                        gs.addListener(listener);
+                        gs.removeListener(muted);
+                    });
+        };
+    }
+
+    private boolean isPersister(Object listener) {
+        return PERSISTERS.stream().anyMatch(c -> c.isInstance(listener));
+    }
+
+    /** Wraps the listener, ignoring the events fired while applying remote changes */
+    @SuppressWarnings("unchecked")
+    private <T> T mute(T listener) {
+        List<Class<?>> interfaces = new ArrayList<>();
+        for (Class<?> c :
+                new Class<?>[] {
+                    CatalogListener.class, ConfigurationListener.class, ExtensionPriority.class
+                }) {
+            if (c.isInstance(listener)) {
+                interfaces.add(c);
+            }
+        }
+        InvocationHandler handler =
+                (proxy, method, args) -> {
+                    // the wrapper is added and removed on its own, it needs an identity
+                    if ("equals".equals(method.getName()) && args != null && args.length == 1) {
+                        return proxy == args[0];
+                    } else if ("hashCode".equals(method.getName()) && args == null) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if (applying.get() && method.getReturnType() == void.class) {
+                        return null;
+                    }
+                    try {
+                        return method.invoke(listener, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                };
+        return (T)
+                Proxy.newProxyInstance(
+                        DeltaHzSynchronizer.class.getClassLoader(),
+                        interfaces.toArray(new Class<?>[interfaces.size()]),
+                        handler);
+    }
+
+    private void add(Catalog catalog, CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            catalog.add((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            catalog.add((NamespaceInfo) info);
+        } else if (info instanceof StoreInfo) {
+            catalog.add((StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            catalog.add((ResourceInfo) info);
+        } else if (info instanceof LayerInfo) {
+            catalog.add((LayerInfo) info);
+        } else if (info instanceof StyleInfo) {
+            catalog.add((StyleInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            catalog.add((LayerGroupInfo) info);
+        } else {
+            throw new IllegalArgumentException("Unsupported catalog object " + info);
+        }
+    }
+
+    private void save(Catalog catalog, CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            catalog.save((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            catalog.save((NamespaceInfo) info);
+        } else if (info instanceof StoreInfo) {
+            catalog.save((StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            catalog.save((ResourceInfo) info);
+        } else if (info instanceof LayerInfo) {
+            catalog.save((LayerInfo) info);
+        } else if (info instanceof StyleInfo) {
+            catalog.save((StyleInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            catalog.save((LayerGroupInfo) info);
+        } else {
+            throw new IllegalArgumentException("Unsupported catalog object " + info);
+        }
+    }
+
+    private void remove(Catalog catalog, CatalogInfo info) {
+        if (info instanceof WorkspaceInfo) {
+            catalog.remove((WorkspaceInfo) info);
+        } else if (info instanceof NamespaceInfo) {
+            catalog.remove((NamespaceInfo) info);
+        } else if (info instanceof StoreInfo) {
+            catalog.remove((StoreInfo) info);
+        } else if (info instanceof ResourceInfo) {
+            catalog.remove((ResourceInfo) info);
+        } else if (info instanceof LayerInfo) {
+            catalog.remove((LayerInfo) info);
+        } else if (info instanceof StyleInfo) {
+            catalog.remove((StyleInfo) info);
+        } else if (info instanceof LayerGroupInfo) {
+            catalog.remove((LayerGroupInfo) info);
+        } else {
+            throw new IllegalArgumentException("Unsupported catalog object " + info);
+        }
+    }
+
+    /** Fully reloads the configuration, aligning this node with the specified revision */
+    void reload(long revision) {
+        applying.set(true);
+        try {
+            gs.reload();
+            objectRevisions.clear();
+            appliedRevision.accumulateAndGet(revision, Math::max);
+            incCounter(getClass(), "reloads");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, format("%s - Reload failed", nodeId()), e);
+        } finally {
+            applying.remove();
+        }
+    }
+
+    private XStreamPersister getPersister() {
+        if (persister == null) {
+            synchronized (this) {
+                if (persister == null) {
+                    XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+                    xp.setCatalog(cluster.getRawCatalog());
+                    persister = xp;
+                }
+            }
+        }
+        return persister;
+    }
+
+    String serialize(Object info) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        getPersister().save(info, bos);
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    <T> T deserialize(ConfigDelta delta, Class<T> clazz) throws IOException {
+        String payload = delta.getPayload();
+        if (payload == null) {
+            throw new IOException("Delta " + delta + " does not carry the object state");
+        }
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return getPersister().load(new ByteArrayInputStream(bytes), clazz);
+    }
+
+    /** The highest revision applied by this node */
+    public long getAppliedRevision() {
+        return appliedRevision.get();
+    }
+}
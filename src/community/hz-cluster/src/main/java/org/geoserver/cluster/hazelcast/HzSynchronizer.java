@@ -22,10 +22,16 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.Info;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.event.CatalogAddEvent;
 import org.geoserver.catalog.event.CatalogEvent;
@@ -143,6 +149,11 @@ public abstract class HzSynchronizer extends GeoServerSynchronizer
         }
     }
 
+    /** Schedules the event to be processed again, after the specified delay */
+    void retry(Event event, long delayMillis) {
+        executor.schedule(new EventWorker(event), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
     protected abstract void dispatch(Event e);
 
     /**
@@ -179,6 +190,27 @@ public abstract class HzSynchronizer extends GeoServerSynchronizer
         return ev;
     }
 
+    /** Looks up a catalog object given its id and interface, returns null if not found */
+    CatalogInfo getCatalogInfo(Catalog cat, String id, Class<? extends Info> clazz) {
+        CatalogInfo subj = null;
+        if (WorkspaceInfo.class.isAssignableFrom(clazz)) {
+            subj = cat.getWorkspace(id);
+        } else if (NamespaceInfo.class.isAssignableFrom(clazz)) {
+            subj = cat.getNamespace(id);
+        } else if (StoreInfo.class.isAssignableFrom(clazz)) {
+            subj = cat.getStore(id, (Class<StoreInfo>) clazz);
+        } else if (ResourceInfo.class.isAssignableFrom(clazz)) {
+            subj = cat.getResource(id, (Class<ResourceInfo>) clazz);
+        } else if (LayerInfo.class.isAssignableFrom(clazz)) {
+            subj = cat.getLayer(id);
+        } else if (StyleInfo.class.isAssignableFrom(clazz)) {
+            subj = cat.getStyle(id);
+        } else if (LayerGroupInfo.class.isAssignableFrom(clazz)) {
+            subj = cat.getLayerGroup(id);
+        }
+        return subj;
+    }
+
     @Override
     public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
         dispatch(newChangeEvent(event, Type.ADD));
@@ -49,6 +49,8 @@ public class HzSynchronizerInitializer
         String method = config.getSyncMethod();
         if ("event".equalsIgnoreCase(method)) {
             syncher = new EventHzSynchronizer(cluster, geoServer);
+        } else if ("delta".equalsIgnoreCase(method)) {
+            syncher = new DeltaHzSynchronizer(cluster, geoServer);
         } else {
             method = "reload";
             syncher = new ReloadHzSynchronizer(cluster, geoServer);
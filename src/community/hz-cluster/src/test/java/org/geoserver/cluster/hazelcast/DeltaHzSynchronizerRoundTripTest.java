@@ -0,0 +1,301 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.cluster.hazelcast;
+
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createMockBuilder;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.hazelcast.core.Cluster;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IAtomicLong;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Member;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.cluster.ClusterConfig;
+import org.geoserver.cluster.ClusterConfigWatcher;
+import org.geoserver.cluster.ConfigDelta;
+import org.geoserver.cluster.Event;
+import org.geoserver.config.DefaultGeoServerLoader;
+import org.geoserver.config.GeoServerConfigPersister;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.config.ServicePersister;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.config.util.XStreamServiceLoader;
+import org.geoserver.data.test.MockData;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.platform.GeoServerExtensionsHelper;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.wms.WMSInfo;
+import org.geoserver.wms.WMSXStreamLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ships changes between two nodes with their own catalog and configuration, loaded from the same
+ * data directory, through the delta log. Only Hazelcast is replaced, by in memory structures.
+ */
+public class DeltaHzSynchronizerRoundTripTest {
+
+    static final String LAYER_NAME =
+            MockData.BUILDINGS.getPrefix() + ":" + MockData.BUILDINGS.getLocalPart();
+
+    /** A last modified time the persisters would not leave behind */
+    static final long MARK = 1000000000000L;
+
+    SystemTestData data;
+
+    /** The in memory replacement of the distributed revision counter */
+    AtomicLong revision = new AtomicLong();
+
+    /** The in memory replacement of the distributed delta log */
+    Map<Long, ConfigDelta> deltas = new HashMap<>();
+
+    ClusterConfigWatcher configWatcher;
+
+    Node nodeA;
+
+    Node nodeB;
+
+    @Before
+    public void setUpNodes() throws Exception {
+        data = new SystemTestData();
+        data.setUp();
+        data.setUpVectorLayer(MockData.BUILDINGS);
+
+        GeoServerResourceLoader resourceLoader =
+                new GeoServerResourceLoader(data.getDataDirectoryRoot());
+        GeoServerExtensionsHelper.singleton(
+                "resourceLoader", resourceLoader, GeoServerResourceLoader.class);
+        GeoServerExtensionsHelper.singleton(
+                "wmsLoader", new WMSXStreamLoader(resourceLoader), XStreamServiceLoader.class);
+
+        ClusterConfig clusterConfig = createNiceMock(ClusterConfig.class);
+        expect(clusterConfig.getDeltaLogSize()).andStubReturn(10);
+        configWatcher = createNiceMock(ClusterConfigWatcher.class);
+        expect(configWatcher.get()).andStubReturn(clusterConfig);
+        replay(clusterConfig, configWatcher);
+
+        nodeA = new Node(resourceLoader);
+        // the service is created from scratch when missing, make both nodes share it
+        nodeA.gs.save(nodeA.gs.getService(WMSInfo.class));
+        nodeB = new Node(resourceLoader);
+
+        nodeA.startSync(42);
+        nodeB.startSync(54);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        GeoServerExtensionsHelper.clear();
+        data.tearDown();
+    }
+
+    @Test
+    public void testLayerAndServiceRoundTrip() throws Exception {
+        LayerInfo layerA = nodeA.catalog.getLayerByName(LAYER_NAME);
+        layerA.setDefaultStyle(nodeA.catalog.getStyleByName(StyleInfo.DEFAULT_POLYGON));
+        layerA.setOpaque(true);
+        nodeA.catalog.save(layerA);
+
+        WMSInfo wmsA = nodeA.gs.getService(WMSInfo.class);
+        wmsA.setTitle("Clustered WMS");
+        wmsA.setMaxBuffer(42);
+        nodeA.gs.save(wmsA);
+
+        // both changes got a revision and have been stored in the log
+        assertThat(nodeA.published.size(), is(2));
+        assertThat(deltas.size(), is(2));
+        assertThat(nodeA.sync.getAppliedRevision(), is(2L));
+        assertThat(nodeB.catalog.getLayerByName(LAYER_NAME).isOpaque(), is(false));
+
+        // node B only receives the service change, the layer one is fetched from the log
+        Event received = nodeA.published.get(1);
+        assertThat(received, instanceOf(ConfigDelta.class));
+        nodeB.sync.processEvent(received);
+        assertThat(nodeB.sync.getAppliedRevision(), is(2L));
+
+        LayerInfo layerB = nodeB.catalog.getLayerByName(LAYER_NAME);
+        assertThat(layerB.isOpaque(), is(true));
+        assertThat(layerB.getDefaultStyle().getName(), is(StyleInfo.DEFAULT_POLYGON));
+        assertThat(layerB.getResource().getName(), is(MockData.BUILDINGS.getLocalPart()));
+        // the references point to the local objects
+        StyleInfo styleB = ModificationProxy.unwrap(layerB.getDefaultStyle());
+        assertThat(styleB, not(instanceOf(Proxy.class)));
+        StyleInfo localStyle = nodeB.catalog.getStyleByName(StyleInfo.DEFAULT_POLYGON);
+        assertThat(styleB, sameInstance(ModificationProxy.unwrap(localStyle)));
+
+        WMSInfo wmsB = nodeB.gs.getService(WMSInfo.class);
+        assertThat(wmsB.getTitle(), is("Clustered WMS"));
+        assertThat(wmsB.getMaxBuffer(), is(42));
+
+        // the changes applied on node B are not shipped back
+        assertThat(nodeB.published, empty());
+        assertThat(revision.get(), is(2L));
+    }
+
+    @Test
+    public void testReplayDoesNotWriteDataDirectory() throws Exception {
+        LayerInfo layerA = nodeA.catalog.getLayerByName(LAYER_NAME);
+        layerA.setOpaque(true);
+        nodeA.catalog.save(layerA);
+        WMSInfo wmsA = nodeA.gs.getService(WMSInfo.class);
+        wmsA.setTitle("Clustered WMS");
+        nodeA.gs.save(wmsA);
+
+        // node A wrote the files, mark them so that a rewrite can be spotted
+        GeoServerDataDirectory dd = new GeoServerDataDirectory(data.getDataDirectoryRoot());
+        File layerFile = dd.config(layerA).file();
+        File wmsFile = dd.getRoot().get("wms.xml").file();
+        assertTrue(layerFile.setLastModified(MARK));
+        assertTrue(wmsFile.setLastModified(MARK));
+
+        nodeB.sync.processEvent(nodeA.published.get(1));
+        assertThat(nodeB.catalog.getLayerByName(LAYER_NAME).isOpaque(), is(true));
+        assertThat(nodeB.gs.getService(WMSInfo.class).getTitle(), is("Clustered WMS"));
+        assertThat(layerFile.lastModified(), is(MARK));
+        assertThat(wmsFile.lastModified(), is(MARK));
+
+        // the persisters are back in place for the local changes
+        LayerInfo layerB = nodeB.catalog.getLayerByName(LAYER_NAME);
+        layerB.setOpaque(false);
+        nodeB.catalog.save(layerB);
+        assertThat(layerFile.lastModified(), not(MARK));
+        assertTrue(
+                nodeB.catalog
+                        .getListeners()
+                        .stream()
+                        .anyMatch(l -> l instanceof GeoServerConfigPersister));
+        assertTrue(nodeB.gs.getListeners().stream().anyMatch(l -> l instanceof ServicePersister));
+    }
+
+    /** A GeoServer node, with its own configuration, loaded from the shared data directory */
+    class Node {
+
+        final CatalogImpl catalog = new CatalogImpl();
+
+        final GeoServerImpl gs = new GeoServerImpl();
+
+        final List<Event> published = new ArrayList<>();
+
+        DeltaHzSynchronizer sync;
+
+        Node(GeoServerResourceLoader resourceLoader) {
+            gs.setCatalog(catalog);
+            DefaultGeoServerLoader loader = new DefaultGeoServerLoader(resourceLoader);
+            loader.postProcessBeforeInitialization(catalog, "catalog");
+            loader.postProcessBeforeInitialization(gs, "geoServer");
+        }
+
+        @SuppressWarnings("unchecked")
+        void startSync(int address) throws Exception {
+            ITopic<Event> topic = createNiceMock(ITopic.class);
+            topic.publish(anyObject(Event.class));
+            expectLastCall()
+                    .andStubAnswer(
+                            () -> {
+                                published.add((Event) getCurrentArguments()[0]);
+                                return null;
+                            });
+
+            IAtomicLong counter = createNiceMock(IAtomicLong.class);
+            expect(counter.get()).andStubAnswer(revision::get);
+            expect(counter.incrementAndGet()).andStubAnswer(revision::incrementAndGet);
+
+            IMap<Long, ConfigDelta> log = createNiceMock(IMap.class);
+            log.set(anyLong(), anyObject(ConfigDelta.class));
+            expectLastCall()
+                    .andStubAnswer(
+                            () -> {
+                                Object[] args = getCurrentArguments();
+                                deltas.put((Long) args[0], (ConfigDelta) args[1]);
+                                return null;
+                            });
+            log.delete(anyObject());
+            expectLastCall()
+                    .andStubAnswer(
+                            () -> {
+                                deltas.remove(getCurrentArguments()[0]);
+                                return null;
+                            });
+            expect(log.getAll(anyObject()))
+                    .andStubAnswer(
+                            () -> {
+                                Map<Long, ConfigDelta> result = new HashMap<>();
+                                for (Long r : (Set<Long>) getCurrentArguments()[0]) {
+                                    if (deltas.containsKey(r)) {
+                                        result.put(r, deltas.get(r));
+                                    }
+                                }
+                                return result;
+                            });
+
+            Member member = createNiceMock(Member.class);
+            byte[] ip = {(byte) 192, (byte) 168, 0, (byte) address};
+            InetSocketAddress socketAddress =
+                    new InetSocketAddress(InetAddress.getByAddress(ip), 5000);
+            expect(member.getSocketAddress()).andStubReturn(socketAddress);
+            Cluster hzCluster = createNiceMock(Cluster.class);
+            expect(hzCluster.getLocalMember()).andStubReturn(member);
+
+            HazelcastInstance hz = createNiceMock(HazelcastInstance.class);
+            expect(hz.<Event>getTopic(anyString())).andStubReturn(topic);
+            expect(hz.getAtomicLong(DeltaHzSynchronizer.REVISION_NAME)).andStubReturn(counter);
+            expect(hz.<Long, ConfigDelta>getMap(DeltaHzSynchronizer.DELTA_LOG_NAME))
+                    .andStubReturn(log);
+            expect(hz.getCluster()).andStubReturn(hzCluster);
+
+            HzCluster cluster =
+                    createMockBuilder(HzCluster.class)
+                            .addMockedMethods("getHz", "isEnabled", "getRawCatalog")
+                            .createMock();
+            expect(cluster.getHz()).andStubReturn(hz);
+            expect(cluster.isEnabled()).andStubReturn(true);
+            expect(cluster.getRawCatalog()).andStubReturn(catalog);
+            replay(topic, counter, log, member, hzCluster, hz, cluster);
+
+            sync =
+                    new DeltaHzSynchronizer(cluster, gs) {
+                        @Override
+                        ScheduledExecutorService getNewExecutor() {
+                            // events are handed over to processEvent directly
+                            return createMock(ScheduledExecutorService.class);
+                        }
+                    };
+            sync.initialize(configWatcher);
+            sync.start();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.cluster.hazelcast;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import org.easymock.Capture;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.impl.LayerInfoImpl;
+import org.geoserver.cluster.ConfigChangeEvent;
+import org.geoserver.cluster.ConfigChangeEvent.Type;
+import org.geoserver.cluster.ConfigDelta;
+import org.geoserver.cluster.Event;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeltaHzSynchronizerTest extends HzSynchronizerTest {
+
+    static final int LOG_SIZE = 3;
+
+    /** The in memory replacement of the distributed delta log */
+    Map<Long, ConfigDelta> log = new HashMap<>();
+
+    long revision;
+
+    List<Long> applied = new ArrayList<>();
+
+    List<Long> reloads = new ArrayList<>();
+
+    List<Long> retries = new ArrayList<>();
+
+    DeltaHzSynchronizer sync;
+
+    @Before
+    public void setUpLog() {
+        expect(clusterConfig.getDeltaLogSize()).andStubReturn(LOG_SIZE);
+    }
+
+    @Override
+    protected HzSynchronizer getSynchronizer() {
+        return new DeltaHzSynchronizer(cluster, getGeoServer()) {
+
+            @Override
+            ScheduledExecutorService getNewExecutor() {
+                return getMockExecutor();
+            }
+
+            @Override
+            public boolean isStarted() {
+                return true;
+            }
+
+            @Override
+            long currentRevision() {
+                return revision;
+            }
+
+            @Override
+            long nextRevision() {
+                return ++revision;
+            }
+
+            @Override
+            void storeDelta(ConfigDelta delta) {
+                log.put(delta.getRevision(), delta);
+                log.remove(delta.getRevision() - LOG_SIZE);
+            }
+
+            @Override
+            Map<Long, ConfigDelta> loadDeltas(Set<Long> revisions) {
+                Map<Long, ConfigDelta> result = new HashMap<>();
+                for (Long r : revisions) {
+                    if (log.containsKey(r)) {
+                        result.put(r, log.get(r));
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            void applyDelta(ConfigDelta delta) {
+                applied.add(delta.getRevision());
+            }
+
+            @Override
+            void retry(Event event, long delayMillis) {
+                retries.add(((ConfigDelta) event).getRevision());
+            }
+
+            @Override
+            void reload(long revision) {
+                reloads.add(revision);
+                appliedRevision.accumulateAndGet(revision, Math::max);
+                objectRevisions.clear();
+            }
+        };
+    }
+
+    void setUpSynchronizer() {
+        replay();
+        sync = (DeltaHzSynchronizer) getSynchronizer();
+        initSynchronizer(sync);
+    }
+
+    /** Simulates a change committed by a remote node, stored in the log */
+    ConfigDelta remoteDelta(String id, Type type) {
+        ConfigDelta delta =
+                new ConfigDelta(new ConfigChangeEvent(id, id, LayerInfoImpl.class, type), null);
+        delta.setSource(remoteAddress);
+        delta.setRevision(++revision);
+        log.put(delta.getRevision(), delta);
+        log.remove(delta.getRevision() - LOG_SIZE);
+        return delta;
+    }
+
+    @Test
+    public void testApplyInOrder() throws Exception {
+        setUpSynchronizer();
+
+        sync.processEvent(remoteDelta("layer1", Type.ADD));
+        sync.processEvent(remoteDelta("layer2", Type.ADD));
+
+        assertThat(applied, contains(1L, 2L));
+        assertThat(reloads, empty());
+        assertThat(sync.getAppliedRevision(), is(2L));
+    }
+
+    @Test
+    public void testFetchMissing() throws Exception {
+        setUpSynchronizer();
+
+        remoteDelta("layer1", Type.ADD);
+        remoteDelta("layer2", Type.ADD);
+        sync.processEvent(remoteDelta("layer1", Type.POST_MODIFY));
+
+        assertThat(applied, contains(1L, 2L, 3L));
+        assertThat(reloads, empty());
+        assertThat(sync.getAppliedRevision(), is(3L));
+
+        // the fetched deltas are not applied twice when their own messages arrive
+        sync.processEvent(log.get(1L));
+        assertThat(applied, contains(1L, 2L, 3L));
+    }
+
+    @Test
+    public void testReloadOnTruncatedLog() throws Exception {
+        setUpSynchronizer();
+
+        for (int i = 0; i < 5; i++) {
+            remoteDelta("layer" + i, Type.ADD);
+        }
+        sync.processEvent(remoteDelta("layer1", Type.POST_MODIFY));
+
+        assertThat(applied, empty());
+        assertThat(reloads, contains(6L));
+        assertThat(sync.getAppliedRevision(), is(6L));
+
+        // back to incremental updates after the reload
+        sync.processEvent(remoteDelta("layer2", Type.POST_MODIFY));
+        assertThat(applied, contains(7L));
+        assertThat(reloads, contains(6L));
+    }
+
+    @Test
+    public void testRetryMissingDelta() throws Exception {
+        setUpSynchronizer();
+
+        // the revision has been allocated, but the delta is not stored yet
+        ConfigDelta late = remoteDelta("layer1", Type.ADD);
+        log.remove(late.getRevision());
+        ConfigDelta received = remoteDelta("layer2", Type.ADD);
+        sync.processEvent(received);
+
+        assertThat(retries, contains(2L));
+        assertThat(applied, empty());
+        assertThat(reloads, empty());
+        assertThat(sync.getAppliedRevision(), is(0L));
+
+        // the delta got stored in the meantime
+        log.put(late.getRevision(), late);
+        sync.processEvent(received);
+        assertThat(retries, contains(2L));
+        assertThat(applied, contains(1L, 2L));
+        assertThat(reloads, empty());
+    }
+
+    @Test
+    public void testReloadWhenStillMissing() throws Exception {
+        setUpSynchronizer();
+
+        log.remove(remoteDelta("layer1", Type.ADD).getRevision());
+        ConfigDelta received = remoteDelta("layer2", Type.ADD);
+        sync.processEvent(received);
+        sync.processEvent(received);
+
+        assertThat(retries, contains(2L));
+        assertThat(applied, empty());
+        assertThat(reloads, contains(2L));
+        assertThat(sync.getAppliedRevision(), is(2L));
+    }
+
+    @Test
+    public void testSkipStaleObjectRevision() throws Exception {
+        setUpSynchronizer();
+
+        sync.processEvent(remoteDelta("layer1", Type.ADD));
+        ConfigDelta stale = remoteDelta("layer1", Type.POST_MODIFY);
+        // a later change to the same object has been applied already
+        sync.objectRevisions.put("layer1", stale.getRevision() + 1);
+        sync.processEvent(stale);
+
+        assertThat(applied, contains(1L));
+        assertThat(sync.getAppliedRevision(), is(2L));
+    }
+
+    @Test
+    public void testSkipLocalChanges() throws Exception {
+        setUpSynchronizer();
+
+        ConfigDelta local = remoteDelta("layer1", Type.ADD);
+        local.setSource(localAddress);
+        sync.processEvent(remoteDelta("layer2", Type.ADD));
+
+        assertThat(applied, contains(2L));
+        assertThat(sync.getAppliedRevision(), is(2L));
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        Capture<Event> published = new Capture<>();
+        topic.publish(capture(published));
+        expectLastCall();
+        setUpSynchronizer();
+
+        ConfigChangeEvent change =
+                new ConfigChangeEvent("layer1", "layer1", LayerInfoImpl.class, Type.REMOVE);
+        // modify events are not shipped, only the post modify ones
+        sync.dispatch(
+                new ConfigDelta(
+                        new ConfigChangeEvent("layer1", "layer1", LayerInfo.class, Type.MODIFY),
+                        null));
+        sync.dispatch(new ConfigDelta(change, null));
+
+        assertThat(published.getValue(), instanceOf(ConfigDelta.class));
+        ConfigDelta delta = (ConfigDelta) published.getValue();
+        assertThat(delta.getRevision(), is(1L));
+        assertThat(delta.getSource(), is((Serializable) localAddress));
+        assertThat(log.get(1L), is(delta));
+        // this node was up to date, and still is
+        assertThat(sync.getAppliedRevision(), is(1L));
+        verify();
+    }
+}
@@ -93,4 +93,19 @@ public abstract class JMSEventHandler<S extends Serializable, O> {
      * @throws Exception if something goes wrong
      */
     public abstract boolean synchronize(O deserialized) throws Exception;
+
+    /**
+     * Merges two consecutive objects into one having the same effect, used by the {@link
+     * JMSPublisher} to coalesce events when batching is enabled.
+     *
+     * <p>This method is used exclusively on the Server side. The default implementation does not
+     * merge anything.
+     *
+     * @param previous the object published first
+     * @param next the object published right after
+     * @return the merged object, or null if the two objects cannot be merged
+     */
+    public O merge(O previous, O next) {
+        return null;
+    }
 }
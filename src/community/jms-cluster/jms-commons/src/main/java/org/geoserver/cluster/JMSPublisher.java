@@ -6,10 +6,22 @@
 package org.geoserver.cluster;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.jms.JMSException;
 import javax.jms.Topic;
+import org.geoserver.cluster.configuration.BatchConfiguration;
+import org.geoserver.cluster.configuration.JMSConfiguration;
+import org.geoserver.cluster.message.JMSEventBatch;
 import org.geoserver.cluster.message.JMSObjectMessageCreator;
 import org.geotools.util.logging.Logging;
 import org.springframework.jms.core.JmsTemplate;
@@ -22,17 +34,94 @@ import org.springframework.jms.core.MessageCreator;
  * JMSTemplate. Valid means that we are appending to the message some conventional (to this JMS
  * plug-in) properties which can be used to synchronize consumer and producers.
  *
+ * <p>Each event is tagged with a unique identifier and its publication time, allowing consumers to
+ * skip duplicates and measure the replication lag. When a batch window is configured (see {@link
+ * BatchConfiguration}) events are collected for the duration of the window, consecutive events
+ * are coalesced when their handler knows how to {@link JMSEventHandler#merge(Object, Object)
+ * merge} them, and the result is sent as a single {@link JMSEventBatch} message.
+ *
  * @author Carlo Cancellieri - carlo.cancellieri@geo-solutions.it
  */
 public class JMSPublisher {
 
     static final Logger LOGGER = Logging.getLogger(JMSPublisher.class);
 
+    /** Sends the batches once their window expires */
+    static final ScheduledExecutorService FLUSH_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(
+                    r -> {
+                        Thread thread = new Thread(r, "JMSPublisherFlush");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    /** An event waiting to be sent */
+    static final class PendingEvent {
+        final String id;
+
+        final long time;
+
+        final String generator;
+
+        final Object object;
+
+        final Properties properties;
+
+        final String payload;
+
+        PendingEvent(
+                String id,
+                long time,
+                String generator,
+                Object object,
+                Properties properties,
+                String payload) {
+            this.id = id;
+            this.time = time;
+            this.generator = generator;
+            this.object = object;
+            this.properties = properties;
+            this.payload = payload;
+        }
+    }
+
     private final JMSManager jmsManager;
 
+    private final JMSConfiguration config;
+
+    /** Prefix of the event identifiers, unique to this publisher instance */
+    private final String idPrefix = UUID.randomUUID().toString() + "-";
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong coalescedEvents = new AtomicLong();
+
+    private final AtomicLong sentBatches = new AtomicLong();
+
+    // the following are guarded by "this"
+    private List<PendingEvent> pending = new ArrayList<>();
+
+    private Topic pendingDestination;
+
+    private JmsTemplate pendingTemplate;
+
+    private ScheduledFuture<?> scheduledFlush;
+
     /** Constructor */
     public JMSPublisher(JMSManager jmsManager) {
+        this(jmsManager, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param jmsManager the handler lookup
+     * @param config the cluster configuration, used to setup batching (can be null, in that case
+     *     no batching will happen)
+     */
+    public JMSPublisher(JMSManager jmsManager, JMSConfiguration config) {
         this.jmsManager = jmsManager;
+        this.config = config;
     }
 
     /**
@@ -60,12 +149,19 @@ public class JMSPublisher {
             // set the used SPI
             props.put(JMSEventHandlerSPI.getKeyName(), handler.getGeneratorClass().getSimpleName());
 
-            // TODO make this configurable
-            final MessageCreator creator =
-                    new JMSObjectMessageCreator(handler.serialize(object), props);
-
-            jmsTemplate.send(destination, creator);
-
+            final S serialized = handler.serialize(object);
+            final long window = config != null ? BatchConfiguration.getBatchWindow(config) : 0;
+            if (window > 0 && serialized instanceof String) {
+                enqueue(destination, jmsTemplate, props, handler, object, (String) serialized);
+            } else {
+                sendSingle(
+                        destination,
+                        jmsTemplate,
+                        props,
+                        serialized,
+                        nextId(),
+                        System.currentTimeMillis());
+            }
         } catch (Exception e) {
             if (LOGGER.isLoggable(java.util.logging.Level.SEVERE)) {
                 LOGGER.severe(e.getLocalizedMessage());
@@ -75,4 +171,216 @@ public class JMSPublisher {
             throw ex;
         }
     }
+
+    private String nextId() {
+        return idPrefix + sequence.incrementAndGet();
+    }
+
+    private synchronized void sendSingle(
+            Topic destination,
+            JmsTemplate jmsTemplate,
+            Properties props,
+            Serializable serialized,
+            String id,
+            long time)
+            throws JMSException {
+        // events that cannot be batched must not overtake the pending ones
+        flush();
+
+        final Properties messageProps = new Properties();
+        messageProps.putAll(props);
+        messageProps.put(JMSEventBatch.EVENT_ID_KEY, id);
+        messageProps.put(JMSEventBatch.EVENT_TIME_KEY, time);
+        final MessageCreator creator = new JMSObjectMessageCreator(serialized, messageProps);
+        jmsTemplate.send(destination, creator);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <S extends Serializable, O> void enqueue(
+            Topic destination,
+            JmsTemplate jmsTemplate,
+            Properties props,
+            JMSEventHandler<S, O> handler,
+            O object,
+            String serialized)
+            throws Exception {
+        if (!pending.isEmpty() && !destination.equals(pendingDestination)) {
+            flush();
+        }
+        pendingDestination = destination;
+        pendingTemplate = jmsTemplate;
+
+        final String generator = handler.getGeneratorClass().getSimpleName();
+        final Properties eventProps = new Properties();
+        eventProps.putAll(props);
+
+        // try to coalesce with the previous event, only consecutive events are merged to
+        // preserve the ordering
+        if (!pending.isEmpty()) {
+            final int lastIdx = pending.size() - 1;
+            final PendingEvent last = pending.get(lastIdx);
+            if (last.generator.equals(generator)) {
+                final O merged = handler.merge((O) last.object, object);
+                if (merged != null) {
+                    final S mergedSerialized = handler.serialize(merged);
+                    if (mergedSerialized instanceof String) {
+                        // keep the time of the first event, the lag accounts for the wait
+                        pending.set(
+                                lastIdx,
+                                new PendingEvent(
+                                        nextId(),
+                                        last.time,
+                                        generator,
+                                        merged,
+                                        eventProps,
+                                        (String) mergedSerialized));
+                        coalescedEvents.incrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+
+        pending.add(
+                new PendingEvent(
+                        nextId(),
+                        System.currentTimeMillis(),
+                        generator,
+                        object,
+                        eventProps,
+                        serialized));
+        if (pending.size() >= BatchConfiguration.getBatchMaxSize(config)) {
+            try {
+                flush();
+            } catch (JMSException e) {
+                // the event is queued, it will be sent along with the others on the next attempt
+                LOGGER.log(Level.WARNING, e.getLocalizedMessage(), e);
+            }
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    private synchronized void scheduleFlush() {
+        if (scheduledFlush == null) {
+            final long window = BatchConfiguration.getBatchWindow(config);
+            scheduledFlush =
+                    FLUSH_EXECUTOR.schedule(this::scheduledFlush, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (JMSException e) {
+            LOGGER.log(Level.SEVERE, "Failed to publish the pending events batch", e);
+        }
+    }
+
+    /**
+     * Sends the pending events, if any. A single pending event is sent as a normal message, more
+     * events are sent as a single {@link JMSEventBatch} message. If sending fails the events are
+     * queued again, ahead of any new event, and another attempt is scheduled after the batch window
+     *
+     * @throws JMSException if the events could not be sent
+     */
+    public synchronized void flush() throws JMSException {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        final List<PendingEvent> events = pending;
+        final Topic destination = pendingDestination;
+        final JmsTemplate jmsTemplate = pendingTemplate;
+        pending = new ArrayList<>();
+        pendingDestination = null;
+        pendingTemplate = null;
+
+        try {
+            if (events.size() == 1) {
+                final PendingEvent event = events.get(0);
+                sendSingle(
+                        destination,
+                        jmsTemplate,
+                        event.properties,
+                        event.payload,
+                        event.id,
+                        event.time);
+                return;
+            }
+
+            final List<JMSEventBatch.Entry> entries = new ArrayList<>(events.size());
+            for (PendingEvent event : events) {
+                entries.add(
+                        new JMSEventBatch.Entry(
+                                event.id,
+                                event.time,
+                                event.generator,
+                                event.properties,
+                                event.payload));
+            }
+            final boolean compress = BatchConfiguration.isCompressionEnabled(config);
+            final byte[] encoded = JMSEventBatch.encode(entries, compress);
+
+            // the batch travels with the properties of the first event (instance name, group)
+            final Properties batchProps = new Properties();
+            batchProps.putAll(events.get(0).properties);
+            batchProps.put(JMSEventHandlerSPI.getKeyName(), JMSEventBatch.HANDLER_KEY);
+            batchProps.put(JMSEventBatch.EVENT_TIME_KEY, events.get(0).time);
+            jmsTemplate.send(destination, new JMSObjectMessageCreator(encoded, batchProps));
+            sentBatches.incrementAndGet();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(
+                        "Sent a batch of "
+                                + events.size()
+                                + " events, "
+                                + encoded.length
+                                + " bytes");
+            }
+        } catch (Exception e) {
+            requeue(events, destination, jmsTemplate);
+            final JMSException ex =
+                    new JMSException(
+                            "Failed to send "
+                                    + events.size()
+                                    + " pending events, will retry: "
+                                    + e.getLocalizedMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    /** Puts back events that could not be sent, and schedules another attempt */
+    private synchronized void requeue(
+            List<PendingEvent> events, Topic destination, JmsTemplate jmsTemplate) {
+        // the failed events were published first, they must not be overtaken
+        events.addAll(pending);
+        pending = events;
+        pendingDestination = destination;
+        pendingTemplate = jmsTemplate;
+        scheduleFlush();
+    }
+
+    /** Sends the pending events before shutting down, errors are logged */
+    public void dispose() {
+        scheduledFlush();
+    }
+
+    /** Number of events merged into a previous one, since startup */
+    public long getCoalescedEvents() {
+        return coalescedEvents.get();
+    }
+
+    /** Number of batch messages sent, since startup */
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    /** Number of events waiting to be sent */
+    public synchronized int getPendingEvents() {
+        return pending.size();
+    }
 }
@@ -0,0 +1,77 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.cluster.client;
+
+/**
+ * Replication lag statistics for the events received from a single node, the lag being the time
+ * elapsed between the event publication on the source node and its application on the local one.
+ * The lag is computed against the clock of the local node, as a result the figures are only as
+ * accurate as the synchronization of the node clocks.
+ */
+public class JMSLagStatistics {
+
+    private long events;
+
+    private long lastLag;
+
+    private long maxLag;
+
+    private long totalLag;
+
+    private long lastEventTime;
+
+    /**
+     * Records the application of an event
+     *
+     * @param eventTime the time the event was published on the source node
+     * @param applyTime the time the event was applied locally
+     */
+    synchronized void update(long eventTime, long applyTime) {
+        long lag = Math.max(0, applyTime - eventTime);
+        events++;
+        lastLag = lag;
+        maxLag = Math.max(maxLag, lag);
+        totalLag += lag;
+        lastEventTime = Math.max(lastEventTime, eventTime);
+    }
+
+    /** Number of events applied */
+    public synchronized long getEvents() {
+        return events;
+    }
+
+    /** Lag of the last event applied, in milliseconds */
+    public synchronized long getLastLag() {
+        return lastLag;
+    }
+
+    /** Maximum lag observed, in milliseconds */
+    public synchronized long getMaxLag() {
+        return maxLag;
+    }
+
+    /** Average lag, in milliseconds */
+    public synchronized long getAverageLag() {
+        return events > 0 ? totalLag / events : 0;
+    }
+
+    /** Publication time of the most recent event applied */
+    public synchronized long getLastEventTime() {
+        return lastEventTime;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "JMSLagStatistics [events="
+                + events
+                + ", lastLag="
+                + lastLag
+                + ", maxLag="
+                + maxLag
+                + ", averageLag="
+                + getAverageLag()
+                + "]";
+    }
+}
@@ -6,8 +6,14 @@
 package org.geoserver.cluster.client;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import javax.jms.JMSException;
@@ -20,6 +26,7 @@ import org.geoserver.cluster.JMSEventHandlerSPI;
 import org.geoserver.cluster.JMSManager;
 import org.geoserver.cluster.configuration.JMSConfiguration;
 import org.geoserver.cluster.events.ToggleType;
+import org.geoserver.cluster.message.JMSEventBatch;
 import org.geotools.util.logging.Logging;
 import org.springframework.jms.listener.SessionAwareMessageListener;
 
@@ -38,6 +45,9 @@ public class JMSQueueListener extends JMSApplicationListener
     private static final java.util.logging.Logger LOGGER =
             Logging.getLogger(JMSQueueListener.class);
 
+    /** Number of applied event identifiers remembered to skip duplicates */
+    static final int MAX_APPLIED_EVENTS = 10000;
+
     private final JMSManager jmsManager;
 
     public JMSQueueListener(final JMSManager jmsManager) {
@@ -47,11 +57,27 @@ public class JMSQueueListener extends JMSApplicationListener
 
     private AtomicLong consumedEvents = new AtomicLong();
 
+    private AtomicLong duplicateEvents = new AtomicLong();
+
+    /** Identifiers of the most recently applied events, used to skip duplicates */
+    private final Set<String> appliedEvents =
+            Collections.newSetFromMap(
+                    Collections.synchronizedMap(
+                            new LinkedHashMap<String, Boolean>() {
+                                @Override
+                                protected boolean removeEldestEntry(
+                                        Map.Entry<String, Boolean> eldest) {
+                                    return size() > MAX_APPLIED_EVENTS;
+                                }
+                            }));
+
+    private final Map<String, JMSLagStatistics> lagStatistics = new ConcurrentHashMap<>();
+
     @Override
     public void onMessage(Message message, Session session) throws JMSException {
 
         if (LOGGER.isLoggable(Level.FINE)) {
-            LOGGER.fine("Incoming message event for session: " + session.toString());
+            LOGGER.fine("Incoming message event for session: " + session);
         }
 
         // CHECKING LISTENER STATUS
@@ -130,43 +156,121 @@ public class JMSQueueListener extends JMSApplicationListener
 
             final ObjectMessage objMessage = (ObjectMessage) (message);
             final Serializable obj = objMessage.getObject();
+            final String source = message.getStringProperty(JMSConfiguration.INSTANCE_NAME_KEY);
 
-            try {
-                // lookup the SPI handler, search is performed using the
-                // name
-                final JMSEventHandler<Serializable, Object> handler =
-                        jmsManager.getHandlerByClassName(generatorClass);
-                if (handler == null) {
-                    throw new JMSException(
-                            "Unable to find SPI named \'"
-                                    + generatorClass
-                                    + "\', be shure to load that SPI into your context.");
-                }
+            final Enumeration<String> keys = message.getPropertyNames();
+            final Properties options = new Properties();
+            while (keys.hasMoreElements()) {
+                String key = keys.nextElement();
+                options.put(key, message.getObjectProperty(key));
+            }
 
-                final Enumeration<String> keys = message.getPropertyNames();
-                final Properties options = new Properties();
-                while (keys.hasMoreElements()) {
-                    String key = keys.nextElement();
-                    options.put(key, message.getObjectProperty(key));
+            if (JMSEventBatch.HANDLER_KEY.equals(generatorClass)) {
+                // a batch of events, apply them in order
+                final List<JMSEventBatch.Entry> entries;
+                try {
+                    if (!(obj instanceof byte[])) {
+                        throw new IllegalArgumentException("Batch payload is not a byte array");
+                    }
+                    entries = JMSEventBatch.decode((byte[]) obj);
+                } catch (Exception e) {
+                    final JMSException jmsE =
+                            new JMSException("Unable to decode the events batch");
+                    jmsE.initCause(e);
+                    throw jmsE;
                 }
-                handler.setProperties(options);
-
-                // try to synchronize object locally
-                if (!handler.synchronize(handler.deserialize(obj))) {
-                    throw new JMSException(
-                            "Unable to synchronize message locally.\n SPI: " + generatorClass);
+                for (JMSEventBatch.Entry entry : entries) {
+                    final Properties entryOptions = new Properties();
+                    entryOptions.putAll(options);
+                    entryOptions.putAll(entry.getProperties());
+                    entryOptions.put(JMSEventBatch.EVENT_ID_KEY, entry.getId());
+                    entryOptions.put(JMSEventBatch.EVENT_TIME_KEY, entry.getTime());
+                    apply(
+                            entry.getHandler(),
+                            entry.getPayload(),
+                            entryOptions,
+                            source,
+                            entry.getId(),
+                            entry.getTime());
                 }
-
-            } catch (Exception e) {
-                final JMSException jmsE = new JMSException(e.getLocalizedMessage());
-                jmsE.initCause(e);
-                throw jmsE;
-            } finally {
-                this.consumedEvents.incrementAndGet();
+            } else {
+                final String id =
+                        message.propertyExists(JMSEventBatch.EVENT_ID_KEY)
+                                ? message.getStringProperty(JMSEventBatch.EVENT_ID_KEY)
+                                : null;
+                final long time =
+                        message.propertyExists(JMSEventBatch.EVENT_TIME_KEY)
+                                ? message.getLongProperty(JMSEventBatch.EVENT_TIME_KEY)
+                                : message.getJMSTimestamp();
+                apply(generatorClass, obj, options, source, id, time);
             }
         } else throw new JMSException("Unrecognized message type for catalog incoming event");
     }
 
+    /**
+     * Applies a single event locally, unless it has been applied already
+     *
+     * @param generatorClass the name of the SPI used to serialize the event
+     * @param obj the serialized event
+     * @param options the event properties
+     * @param source the name of the instance that published the event
+     * @param id the event identifier, or null if the event was published by an older version
+     * @param time the event publication time
+     */
+    private void apply(
+            String generatorClass,
+            Serializable obj,
+            Properties options,
+            String source,
+            String id,
+            long time)
+            throws JMSException {
+        // the same event can be delivered more than once, e.g., on redelivery after a failure
+        if (id != null && appliedEvents.contains(id)) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Skipping event " + id + ", it has been already applied");
+            }
+            duplicateEvents.incrementAndGet();
+            return;
+        }
+
+        try {
+            // lookup the SPI handler, search is performed using the
+            // name
+            final JMSEventHandler<Serializable, Object> handler =
+                    jmsManager.getHandlerByClassName(generatorClass);
+            if (handler == null) {
+                throw new JMSException(
+                        "Unable to find SPI named \'"
+                                + generatorClass
+                                + "\', be shure to load that SPI into your context.");
+            }
+
+            handler.setProperties(options);
+
+            // try to synchronize object locally
+            if (!handler.synchronize(handler.deserialize(obj))) {
+                throw new JMSException(
+                        "Unable to synchronize message locally.\n SPI: " + generatorClass);
+            }
+
+            if (id != null) {
+                appliedEvents.add(id);
+            }
+            if (source != null && time > 0) {
+                lagStatistics
+                        .computeIfAbsent(source, k -> new JMSLagStatistics())
+                        .update(time, System.currentTimeMillis());
+            }
+        } catch (Exception e) {
+            final JMSException jmsE = new JMSException(e.getLocalizedMessage());
+            jmsE.initCause(e);
+            throw jmsE;
+        } finally {
+            this.consumedEvents.incrementAndGet();
+        }
+    }
+
     // /**
     // * @deprecated unused/untested
     // * @param message
@@ -225,4 +329,18 @@ public class JMSQueueListener extends JMSApplicationListener
     public void resetconsumedevents() {
         consumedEvents.set(0);
     }
+
+    /** Number of events skipped because already applied */
+    public long getDuplicateEvents() {
+        return duplicateEvents.get();
+    }
+
+    /** Replication lag statistics, keyed by the name of the instance publishing the events */
+    public Map<String, JMSLagStatistics> getLagStatistics() {
+        return Collections.unmodifiableMap(lagStatistics);
+    }
+
+    public void resetLagStatistics() {
+        lagStatistics.clear();
+    }
 }
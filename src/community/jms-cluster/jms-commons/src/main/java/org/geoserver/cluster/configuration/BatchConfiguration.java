@@ -0,0 +1,71 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.cluster.configuration;
+
+import java.io.IOException;
+
+/**
+ * Configuration of the event batching performed by the {@link org.geoserver.cluster.JMSPublisher}.
+ * Batching is disabled by default, when enabled the events published within the batch window are
+ * coalesced and sent as a single, optionally compressed, message.
+ */
+public final class BatchConfiguration implements JMSConfigurationExt {
+
+    /** Milliseconds events are collected before being sent, zero or negative disables batching */
+    public static final String BATCH_WINDOW_KEY = "batch.window";
+
+    public static final String DEFAULT_BATCH_WINDOW = "0";
+
+    /** Maximum number of events in a single batch, a full batch is sent right away */
+    public static final String BATCH_MAX_SIZE_KEY = "batch.maxSize";
+
+    public static final String DEFAULT_BATCH_MAX_SIZE = "100";
+
+    /** Whether the batch payload is compressed */
+    public static final String BATCH_COMPRESSION_KEY = "batch.compression";
+
+    public static final String DEFAULT_BATCH_COMPRESSION = "true";
+
+    @Override
+    public void initDefaults(JMSConfiguration config) throws IOException {
+        config.putConfiguration(BATCH_WINDOW_KEY, DEFAULT_BATCH_WINDOW);
+        config.putConfiguration(BATCH_MAX_SIZE_KEY, DEFAULT_BATCH_MAX_SIZE);
+        config.putConfiguration(BATCH_COMPRESSION_KEY, DEFAULT_BATCH_COMPRESSION);
+    }
+
+    @Override
+    public boolean override(JMSConfiguration config) throws IOException {
+        boolean override = config.override(BATCH_WINDOW_KEY, DEFAULT_BATCH_WINDOW);
+        override |= config.override(BATCH_MAX_SIZE_KEY, DEFAULT_BATCH_MAX_SIZE);
+        override |= config.override(BATCH_COMPRESSION_KEY, DEFAULT_BATCH_COMPRESSION);
+        return override;
+    }
+
+    /** Returns the batch window in milliseconds, or zero if batching is disabled */
+    public static long getBatchWindow(JMSConfiguration config) {
+        long window = getLong(config, BATCH_WINDOW_KEY, DEFAULT_BATCH_WINDOW);
+        return window > 0 ? window : 0;
+    }
+
+    /** Returns the maximum number of events in a batch */
+    public static int getBatchMaxSize(JMSConfiguration config) {
+        return (int) Math.max(1, getLong(config, BATCH_MAX_SIZE_KEY, DEFAULT_BATCH_MAX_SIZE));
+    }
+
+    /** Returns true if batches should be compressed */
+    public static boolean isCompressionEnabled(JMSConfiguration config) {
+        Object value = config.getConfiguration(BATCH_COMPRESSION_KEY);
+        return Boolean.parseBoolean(value != null ? value.toString() : DEFAULT_BATCH_COMPRESSION);
+    }
+
+    private static long getLong(JMSConfiguration config, String key, String defaultValue) {
+        Object value = config.getConfiguration(key);
+        try {
+            return Long.parseLong(value != null ? value.toString().trim() : defaultValue);
+        } catch (NumberFormatException e) {
+            return Long.parseLong(defaultValue);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.cluster.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A batch of serialized events, sent as a single message. The batch is encoded as a plain byte
+ * array (no java serialization is involved on the receiving side), optionally compressed.
+ *
+ * <p>Only events serialized as strings can be batched, which is the case for all the handlers
+ * shipped with the cluster module.
+ */
+public final class JMSEventBatch {
+
+    /** The value of the handler SPI property identifying a batch message */
+    public static final String HANDLER_KEY = "JMSEventBatch";
+
+    /** Message property holding the unique identifier of a single event */
+    public static final String EVENT_ID_KEY = "JMSEventId";
+
+    /** Message property holding the time (milliseconds since the epoch) an event was published */
+    public static final String EVENT_TIME_KEY = "JMSEventTime";
+
+    static final int VERSION = 1;
+
+    static final int PLAIN = 0;
+
+    static final int GZIP = 1;
+
+    /** A single event in the batch */
+    public static final class Entry {
+
+        final String id;
+
+        final long time;
+
+        final String handler;
+
+        final Properties properties;
+
+        final String payload;
+
+        public Entry(String id, long time, String handler, Properties properties, String payload) {
+            this.id = id;
+            this.time = time;
+            this.handler = handler;
+            this.properties = properties;
+            this.payload = payload;
+        }
+
+        /** The event unique identifier */
+        public String getId() {
+            return id;
+        }
+
+        /** The time the event was published */
+        public long getTime() {
+            return time;
+        }
+
+        /** The simple class name of the SPI that generated the handler */
+        public String getHandler() {
+            return handler;
+        }
+
+        /** The message properties associated to the event */
+        public Properties getProperties() {
+            return properties;
+        }
+
+        /** The serialized event */
+        public String getPayload() {
+            return payload;
+        }
+    }
+
+    private JMSEventBatch() {}
+
+    /** Encodes the entries into a byte array, compressing it if requested */
+    public static byte[] encode(List<Entry> entries, boolean compress) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(VERSION);
+        bos.write(compress ? GZIP : PLAIN);
+        OutputStream os = compress ? new GZIPOutputStream(bos) : bos;
+        try (DataOutputStream dos = new DataOutputStream(os)) {
+            dos.writeInt(entries.size());
+            for (Entry entry : entries) {
+                writeString(dos, entry.id);
+                dos.writeLong(entry.time);
+                writeString(dos, entry.handler);
+                List<Map.Entry<Object, Object>> properties = new ArrayList<>();
+                for (Map.Entry<Object, Object> property : entry.properties.entrySet()) {
+                    if (property.getKey() != null && property.getValue() != null) {
+                        properties.add(property);
+                    }
+                }
+                dos.writeInt(properties.size());
+                for (Map.Entry<Object, Object> property : properties) {
+                    writeString(dos, property.getKey().toString());
+                    writeString(dos, property.getValue().toString());
+                }
+                writeString(dos, entry.payload);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    /** Decodes a byte array built by {@link #encode(List, boolean)} */
+    public static List<Entry> decode(byte[] bytes) throws IOException {
+        if (bytes == null || bytes.length < 2) {
+            throw new IOException("Invalid event batch, too short");
+        }
+        if (bytes[0] != VERSION) {
+            throw new IOException("Unsupported event batch version " + bytes[0]);
+        }
+        InputStream is = new ByteArrayInputStream(bytes, 2, bytes.length - 2);
+        if (bytes[1] == GZIP) {
+            is = new GZIPInputStream(is);
+        }
+        try (DataInputStream dis = new DataInputStream(is)) {
+            int size = dis.readInt();
+            List<Entry> entries = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String id = readString(dis);
+                long time = dis.readLong();
+                String handler = readString(dis);
+                int propertyCount = dis.readInt();
+                Properties properties = new Properties();
+                for (int j = 0; j < propertyCount; j++) {
+                    String key = readString(dis);
+                    properties.put(key, readString(dis));
+                }
+                String payload = readString(dis);
+                entries.add(new Entry(id, time, handler, properties, payload));
+            }
+            return entries;
+        }
+    }
+
+    private static void writeString(DataOutputStream dos, String value) throws IOException {
+        // writeUTF is limited to 64KB, serialized events can be larger
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
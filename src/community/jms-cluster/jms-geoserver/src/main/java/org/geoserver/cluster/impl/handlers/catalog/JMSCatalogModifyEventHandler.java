@@ -8,6 +8,7 @@ package org.geoserver.cluster.impl.handlers.catalog;
 import com.thoughtworks.xstream.XStream;
 import java.io.ByteArrayInputStream;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.List;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogException;
@@ -28,6 +29,7 @@ import org.geoserver.catalog.WMSStoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.event.CatalogEvent;
 import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.impl.CatalogModifyEventImpl;
 import org.geoserver.cluster.events.ToggleSwitch;
 import org.geoserver.cluster.impl.utils.BeanUtils;
 import org.geoserver.cluster.server.events.StyleModifyEvent;
@@ -86,6 +88,55 @@ public class JMSCatalogModifyEventHandler extends JMSCatalogEventHandler {
         return true;
     }
 
+    /**
+     * Merges two consecutive modifications of the same catalog object: the result contains the
+     * union of the modified properties, with the old values of the first event and the new values
+     * of the last one, so that the object can still be located by its original name. Style
+     * modifications are not merged, as they carry the style file along.
+     */
+    @Override
+    public CatalogEvent merge(CatalogEvent previous, CatalogEvent next) {
+        if (!(previous instanceof CatalogModifyEvent)
+                || !(next instanceof CatalogModifyEvent)
+                || previous instanceof StyleModifyEvent
+                || next instanceof StyleModifyEvent) {
+            return null;
+        }
+        final CatalogInfo previousSource = previous.getSource();
+        final CatalogInfo nextSource = next.getSource();
+        if (previousSource == null
+                || nextSource == null
+                || previousSource.getId() == null
+                || !previousSource.getId().equals(nextSource.getId())) {
+            return null;
+        }
+
+        final CatalogModifyEvent first = (CatalogModifyEvent) previous;
+        final CatalogModifyEvent second = (CatalogModifyEvent) next;
+        final List<String> properties = new ArrayList<>(first.getPropertyNames());
+        final List<Object> oldValues = new ArrayList<>(first.getOldValues());
+        final List<Object> newValues = new ArrayList<>(first.getNewValues());
+        for (int i = 0; i < second.getPropertyNames().size(); i++) {
+            final String property = second.getPropertyNames().get(i);
+            final Object newValue = second.getNewValues().get(i);
+            final int idx = properties.indexOf(property);
+            if (idx >= 0) {
+                newValues.set(idx, newValue);
+            } else {
+                properties.add(property);
+                oldValues.add(second.getOldValues().get(i));
+                newValues.add(newValue);
+            }
+        }
+
+        final CatalogModifyEventImpl merged = new CatalogModifyEventImpl();
+        merged.setSource(nextSource);
+        merged.setPropertyNames(properties);
+        merged.setOldValues(oldValues);
+        merged.setNewValues(newValues);
+        return merged;
+    }
+
     /**
      * simulate a catalog.save() rebuilding the EventModify proxy object locally {@link
      * org.geoserver.catalog.impl.DefaultCatalogFacade#saved(CatalogInfo)}
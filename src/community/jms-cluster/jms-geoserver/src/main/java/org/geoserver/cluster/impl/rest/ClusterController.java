@@ -11,6 +11,8 @@ import java.lang.reflect.Type;
 import java.util.Map;
 import java.util.Properties;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.cluster.client.JMSLagStatistics;
+import org.geoserver.cluster.client.JMSQueueListener;
 import org.geoserver.cluster.configuration.BrokerConfiguration;
 import org.geoserver.cluster.configuration.ConnectionConfiguration;
 import org.geoserver.cluster.configuration.JMSConfiguration;
@@ -50,6 +52,8 @@ public class ClusterController extends AbstractCatalogController {
 
     @Autowired private JMSConfiguration config;
 
+    @Autowired private JMSQueueListener listener;
+
     public ClusterController(Catalog catalog) {
         super(catalog);
     }
@@ -65,6 +69,29 @@ public class ClusterController extends AbstractCatalogController {
         return wrapObject(config.getConfigurations(), Properties.class);
     }
 
+    /**
+     * Returns the replication lag statistics for each node whose events have been applied locally,
+     * as properties named after the source instance name
+     */
+    @GetMapping(
+        path = "/lag",
+        produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_XML_VALUE}
+    )
+    public RestWrapper<Properties> getReplicationLag() {
+        Properties props = new Properties();
+        for (Map.Entry<String, JMSLagStatistics> entry : listener.getLagStatistics().entrySet()) {
+            String node = entry.getKey();
+            JMSLagStatistics stats = entry.getValue();
+            props.put(node + ".events", String.valueOf(stats.getEvents()));
+            props.put(node + ".lastLag", String.valueOf(stats.getLastLag()));
+            props.put(node + ".averageLag", String.valueOf(stats.getAverageLag()));
+            props.put(node + ".maxLag", String.valueOf(stats.getMaxLag()));
+            props.put(node + ".lastEventTime", String.valueOf(stats.getLastEventTime()));
+        }
+        props.put("duplicateEvents", String.valueOf(listener.getDuplicateEvents()));
+        return wrapObject(props, Properties.class);
+    }
+
     @PostMapping(
         consumes = {
             MediaType.APPLICATION_JSON_VALUE,
@@ -0,0 +1,224 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.cluster;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import javax.jms.Topic;
+import javax.xml.namespace.QName;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.impl.CatalogModifyEventImpl;
+import org.geoserver.cluster.client.JMSLagStatistics;
+import org.geoserver.cluster.client.JMSQueueListener;
+import org.geoserver.cluster.configuration.BatchConfiguration;
+import org.geoserver.cluster.configuration.JMSConfiguration;
+import org.geoserver.cluster.impl.handlers.catalog.JMSCatalogModifyEventHandlerSPI;
+import org.geoserver.cluster.message.JMSEventBatch;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jms.core.JmsTemplate;
+import org.springframework.jms.core.MessageCreator;
+import org.springframework.jms.support.JmsUtils;
+
+/** Tests the coalescing and batching of published events, and their idempotent application. */
+public final class JmsBatchingTest extends GeoServerSystemTestSupport {
+
+    private static final String CATALOG_MODIFY_EVENT_HANDLER_KEY =
+            "JMSCatalogModifyEventHandlerSPI";
+
+    private JMSConfiguration config;
+
+    private JMSPublisher publisher;
+
+    @Override
+    protected void setUpSpring(List<String> springContextLocations) {
+        super.setUpSpring(springContextLocations);
+        // adding our test spring context
+        springContextLocations.add("classpath:TestContext.xml");
+    }
+
+    @Before
+    public void enableBatching() {
+        config = GeoServerExtensions.bean(JMSConfiguration.class);
+        publisher = GeoServerExtensions.bean(JMSPublisher.class);
+        // a long window, the batches are sent explicitly by the tests
+        config.putConfiguration(BatchConfiguration.BATCH_WINDOW_KEY, "60000");
+        JmsEventsListener.clear();
+    }
+
+    @After
+    public void disableBatching() throws Exception {
+        config.putConfiguration(
+                BatchConfiguration.BATCH_WINDOW_KEY, BatchConfiguration.DEFAULT_BATCH_WINDOW);
+        publisher.flush();
+        JmsEventsListener.clear();
+    }
+
+    @Test
+    public void testBatchCoalesceAndApply() throws Exception {
+        Catalog catalog = getCatalog();
+        String roadsName = getLayerId(MockData.ROAD_SEGMENTS);
+        String bridgesName = getLayerId(MockData.BRIDGES);
+        String originalTitle = catalog.getFeatureTypeByName(roadsName).getTitle();
+        long coalesced = publisher.getCoalescedEvents();
+
+        // two consecutive modifications of the same object get coalesced
+        FeatureTypeInfo roads = catalog.getFeatureTypeByName(roadsName);
+        roads.setTitle("first");
+        catalog.save(roads);
+        roads = catalog.getFeatureTypeByName(roadsName);
+        roads.setTitle("second");
+        roads.setAbstract("roads abstract");
+        catalog.save(roads);
+        FeatureTypeInfo bridges = catalog.getFeatureTypeByName(bridgesName);
+        bridges.setTitle("bridges title");
+        catalog.save(bridges);
+        assertThat(publisher.getCoalescedEvents() - coalesced, is(1L));
+        assertThat(publisher.getPendingEvents(), is(2));
+
+        // send the batch and wait for it
+        publisher.flush();
+        List<Message> messages =
+                JmsEventsListener.getMessagesByHandlerKey(
+                        5000, (selected) -> selected.size() >= 1, JMSEventBatch.HANDLER_KEY);
+        assertThat(messages.size(), is(1));
+        Message message = messages.get(0);
+        Object payload = ((ObjectMessage) message).getObject();
+        assertThat(payload, instanceOf(byte[].class));
+        List<JMSEventBatch.Entry> entries = JMSEventBatch.decode((byte[]) payload);
+        assertThat(entries.size(), is(2));
+
+        // the coalesced event keeps the original title as the old value
+        JMSEventHandler<String, CatalogEvent> handler =
+                GeoServerExtensions.bean(JMSCatalogModifyEventHandlerSPI.class).createHandler();
+        JMSEventBatch.Entry first = entries.get(0);
+        assertThat(first.getHandler(), is(CATALOG_MODIFY_EVENT_HANDLER_KEY));
+        assertThat(first.getId(), notNullValue());
+        CatalogModifyEvent merged = (CatalogModifyEvent) handler.deserialize(first.getPayload());
+        int titleIdx = merged.getPropertyNames().indexOf("title");
+        assertThat(merged.getOldValues().get(titleIdx), is(originalTitle));
+        assertThat(merged.getNewValues().get(titleIdx), is("second"));
+        assertThat(merged.getPropertyNames().contains("abstract"), is(true));
+
+        // apply the batch as if it came from another node, from now on no more batching
+        config.putConfiguration(
+                BatchConfiguration.BATCH_WINDOW_KEY, BatchConfiguration.DEFAULT_BATCH_WINDOW);
+        JMSQueueListener listener = GeoServerExtensions.bean(JMSQueueListener.class);
+        String source = message.getStringProperty(JMSConfiguration.INSTANCE_NAME_KEY);
+        String localName = config.getConfiguration(JMSConfiguration.INSTANCE_NAME_KEY);
+        try {
+            config.putConfiguration(JMSConfiguration.INSTANCE_NAME_KEY, "batching-test-node");
+            listener.setStatus(true);
+            long duplicates = listener.getDuplicateEvents();
+            listener.resetLagStatistics();
+            roads = catalog.getFeatureTypeByName(roadsName);
+            roads.setTitle(originalTitle);
+            catalog.save(roads);
+
+            listener.onMessage(message, null);
+            assertThat(catalog.getFeatureTypeByName(roadsName).getTitle(), is("second"));
+            JMSLagStatistics stats = listener.getLagStatistics().get(source);
+            assertThat(stats, notNullValue());
+            assertThat(stats.getEvents(), is(2L));
+
+            // a redelivery is skipped
+            roads = catalog.getFeatureTypeByName(roadsName);
+            roads.setTitle(originalTitle);
+            catalog.save(roads);
+            listener.onMessage(message, null);
+            assertThat(catalog.getFeatureTypeByName(roadsName).getTitle(), is(originalTitle));
+            assertThat(listener.getDuplicateEvents() - duplicates, is(2L));
+            assertThat(stats.getEvents(), is(2L));
+        } finally {
+            config.putConfiguration(JMSConfiguration.INSTANCE_NAME_KEY, localName);
+        }
+    }
+
+    @Test
+    public void testBatchRetriedAfterFailure() throws Exception {
+        // a publisher of its own, talking to a broker that is down
+        JMSPublisher failingPublisher =
+                new JMSPublisher(GeoServerExtensions.bean(JMSManager.class), config);
+        FailingTemplate template = new FailingTemplate();
+        Topic topic = () -> "batching-test";
+        Properties props = new Properties();
+        props.put(JMSConfiguration.INSTANCE_NAME_KEY, "batching-test-node");
+
+        Catalog catalog = getCatalog();
+        failingPublisher.publish(topic, template, props, modifyEvent(catalog, MockData.BRIDGES));
+        failingPublisher.publish(topic, template, props, modifyEvent(catalog, MockData.BUILDINGS));
+        assertThat(failingPublisher.getPendingEvents(), is(2));
+
+        // the failure is reported, and the events are kept
+        try {
+            failingPublisher.flush();
+            fail("The batch should not have been sent");
+        } catch (JMSException e) {
+            assertThat(e.getMessage().contains("will retry"), is(true));
+        }
+        assertThat(template.attempts, is(1));
+        assertThat(failingPublisher.getPendingEvents(), is(2));
+        assertThat(failingPublisher.getSentBatches(), is(0L));
+
+        // events published in the meantime queue up after the failed ones
+        failingPublisher.publish(topic, template, props, modifyEvent(catalog, MockData.LAKES));
+        assertThat(failingPublisher.getPendingEvents(), is(3));
+
+        // the broker is back, the events are sent in a single batch
+        template.failing = false;
+        failingPublisher.flush();
+        assertThat(template.attempts, is(2));
+        assertThat(template.sent, is(1));
+        assertThat(failingPublisher.getPendingEvents(), is(0));
+        assertThat(failingPublisher.getSentBatches(), is(1L));
+    }
+
+    private CatalogModifyEvent modifyEvent(Catalog catalog, QName layer) {
+        FeatureTypeInfo featureType = catalog.getFeatureTypeByName(getLayerId(layer));
+        CatalogModifyEventImpl event = new CatalogModifyEventImpl();
+        event.setSource(featureType);
+        event.setPropertyNames(Arrays.asList("title"));
+        event.setOldValues(Arrays.asList(featureType.getTitle()));
+        event.setNewValues(Arrays.asList("new title"));
+        return event;
+    }
+
+    /** Fails to send messages until told otherwise */
+    static class FailingTemplate extends JmsTemplate {
+
+        volatile boolean failing = true;
+
+        int attempts;
+
+        int sent;
+
+        @Override
+        public void send(Destination destination, MessageCreator messageCreator) {
+            attempts++;
+            if (failing) {
+                throw JmsUtils.convertJmsAccessException(new JMSException("Broker is down"));
+            }
+            sent++;
+        }
+    }
+}
@@ -56,7 +56,7 @@ public class ClusterControllerTest extends GeoServerSystemTestSupport {
                 jsonObject.getJSONObject("properties").get("property"),
                 instanceOf(JSONArray.class));
         JSONArray properties = jsonObject.getJSONObject("properties").getJSONArray("property");
-        assertThat(properties.size(), is(15));
+        assertThat(properties.size(), is(18));
         // check properties exist
         checkPropertyExists(properties, "toggleSlave");
         checkPropertyExists(properties, "connection");
@@ -73,6 +73,9 @@ public class ClusterControllerTest extends GeoServerSystemTestSupport {
         checkPropertyExists(properties, "instanceName");
         checkPropertyExists(properties, "group");
         checkPropertyExists(properties, "connection.maxwait");
+        checkPropertyExists(properties, "batch.window");
+        checkPropertyExists(properties, "batch.maxSize");
+        checkPropertyExists(properties, "batch.compression");
     }
 
     @Test
@@ -86,6 +89,13 @@ public class ClusterControllerTest extends GeoServerSystemTestSupport {
         assertXpathEvaluatesTo("false", "/properties/property[@name='toggleSlave']/@value", dom);
     }
 
+    @Test
+    public void testGetReplicationLag() throws Exception {
+        Document dom = getAsDOM("rest/cluster/lag.xml");
+        // no events received from other nodes in this test
+        assertXpathEvaluatesTo("0", "/properties/property[@name='duplicateEvents']/@value", dom);
+    }
+
     /** Helper method that checks if a property exists. */
     private void checkPropertyExists(JSONArray properties, String expectedName) {
         boolean found = false;
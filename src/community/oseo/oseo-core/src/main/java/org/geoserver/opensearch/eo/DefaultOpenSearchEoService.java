@@ -217,12 +217,6 @@ public class DefaultOpenSearchEoService implements OpenSearchEoService {
             }
         }
 
-        // count
-        Query countQuery = new Query(resultsQuery);
-        countQuery.setMaxFeatures(Query.DEFAULT_MAX);
-        countQuery.setStartIndex(null);
-        int totalResults = featureSource.getCount(countQuery);
-
         // get actual features
         FeatureCollection<FeatureType, Feature> features;
         if (resultsQuery.getMaxFeatures() == 0) {
@@ -234,6 +228,22 @@ public class DefaultOpenSearchEoService implements OpenSearchEoService {
             features = featureSource.getFeatures(resultsQuery);
         }
 
+        // count, unless a partial page already tells where the results end
+        int totalResults = -1;
+        int startIndex = resultsQuery.getStartIndex() == null ? 0 : resultsQuery.getStartIndex();
+        if (resultsQuery.getMaxFeatures() > 0) {
+            int returned = features.size();
+            if (returned < resultsQuery.getMaxFeatures() && (returned > 0 || startIndex == 0)) {
+                totalResults = startIndex + returned;
+            }
+        }
+        if (totalResults < 0) {
+            Query countQuery = new Query(resultsQuery);
+            countQuery.setMaxFeatures(Query.DEFAULT_MAX);
+            countQuery.setStartIndex(null);
+            totalResults = featureSource.getCount(countQuery);
+        }
+
         SearchResults results = new SearchResults(request, features, totalResults);
 
         return results;
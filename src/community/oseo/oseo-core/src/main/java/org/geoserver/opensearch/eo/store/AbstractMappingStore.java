@@ -15,8 +15,10 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -81,6 +83,8 @@ public abstract class AbstractMappingStore implements FeatureStore<FeatureType,
 
     static final Logger LOGGER = Logging.getLogger(AbstractMappingStore.class);
 
+    static final List<SimpleFeature> NO_FEATURES = Collections.emptyList();
+
     /**
      * Like {@link BiFunction} but allowed to throw {@link IOException}
      *
@@ -333,28 +337,8 @@ public abstract class AbstractMappingStore implements FeatureStore<FeatureType,
                 result.getJoins().add(join);
             }
 
-            // same for output layer, if necessary
-            if (hasOutputProperty(query, LAYERS_PROPERTY_NAME, false)
-                    || hasOutputProperty(query, LAYERS_PROPERTY_NAME, false)) {
-                Filter filter = FF.equal(FF.property("id"), FF.property("layer.cid"), true);
-                final String layerTable = getCollectionLayerTable();
-                Join join = new Join(layerTable, filter);
-                join.setAlias("layer");
-                join.setType(Type.OUTER);
-                result.getJoins().add(join);
-            }
-
-            // same goes for OGC links (they might be missing, so outer join is used)
-            if (hasOutputProperty(query, OGC_LINKS_PROPERTY_NAME, true)) {
-                final String linkTable = getLinkTable();
-                final String linkForeignKey = getLinkForeignKey();
-                Filter filter =
-                        FF.equal(FF.property("id"), FF.property("link." + linkForeignKey), true);
-                Join join = new Join(linkTable, filter);
-                join.setAlias("link");
-                join.setType(Type.OUTER);
-                result.getJoins().add(join);
-            }
+            // layers and OGC links can be more than one per feature, they are fetched
+            // in batch by getFeatures instead of multiplying the joined rows
         } else {
             // only non joined requests are pageable
             result.setStartIndex(query.getStartIndex());
@@ -441,14 +425,55 @@ public abstract class AbstractMappingStore implements FeatureStore<FeatureType,
         // first get the ids of the features we are going to return, no joins to support paging
         Query idsQuery = mapToSimpleCollectionQuery(query, false);
         // idsQuery.setProperties(Query.NO_PROPERTIES); (no can do, there are mandatory fields)
+
+        // deep pages are reached seeking from the closest known page end, if possible
+        PageAnchors anchors = openSearchAccess.getPageAnchors();
+        String identifier = propertyMapper.getSourceName("identifier");
+        SortBy[] keysetSort = null;
+        if (anchors != null) {
+            keysetSort = PageAnchors.getKeysetSort(idsQuery.getSortBy(), identifier);
+        }
+        Object anchorKey = null;
+        int startIndex = idsQuery.getStartIndex() == null ? 0 : idsQuery.getStartIndex();
+        if (keysetSort != null) {
+            anchorKey = PageAnchors.getKey(idsQuery);
+            addSortProperties(idsQuery, keysetSort);
+            PageAnchors.Anchor anchor = anchors.getAnchor(anchorKey, startIndex);
+            if (anchor != null) {
+                Filter after = anchors.getAfterFilter(keysetSort, anchor.values);
+                Filter filter = idsQuery.getFilter();
+                if (filter != null && filter != Filter.INCLUDE) {
+                    after = FF.and(filter, after);
+                }
+                idsQuery.setFilter(after);
+                idsQuery.setStartIndex(startIndex - anchor.position);
+            }
+        }
         SimpleFeatureCollection idFeatureCollection =
                 getDelegateCollectionSource().getFeatures(idsQuery);
 
         Set<FeatureId> ids = new LinkedHashSet<>();
-        idFeatureCollection.accepts(f -> ids.add(f.getIdentifier()), null);
+        List<String> databaseIds = new ArrayList<>();
+        SimpleFeature last = null;
+        try (SimpleFeatureIterator fi = idFeatureCollection.features()) {
+            while (fi.hasNext()) {
+                last = fi.next();
+                ids.add(last.getIdentifier());
+                databaseIds.add(last.getIdentifier().getID().split("\\.")[1]);
+            }
+        }
+        if (keysetSort != null && last != null) {
+            Object[] values = new Object[keysetSort.length];
+            for (int i = 0; i < keysetSort.length; i++) {
+                values[i] = last.getAttribute(keysetSort[i].getPropertyName().getPropertyName());
+            }
+            anchors.addAnchor(anchorKey, startIndex + ids.size(), values);
+        }
 
         // if no features, return immediately
         SimpleFeatureCollection fc;
+        Map<String, List<SimpleFeature>> links = Collections.emptyMap();
+        Map<String, List<SimpleFeature>> layers = Collections.emptyMap();
         if (ids.isEmpty()) {
             fc = new EmptyFeatureCollection(getDelegateCollectionSource().getSchema());
         } else {
@@ -456,64 +481,90 @@ public abstract class AbstractMappingStore implements FeatureStore<FeatureType,
             Query dataQuery = mapToSimpleCollectionQuery(query, true);
             dataQuery.setFilter(FF.id(ids));
             fc = getDelegateCollectionSource().getFeatures(dataQuery);
+
+            // fetch the related features with one query per table
+            if (hasOutputProperty(query, OGC_LINKS_PROPERTY_NAME, true)) {
+                links = getRelatedFeatures(getLinkTable(), getLinkForeignKey(), databaseIds);
+            }
+            if (hasOutputProperty(query, LAYERS_PROPERTY_NAME, false)) {
+                layers = getRelatedFeatures(getCollectionLayerTable(), "cid", databaseIds);
+            }
         }
 
-        return new MappingFeatureCollection(schema, fc, this::mapToComplexFeature);
+        final Map<String, List<SimpleFeature>> featureLinks = links;
+        final Map<String, List<SimpleFeature>> featureLayers = layers;
+        return new MappingFeatureCollection(
+                schema,
+                fc,
+                f -> mapToComplexFeature(f, featureLinks, featureLayers),
+                ids.size());
+    }
+
+    /** Makes sure the sort attributes are returned, as their values are needed for seeking */
+    private void addSortProperties(Query query, SortBy[] sort) {
+        String[] names = query.getPropertyNames();
+        if (names == null) {
+            return;
+        }
+        Set<String> properties = new LinkedHashSet<>(Arrays.asList(names));
+        for (SortBy sb : sort) {
+            properties.add(sb.getPropertyName().getPropertyName());
+        }
+        query.setPropertyNames(new ArrayList<>(properties));
+    }
+
+    /**
+     * Loads the features of a related table referring to any of the given main table database
+     * identifiers, grouped by identifier
+     */
+    private Map<String, List<SimpleFeature>> getRelatedFeatures(
+            String table, String foreignKey, List<String> databaseIds) throws IOException {
+        List<Filter> filters =
+                databaseIds
+                        .stream()
+                        .map(id -> FF.equal(FF.property(foreignKey), FF.literal(id), false))
+                        .collect(Collectors.toList());
+        Query query = new Query(table, FF.or(filters));
+        query.setSortBy(new SortBy[] {SortBy.NATURAL_ORDER});
+        SimpleFeatureCollection related =
+                openSearchAccess.getDelegateStore().getFeatureSource(table).getFeatures(query);
+        Map<String, List<SimpleFeature>> result = new HashMap<>();
+        try (SimpleFeatureIterator fi = related.features()) {
+            while (fi.hasNext()) {
+                SimpleFeature f = fi.next();
+                String id = String.valueOf(f.getAttribute(foreignKey));
+                result.computeIfAbsent(id, k -> new ArrayList<>()).add(f);
+            }
+        }
+        return result;
     }
 
     /**
      * Maps the underlying features (eventually joined) to the output complex feature
      *
-     * @param it
+     * @param fi The main table feature
+     * @param links The OGC links, by main table database identifier
+     * @param layers The collection layers, by main table database identifier
      * @return
      */
-    protected Feature mapToComplexFeature(PushbackFeatureIterator<SimpleFeature> it) {
-        SimpleFeature fi = it.next();
-
+    protected Feature mapToComplexFeature(
+            SimpleFeature fi,
+            Map<String, List<SimpleFeature>> links,
+            Map<String, List<SimpleFeature>> layers) {
         ComplexFeatureBuilder builder = new ComplexFeatureBuilder(schema);
 
         // allow subclasses to perform custom mappings while reusing the common ones
         mapPropertiesToComplex(builder, fi);
 
-        // the OGC links can be more than one
-        Set<SimpleFeature> links = new LinkedHashSet<>();
-        Set<SimpleFeature> layers = new LinkedHashSet<>();
-        for (; ; ) {
-            Object link = fi.getAttribute("link");
-            Object layer = fi.getAttribute("layer");
-
-            // handle joined layer if any
-            if (layer instanceof SimpleFeature) {
-                layers.add((SimpleFeature) layer);
-            }
-
-            if (link instanceof SimpleFeature) {
-                links.add((SimpleFeature) link);
-            }
-
-            if (it.hasNext()) {
-                SimpleFeature next = it.next();
-                if (!next.getID().equals(fi.getID())) {
-                    // moved to the next feature, push it back,
-                    // we're done for the current one
-                    it.pushBack();
-                    break;
-                } else {
-                    fi = next;
-                }
-            } else {
-                break;
-            }
-        }
-
-        for (SimpleFeature layerFeature : layers) {
+        // the OGC links and layers can be more than one
+        String databaseId = fi.getID().split("\\.")[1];
+        for (SimpleFeature layerFeature : layers.getOrDefault(databaseId, NO_FEATURES)) {
             SimpleFeature retyped = retypeLayerFeature(layerFeature);
             builder.append(LAYERS_PROPERTY_NAME, retyped);
         }
 
-        for (SimpleFeature link : links) {
-            SimpleFeature linkFeature =
-                    SimpleFeatureBuilder.retype((SimpleFeature) link, linkFeatureType);
+        for (SimpleFeature link : links.getOrDefault(databaseId, NO_FEATURES)) {
+            SimpleFeature linkFeature = SimpleFeatureBuilder.retype(link, linkFeatureType);
             builder.append(OGC_LINKS_PROPERTY_NAME, linkFeature);
         }
 
@@ -877,10 +928,12 @@ public abstract class AbstractMappingStore implements FeatureStore<FeatureType,
     }
 
     /**
-     * Hooks for subclasses that need to track feature modification and deletion. By default it does
-     * nothing.
+     * Hooks for subclasses that need to track feature modification and deletion. By default it
+     * drops the page anchors, subclasses overriding it should call the super implementation.
      */
-    protected void featuresModified() {}
+    protected void featuresModified() {
+        openSearchAccess.clearPageAnchors();
+    }
 
     /**
      * Allows subclasses to handle other attributes mapped in secondary tables
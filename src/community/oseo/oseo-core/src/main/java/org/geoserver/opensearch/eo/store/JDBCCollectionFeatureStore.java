@@ -53,6 +53,7 @@ public class JDBCCollectionFeatureStore extends AbstractMappingStore {
 
     @Override
     protected void featuresModified() {
+        super.featuresModified();
         openSearchAccess.clearFeatureSourceCaches();
     }
 }
@@ -6,6 +6,9 @@ package org.geoserver.opensearch.eo.store;
 
 import com.google.common.base.Objects;
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -15,6 +18,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringJoiner;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 import org.geoserver.config.GeoServer;
@@ -45,6 +50,7 @@ import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.SQLDialect;
 import org.geotools.jdbc.VirtualTable;
 import org.geotools.util.SoftValueHashMap;
+import org.geotools.util.logging.Logging;
 import org.locationtech.jts.geom.Polygon;
 import org.opengis.feature.Feature;
 import org.opengis.feature.Property;
@@ -72,6 +78,8 @@ import org.opengis.filter.PropertyIsEqualTo;
  */
 public class JDBCOpenSearchAccess implements OpenSearchAccess {
 
+    static final Logger LOGGER = Logging.getLogger(JDBCOpenSearchAccess.class);
+
     protected static FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
 
     public static final String COLLECTION = "collection";
@@ -106,6 +114,10 @@ public class JDBCOpenSearchAccess implements OpenSearchAccess {
     private SoftValueHashMap<Name, SimpleFeatureSource> featureSourceCache =
             new SoftValueHashMap<>();
 
+    private volatile PageAnchors pageAnchors;
+
+    private volatile boolean pageAnchorsChecked;
+
     public JDBCOpenSearchAccess(
             Repository repository, Name delegateStoreName, String namespaceURI, GeoServer geoServer)
             throws IOException {
@@ -754,4 +766,51 @@ public class JDBCOpenSearchAccess implements OpenSearchAccess {
     void clearFeatureSourceCaches() {
         featureSourceCache.clear();
     }
+
+    /**
+     * Returns the page anchors used to seek deep pages, or null if they are disabled or the null
+     * ordering of the database is unknown
+     */
+    PageAnchors getPageAnchors() {
+        if (!pageAnchorsChecked) {
+            synchronized (this) {
+                if (!pageAnchorsChecked) {
+                    pageAnchors = buildPageAnchors();
+                    pageAnchorsChecked = true;
+                }
+            }
+        }
+        return pageAnchors;
+    }
+
+    private PageAnchors buildPageAnchors() {
+        int expiration =
+                Integer.getInteger(PageAnchors.PAGE_ANCHORS_KEY, PageAnchors.DEFAULT_EXPIRATION);
+        if (expiration <= 0) {
+            return null;
+        }
+        try (Connection cx = getRawDelegateStore().getDataSource().getConnection()) {
+            DatabaseMetaData metadata = cx.getMetaData();
+            if (metadata.nullsAreSortedAtStart()) {
+                return new PageAnchors(expiration, true, true);
+            } else if (metadata.nullsAreSortedAtEnd()) {
+                return new PageAnchors(expiration, false, false);
+            } else if (metadata.nullsAreSortedHigh()) {
+                return new PageAnchors(expiration, false, true);
+            } else if (metadata.nullsAreSortedLow()) {
+                return new PageAnchors(expiration, true, false);
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Could not determine the database null ordering", e);
+        }
+        return null;
+    }
+
+    /** Drops the page anchors, to be called when products or collections are modified */
+    void clearPageAnchors() {
+        PageAnchors anchors = pageAnchors;
+        if (anchors != null) {
+            anchors.clear();
+        }
+    }
 }
@@ -8,6 +8,7 @@ import java.util.NoSuchElementException;
 import java.util.function.Function;
 import java.util.logging.Logger;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.collection.BaseFeatureCollection;
 import org.geotools.util.logging.Logging;
@@ -26,22 +27,41 @@ class MappingFeatureCollection extends BaseFeatureCollection<FeatureType, Featur
 
     private SimpleFeatureCollection features;
 
-    private Function<PushbackFeatureIterator<SimpleFeature>, Feature> mapper;
+    private Function<SimpleFeature, Feature> mapper;
 
+    private int size;
+
+    /**
+     * Builds a new mapping collection
+     *
+     * @param schema The target schema
+     * @param features The source features
+     * @param mapper The function mapping each source feature to the target one
+     * @param size The number of features, if known in advance, or -1 otherwise
+     */
     public MappingFeatureCollection(
             FeatureType schema,
             SimpleFeatureCollection features,
-            Function<PushbackFeatureIterator<SimpleFeature>, Feature> mapper) {
+            Function<SimpleFeature, Feature> mapper,
+            int size) {
         super(schema);
         this.features = features;
         this.mapper = mapper;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        if (size >= 0) {
+            return size;
+        }
+        return super.size();
     }
 
     @Override
     public FeatureIterator<Feature> features() {
-        PushbackFeatureIterator<SimpleFeature> iterator =
-                new PushbackFeatureIterator<>(features.features());
-        // scan through the joined features and map them
+        SimpleFeatureIterator iterator = features.features();
+        // scan through the features and map them
         return new FeatureIterator<Feature>() {
 
             @Override
@@ -51,7 +71,7 @@ class MappingFeatureCollection extends BaseFeatureCollection<FeatureType, Featur
 
             @Override
             public Feature next() throws NoSuchElementException {
-                Feature mapped = mapper.apply(iterator);
+                Feature mapped = mapper.apply(iterator.next());
                 return mapped;
             }
 
@@ -0,0 +1,173 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.opensearch.eo.store;
+
+import static org.geoserver.opensearch.eo.store.JDBCOpenSearchAccess.FF;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.geotools.data.Query;
+import org.opengis.filter.Filter;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Remembers the sort key values found at the end of the pages returned so far, allowing to turn a
+ * deep OFFSET into a keyset (seek) condition followed by a short OFFSET. OpenSearch clients page
+ * by start index, so the anchor closest to the requested start index is used.
+ *
+ * <p>Anchors are dropped when the store modifies the main tables, and expire after a configurable
+ * amount of time to account for changes made directly in the database. The expiration is set, in
+ * seconds, using the {@link #PAGE_ANCHORS_KEY} system variable, zero disables the anchors.
+ */
+class PageAnchors {
+
+    /** System variable controlling the anchors expiration, in seconds */
+    static final String PAGE_ANCHORS_KEY = "org.geoserver.opensearch.eo.pageAnchors";
+
+    static final int DEFAULT_EXPIRATION = 60;
+
+    /** Max number of queries whose anchors are tracked */
+    static final int MAX_QUERIES = 1000;
+
+    /** Max number of anchors tracked for a single query */
+    static final int MAX_ANCHORS = 64;
+
+    /** A sort key position in the result set, along with the sort key values found there */
+    static class Anchor {
+        final int position;
+
+        final Object[] values;
+
+        Anchor(int position, Object[] values) {
+            this.position = position;
+            this.values = values;
+        }
+    }
+
+    private final Cache<Object, NavigableMap<Integer, Object[]>> anchors;
+
+    private final boolean nullsFirstAscending;
+
+    private final boolean nullsFirstDescending;
+
+    /**
+     * Builds a new anchor set
+     *
+     * @param expiration The anchors expiration, in seconds
+     * @param nullsFirstAscending True if the database sorts nulls first in ascending order
+     * @param nullsFirstDescending True if the database sorts nulls first in descending order
+     */
+    PageAnchors(int expiration, boolean nullsFirstAscending, boolean nullsFirstDescending) {
+        this.anchors =
+                CacheBuilder.newBuilder()
+                        .maximumSize(MAX_QUERIES)
+                        .expireAfterWrite(expiration, TimeUnit.SECONDS)
+                        .build();
+        this.nullsFirstAscending = nullsFirstAscending;
+        this.nullsFirstDescending = nullsFirstDescending;
+    }
+
+    /**
+     * Returns the portion of the sort that provides a total ordering, that is, up to the unique
+     * identifier, or null if the sort is not suitable for keyset paging
+     */
+    static SortBy[] getKeysetSort(SortBy[] sortBy, String identifier) {
+        if (sortBy == null) {
+            return null;
+        }
+        List<SortBy> result = new ArrayList<>();
+        for (SortBy sb : sortBy) {
+            if (sb == SortBy.NATURAL_ORDER
+                    || sb == SortBy.REVERSE_ORDER
+                    || sb.getPropertyName() == null) {
+                return null;
+            }
+            result.add(sb);
+            if (identifier.equals(sb.getPropertyName().getPropertyName())) {
+                return result.toArray(new SortBy[result.size()]);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the key identifying the result set of a query, regardless of its paging */
+    static Object getKey(Query query) {
+        return Arrays.asList(
+                query.getTypeName(), query.getFilter(), Arrays.asList(query.getSortBy()));
+    }
+
+    /** Returns the closest anchor at or before the given start index, or null if none is found */
+    Anchor getAnchor(Object key, int startIndex) {
+        NavigableMap<Integer, Object[]> positions = anchors.getIfPresent(key);
+        if (positions == null) {
+            return null;
+        }
+        synchronized (positions) {
+            Map.Entry<Integer, Object[]> entry = positions.floorEntry(startIndex);
+            if (entry == null) {
+                return null;
+            }
+            return new Anchor(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Records the sort key values of the last feature before the given position. Values containing
+     * nulls are not recorded, as ties among nulls do not allow to seek
+     */
+    void addAnchor(Object key, int position, Object[] values) {
+        if (position <= 0 || Arrays.stream(values).anyMatch(v -> v == null)) {
+            return;
+        }
+        NavigableMap<Integer, Object[]> positions =
+                anchors.asMap().computeIfAbsent(key, k -> new TreeMap<>());
+        synchronized (positions) {
+            positions.put(position, values);
+            if (positions.size() > MAX_ANCHORS) {
+                positions.pollFirstEntry();
+            }
+        }
+    }
+
+    /** Drops all anchors, to be called when the underlying data is modified */
+    void clear() {
+        anchors.invalidateAll();
+    }
+
+    /**
+     * Builds a filter matching all the rows sorted after the given anchor values, taking into
+     * account where the database places null values
+     */
+    Filter getAfterFilter(SortBy[] sort, Object[] values) {
+        List<Filter> alternatives = new ArrayList<>();
+        List<Filter> equalities = new ArrayList<>();
+        for (int i = 0; i < sort.length; i++) {
+            PropertyName property = sort[i].getPropertyName();
+            Literal value = FF.literal(values[i]);
+            boolean ascending = sort[i].getSortOrder() != SortOrder.DESCENDING;
+            Filter after =
+                    ascending ? FF.greater(property, value, true) : FF.less(property, value, true);
+            boolean nullsFirst = ascending ? nullsFirstAscending : nullsFirstDescending;
+            if (!nullsFirst) {
+                after = FF.or(after, FF.isNull(property));
+            }
+            List<Filter> conditions = new ArrayList<>(equalities);
+            conditions.add(after);
+            alternatives.add(conditions.size() == 1 ? after : FF.and(conditions));
+            equalities.add(FF.equal(property, value, true));
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : FF.or(alternatives);
+    }
+}
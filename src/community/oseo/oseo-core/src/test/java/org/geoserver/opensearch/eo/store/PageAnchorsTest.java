@@ -0,0 +1,121 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.opensearch.eo.store;
+
+import static org.geoserver.opensearch.eo.store.JDBCOpenSearchAccess.FF;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+public class PageAnchorsTest {
+
+    static final SortBy[] SORT = {
+        FF.sort("timeStart", SortOrder.DESCENDING), FF.sort("eoIdentifier", SortOrder.ASCENDING)
+    };
+
+    static final Comparator<Integer> INT = Comparator.naturalOrder();
+
+    @Test
+    public void testKeysetSort() {
+        assertArrayEquals(SORT, PageAnchors.getKeysetSort(SORT, "eoIdentifier"));
+        // the sort after the unique identifier is not needed
+        SortBy[] extended = {SORT[0], SORT[1], FF.sort("name", SortOrder.ASCENDING)};
+        assertArrayEquals(SORT, PageAnchors.getKeysetSort(extended, "eoIdentifier"));
+        // not a total order
+        assertNull(PageAnchors.getKeysetSort(new SortBy[] {SORT[0]}, "eoIdentifier"));
+        assertNull(
+                PageAnchors.getKeysetSort(new SortBy[] {SortBy.NATURAL_ORDER}, "eoIdentifier"));
+        assertNull(PageAnchors.getKeysetSort(null, "eoIdentifier"));
+    }
+
+    @Test
+    public void testClosestAnchor() {
+        PageAnchors anchors = new PageAnchors(60, false, true);
+        Query query = new Query("product", Filter.INCLUDE);
+        query.setSortBy(SORT);
+        Object key = PageAnchors.getKey(query);
+        anchors.addAnchor(key, 10, new Object[] {10, "a"});
+        anchors.addAnchor(key, 20, new Object[] {5, "b"});
+        // values with nulls cannot be used to seek
+        anchors.addAnchor(key, 30, new Object[] {null, "c"});
+
+        assertNull(anchors.getAnchor(key, 5));
+        assertEquals(10, anchors.getAnchor(key, 10).position);
+        assertEquals(20, anchors.getAnchor(key, 25).position);
+        assertEquals(20, anchors.getAnchor(key, 35).position);
+
+        // paging does not matter, the filter does
+        Query paged = new Query(query);
+        paged.setStartIndex(20);
+        paged.setMaxFeatures(10);
+        assertEquals(10, anchors.getAnchor(PageAnchors.getKey(paged), 15).position);
+        Query filtered = new Query(query);
+        filtered.setFilter(FF.equal(FF.property("eoIdentifier"), FF.literal("a"), true));
+        assertNull(anchors.getAnchor(PageAnchors.getKey(filtered), 15));
+
+        anchors.clear();
+        assertNull(anchors.getAnchor(key, 25));
+    }
+
+    @Test
+    public void testAfterFilterNullsHigh() throws Exception {
+        // nulls are the highest values, come last in ascending and first in descending order
+        assertAfterFilter(new PageAnchors(60, false, true), Comparator.nullsLast(INT));
+    }
+
+    @Test
+    public void testAfterFilterNullsLow() throws Exception {
+        assertAfterFilter(new PageAnchors(60, true, false), Comparator.nullsFirst(INT));
+    }
+
+    /**
+     * Checks that, for each anchor, the after filter selects exactly the features following it in
+     * the sort order
+     */
+    private void assertAfterFilter(PageAnchors anchors, Comparator<Integer> ascending)
+            throws Exception {
+        String spec = "timeStart:java.lang.Integer,eoIdentifier:String";
+        SimpleFeatureType type = DataUtilities.createType("product", spec);
+        List<SimpleFeature> features = new ArrayList<>();
+        Integer[] times = {1, 2, 2, null, 3, null, 1};
+        for (int i = 0; i < times.length; i++) {
+            features.add(SimpleFeatureBuilder.build(type, new Object[] {times[i], "p" + i}, null));
+        }
+        Comparator<SimpleFeature> order =
+                Comparator.comparing(
+                                (SimpleFeature f) -> (Integer) f.getAttribute("timeStart"),
+                                ascending.reversed())
+                        .thenComparing(f -> (String) f.getAttribute("eoIdentifier"));
+        features.sort(order);
+
+        for (int i = 0; i < features.size(); i++) {
+            SimpleFeature anchor = features.get(i);
+            if (anchor.getAttribute("timeStart") == null) {
+                continue;
+            }
+            Object[] values = {
+                anchor.getAttribute("timeStart"), anchor.getAttribute("eoIdentifier")
+            };
+            Filter after = anchors.getAfterFilter(SORT, values);
+            for (int j = 0; j < features.size(); j++) {
+                SimpleFeature f = features.get(j);
+                assertEquals(anchor + " vs " + f, j > i, after.evaluate(f));
+            }
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.FilenameUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wps.ProcessDismissedException;
+import org.geoserver.wps.ppio.ZipArchivePPIO;
+import org.geoserver.wps.resource.WPSFileResource;
+import org.geoserver.wps.resource.WPSResourceManager;
+import org.geotools.data.util.DefaultProgressListener;
+import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.process.ProcessException;
+import org.geotools.process.factory.DescribeParameter;
+import org.geotools.process.factory.DescribeProcess;
+import org.geotools.process.factory.DescribeResult;
+import org.geotools.process.gs.GSProcess;
+import org.geotools.util.SimpleInternationalString;
+import org.geotools.util.Utilities;
+import org.geotools.util.logging.Logging;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.util.ProgressListener;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+/**
+ * Downloads several vector layers in a single execution, packaging them in a single ZIP file.
+ *
+ * <p>All layers are checked against the download limits before starting, then their features are
+ * extracted concurrently, while the main thread streams the results into the ZIP file, in the
+ * order the layers were requested. Each layer can have its own output format and filter, specified
+ * with the {@link #OUTPUT_FORMAT} and {@link #CQL_FILTER} layer parameters.
+ *
+ * <p>The extractions of all executions share a pool of {@link #MAX_THREADS_PROPERTY} threads,
+ * defaulting to the number of available processors.
+ */
+@DescribeProcess(
+    title = "Multiple Layers Download Process",
+    description = "Downloads multiple vector layers and provides a single ZIP."
+)
+public class DownloadLayersProcess
+        implements GSProcess, ApplicationContextAware, DisposableBean {
+
+    private static final Logger LOGGER = Logging.getLogger(DownloadLayersProcess.class);
+
+    /** Layer parameter specifying the output format mime type for the layer */
+    public static final String OUTPUT_FORMAT = "outputFormat";
+
+    /** Layer parameter specifying an ECQL filter for the layer */
+    public static final String CQL_FILTER = "CQL_FILTER";
+
+    /** How often the main thread checks for process dismissal while waiting for a layer */
+    private static final long DISMISS_CHECK_MS = 100;
+
+    /** System property setting the number of threads extracting the layers */
+    public static final String MAX_THREADS_PROPERTY = "wps.download.layers.threads";
+
+    private final DownloadEstimatorProcess estimator;
+
+    private final Catalog catalog;
+
+    private final WPSResourceManager resourceManager;
+
+    private ApplicationContext context;
+
+    private ExecutorService executor;
+
+    /**
+     * Instantiates a new multiple layers download process.
+     *
+     * @param geoServer the geo server
+     * @param estimator the estimator, providing the download limits
+     * @param resourceManager the resourceManager to track resources to be cleaned up
+     */
+    public DownloadLayersProcess(
+            GeoServer geoServer,
+            DownloadEstimatorProcess estimator,
+            WPSResourceManager resourceManager) {
+        Utilities.ensureNonNull("geoServer", geoServer);
+        this.catalog = geoServer.getCatalog();
+        this.estimator = estimator;
+        this.resourceManager = resourceManager;
+    }
+
+    @DescribeResult(name = "result", description = "Zipped output files to download")
+    public File execute(
+            @DescribeParameter(
+                        name = "layer",
+                        min = 1,
+                        description =
+                                "The vector layers to download, the output format and filter "
+                                        + "can be specified for each layer with the "
+                                        + "outputFormat and CQL_FILTER parameters"
+                    )
+                    Layer[] layers,
+            @DescribeParameter(
+                        name = "outputFormat",
+                        min = 0,
+                        description =
+                                "Output Format Mime-Type, for the layers not specifying their own"
+                    )
+                    String defaultMimeType,
+            @DescribeParameter(name = "targetCRS", min = 0, description = "Optional Target CRS")
+                    CoordinateReferenceSystem targetCRS,
+            @DescribeParameter(
+                        name = "RoiCRS",
+                        min = 0,
+                        description = "Optional Region Of Interest CRS"
+                    )
+                    CoordinateReferenceSystem roiCRS,
+            @DescribeParameter(
+                        name = "ROI",
+                        min = 0,
+                        description = "Optional Region Of Interest (Polygon)"
+                    )
+                    Geometry roi,
+            @DescribeParameter(name = "cropToROI", min = 0, description = "Crop to ROI")
+                    Boolean clip,
+            ProgressListener progressListener)
+            throws ProcessException {
+        // avoid NPE on progress listener
+        if (progressListener == null) {
+            progressListener = new DefaultProgressListener();
+        }
+
+        List<Future<Resource>> futures = new ArrayList<>();
+        try {
+            if (layers == null || layers.length == 0) {
+                throw new IllegalArgumentException("No layers to download provided!");
+            }
+            if (clip == null) {
+                clip = false;
+            }
+            // validate the ROI just once, each layer will work off a copy of it
+            ROIManager roiManager = null;
+            if (roi != null) {
+                if (roiCRS == null) {
+                    throw new IllegalArgumentException("ROI without a CRS is not usable!");
+                }
+                roiManager = new ROIManager(roi, roiCRS);
+            }
+
+            DownloadServiceConfiguration limits = estimator.getDownloadServiceConfiguration();
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Employing limits " + limits);
+            }
+
+            // resolve the layers and check the limits before extracting anything
+            List<LayerDownload> downloads = new ArrayList<>();
+            for (Layer layer : layers) {
+                LayerDownload download = new LayerDownload(layer, defaultMimeType);
+                if (!new VectorEstimator(limits)
+                        .execute(
+                                download.featureType,
+                                copy(roiManager),
+                                clip,
+                                download.filter,
+                                targetCRS,
+                                progressListener)) {
+                    throw new IllegalArgumentException(
+                            "Download Limits Exceeded on layer "
+                                    + layer.getName()
+                                    + ". Unable to proceed!");
+                }
+                downloads.add(download);
+            }
+            checkDismissed(progressListener);
+
+            // make sure the execution id is setup, it gets transferred to the extraction threads
+            resourceManager.getExecutionId(true);
+            ExecutorService executor = getExecutor();
+            final ProgressListener listener = progressListener;
+            final boolean crop = clip;
+            for (LayerDownload download : downloads) {
+                final ROIManager layerRoiManager = copy(roiManager);
+                final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    transfer.apply();
+                                    try {
+                                        checkDismissed(listener);
+                                        return new VectorDownload(
+                                                        limits, resourceManager, context)
+                                                .execute(
+                                                        download.featureType,
+                                                        download.mimeType,
+                                                        layerRoiManager,
+                                                        crop,
+                                                        download.filter,
+                                                        targetCRS,
+                                                        listener);
+                                    } finally {
+                                        transfer.cleanup();
+                                    }
+                                }));
+            }
+
+            // stream the layers in the output as they become available
+            final Resource result =
+                    resourceManager.getOutputResource(
+                            resourceManager.getExecutionId(true), "layers.zip");
+            try (OutputStream os = limit(result.out(), limits);
+                    ZipOutputStream zipout = new ZipOutputStream(os)) {
+                zipout.setLevel(limits.getCompressionLevel());
+                Set<String> entries = new HashSet<>();
+                for (int i = 0; i < downloads.size(); i++) {
+                    LayerDownload download = downloads.get(i);
+                    Resource output = waitFor(futures.get(i), progressListener);
+                    try {
+                        String extension = FilenameUtils.getExtension(output.name());
+                        String entryName =
+                                getEntryName(download.featureType.getName(), extension, entries);
+                        ZipArchivePPIO.zipFile(output.file(), entryName, zipout);
+                    } finally {
+                        // mark the layer output for deletion
+                        resourceManager.addResource(new WPSFileResource(output));
+                    }
+
+                    // add the layer styles, skipping the ones already shared by other layers
+                    for (Resource style : DownloadUtilities.collectStyles(download.layerInfo)) {
+                        if (entries.add(style.name())) {
+                            ZipArchivePPIO.zipFile(style.file(), zipout);
+                        }
+                    }
+
+                    progressListener.progress(100f * (i + 1) / downloads.size());
+                    progressListener.setTask(
+                            new SimpleInternationalString(
+                                    "Packaged layers " + (i + 1) + " out of " + downloads.size()));
+                }
+                zipout.finish();
+            }
+
+            progressListener.complete();
+            return result.file();
+        } catch (Throwable e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Download failed");
+            }
+            // catch and rethrow but warn the listener
+            final ProcessException processException = new ProcessException(e);
+            progressListener.exceptionOccurred(processException);
+            throw processException;
+        } finally {
+            // stops the extractions still queued or running, if any
+            for (Future<Resource> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /** Applies the hard output limit, if any, to the ZIP file being written */
+    private OutputStream limit(OutputStream os, DownloadServiceConfiguration limits) {
+        if (limits.getHardOutputLimit() <= DownloadServiceConfiguration.NO_LIMIT) {
+            return os;
+        }
+        return new LimitedOutputStream(os, limits.getHardOutputLimit()) {
+
+            @Override
+            protected void raiseError(long pSizeMax, long pCount) throws IOException {
+                throw new IOException("Download Exceeded the maximum HARD allowed size!");
+            }
+        };
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads =
+                    Integer.getInteger(
+                            MAX_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+            // fixed number of threads, the queue holds at most the layers of the running requests
+            ThreadPoolExecutor pool =
+                    new ThreadPoolExecutor(
+                            Math.max(1, threads),
+                            Math.max(1, threads),
+                            60L,
+                            TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory() {
+                                AtomicInteger counter = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    Thread thread =
+                                            new Thread(
+                                                    r,
+                                                    "wps-download-layers-"
+                                                            + counter.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private ROIManager copy(ROIManager roiManager) {
+        return roiManager != null ? new ROIManager(roiManager) : null;
+    }
+
+    /**
+     * Waits for the layer extraction to complete, periodically checking if the process has been
+     * dismissed in the meantime
+     */
+    private Resource waitFor(Future<Resource> future, ProgressListener listener)
+            throws Exception {
+        while (true) {
+            checkDismissed(listener);
+            try {
+                return future.get(DISMISS_CHECK_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // not ready yet, check dismissal and try again
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static void checkDismissed(ProgressListener listener) {
+        if (listener.isCanceled()) {
+            throw new ProcessDismissedException(listener);
+        }
+    }
+
+    /** Builds a unique zip entry name for the layer output */
+    private String getEntryName(String name, String extension, Set<String> entries) {
+        String suffix = extension.isEmpty() ? "" : "." + extension;
+        String entryName = name + suffix;
+        for (int i = 2; !entries.add(entryName); i++) {
+            entryName = name + "_" + i + suffix;
+        }
+        return entryName;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        this.context = applicationContext;
+    }
+
+    /** A single layer download, resolved against the catalog */
+    private class LayerDownload {
+
+        final LayerInfo layerInfo;
+
+        final FeatureTypeInfo featureType;
+
+        final String mimeType;
+
+        final Filter filter;
+
+        LayerDownload(Layer layer, String defaultMimeType) throws CQLException {
+            String layerName = layer.getName();
+            if (layerName == null || layerName.isEmpty()) {
+                throw new IllegalArgumentException("Empty or null layer name provided!");
+            }
+            layerInfo = catalog.getLayerByName(layerName);
+            if (layerInfo == null) {
+                throw new IllegalArgumentException("Unable to locate layer: " + layerName);
+            }
+            if (!(layerInfo.getResource() instanceof FeatureTypeInfo)) {
+                throw new IllegalArgumentException(
+                        "Could not complete the Download Process, layer "
+                                + layerName
+                                + " is not a vector layer");
+            }
+            featureType = (FeatureTypeInfo) layerInfo.getResource();
+
+            // parameters are case insensitive, as in WMS requests
+            Map<String, String> parameters = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            parameters.putAll(layer.getParametersMap());
+            String format = parameters.get(OUTPUT_FORMAT);
+            mimeType = format != null ? format : defaultMimeType;
+            if (mimeType == null) {
+                throw new IllegalArgumentException(
+                        "No output format specified for layer " + layerName);
+            }
+            String cql = parameters.get(CQL_FILTER);
+            filter = cql != null ? ECQL.toFilter(cql) : null;
+        }
+    }
+}
@@ -27,6 +27,10 @@ public class DownloadServiceConfiguration {
 
     public static final String MAX_ANIMATION_FRAMES_NAME = "maxAnimationFrames";
 
+    public static final String RASTER_TILE_SIZE_NAME = "rasterTileSize";
+
+    public static final String RASTER_TILE_THREADS_NAME = "rasterTileThreads";
+
     public static final int DEFAULT_COMPRESSION_LEVEL = 4;
 
     public static final long DEFAULT_HARD_OUTPUT_LIMITS = NO_LIMIT;
@@ -39,6 +43,10 @@ public class DownloadServiceConfiguration {
 
     public static final int DEFAULT_MAX_ANIMATION_FRAMES = NO_LIMIT;
 
+    public static final int DEFAULT_RASTER_TILE_SIZE = NO_LIMIT;
+
+    public static final int DEFAULT_RASTER_TILE_THREADS = 4;
+
     /** Max #of features */
     private long maxFeatures = DEFAULT_MAX_FEATURES;
 
@@ -56,6 +64,12 @@ public class DownloadServiceConfiguration {
 
     private int maxAnimationFrames = DEFAULT_MAX_ANIMATION_FRAMES;
 
+    /** Size of the windows raster downloads are computed and written in, 0 disables tiling */
+    private int rasterTileSize = DEFAULT_RASTER_TILE_SIZE;
+
+    /** Number of threads computing the windows of a single raster download */
+    private int rasterTileThreads = DEFAULT_RASTER_TILE_THREADS;
+
     /** Constructor: */
     public DownloadServiceConfiguration(
             long maxFeatures,
@@ -64,12 +78,35 @@ public class DownloadServiceConfiguration {
             long hardOutputLimit,
             int compressionLevel,
             int maxAnimationFrames) {
+        this(
+                maxFeatures,
+                rasterSizeLimits,
+                writeLimits,
+                hardOutputLimit,
+                compressionLevel,
+                maxAnimationFrames,
+                DEFAULT_RASTER_TILE_SIZE,
+                DEFAULT_RASTER_TILE_THREADS);
+    }
+
+    /** Constructor: */
+    public DownloadServiceConfiguration(
+            long maxFeatures,
+            long rasterSizeLimits,
+            long writeLimits,
+            long hardOutputLimit,
+            int compressionLevel,
+            int maxAnimationFrames,
+            int rasterTileSize,
+            int rasterTileThreads) {
         this.maxFeatures = maxFeatures;
         this.rasterSizeLimits = rasterSizeLimits;
         this.writeLimits = writeLimits;
         this.hardOutputLimit = hardOutputLimit;
         this.compressionLevel = compressionLevel;
         this.maxAnimationFrames = maxAnimationFrames;
+        this.rasterTileSize = rasterTileSize;
+        this.rasterTileThreads = rasterTileThreads;
     }
 
     /** Default constructor */
@@ -107,6 +144,14 @@ public class DownloadServiceConfiguration {
         return maxAnimationFrames;
     }
 
+    public int getRasterTileSize() {
+        return rasterTileSize;
+    }
+
+    public int getRasterTileThreads() {
+        return rasterTileThreads;
+    }
+
     @Override
     public String toString() {
         return "DownloadServiceConfiguration [maxFeatures="
@@ -119,6 +164,10 @@ public class DownloadServiceConfiguration {
                 + hardOutputLimit
                 + ", compressionLevel="
                 + compressionLevel
+                + ", rasterTileSize="
+                + rasterTileSize
+                + ", rasterTileThreads="
+                + rasterTileThreads
                 + "]";
     }
 }
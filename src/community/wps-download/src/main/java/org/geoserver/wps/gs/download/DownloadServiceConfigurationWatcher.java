@@ -214,6 +214,16 @@ public class DownloadServiceConfigurationWatcher extends TimerTask
                         downloadProcessProperties,
                         DownloadServiceConfiguration.MAX_ANIMATION_FRAMES_NAME,
                         DownloadServiceConfiguration.DEFAULT_MAX_ANIMATION_FRAMES);
+        int rasterTileSize =
+                getIntValue(
+                        downloadProcessProperties,
+                        DownloadServiceConfiguration.RASTER_TILE_SIZE_NAME,
+                        DownloadServiceConfiguration.DEFAULT_RASTER_TILE_SIZE);
+        int rasterTileThreads =
+                getIntValue(
+                        downloadProcessProperties,
+                        DownloadServiceConfiguration.RASTER_TILE_THREADS_NAME,
+                        DownloadServiceConfiguration.DEFAULT_RASTER_TILE_THREADS);
 
         // create the configuration object
         return new DownloadServiceConfiguration(
@@ -222,7 +232,9 @@ public class DownloadServiceConfigurationWatcher extends TimerTask
                 writeLimits,
                 hardOutputLimit,
                 compressionLevel,
-                maxFrames);
+                maxFrames,
+                rasterTileSize,
+                rasterTileThreads);
     }
 
     private long getLongValue(Properties properties, String key, long defaultValue) {
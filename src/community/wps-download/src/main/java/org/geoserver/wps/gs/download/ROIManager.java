@@ -79,6 +79,20 @@ final class ROIManager {
         isROIBBOX = roi.isRectangle();
     }
 
+    /**
+     * Copy constructor, builds a new manager for the same ROI, without the native and target CRS
+     * setup. Used to share an already validated ROI among layers having different native CRSs.
+     *
+     * @param other the {@link ROIManager} to copy
+     */
+    ROIManager(ROIManager other) {
+        // work on a copy, reprojection might end up modifying the geometry user data
+        this.originalRoi = other.originalRoi.copy();
+        this.roiCRS = other.roiCRS;
+        this.originalRoi.setUserData(roiCRS);
+        this.isROIBBOX = other.isROIBBOX;
+    }
+
     /**
      * Reproject the initial roi to the provided CRS which is supposedly the native CRS of the data
      * to clip.
@@ -17,6 +17,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -26,6 +27,7 @@ import javax.media.jai.BorderExtender;
 import javax.media.jai.ImageLayout;
 import javax.media.jai.Interpolation;
 import javax.media.jai.JAI;
+import javax.media.jai.operator.FormatDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
@@ -33,6 +35,7 @@ import org.geoserver.data.util.CoverageUtils;
 import org.geoserver.platform.resource.Resource;
 import org.geoserver.wps.WPSException;
 import org.geoserver.wps.ppio.ComplexPPIO;
+import org.geoserver.wps.ppio.GeoTiffPPIO;
 import org.geoserver.wps.ppio.ProcessParameterIO;
 import org.geoserver.wps.resource.GridCoverageResource;
 import org.geoserver.wps.resource.WPSResourceManager;
@@ -95,6 +98,11 @@ class RasterDownload {
 
     private static final RasterSymbolizer RS = new RasterSymbolizerImpl();
 
+    /** GeoTIFF encoding parameters controlling the inner tiling */
+    private static final String TILE_WIDTH_KEY = "tilewidth";
+
+    private static final String TILE_HEIGHT_KEY = "tileheight";
+
     private static final BorderExtender BORDER_EXTENDER_COPY =
             BorderExtender.createInstance(BorderExtender.BORDER_COPY);
 
@@ -345,7 +353,12 @@ class RasterDownload {
                         }
 
                         disposableSources.add(gridCoverage);
-                        return writeRaster(mimeType, coverageInfo, gridCoverage, writeParams);
+                        return writeRaster(
+                                mimeType,
+                                coverageInfo,
+                                gridCoverage,
+                                writeParams,
+                                progressListener);
 
                     } else {
                         // Check if an actual crop is needed
@@ -363,7 +376,12 @@ class RasterDownload {
                             gridCoverage =
                                     extendToRegion(
                                             gridCoverage, requestedGridGeometry, backgroundValues);
-                            return writeRaster(mimeType, coverageInfo, gridCoverage, writeParams);
+                            return writeRaster(
+                                    mimeType,
+                                    coverageInfo,
+                                    gridCoverage,
+                                    writeParams,
+                                    progressListener);
                         }
                     }
                 }
@@ -391,7 +409,7 @@ class RasterDownload {
             //
             // Writing
             //
-            return writeRaster(mimeType, coverageInfo, gridCoverage, writeParams);
+            return writeRaster(mimeType, coverageInfo, gridCoverage, writeParams, progressListener);
         } finally {
             for (GridCoverage2D disposableCoverage : disposableSources) {
                 resourceManager.addResource(new GridCoverageResource(disposableCoverage));
@@ -768,13 +786,15 @@ class RasterDownload {
      * @param coverageInfo resource associated to the input coverage
      * @param gridCoverage gridcoverage to write
      * @param writeParams writing parameters
+     * @param progressListener listener to report the writing progress to
      * @return a {@link File} that points to the GridCoverage we wrote.
      */
     private Resource writeRaster(
             String mimeType,
             CoverageInfo coverageInfo,
             GridCoverage2D gridCoverage,
-            Parameters writeParams)
+            Parameters writeParams,
+            ProgressListener progressListener)
             throws Exception {
         if (LOGGER.isLoggable(Level.FINE)) {
             LOGGER.log(Level.FINE, "Writing raster");
@@ -815,6 +835,25 @@ class RasterDownload {
         final ImageOutputStream fileImageOutputStreamExtImpl =
                 new ImageOutputStreamAdapter(output.out());
         ImageOutputStream os = null;
+        Map encodingParams = writeParams != null ? writeParams.getParametersMap() : null;
+
+        // tiled execution, compute and write the output one window at a time
+        WindowedImage windowed = null;
+        int tileSize = limits.getRasterTileSize();
+        if (tileSize > 0) {
+            RenderedImage image = retile(gridCoverage.getRenderedImage(), tileSize);
+            windowed = new WindowedImage(image, limits.getRasterTileThreads(), progressListener);
+            gridCoverage =
+                    GC_FACTORY.create(
+                            gridCoverage.getName(),
+                            windowed,
+                            gridCoverage.getGridGeometry(),
+                            gridCoverage.getSampleDimensions(),
+                            null,
+                            gridCoverage.getProperties());
+            encodingParams = getTiledEncodingParams(complexPPIO, encodingParams, tileSize);
+        }
+
         // write
         try {
             // If limit is defined, LimitedImageOutputStream is used
@@ -835,10 +874,12 @@ class RasterDownload {
                 os = fileImageOutputStreamExtImpl;
             }
             // Encoding the GridCoverage
-            Map encodingParams = writeParams != null ? writeParams.getParametersMap() : null;
             complexPPIO.encode(gridCoverage, encodingParams, new OutputStreamAdapter(os));
             os.flush();
         } finally {
+            if (windowed != null) {
+                windowed.dispose();
+            }
             try {
                 if (os != null) {
                     os.close();
@@ -851,4 +892,41 @@ class RasterDownload {
         }
         return output;
     }
+
+    /**
+     * Makes the image tiles match the download windows, tiles are computed independently of each
+     * other down the whole processing chain (read, reprojection, clipping)
+     */
+    static RenderedImage retile(RenderedImage image, int tileSize) {
+        if (image.getTileWidth() == tileSize && image.getTileHeight() == tileSize) {
+            return image;
+        }
+        ImageLayout layout = new ImageLayout();
+        layout.setTileGridXOffset(image.getMinX()).setTileGridYOffset(image.getMinY());
+        layout.setTileWidth(tileSize).setTileHeight(tileSize);
+        // each window is read once, caching it would only fill the tile cache (put() refuses a
+        // null value, the constructor accepts it)
+        RenderingHints hints = new RenderingHints(JAI.KEY_TILE_CACHE, null);
+        hints.put(JAI.KEY_IMAGE_LAYOUT, layout);
+        return FormatDescriptor.create(image, image.getSampleModel().getDataType(), hints);
+    }
+
+    /**
+     * Have the GeoTIFF writer use the windows as its inner tiles, so that each window is encoded as
+     * soon as it's computed, unless the user specified a different tiling
+     */
+    private Map getTiledEncodingParams(ComplexPPIO ppio, Map encodingParams, int tileSize) {
+        if (!(ppio instanceof GeoTiffPPIO)) {
+            return encodingParams;
+        }
+        Map<String, Object> result = new HashMap<>();
+        if (encodingParams != null) {
+            result.putAll(encodingParams);
+        }
+        if (!result.containsKey(TILE_WIDTH_KEY) && !result.containsKey(TILE_HEIGHT_KEY)) {
+            result.put(TILE_WIDTH_KEY, String.valueOf(tileSize));
+            result.put(TILE_HEIGHT_KEY, String.valueOf(tileSize));
+        }
+        return result;
+    }
 }
@@ -99,6 +99,40 @@ class VectorDownload {
             CoordinateReferenceSystem targetCRS,
             final ProgressListener progressListener)
             throws Exception {
+        ROIManager roiManager = null;
+        if (roi != null) {
+            CoordinateReferenceSystem roiCRS = (CoordinateReferenceSystem) roi.getUserData();
+            roiManager = new ROIManager(roi, roiCRS);
+        }
+        return execute(
+                resourceInfo, mimeType, roiManager, clip, filter, targetCRS, progressListener);
+    }
+
+    /**
+     * Extract vector data to a file, given the provided mime-type, using a {@link ROIManager}
+     * whose native and target CRS have not been setup yet, allowing the caller to validate the ROI
+     * just once when downloading multiple layers.
+     *
+     * @param resourceInfo the {@link FeatureTypeInfo} to download from
+     * @param mimeType the mme-type for the requested output format
+     * @param roiManager the {@link ROIManager} for the clip/intersection, or null if no ROI was
+     *     provided. It's going to be setup with the native and target CRS of this download, so it
+     *     cannot be shared among concurrent downloads
+     * @param clip whether or not to clip the resulting data (useless for the moment)
+     * @param filter the {@link Filter} to load the data
+     * @param targetCRS the reproject {@link CoordinateReferenceSystem}
+     * @param progressListener
+     * @return a file, given the provided mime-type.
+     */
+    public Resource execute(
+            FeatureTypeInfo resourceInfo,
+            String mimeType,
+            ROIManager roiManager,
+            boolean clip,
+            Filter filter,
+            CoordinateReferenceSystem targetCRS,
+            final ProgressListener progressListener)
+            throws Exception {
 
         // prepare native CRS
         CoordinateReferenceSystem nativeCRS = DownloadUtilities.getNativeCRS(resourceInfo);
@@ -109,13 +143,10 @@ class VectorDownload {
         //
         // STEP 0 - Push ROI back to native CRS (if ROI is provided)
         //
-        ROIManager roiManager = null;
-        if (roi != null) {
+        if (roiManager != null) {
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.log(Level.FINE, "Pushing ROI to native CRS");
             }
-            CoordinateReferenceSystem roiCRS = (CoordinateReferenceSystem) roi.getUserData();
-            roiManager = new ROIManager(roi, roiCRS);
             // set use nativeCRS
             roiManager.useNativeCRS(nativeCRS);
         }
@@ -169,7 +200,9 @@ class VectorDownload {
         // do we need to reproject?
         SimpleFeatureCollection reprojectedFeatures;
         if (targetCRS != null && !CRS.equalsIgnoreMetadata(nativeCRS, targetCRS)) {
-            roiManager.useTargetCRS(targetCRS);
+            if (hasROI) {
+                roiManager.useTargetCRS(targetCRS);
+            }
             // testing reprojection...
             final MathTransform targetTX = CRS.findMathTransform(nativeCRS, targetCRS, true);
             if (!targetTX.isIdentity()) {
@@ -194,7 +227,7 @@ class VectorDownload {
         // STEP 3 - Clip in targetCRS
         //
         SimpleFeatureCollection clippedFeatures;
-        if (clip && roi != null) {
+        if (clip && hasROI) {
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.log(Level.FINE, "Clipping features");
             }
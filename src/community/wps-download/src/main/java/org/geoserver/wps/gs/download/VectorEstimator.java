@@ -64,6 +64,36 @@ class VectorEstimator {
             CoordinateReferenceSystem targetCRS,
             final ProgressListener progressListener)
             throws Exception {
+        ROIManager roiManager = null;
+        if (roi != null) {
+            CoordinateReferenceSystem roiCRS = (CoordinateReferenceSystem) roi.getUserData();
+            roiManager = new ROIManager(roi, roiCRS);
+        }
+        return execute(resourceInfo, roiManager, clip, filter, targetCRS, progressListener);
+    }
+
+    /**
+     * Checks whether or not the requests exceed download limits for vector data, using a {@link
+     * ROIManager} whose native CRS has not been setup yet.
+     *
+     * @param resourceInfo the {@link FeatureTypeInfo} to download from
+     * @param roiManager the {@link ROIManager} for the clip/intersection, or null if no ROI was
+     *     provided. It's going to be setup with the native CRS of the resource
+     * @param clip whether or not to clip the resulting data (useless for the moment)
+     * @param filter the {@link Filter} to load the data
+     * @param targetCRS the reproject {@link CoordinateReferenceSystem} (useless for the moment)
+     * @param progressListener
+     * @return <code>true</code> if we do not exceeds the limits, <code>false</code> otherwise.
+     * @throws Exception in case something bad happens.
+     */
+    public boolean execute(
+            FeatureTypeInfo resourceInfo,
+            ROIManager roiManager,
+            boolean clip,
+            Filter filter,
+            CoordinateReferenceSystem targetCRS,
+            final ProgressListener progressListener)
+            throws Exception {
 
         //
         // Do we need to do anything?
@@ -81,13 +111,10 @@ class VectorEstimator {
         //
         // STEP 0 - Push ROI back to native CRS (if ROI is provided)
         //
-        ROIManager roiManager = null;
-        if (roi != null) {
+        if (roiManager != null) {
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.log(Level.FINE, "Pushing ROI to native CRS");
             }
-            CoordinateReferenceSystem roiCRS = (CoordinateReferenceSystem) roi.getUserData();
-            roiManager = new ROIManager(roi, roiCRS);
             // set use nativeCRS
             roiManager.useNativeCRS(nativeCRS);
         }
@@ -110,7 +137,7 @@ class VectorEstimator {
             }
         }
         // and with the ROI if we have one
-        if (roi != null) {
+        if (roiManager != null) {
             if (LOGGER.isLoggable(Level.FINE)) {
                 LOGGER.log(Level.FINE, "Adding Geometry filter with ROI");
             }
@@ -0,0 +1,180 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs.download;
+
+import java.awt.Image;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import org.geoserver.wps.ProcessDismissedException;
+import org.geotools.process.ProcessException;
+import org.opengis.util.ProgressListener;
+
+/**
+ * Wraps the final image of a raster download, making its tiles (the download windows) be computed
+ * by a pool of threads, ahead of the writer requesting them in order, so that reading,
+ * reprojecting and clipping of the next windows overlaps with the encoding of the current one.
+ *
+ * <p>At most {@code threads} windows are computed ahead, and each window is handed to the writer
+ * without being cached, so that the memory used depends on the window size and number of threads,
+ * not on the size of the download. The progress is reported to the process listener as windows are
+ * delivered, and the download is stopped as soon as the process is dismissed.
+ */
+class WindowedImage extends PlanarImage {
+
+    private final RenderedImage source;
+
+    private final ProgressListener listener;
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final Map<Integer, Future<Raster>> futures = new HashMap<>();
+
+    private final int windows;
+
+    /** The index of the next window to be scheduled */
+    private int next;
+
+    private int delivered;
+
+    /**
+     * Builds a windowed image
+     *
+     * @param source The image to be computed, its tiles are the download windows
+     * @param threads The number of threads computing the windows, if lower than 2 windows will be
+     *     computed on demand in the calling thread
+     * @param listener The listener progress is reported to, can be null
+     */
+    public WindowedImage(RenderedImage source, int threads, ProgressListener listener) {
+        super(new ImageLayout(source), toVector(source), getProperties(source));
+        this.source = source;
+        this.listener = listener;
+        this.threads = threads;
+        this.windows = source.getNumXTiles() * source.getNumYTiles();
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    }
+
+    private static Vector<RenderedImage> toVector(RenderedImage source) {
+        Vector<RenderedImage> sources = new Vector<>();
+        sources.add(source);
+        return sources;
+    }
+
+    private static Hashtable<String, Object> getProperties(RenderedImage source) {
+        Hashtable<String, Object> properties = new Hashtable<>();
+        String[] names = source.getPropertyNames();
+        if (names != null) {
+            for (String name : names) {
+                Object value = source.getProperty(name);
+                if (value != null && value != Image.UndefinedProperty) {
+                    properties.put(name, value);
+                }
+            }
+        }
+        return properties;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        if (tileX < getMinTileX()
+                || tileX > getMaxTileX()
+                || tileY < getMinTileY()
+                || tileY > getMaxTileY()) {
+            return null;
+        }
+        checkDismissed();
+
+        int index = (tileY - getMinTileY()) * getNumXTiles() + (tileX - getMinTileX());
+        Future<Raster> future = null;
+        if (executor != null) {
+            synchronized (this) {
+                future = futures.remove(index);
+                // the writer jumped ahead, drop the windows it skipped and restart the
+                // prefetch from there
+                Iterator<Map.Entry<Integer, Future<Raster>>> it = futures.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Integer, Future<Raster>> entry = it.next();
+                    if (entry.getKey() < index) {
+                        entry.getValue().cancel(true);
+                        it.remove();
+                    }
+                }
+                if (index >= next) {
+                    next = index + 1;
+                }
+                // keep the threads busy with the following windows
+                while (next < windows && futures.size() < threads) {
+                    final int nextIndex = next++;
+                    futures.put(nextIndex, executor.submit(() -> computeWindow(nextIndex)));
+                }
+            }
+        }
+
+        Raster window;
+        if (future != null) {
+            try {
+                window = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("Interrupted while computing the download windows", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ProcessException("Failed to compute a download window", e.getCause());
+            }
+        } else {
+            window = source.getTile(tileX, tileY);
+        }
+        reportProgress();
+
+        return window;
+    }
+
+    private Raster computeWindow(int index) {
+        checkDismissed();
+        int tileX = getMinTileX() + index % getNumXTiles();
+        int tileY = getMinTileY() + index / getNumXTiles();
+        return source.getTile(tileX, tileY);
+    }
+
+    private void checkDismissed() {
+        if (listener != null && listener.isCanceled()) {
+            throw new ProcessDismissedException(listener);
+        }
+    }
+
+    private synchronized void reportProgress() {
+        if (listener != null && delivered < windows) {
+            delivered++;
+            listener.progress(100f * delivered / windows);
+        }
+    }
+
+    /** Stops the computation of the windows, releasing the threads */
+    @Override
+    public synchronized void dispose() {
+        if (executor != null) {
+            for (Future<Raster> future : futures.values()) {
+                future.cancel(true);
+            }
+            futures.clear();
+            executor.shutdownNow();
+        }
+        super.dispose();
+    }
+}
@@ -157,7 +157,25 @@ public class ZipArchivePPIO extends BinaryPPIO {
     public static void zipFile(File file, ZipOutputStream zipout) throws IOException {
         // copy file by reading 4k at a time (faster than buffered reading)
         byte[] buffer = new byte[4096];
-        zipFileInternal(file, zipout, buffer);
+        zipFileInternal(file, FilenameUtils.getName(file.getAbsolutePath()), zipout, buffer);
+    }
+
+    /**
+     * This method zip the provided file to the provided {@link ZipOutputStream}, using the
+     * specified entry name.
+     *
+     * <p>It throws {@link IllegalArgumentException} in case the provided file does not exists or is
+     * not a readable file.
+     *
+     * @param file the {@link File} to zip
+     * @param entryName the name of the zip entry
+     * @param zipout the {@link ZipOutputStream} to write to
+     * @throws IOException in case something bad happen
+     */
+    public static void zipFile(File file, String entryName, ZipOutputStream zipout)
+            throws IOException {
+        byte[] buffer = new byte[4096];
+        zipFileInternal(file, entryName, zipout, buffer);
     }
 
     /**
@@ -210,11 +228,13 @@ public class ZipArchivePPIO extends BinaryPPIO {
      * not a readable file.
      *
      * @param file the {@link File} to zip
+     * @param entryName the name of the zip entry
      * @param zipout the {@link ZipOutputStream} to write to
      * @param buffer the buffer to use for reading/writing
      * @throws IOException in case something bad happen
      */
-    private static void zipFileInternal(File file, ZipOutputStream zipout, byte[] buffer)
+    private static void zipFileInternal(
+            File file, String entryName, ZipOutputStream zipout, byte[] buffer)
             throws IOException {
         if (file == null || !file.exists() || !file.canRead()) {
             throw new IllegalArgumentException(
@@ -223,7 +243,7 @@ public class ZipArchivePPIO extends BinaryPPIO {
                             : "null");
         }
 
-        final ZipEntry entry = new ZipEntry(FilenameUtils.getName(file.getAbsolutePath()));
+        final ZipEntry entry = new ZipEntry(entryName);
         zipout.putNextEntry(entry);
 
         // copy over the file
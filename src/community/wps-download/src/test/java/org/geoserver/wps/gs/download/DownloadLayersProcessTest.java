@@ -0,0 +1,209 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.gs.download;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.wps.ProcessDismissedException;
+import org.geoserver.wps.WPSTestSupport;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.util.DefaultProgressListener;
+import org.geotools.geojson.feature.FeatureJSON;
+import org.geotools.process.ProcessException;
+import org.junit.Test;
+
+public class DownloadLayersProcessTest extends WPSTestSupport {
+
+    private DownloadLayersProcess buildProcess(DownloadServiceConfiguration configuration) {
+        DownloadEstimatorProcess limits =
+                new DownloadEstimatorProcess(
+                        new StaticDownloadServiceConfiguration(configuration), getGeoServer());
+        DownloadLayersProcess process =
+                new DownloadLayersProcess(getGeoServer(), limits, getResourceManager());
+        process.setApplicationContext(applicationContext);
+        return process;
+    }
+
+    private Layer buildLayer(String name, String... keyValues) {
+        Layer layer = new Layer();
+        layer.setName(name);
+        for (int i = 0; i < keyValues.length; i += 2) {
+            layer.getParameters().add(new Parameter(keyValues[i], keyValues[i + 1]));
+        }
+        return layer;
+    }
+
+    private int countFeatures(ZipFile zip, String entryName) throws Exception {
+        ZipEntry entry = zip.getEntry(entryName);
+        assertNotNull("Could not find " + entryName, entry);
+        try (InputStream is = zip.getInputStream(entry)) {
+            return new FeatureJSON().readFeatureCollection(is).size();
+        }
+    }
+
+    @Test
+    public void testDownloadLayers() throws Exception {
+        DownloadLayersProcess process = buildProcess(new DownloadServiceConfiguration());
+        String polygons = getLayerId(MockData.POLYGONS);
+        String buildings = getLayerId(MockData.BUILDINGS);
+        DefaultProgressListener listener = new DefaultProgressListener();
+        File result =
+                process.execute(
+                        new Layer[] {
+                            buildLayer(polygons),
+                            buildLayer(buildings, "cql_filter", "ADDRESS = '123 Main Street'")
+                        },
+                        "application/json",
+                        null,
+                        null,
+                        null,
+                        null,
+                        listener);
+        assertNotNull(result);
+        assertEquals(100, listener.getProgress(), 0);
+
+        FeatureTypeInfo ti = getCatalog().getFeatureTypeByName(polygons);
+        SimpleFeatureCollection fc =
+                (SimpleFeatureCollection) ti.getFeatureSource(null, null).getFeatures();
+        try (ZipFile zip = new ZipFile(result)) {
+            List<String> names = new ArrayList<>();
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                names.add(entry.getName());
+            }
+            // layers, in request order, each followed by its styles
+            assertEquals("Polygons.json", names.get(0));
+            assertTrue(names.contains("Buildings.json"));
+            assertTrue(names.indexOf("Buildings.json") > names.indexOf("Polygons.json"));
+            assertTrue(names.stream().anyMatch(n -> n.endsWith(".sld")));
+
+            assertEquals(fc.size(), countFeatures(zip, "Polygons.json"));
+            assertEquals(1, countFeatures(zip, "Buildings.json"));
+        }
+    }
+
+    @Test
+    public void testSameLayerDifferentFilters() throws Exception {
+        DownloadLayersProcess process = buildProcess(new DownloadServiceConfiguration());
+        String buildings = getLayerId(MockData.BUILDINGS);
+        File result =
+                process.execute(
+                        new Layer[] {
+                            buildLayer(buildings, "CQL_FILTER", "ADDRESS = '123 Main Street'"),
+                            buildLayer(buildings, "CQL_FILTER", "ADDRESS <> '123 Main Street'")
+                        },
+                        "application/json",
+                        null,
+                        null,
+                        null,
+                        null,
+                        null);
+        try (ZipFile zip = new ZipFile(result)) {
+            assertEquals(1, countFeatures(zip, "Buildings.json"));
+            assertEquals(1, countFeatures(zip, "Buildings_2.json"));
+        }
+    }
+
+    @Test
+    public void testLimitsExceeded() throws Exception {
+        DownloadLayersProcess process =
+                buildProcess(
+                        new DownloadServiceConfiguration(
+                                1,
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                DownloadServiceConfiguration.DEFAULT_COMPRESSION_LEVEL,
+                                DownloadServiceConfiguration.NO_LIMIT));
+        try {
+            process.execute(
+                    new Layer[] {
+                        buildLayer(getLayerId(MockData.BUILDINGS), "CQL_FILTER", "INCLUDE"),
+                        buildLayer(getLayerId(MockData.POLYGONS))
+                    },
+                    "application/json",
+                    null,
+                    null,
+                    null,
+                    null,
+                    null);
+            fail("Should have failed, buildings has two features");
+        } catch (ProcessException e) {
+            assertTrue(e.getMessage().contains("Download Limits Exceeded on layer"));
+        }
+    }
+
+    @Test
+    public void testHardOutputLimit() throws Exception {
+        // no compression, the package is larger than any of the layers it contains
+        DownloadLayersProcess process =
+                buildProcess(
+                        new DownloadServiceConfiguration(
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                Deflater.NO_COMPRESSION,
+                                DownloadServiceConfiguration.NO_LIMIT));
+        Layer[] layers = {
+            buildLayer(getLayerId(MockData.BUILDINGS)), buildLayer(getLayerId(MockData.POLYGONS))
+        };
+        File result = process.execute(layers, "application/json", null, null, null, null, null);
+        long size = result.length();
+
+        // each layer fits in the limit, the package does not
+        process =
+                buildProcess(
+                        new DownloadServiceConfiguration(
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                DownloadServiceConfiguration.NO_LIMIT,
+                                size - 1,
+                                Deflater.NO_COMPRESSION,
+                                DownloadServiceConfiguration.NO_LIMIT));
+        try {
+            process.execute(layers, "application/json", null, null, null, null, null);
+            fail("Should have failed, the package exceeds the hard output limit");
+        } catch (ProcessException e) {
+            assertEquals(
+                    "Download Exceeded the maximum HARD allowed size!", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testDismissed() throws Exception {
+        DownloadLayersProcess process = buildProcess(new DownloadServiceConfiguration());
+        DefaultProgressListener listener = new DefaultProgressListener();
+        listener.setCanceled(true);
+        try {
+            process.execute(
+                    new Layer[] {
+                        buildLayer(getLayerId(MockData.BUILDINGS)),
+                        buildLayer(getLayerId(MockData.POLYGONS))
+                    },
+                    "application/json",
+                    null,
+                    null,
+                    null,
+                    null,
+                    listener);
+            fail("Should have been dismissed");
+        } catch (ProcessException e) {
+            assertTrue(e.getCause() instanceof ProcessDismissedException);
+        }
+    }
+}
@@ -8,12 +8,15 @@ package org.geoserver.wps.gs.download;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 import it.geosolutions.imageio.plugins.tiff.PrivateTIFFTagSet;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.FileInputStream;
@@ -21,6 +24,7 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -34,6 +38,9 @@ import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.FileImageInputStream;
+import javax.media.jai.OpImage;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedOp;
 import javax.xml.namespace.QName;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -759,6 +766,163 @@ public class DownloadProcessTest extends WPSTestSupport {
         }
     }
 
+    /**
+     * Test the tiled raster download, computing and writing the output in windows
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public void testRetile() throws Exception {
+        // a single tile source, to be split in windows
+        BufferedImage source = new BufferedImage(100, 80, BufferedImage.TYPE_BYTE_GRAY);
+        for (int i = 0; i < 100; i++) {
+            source.getRaster().setSample(i, i * 80 / 100, 0, i);
+        }
+        RenderedImage retiled = RasterDownload.retile(source, 32);
+        assertEquals(32, retiled.getTileWidth());
+        assertEquals(32, retiled.getTileHeight());
+        assertEquals(4, retiled.getNumXTiles());
+        assertEquals(3, retiled.getNumYTiles());
+        // the windows are not cached
+        PlanarImage rendering = ((RenderedOp) retiled).getRendering();
+        Assert.assertNull(((OpImage) rendering).getTileCache());
+        Raster expected = source.getData();
+        Raster actual = retiled.getData();
+        Assert.assertArrayEquals(
+                expected.getSamples(0, 0, 100, 80, 0, (int[]) null),
+                actual.getSamples(0, 0, 100, 80, 0, (int[]) null));
+
+        // already matching tiles are left alone
+        assertSame(retiled, RasterDownload.retile(retiled, 32));
+    }
+
+    @Test
+    public void testDownloadRasterTiled() throws Exception {
+        Polygon roi =
+                (Polygon)
+                        new WKTReader2()
+                                .read(
+                                        "POLYGON (( -127.57473954542964 54.06575021619523, -130.8545966116691 52.00807146727025, -129.50812897394974 49.85372324691927, -130.5300633861675 49.20465679591609, -129.25955033314003 48.60392508062591, -128.00975216684665 50.986137055052474, -125.8623089087404 48.63154492960477, -123.984159178178 50.68231871628503, -126.91186316993704 52.15307567440926, -125.3444367403868 53.54787804784162, -127.57473954542964 54.06575021619523 ))");
+        roi.setSRID(4326);
+        final WPSResourceManager resourceManager = getResourceManager();
+
+        // reference, untiled download
+        DownloadEstimatorProcess limits =
+                new DownloadEstimatorProcess(
+                        new StaticDownloadServiceConfiguration(), getGeoServer());
+        DownloadProcess downloadProcess =
+                new DownloadProcess(getGeoServer(), limits, resourceManager);
+        File reference = downloadRasterWithROI(downloadProcess, roi, new NullProgressListener());
+
+        // tiled download, small windows computed by two threads
+        DownloadEstimatorProcess tiledLimits =
+                new DownloadEstimatorProcess(
+                        new StaticDownloadServiceConfiguration(
+                                new DownloadServiceConfiguration(
+                                        DownloadServiceConfiguration.NO_LIMIT,
+                                        DownloadServiceConfiguration.NO_LIMIT,
+                                        DownloadServiceConfiguration.NO_LIMIT,
+                                        DownloadServiceConfiguration.NO_LIMIT,
+                                        DownloadServiceConfiguration.DEFAULT_COMPRESSION_LEVEL,
+                                        DownloadServiceConfiguration.NO_LIMIT,
+                                        64,
+                                        2)),
+                        getGeoServer());
+        DownloadProcess tiledProcess =
+                new DownloadProcess(getGeoServer(), tiledLimits, resourceManager);
+        final List<Float> progress = new ArrayList<>();
+        DefaultProgressListener listener =
+                new DefaultProgressListener() {
+                    @Override
+                    public void progress(float percent) {
+                        progress.add(percent);
+                        super.progress(percent);
+                    }
+                };
+        File tiled = downloadRasterWithROI(tiledProcess, roi, listener);
+        // progress is reported as the windows get written, in order
+        Assert.assertTrue(progress.stream().anyMatch(p -> p > 0 && p < 100));
+        for (int i = 1; i < progress.size(); i++) {
+            Assert.assertTrue(progress.get(i) >= progress.get(i - 1));
+        }
+        Assert.assertEquals(100f, progress.get(progress.size() - 1), 0f);
+
+        GeoTiffReader referenceReader = null;
+        GeoTiffReader tiledReader = null;
+        GridCoverage2D referenceCoverage = null, tiledCoverage = null;
+        try {
+            referenceReader = new GeoTiffReader(extractFiles(reference, "GTIFF")[0]);
+            referenceCoverage = referenceReader.read(null);
+            tiledReader = new GeoTiffReader(extractFiles(tiled, "GTIFF")[0]);
+            tiledCoverage = tiledReader.read(null);
+
+            // same area and contents
+            Assert.assertEquals(
+                    referenceCoverage.getGridGeometry().getGridRange(),
+                    tiledCoverage.getGridGeometry().getGridRange());
+            RenderedImage referenceImage = referenceCoverage.getRenderedImage();
+            RenderedImage tiledImage = tiledCoverage.getRenderedImage();
+            Raster referenceData = referenceImage.getData();
+            Raster tiledData = tiledImage.getData();
+            for (int b = 0; b < referenceData.getNumBands(); b++) {
+                Assert.assertArrayEquals(
+                        referenceData.getSamples(
+                                referenceData.getMinX(),
+                                referenceData.getMinY(),
+                                referenceData.getWidth(),
+                                referenceData.getHeight(),
+                                b,
+                                (int[]) null),
+                        tiledData.getSamples(
+                                tiledData.getMinX(),
+                                tiledData.getMinY(),
+                                tiledData.getWidth(),
+                                tiledData.getHeight(),
+                                b,
+                                (int[]) null));
+            }
+            // the windows have been used as inner tiles
+            Assert.assertEquals(64, tiledImage.getTileWidth());
+            Assert.assertEquals(64, tiledImage.getTileHeight());
+        } finally {
+            if (referenceCoverage != null) {
+                CoverageCleanerCallback.disposeCoverage(referenceCoverage);
+            }
+            if (tiledCoverage != null) {
+                CoverageCleanerCallback.disposeCoverage(tiledCoverage);
+            }
+            if (referenceReader != null) {
+                referenceReader.dispose();
+            }
+            if (tiledReader != null) {
+                tiledReader.dispose();
+            }
+
+            // clean up process
+            resourceManager.finished(resourceManager.getExecutionId(true));
+        }
+    }
+
+    private File downloadRasterWithROI(
+            DownloadProcess downloadProcess, Polygon roi, ProgressListener listener)
+            throws Exception {
+        return downloadProcess.execute(
+                getLayerId(MockData.USA_WORLDIMG), // layerName
+                null, // filter
+                "image/tiff", // outputFormat
+                null, // targetCRS
+                CRS.decode("EPSG:4326", true), // roiCRS
+                roi, // roi
+                true, // cropToGeometry
+                null, // interpolation
+                null, // targetSizeX
+                null, // targetSizeY
+                null, // bandSelectIndices
+                null, // Writing params
+                listener // progressListener
+                );
+    }
+
     /**
      * Test Writing parameters are used, nodata not being set
      *
@@ -79,6 +79,15 @@ class CatalogStoreFeatureCollection extends AbstractFeatureCollection<FeatureTyp
     @Override
     protected void closeIterator(Iterator<Feature> close) {}
 
+    @Override
+    public int size() {
+        // count the matching catalog objects, no need to sort and map them into records
+        CatalogStoreFeatureIterator it =
+                new CatalogStoreFeatureIterator(
+                        offset, count, null, filter, catalog, mapping, rd, interpolationProperties);
+        return it.countRemaining();
+    }
+
     @Override
     public FeatureCollection<FeatureType, Feature> subCollection(Filter filter) {
         return new FilteringFeatureCollection<FeatureType, Feature>(this, filter);
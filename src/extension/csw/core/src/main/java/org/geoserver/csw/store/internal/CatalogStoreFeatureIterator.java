@@ -175,6 +175,20 @@ class CatalogStoreFeatureIterator implements Iterator<Feature> {
         }
     }
 
+    /**
+     * Counts the remaining records, without mapping them
+     *
+     * @return the number of records left in this iterator
+     */
+    public int countRemaining() {
+        int count = 0;
+        while (hasNext()) {
+            nextInternal();
+            count++;
+        }
+        return count;
+    }
+
     @Override
     public Feature next() {
         CatalogInfo info = nextInternal();
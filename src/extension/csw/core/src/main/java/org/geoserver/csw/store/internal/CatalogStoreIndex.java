@@ -0,0 +1,691 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.csw.store.internal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.Info;
+import org.geoserver.catalog.KeywordInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.util.logging.Logging;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.FilterVisitor;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.filter.spatial.BinarySpatialOperator;
+import org.opengis.filter.spatial.Contains;
+import org.opengis.filter.spatial.Crosses;
+import org.opengis.filter.spatial.Equals;
+import org.opengis.filter.spatial.Intersects;
+import org.opengis.filter.spatial.Overlaps;
+import org.opengis.filter.spatial.Touches;
+import org.opengis.filter.spatial.Within;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * In memory index of the resources and layer groups published by the internal catalog store,
+ * kept up to date by listening to catalog events.
+ *
+ * <p>The index is made of an STR-tree over the object bounds, and a set of inverted indexes, one
+ * for each of the (unmapped) text expressions used in the filters, built on first use. Text and
+ * spatial predicates in the filters are used to compute a set of candidate objects, the original
+ * filter is then evaluated only against them. The candidate set is a superset of the actual
+ * matches, so the index never changes the outcome of a query, it only avoids full scans.
+ */
+public class CatalogStoreIndex implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogStoreIndex.class);
+
+    static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+
+    /** Maximum number of text expressions indexed at the same time */
+    static final int MAX_TEXT_INDEXES = 16;
+
+    final Catalog catalog;
+
+    /** Document number by object identifier */
+    final Map<String, Integer> documents = new HashMap<>();
+
+    /** Object identifier by document number, null for removed objects */
+    final List<String> identifiers = new ArrayList<>();
+
+    /** The raw and geographic bounds of each document */
+    final Map<Integer, List<Envelope>> bounds = new HashMap<>();
+
+    /** Spatial index over the bounds, built lazily, null when it needs to be rebuilt */
+    STRtree tree;
+
+    /** Inverted indexes, by the expression they index, least recently used first */
+    final Map<Expression, TextIndex> textIndexes =
+            new LinkedHashMap<Expression, TextIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Expression, TextIndex> eldest) {
+                    return size() > MAX_TEXT_INDEXES;
+                }
+            };
+
+    /** Whether the index is aligned with the catalog */
+    boolean loaded;
+
+    /**
+     * Builds a new index. The catalog should be the raw one, the index must contain all the
+     * objects regardless of the user running the query.
+     */
+    public CatalogStoreIndex(Catalog catalog) {
+        this.catalog = catalog;
+        catalog.addListener(this);
+    }
+
+    /**
+     * Returns a filter equivalent to the one provided, but that can be evaluated against the
+     * catalog objects without a full scan, or the original filter if the index cannot help
+     */
+    public synchronized Filter narrow(Filter filter) {
+        if (filter == null || filter == Filter.INCLUDE || filter == Filter.EXCLUDE) {
+            return filter;
+        }
+        Set<String> candidates = getCandidates(filter);
+        if (candidates == null) {
+            return filter;
+        } else if (candidates.isEmpty()) {
+            return Filter.EXCLUDE;
+        }
+        return ff.and(new CandidatesFilter(candidates), filter);
+    }
+
+    /**
+     * Returns the identifiers of the objects that might match the filter, or null if the filter
+     * cannot be answered by the index
+     */
+    public synchronized Set<String> getCandidates(Filter filter) {
+        ensureLoaded();
+        BitSet docs = candidates(filter);
+        if (docs == null) {
+            return null;
+        }
+        Set<String> result = new HashSet<>();
+        for (int d = docs.nextSetBit(0); d >= 0; d = docs.nextSetBit(d + 1)) {
+            String id = identifiers.get(d);
+            if (id != null) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    BitSet candidates(Filter filter) {
+        if (filter == Filter.EXCLUDE) {
+            return new BitSet();
+        } else if (filter instanceof And) {
+            BitSet result = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                BitSet docs = candidates(child);
+                if (docs != null) {
+                    if (result == null) {
+                        result = (BitSet) docs.clone();
+                    } else {
+                        result.and(docs);
+                    }
+                }
+            }
+            return result;
+        } else if (filter instanceof Or) {
+            BitSet result = new BitSet();
+            for (Filter child : ((Or) filter).getChildren()) {
+                BitSet docs = candidates(child);
+                if (docs == null) {
+                    return null;
+                }
+                result.or(docs);
+            }
+            return result;
+        } else if (filter instanceof PropertyIsLike) {
+            return likeCandidates((PropertyIsLike) filter);
+        } else if (filter instanceof PropertyIsEqualTo) {
+            return equalCandidates((PropertyIsEqualTo) filter);
+        } else if (filter instanceof BBOX
+                || filter instanceof Intersects
+                || filter instanceof Contains
+                || filter instanceof Within
+                || filter instanceof Overlaps
+                || filter instanceof Crosses
+                || filter instanceof Touches
+                || filter instanceof Equals) {
+            return spatialCandidates((BinarySpatialOperator) filter);
+        }
+        return null;
+    }
+
+    private BitSet likeCandidates(PropertyIsLike like) {
+        TextIndex index = getTextIndex(like.getExpression());
+        if (index == null || like.getLiteral() == null) {
+            return null;
+        }
+
+        String pattern = like.getLiteral();
+        List<List<String>> sequences =
+                parsePattern(pattern, like.getWildCard(), like.getSingleChar(), like.getEscape());
+        BitSet result = null;
+        for (List<String> tokens : sequences) {
+            for (int i = 0; i < tokens.size(); i++) {
+                // a token in the middle of a literal sequence must be matched as a whole,
+                // the ones at its ends might be part of longer tokens
+                boolean whole = i > 0 && i < tokens.size() - 1;
+                BitSet docs =
+                        whole ? index.matching(tokens.get(i)) : index.containing(tokens.get(i));
+                if (result == null) {
+                    result = docs;
+                } else {
+                    result.and(docs);
+                }
+            }
+        }
+        return result;
+    }
+
+    private BitSet equalCandidates(PropertyIsEqualTo equal) {
+        Expression expression;
+        Object value;
+        if (equal.getExpression2() instanceof Literal
+                && !(equal.getExpression1() instanceof Literal)) {
+            expression = equal.getExpression1();
+            value = ((Literal) equal.getExpression2()).getValue();
+        } else if (equal.getExpression1() instanceof Literal
+                && !(equal.getExpression2() instanceof Literal)) {
+            expression = equal.getExpression2();
+            value = ((Literal) equal.getExpression1()).getValue();
+        } else {
+            return null;
+        }
+        // numbers and dates might be compared after a conversion, don't use the index for them
+        if (!(value instanceof String) || !isPlainText((String) value)) {
+            return null;
+        }
+        TextIndex index = getTextIndex(expression);
+        if (index == null) {
+            return null;
+        }
+        BitSet result = null;
+        for (String token : tokenize((String) value)) {
+            BitSet docs = index.matching(token);
+            if (result == null) {
+                result = docs;
+            } else {
+                result.and(docs);
+            }
+        }
+        return result;
+    }
+
+    private boolean isPlainText(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        char first = value.charAt(0);
+        return !Character.isDigit(first) && first != '-' && first != '+' && first != '.';
+    }
+
+    private BitSet spatialCandidates(BinarySpatialOperator op) {
+        Object value;
+        if (isBoundingBox(op.getExpression1()) && op.getExpression2() instanceof Literal) {
+            value = ((Literal) op.getExpression2()).getValue();
+        } else if (isBoundingBox(op.getExpression2()) && op.getExpression1() instanceof Literal) {
+            value = ((Literal) op.getExpression1()).getValue();
+        } else {
+            return null;
+        }
+
+        Envelope envelope;
+        CoordinateReferenceSystem crs = null;
+        if (value instanceof Geometry) {
+            envelope = ((Geometry) value).getEnvelopeInternal();
+            Object userData = ((Geometry) value).getUserData();
+            if (userData instanceof CoordinateReferenceSystem) {
+                crs = (CoordinateReferenceSystem) userData;
+            }
+        } else if (value instanceof BoundingBox) {
+            ReferencedEnvelope re = ReferencedEnvelope.reference((BoundingBox) value);
+            envelope = re;
+            crs = re.getCoordinateReferenceSystem();
+        } else if (value instanceof Envelope) {
+            envelope = (Envelope) value;
+        } else {
+            return null;
+        }
+
+        // the objects are indexed both by their raw and geographic bounds, query with the raw
+        // envelope, in both axis orders, and with its geographic equivalent
+        List<Envelope> queries = new ArrayList<>();
+        queries.add(envelope);
+        queries.add(swap(envelope));
+        if (crs != null) {
+            try {
+                ReferencedEnvelope geographic =
+                        new ReferencedEnvelope(envelope, crs)
+                                .transform(DefaultGeographicCRS.WGS84, true);
+                queries.add(geographic);
+                queries.add(swap(geographic));
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not turn the filter envelope in geographic", e);
+            }
+        }
+
+        STRtree tree = getTree();
+        BitSet result = new BitSet();
+        for (Envelope query : queries) {
+            for (Object doc : tree.query(query)) {
+                result.set((Integer) doc);
+            }
+        }
+        return result;
+    }
+
+    private boolean isBoundingBox(Expression expression) {
+        return expression instanceof PropertyName
+                && "boundingBox".equalsIgnoreCase(((PropertyName) expression).getPropertyName());
+    }
+
+    private Envelope swap(Envelope envelope) {
+        return new Envelope(
+                envelope.getMinY(), envelope.getMaxY(), envelope.getMinX(), envelope.getMaxX());
+    }
+
+    /** Splits a like pattern into its literal sequences, each one turned into a list of tokens */
+    static List<List<String>> parsePattern(
+            String pattern, String wildCard, String singleChar, String escape) {
+        List<List<String>> result = new ArrayList<>();
+        StringBuilder sequence = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            if (escape != null && !escape.isEmpty() && pattern.startsWith(escape, i)) {
+                i += escape.length();
+                if (i < pattern.length()) {
+                    sequence.append(pattern.charAt(i));
+                    i++;
+                }
+            } else if (wildCard != null && !wildCard.isEmpty() && pattern.startsWith(wildCard, i)) {
+                addSequence(result, sequence);
+                i += wildCard.length();
+            } else if (singleChar != null
+                    && !singleChar.isEmpty()
+                    && pattern.startsWith(singleChar, i)) {
+                addSequence(result, sequence);
+                i += singleChar.length();
+            } else {
+                sequence.append(pattern.charAt(i));
+                i++;
+            }
+        }
+        addSequence(result, sequence);
+        return result;
+    }
+
+    private static void addSequence(List<List<String>> result, StringBuilder sequence) {
+        List<String> tokens = tokenize(sequence.toString());
+        if (!tokens.isEmpty()) {
+            result.add(tokens);
+        }
+        sequence.setLength(0);
+    }
+
+    /** Splits the text into lower case sequences of letters and digits */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i < lower.length(); i++) {
+            if (Character.isLetterOrDigit(lower.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            tokens.add(lower.substring(start));
+        }
+        return tokens;
+    }
+
+    private TextIndex getTextIndex(Expression expression) {
+        if (expression == null || expression instanceof Literal) {
+            return null;
+        }
+        TextIndex index = textIndexes.get(expression);
+        if (index == null) {
+            index = new TextIndex(expression);
+            for (CatalogInfo info : getIndexedObjects()) {
+                Integer doc = documents.get(info.getId());
+                if (doc != null) {
+                    index.update(doc, info);
+                }
+                if (!index.indexable) {
+                    break;
+                }
+            }
+            textIndexes.put(expression, index);
+        }
+        return index.indexable ? index : null;
+    }
+
+    private STRtree getTree() {
+        if (tree == null) {
+            tree = new STRtree();
+            for (Map.Entry<Integer, List<Envelope>> entry : bounds.entrySet()) {
+                for (Envelope envelope : entry.getValue()) {
+                    tree.insert(envelope, entry.getKey());
+                }
+            }
+            tree.build();
+        }
+        return tree;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        documents.clear();
+        identifiers.clear();
+        bounds.clear();
+        textIndexes.clear();
+        tree = null;
+        for (CatalogInfo info : getIndexedObjects()) {
+            add(info);
+        }
+        loaded = true;
+    }
+
+    private List<CatalogInfo> getIndexedObjects() {
+        List<CatalogInfo> result = new ArrayList<>();
+        result.addAll(catalog.getResources(ResourceInfo.class));
+        result.addAll(catalog.getLayerGroups());
+        return result;
+    }
+
+    private void add(CatalogInfo info) {
+        Integer doc = documents.get(info.getId());
+        if (doc == null) {
+            doc = identifiers.size();
+            identifiers.add(info.getId());
+            documents.put(info.getId(), doc);
+        }
+        List<Envelope> envelopes = getBounds(info);
+        if (envelopes.isEmpty()) {
+            bounds.remove(doc);
+        } else {
+            bounds.put(doc, envelopes);
+        }
+        tree = null;
+        for (TextIndex index : textIndexes.values()) {
+            index.update(doc, info);
+        }
+    }
+
+    private void remove(String id) {
+        Integer doc = documents.remove(id);
+        if (doc == null) {
+            return;
+        }
+        identifiers.set(doc, null);
+        if (bounds.remove(doc) != null) {
+            tree = null;
+        }
+        for (TextIndex index : textIndexes.values()) {
+            index.remove(doc);
+        }
+    }
+
+    private List<Envelope> getBounds(CatalogInfo info) {
+        List<Envelope> result = new ArrayList<>(2);
+        try {
+            if (info instanceof ResourceInfo) {
+                ResourceInfo resource = (ResourceInfo) info;
+                addBounds(result, resource.boundingBox());
+                addBounds(result, resource.getLatLonBoundingBox());
+            } else if (info instanceof LayerGroupInfo) {
+                ReferencedEnvelope groupBounds = ((LayerGroupInfo) info).getBounds();
+                addBounds(result, groupBounds);
+                if (groupBounds != null && groupBounds.getCoordinateReferenceSystem() != null) {
+                    addBounds(result, groupBounds.transform(DefaultGeographicCRS.WGS84, true));
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not compute the bounds of " + info, e);
+        }
+        return result;
+    }
+
+    private void addBounds(List<Envelope> envelopes, Envelope envelope) {
+        if (envelope != null && !envelope.isNull()) {
+            envelopes.add(new Envelope(envelope));
+        }
+    }
+
+    private void reindex(CatalogInfo info) {
+        if (info instanceof ResourceInfo) {
+            info = catalog.getResource(info.getId(), ResourceInfo.class);
+        } else if (info instanceof LayerGroupInfo) {
+            info = catalog.getLayerGroup(info.getId());
+        }
+        if (info != null) {
+            add(info);
+        }
+    }
+
+    @Override
+    public synchronized void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        CatalogInfo source = event.getSource();
+        if (loaded && (source instanceof ResourceInfo || source instanceof LayerGroupInfo)) {
+            add(source);
+        }
+    }
+
+    @Override
+    public synchronized void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        CatalogInfo source = event.getSource();
+        if (loaded && (source instanceof ResourceInfo || source instanceof LayerGroupInfo)) {
+            remove(source.getId());
+        }
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // the index is updated once the change is committed
+    }
+
+    @Override
+    public synchronized void handlePostModifyEvent(CatalogPostModifyEvent event)
+            throws CatalogException {
+        if (!loaded) {
+            return;
+        }
+        CatalogInfo source = event.getSource();
+        if (source instanceof ResourceInfo || source instanceof LayerGroupInfo) {
+            reindex(source);
+        } else if (source instanceof LayerInfo && ((LayerInfo) source).getResource() != null) {
+            reindex(((LayerInfo) source).getResource());
+        } else if (source instanceof WorkspaceInfo
+                || source instanceof NamespaceInfo
+                || source instanceof StoreInfo) {
+            // might affect the prefixed names of many objects, rebuild on next use
+            loaded = false;
+        }
+    }
+
+    @Override
+    public synchronized void reloaded() {
+        loaded = false;
+    }
+
+    /** An inverted index over the tokens of the values of an expression */
+    static class TextIndex {
+
+        final Expression expression;
+
+        /** False if the expression returns values that are not plain text */
+        boolean indexable = true;
+
+        final TreeMap<String, BitSet> postings = new TreeMap<>();
+
+        final Map<Integer, Set<String>> tokens = new HashMap<>();
+
+        TextIndex(Expression expression) {
+            this.expression = expression;
+        }
+
+        void update(int doc, Object info) {
+            remove(doc);
+            if (!indexable) {
+                return;
+            }
+            Set<String> docTokens = new HashSet<>();
+            try {
+                if (!collectTokens(expression.evaluate(info), docTokens)) {
+                    disable();
+                    return;
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to evaluate " + expression + ", won't index it", e);
+                disable();
+                return;
+            }
+            for (String token : docTokens) {
+                postings.computeIfAbsent(token, k -> new BitSet()).set(doc);
+            }
+            tokens.put(doc, docTokens);
+        }
+
+        void remove(int doc) {
+            Set<String> docTokens = tokens.remove(doc);
+            if (docTokens != null) {
+                for (String token : docTokens) {
+                    BitSet docs = postings.get(token);
+                    docs.clear(doc);
+                    if (docs.isEmpty()) {
+                        postings.remove(token);
+                    }
+                }
+            }
+        }
+
+        private void disable() {
+            indexable = false;
+            postings.clear();
+            tokens.clear();
+        }
+
+        private boolean collectTokens(Object value, Set<String> result) {
+            if (value == null) {
+                return true;
+            } else if (value instanceof CharSequence) {
+                result.addAll(tokenize(value.toString()));
+                return true;
+            } else if (value instanceof KeywordInfo) {
+                // comparisons might use either the value or the full representation
+                result.addAll(tokenize(((KeywordInfo) value).getValue()));
+                result.addAll(tokenize(value.toString()));
+                return true;
+            } else if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    if (!collectTokens(element, result)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /** Documents having the specified token */
+        BitSet matching(String token) {
+            BitSet docs = postings.get(token);
+            return docs != null ? (BitSet) docs.clone() : new BitSet();
+        }
+
+        /** Documents having a token containing the specified text */
+        BitSet containing(String text) {
+            BitSet result = new BitSet();
+            for (Map.Entry<String, BitSet> entry : postings.entrySet()) {
+                if (entry.getKey().contains(text)) {
+                    result.or(entry.getValue());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Matches the objects in the candidate set. Visitors see it as the equivalent comparison on the
+     * object identifiers, while evaluation is a simple set lookup.
+     */
+    static class CandidatesFilter implements Filter {
+
+        final Set<String> ids;
+
+        final Filter equivalent;
+
+        CandidatesFilter(Set<String> ids) {
+            this.ids = Collections.unmodifiableSet(ids);
+            this.equivalent = ff.equals(ff.property("id"), ff.literal(ids));
+        }
+
+        @Override
+        public boolean evaluate(Object object) {
+            return object instanceof Info && ids.contains(((Info) object).getId());
+        }
+
+        @Override
+        public Object accept(FilterVisitor visitor, Object extraData) {
+            return equivalent.accept(visitor, extraData);
+        }
+
+        @Override
+        public String toString() {
+            return "[ id in " + ids.size() + " indexed candidates ]";
+        }
+    }
+}
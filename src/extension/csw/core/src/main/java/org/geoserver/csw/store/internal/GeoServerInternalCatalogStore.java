@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.config.GeoServer;
 import org.geoserver.data.util.IOUtils;
 import org.geoserver.platform.GeoServerResourceLoader;
@@ -29,6 +30,9 @@ public class GeoServerInternalCatalogStore extends InternalCatalogStore {
 
     protected static final Logger LOGGER = Logging.getLogger(GeoServerInternalCatalogStore.class);
 
+    /** System property that can be used to disable the full-text and spatial index */
+    public static final String INDEX_ENABLED_KEY = "org.geoserver.csw.internal.index";
+
     protected Map<String, PropertyFileWatcher> watchers =
             new HashMap<String, PropertyFileWatcher>();
 
@@ -84,4 +88,21 @@ public class GeoServerInternalCatalogStore extends InternalCatalogStore {
                             new HashMap<String, String>((Map) watcher.getProperties())));
         }
     }
+
+    /**
+     * Create GeoServerInternalCatalogStore, indexing the contents of the raw catalog to answer
+     * text and spatial filters without full scans (unless disabled via the {@link
+     * #INDEX_ENABLED_KEY} system property)
+     *
+     * @param geoserver
+     * @param rawCatalog
+     * @throws IOException
+     */
+    public GeoServerInternalCatalogStore(GeoServer geoserver, Catalog rawCatalog)
+            throws IOException {
+        this(geoserver);
+        if (Boolean.valueOf(System.getProperty(INDEX_ENABLED_KEY, "true"))) {
+            setIndex(new CatalogStoreIndex(rawCatalog));
+        }
+    }
 }
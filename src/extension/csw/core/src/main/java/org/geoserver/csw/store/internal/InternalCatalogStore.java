@@ -40,6 +40,8 @@ public class InternalCatalogStore extends AbstractCatalogStore {
     protected Map<String, CatalogStoreMapping> mappings =
             new HashMap<String, CatalogStoreMapping>();
 
+    protected CatalogStoreIndex index;
+
     public InternalCatalogStore(Catalog catalog) {
         support(CSWRecordDescriptor.getInstance());
         support(MetaDataDescriptor.getInstance());
@@ -57,6 +59,24 @@ public class InternalCatalogStore extends AbstractCatalogStore {
         mappings.put(typeName, mapping);
     }
 
+    /**
+     * Sets the index used to avoid full catalog scans when filtering, or null to disable it
+     *
+     * @param index the index
+     */
+    public void setIndex(CatalogStoreIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Get the index used to avoid full catalog scans when filtering
+     *
+     * @return the index, or null if not available
+     */
+    public CatalogStoreIndex getIndex() {
+        return index;
+    }
+
     /**
      * Get Mapping
      *
@@ -98,6 +118,9 @@ public class InternalCatalogStore extends AbstractCatalogStore {
         if (q.getFilter() != null && q.getFilter() != Filter.INCLUDE) {
             Filter filter = q.getFilter();
             unmapped = (Filter) filter.accept(unmapper, null);
+            if (index != null) {
+                unmapped = index.narrow(unmapped);
+            }
         }
 
         // unmap sortby
@@ -0,0 +1,158 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.csw.store.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Set;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.data.test.MockData;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+
+public class CatalogStoreIndexTest extends CSWInternalTestSupport {
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
+    Catalog rawCatalog;
+
+    CatalogStoreIndex index;
+
+    @Before
+    public void createIndex() {
+        rawCatalog = (Catalog) applicationContext.getBean("rawCatalog");
+        index = new CatalogStoreIndex(rawCatalog);
+    }
+
+    @After
+    public void removeIndex() {
+        rawCatalog.removeListener(index);
+    }
+
+    private String getResourceId(String name) {
+        return rawCatalog.getResourceByName(name, ResourceInfo.class).getId();
+    }
+
+    /** Checks the narrowed filter selects the same resources as the original one */
+    private void assertSameMatches(Filter filter) {
+        Filter narrowed = index.narrow(filter);
+        for (ResourceInfo resource : rawCatalog.getResources(ResourceInfo.class)) {
+            assertEquals(
+                    resource.getName() + " with " + filter,
+                    filter.evaluate(resource),
+                    narrowed.evaluate(resource));
+        }
+    }
+
+    @Test
+    public void testLike() {
+        Filter filter = FF.like(FF.property("name"), "*ores*", "*", "?", "\\", false);
+        Set<String> candidates = index.getCandidates(filter);
+        assertNotNull(candidates);
+        assertTrue(candidates.contains(getResourceId(MockData.FORESTS.getLocalPart())));
+        assertFalse(candidates.contains(getResourceId(MockData.LAKES.getLocalPart())));
+        assertSameMatches(filter);
+    }
+
+    @Test
+    public void testLikeMultipleWords() {
+        FeatureTypeInfo lakes = rawCatalog.getFeatureTypeByName(MockData.LAKES.getLocalPart());
+        String originalAbstract = lakes.getAbstract();
+        try {
+            lakes.setAbstract("Still water bodies of the test area");
+            rawCatalog.save(lakes);
+
+            Filter filter =
+                    FF.like(FF.property("abstract"), "*ter bodies of the te*", "*", "?", "\\");
+            Set<String> candidates = index.getCandidates(filter);
+            assertEquals(1, candidates.size());
+            assertTrue(candidates.contains(lakes.getId()));
+            assertSameMatches(filter);
+        } finally {
+            lakes = rawCatalog.getFeatureTypeByName(MockData.LAKES.getLocalPart());
+            lakes.setAbstract(originalAbstract);
+            rawCatalog.save(lakes);
+        }
+    }
+
+    @Test
+    public void testEqual() {
+        Filter filter = FF.equals(FF.property("name"), FF.literal("Lakes"));
+        Set<String> candidates = index.getCandidates(filter);
+        assertEquals(1, candidates.size());
+        assertTrue(candidates.contains(getResourceId(MockData.LAKES.getLocalPart())));
+        assertSameMatches(filter);
+    }
+
+    @Test
+    public void testUpdatedOnSave() {
+        FeatureTypeInfo lakes = rawCatalog.getFeatureTypeByName(MockData.LAKES.getLocalPart());
+        String originalTitle = lakes.getTitle();
+        Filter filter = FF.like(FF.property("title"), "*Ponds*", "*", "?", "\\", false);
+        // force the index to be built before the change
+        assertFalse(index.getCandidates(filter).contains(lakes.getId()));
+        try {
+            lakes.setTitle("Lakes and ponds");
+            rawCatalog.save(lakes);
+            assertTrue(index.getCandidates(filter).contains(lakes.getId()));
+        } finally {
+            lakes = rawCatalog.getFeatureTypeByName(MockData.LAKES.getLocalPart());
+            lakes.setTitle(originalTitle);
+            rawCatalog.save(lakes);
+        }
+        assertFalse(index.getCandidates(filter).contains(lakes.getId()));
+    }
+
+    @Test
+    public void testBBOX() throws Exception {
+        ResourceInfo forests =
+                rawCatalog.getResourceByName(MockData.FORESTS.getLocalPart(), ResourceInfo.class);
+        ReferencedEnvelope bounds = forests.boundingBox();
+        Filter filter =
+                FF.bbox(
+                        FF.property("boundingBox"),
+                        bounds.getMinX(),
+                        bounds.getMinY(),
+                        bounds.getMaxX(),
+                        bounds.getMaxY(),
+                        null);
+        Set<String> candidates = index.getCandidates(filter);
+        assertNotNull(candidates);
+        assertTrue(candidates.contains(forests.getId()));
+        assertSameMatches(filter);
+    }
+
+    @Test
+    public void testLogicalOperators() {
+        Filter lakes = FF.equals(FF.property("name"), FF.literal("Lakes"));
+        Filter forests = FF.equals(FF.property("name"), FF.literal("Forests"));
+        Filter title = FF.like(FF.property("title"), "*a*", "*", "?", "\\", false);
+
+        Set<String> or = index.getCandidates(FF.or(lakes, forests));
+        assertEquals(2, or.size());
+        Set<String> and = index.getCandidates(FF.and(Arrays.asList(lakes, forests)));
+        assertTrue(and.isEmpty());
+        assertSame(Filter.EXCLUDE, index.narrow(FF.and(lakes, forests)));
+        assertSameMatches(FF.and(title, FF.or(lakes, forests)));
+
+        // not supported
+        assertNull(index.getCandidates(FF.not(lakes)));
+        assertNull(index.getCandidates(FF.or(lakes, FF.not(forests))));
+        assertSame(Filter.INCLUDE, index.narrow(Filter.INCLUDE));
+    }
+}
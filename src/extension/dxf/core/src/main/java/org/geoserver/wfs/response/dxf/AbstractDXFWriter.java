@@ -187,6 +187,16 @@ public abstract class AbstractDXFWriter implements DXFWriter {
         return normalizeEnvelope(e);
     }
 
+    /**
+     * Sets the global envelope, for writers computing it while reading the features instead of
+     * querying the collection bounds.
+     *
+     * @param envelope
+     */
+    protected void setEnvelope(ReferencedEnvelope envelope) {
+        this.e = envelope;
+    }
+
     /**
      * Normalizes an envelope to get a usable viewport.
      *
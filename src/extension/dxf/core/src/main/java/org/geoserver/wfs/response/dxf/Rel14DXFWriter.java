@@ -9,8 +9,10 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -39,10 +41,10 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
     private static final Logger LOGGER = Logging.getLogger(Rel14DXFWriter.class);
 
     // cache for block names
-    Map<String, String> blockNames = null;
+    Map<String, String> blockNames = new LinkedHashMap<String, String>();
 
     // cache for block handles
-    Map<String, String> blockHandles = null;
+    Map<String, String> blockHandles = new HashMap<String, String>();
 
     // cache for block handles
     Map<String, Object> textConfig = null;
@@ -79,19 +81,101 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
         return new Rel14DXFWriter(writer);
     }
 
-    /** Writes the DXF for the given feature list. */
+    /**
+     * Writes the DXF for the given feature list. The features are read only once: blocks and
+     * entities are spooled while gathering the extent and block records needed by the header and
+     * tables sections, which are written before them.
+     */
     @Override
     public void write(List featureList, String version) throws IOException {
-        // DXF General Structure
-        writeHeader(featureList);
-        writeClasses(featureList);
-        writeTables(featureList);
-        writeBlocks(featureList);
-        writeEntities(featureList);
-        writeObjects(featureList);
-        writeEof();
-        blockNames.clear();
-        blockHandles.clear();
+        Writer target = writer;
+        try (SpoolWriter blocks = new SpoolWriter();
+                SpoolWriter entities = new SpoolWriter()) {
+            scanFeatures(featureList, blocks, entities);
+            writer = target;
+
+            // DXF General Structure
+            writeHeader(featureList);
+            writeClasses(featureList);
+            writeTables(featureList);
+            writeBlocks(blocks);
+            writeEntities(entities);
+            writeObjects(featureList);
+            writeEof();
+        } finally {
+            writer = target;
+            blockNames.clear();
+            blockHandles.clear();
+        }
+    }
+
+    /**
+     * Reads all the features, writing blocks and entities to the respective spools, and collecting
+     * the global envelope and the block records.
+     *
+     * @param featureList
+     * @param blocks
+     * @param entities
+     * @throws IOException
+     */
+    private void scanFeatures(List featureList, Writer blocks, Writer entities)
+            throws IOException {
+        ReferencedEnvelope envelope = new ReferencedEnvelope();
+        for (Object o : featureList) {
+            FeatureCollection coll = (FeatureCollection) o;
+            String layer = getLayerName(coll);
+            String attributesLayer = layer + "_attributes";
+            String attributesKey = coll.hashCode() + "";
+            if (writeAttributes) {
+                // attribute definitions block, used by the INSERT entities
+                addBlock(attributesKey);
+                writer = blocks;
+                writeAttributeDefinitionBlock(coll);
+            }
+
+            try (FeatureIterator<SimpleFeature> iter = coll.features()) {
+                while (iter.hasNext()) {
+                    SimpleFeature f = iter.next();
+                    String fid = f.getID();
+                    Geometry geom = (Geometry) f.getDefaultGeometry();
+                    if (geom != null) {
+                        envelope.expandToInclude(geom.getEnvelopeInternal());
+                    }
+
+                    // if the geometry is complex, it will be exported as a block,
+                    // and the entity will just insert it
+                    if (geometryAsBlock || isBlockGeometry(geom)) {
+                        String name = addBlock(fid);
+                        writer = blocks;
+                        writeFeatureBlock(layer, blockHandles.get(fid), name, geom);
+                        writer = entities;
+                        writeInsert(layer, name);
+                    } else {
+                        writer = entities;
+                        writeGeometry(layer, "1F", geom);
+                        if (writeAttributes) {
+                            String ownerHandle = blockHandles.get(attributesKey);
+                            String name = blockNames.get(attributesKey);
+                            writeInsertWithAttributes(attributesLayer, ownerHandle, name, f);
+                        }
+                    }
+                }
+            }
+        }
+        setEnvelope(envelope);
+    }
+
+    /**
+     * Registers a new block, assigning it a name and a block record handle.
+     *
+     * @param key
+     * @return the block name
+     */
+    private String addBlock(String key) {
+        String name = (blockCounter++) + "";
+        blockNames.put(key, name);
+        blockHandles.put(key, getNewHandle("BlockRecord"));
+        return name;
     }
 
     /**
@@ -167,7 +251,7 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
      * @throws IOException
      */
     private void writeTables(List featureList) throws IOException {
-        LOGGER.warning("Rel14DXFWriter.writeTables");
+        LOGGER.fine("Rel14DXFWriter.writeTables");
         writeSectionStart("TABLES");
         // Tables structure
         writeViewPort(featureList);
@@ -185,33 +269,31 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
     /**
      * Writes the blocks section
      *
-     * @param featureList
+     * @param blocks the spooled blocks computed from the feature list
      * @throws IOException
      */
-    private void writeBlocks(List featureList) throws IOException {
+    private void writeBlocks(SpoolWriter blocks) throws IOException {
         writeSectionStart("BLOCKS");
         // static blocks (model space and paper space)
         writeModelSpaceBlock();
         writePaperSpaceBlock();
         // blocks computed from the feature list
-        // (complex geometries)
-        writeEntityBlocks(featureList);
-        writeAttributeDefinitionBlocks(featureList);
+        // (complex geometries and attribute definitions)
+        blocks.copyTo(writer);
         writeSectionEnd();
     }
 
     /**
      * Writes the entities section
      *
-     * @param featureList
+     * @param entities the spooled entities computed from the feature list
      * @throws IOException
      */
-    private void writeEntities(List featureList) throws IOException {
+    private void writeEntities(SpoolWriter entities) throws IOException {
         writeSectionStart("ENTITIES");
-
         // entities computed from the feature list
         // (simple geometries or insert of blocks)
-        for (Object coll : featureList) writeEntity((FeatureCollection) coll);
+        entities.copyTo(writer);
         writeSectionEnd();
     }
 
@@ -225,53 +307,15 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
         loadFromResource("objects");
     }
 
-    /**
-     * Writes entities representing the given collection.
-     *
-     * @param coll
-     * @throws IOException
-     */
-    private void writeEntity(FeatureCollection coll) throws IOException {
-        String layer = getLayerName(coll);
-        if (geometryAsBlock) {
-            for (String name : blockNames.values()) writeInsert(layer, name);
-        } else {
-            // iterates through all the items
-            FeatureIterator<SimpleFeature> iter = coll.features();
-            try {
-                while (iter.hasNext()) {
-                    SimpleFeature f = iter.next();
-                    String fid = f.getID();
-
-                    // if it's a block insert it, else write the geometry
-                    // directly
-                    if (blockNames.containsKey(fid)) {
-                        String name = blockNames.get(fid);
-                        writeInsert(layer, name);
-                    } else {
-                        writeGeometry(layer, "1F", (Geometry) f.getDefaultGeometry());
-                        String name = blockNames.get(coll.hashCode() + "");
-                        if (writeAttributes) {
-                            String ownerHandle = blockHandles.get(coll.hashCode() + "");
-                            String attributesLayer = layer + "_attributes";
-                            // writeInsert(layer, name);
-                            writeInsertWithAttributes(attributesLayer, ownerHandle, name, f);
-                        }
-                    }
-                }
-            } finally {
-                iter.close();
-            }
-        }
-    }
-
     private void writeAttributes(String layer, String ownerHandle, SimpleFeature f)
             throws IOException {
         Geometry geometry = (Geometry) f.getDefaultGeometry();
         Point intPoint = geometry.getInteriorPoint();
         for (Property p : f.getProperties()) {
             Name name = p.getName();
-            LOGGER.warning("    attr: " + name.getLocalPart() + " = " + p.getValue());
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("    attr: " + name.getLocalPart() + " = " + p.getValue());
+            }
             if (!(p.getValue() instanceof Geometry)) {
                 writeAttribute(layer, ownerHandle, name.getLocalPart(), p.getValue(), intPoint);
             }
@@ -344,78 +388,45 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
     }
 
     /**
-     * Writes all the given feature list associated blocks.
-     *
-     * @param featureList
-     * @throws IOException
-     */
-    private void writeEntityBlocks(List featureList) throws IOException {
-        for (Object coll : featureList) writeFeatureBlocks((FeatureCollection) coll);
-    }
-
-    /**
-     * Writes all the given feature collection associated blocks.
+     * Writes the block for a complex feature geometry.
      *
-     * @param featureList
+     * @param layer
+     * @param ownerHandle
+     * @param name
+     * @param geom
      * @throws IOException
      */
-    private void writeFeatureBlocks(FeatureCollection coll) throws IOException {
-        LOGGER.warning("Rel14DXFWriter.writeFeatureBlocks");
-        String layer = getLayerName(coll);
-
-        FeatureIterator<SimpleFeature> iter = coll.features();
-        try {
-            while (iter.hasNext()) {
-                SimpleFeature f = iter.next();
-                String fid = f.getID();
-
-                // consider only items cached to be treated as
-                // blocks (by the previous block_record analysis)
-                if (blockNames.containsKey(fid)) {
-                    String ownerHandle = blockHandles.get(fid);
-                    String name = blockNames.get(fid);
-                    String startHandle = getNewHandle("Block");
-                    String endHandle = getNewHandle("Block");
-                    writeStartBlock(startHandle, ownerHandle, false, "0", name);
-                    writeGeometry(layer, ownerHandle, (Geometry) f.getDefaultGeometry());
-                    writeEndBlock(endHandle, ownerHandle, false, "0", name);
-                }
-            }
-        } finally {
-            iter.close();
-        }
+    private void writeFeatureBlock(String layer, String ownerHandle, String name, Geometry geom)
+            throws IOException {
+        String startHandle = getNewHandle("Block");
+        String endHandle = getNewHandle("Block");
+        writeStartBlock(startHandle, ownerHandle, false, "0", name);
+        writeGeometry(layer, ownerHandle, geom);
+        writeEndBlock(endHandle, ownerHandle, false, "0", name);
     }
 
     /**
-     * Writes all the given attribute definition blocks to be used for later INSERT entities
+     * Writes the attribute definition block of the given collection, to be used for later INSERT
+     * entities
      *
-     * @param featureList
+     * @param coll
      * @throws IOException
      */
-    private void writeAttributeDefinitionBlocks(List<FeatureCollection> featureList)
-            throws IOException {
-        LOGGER.warning("Rel14DXFWriter.writeAttributeDefinitionBlocks");
-        for (FeatureCollection coll : featureList) {
-
-            // consider only items cached to be treated as
-            // blocks (by the previous block_record analysis)
-            if (blockNames.containsKey(coll.hashCode() + "")) {
-                String ownerHandle = blockHandles.get(coll.hashCode() + "");
-                String name = blockNames.get(coll.hashCode() + "");
-                String startHandle = getNewHandle("Block");
-                String endHandle = getNewHandle("Block");
-                writeStartBlock(startHandle, ownerHandle, false, "0", name);
-                String attributesLayer = getLayerName(coll) + "_attributes";
-                writeGeometryStart("POINT", attributesLayer, ownerHandle);
-                // writeGeometryStart("CIRCLE", attributesLayer, ownerHandle);
-                writeSubClass("AcDbPoint");
-                // writeSubClass("AcDbCircle");
-                writePoint(0.0, 0.0, 0.0);
-                // writeDoubleGroup(40, 1.0);
-                writeAttributeDefinitions(attributesLayer, ownerHandle, coll);
-                writeEndBlock(endHandle, ownerHandle, false, "0", name);
-            }
-        }
+    private void writeAttributeDefinitionBlock(FeatureCollection coll) throws IOException {
+        String ownerHandle = blockHandles.get(coll.hashCode() + "");
+        String name = blockNames.get(coll.hashCode() + "");
+        String startHandle = getNewHandle("Block");
+        String endHandle = getNewHandle("Block");
+        writeStartBlock(startHandle, ownerHandle, false, "0", name);
+        String attributesLayer = getLayerName(coll) + "_attributes";
+        writeGeometryStart("POINT", attributesLayer, ownerHandle);
+        // writeGeometryStart("CIRCLE", attributesLayer, ownerHandle);
+        writeSubClass("AcDbPoint");
+        // writeSubClass("AcDbCircle");
+        writePoint(0.0, 0.0, 0.0);
+        // writeDoubleGroup(40, 1.0);
+        writeAttributeDefinitions(attributesLayer, ownerHandle, coll);
+        writeEndBlock(endHandle, ownerHandle, false, "0", name);
     }
 
     private void writeAttributeDefinitions(String layer, String ownerHandle, FeatureCollection fc)
@@ -423,7 +434,7 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
         FeatureTypeImpl schema = (FeatureTypeImpl) fc.getSchema();
         for (PropertyDescriptor p : schema.getDescriptors()) {
             Name name = p.getName();
-            LOGGER.warning("    attr: " + name.getLocalPart());
+            LOGGER.fine("    attr: " + name.getLocalPart());
             if (!(p.getType() instanceof GeometryType)) {
                 writeAttrDef(layer, ownerHandle, name.getLocalPart());
             }
@@ -597,32 +608,19 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
         writeSubClass("AcDbSymbolTable");
         // 2 fixed blocks (paper space and model space)
         // N dynamic blocks for complex geometries
-        writeSize(2 + countBlocks(featureList));
+        writeSize(2 + blockNames.size());
         // writes the 2 fixed block references
         writeModelSpaceBlockRecord();
         writePaperSpaceBlockRecord();
-        // write each dynamic block reference, saving handles
-        // for further reference (they will be assigned as owner
-        // handles for the real blocks)
-        if (blockNames != null) {
-            for (String fid : blockNames.keySet())
-                blockHandles.put(fid, writeBlockRecord(blockNames.get(fid)));
+        // write each dynamic block reference, using the handles
+        // assigned while scanning the features (they are the owner
+        // handles of the real blocks)
+        for (Map.Entry<String, String> block : blockNames.entrySet()) {
+            writeBlockRecord(blockHandles.get(block.getKey()), "1", block.getValue());
         }
         writeTableEnd();
     }
 
-    /**
-     * Writes a block reference, given the desired name. The handle is dinamically created.
-     *
-     * @param blockName
-     * @throws IOException
-     */
-    private String writeBlockRecord(String blockName) throws IOException {
-        String handle = getNewHandle("BlockRecord");
-        writeBlockRecord(handle, "1", blockName);
-        return handle;
-    }
-
     /**
      * Writes the model space fixed block reference.
      *
@@ -659,53 +657,6 @@ public class Rel14DXFWriter extends AbstractDXFWriter {
         writeName(name);
     }
 
-    /**
-     * Builds a block list for the given feature list.
-     *
-     * @param featureList
-     */
-    private int countBlocks(List featureList) {
-        if (blockNames == null) {
-            // initializes block cache
-            // for names and handles
-            blockNames = new HashMap<String, String>();
-            blockHandles = new HashMap<String, String>();
-            // cycle through feature to accumulate
-            // blocks
-            for (Object coll : featureList) addBlocks((FeatureCollection) coll);
-        }
-        return blockNames.size();
-    }
-
-    /**
-     * Add blocks for the given collection.
-     *
-     * @param coll
-     */
-    private void addBlocks(FeatureCollection coll) {
-        FeatureIterator<SimpleFeature> iter = coll.features();
-        try {
-            while (iter.hasNext()) {
-                SimpleFeature f = iter.next();
-                Geometry geom = (Geometry) f.getDefaultGeometry();
-                // if the geometry is complex, it will be
-                // exported as a block; we use fid to cache
-                // this for further using (blocks and entities
-                // sections)
-                if (geometryAsBlock || isBlockGeometry(geom)) {
-                    LOGGER.warning("    added");
-                    blockNames.put(f.getID(), (blockCounter++) + "");
-                }
-            }
-        } finally {
-            iter.close();
-        }
-        if (writeAttributes) {
-            // add attribute definition blocks
-            blockNames.put(coll.hashCode() + "", (blockCounter++) + "");
-        }
-    }
-
     /**
      * Checks if a geometry is complex and should be exported as a block.
      *
@@ -0,0 +1,76 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response.dxf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+/**
+ * A writer keeping its contents in memory up to a threshold, and spilling them to a temporary file
+ * afterwards. Used to collect DXF sections that have to be written after others depending on
+ * information gathered while scanning the features.
+ */
+class SpoolWriter extends Writer {
+
+    /** Memory threshold before switching to a temporary file */
+    static final int THRESHOLD = 1024 * 1024;
+
+    private DeferredFileOutputStream out;
+
+    private Writer writer;
+
+    public SpoolWriter() {
+        out = new DeferredFileOutputStream(THRESHOLD, "dxf", ".tmp", null);
+        writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        writer.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str) throws IOException {
+        writer.write(str);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /** Copies the spooled contents to the target writer */
+    public void copyTo(Writer target) throws IOException {
+        writer.flush();
+        if (out.isInMemory()) {
+            target.write(new String(out.getData(), StandardCharsets.UTF_8));
+        } else {
+            writer.close();
+            try (Reader reader =
+                    new InputStreamReader(
+                            new FileInputStream(out.getFile()), StandardCharsets.UTF_8)) {
+                IOUtils.copy(reader, target);
+            }
+        }
+    }
+
+    /** Closes the writer and removes the temporary file, if any */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        File file = out.getFile();
+        if (file != null && file.exists()) {
+            file.delete();
+        }
+    }
+}
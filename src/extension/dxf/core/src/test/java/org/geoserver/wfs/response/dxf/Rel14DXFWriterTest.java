@@ -0,0 +1,110 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response.dxf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.Test;
+import org.locationtech.jts.io.WKTReader;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+public class Rel14DXFWriterTest {
+
+    /** Counts how many times the features are read, and the bounds computed */
+    static class CountingCollection extends ListFeatureCollection {
+        int reads;
+
+        int bounds;
+
+        CountingCollection(SimpleFeatureType schema) {
+            super(schema);
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            reads++;
+            return super.features();
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            bounds++;
+            return super.getBounds();
+        }
+    }
+
+    private CountingCollection buildCollection() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("parcels", "geom:Polygon,name:String");
+        CountingCollection collection = new CountingCollection(type);
+        WKTReader reader = new WKTReader();
+        collection.add(
+                SimpleFeatureBuilder.build(
+                        type,
+                        new Object[] {reader.read("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))"), "a"},
+                        "parcels.1"));
+        // a polygon with a hole, exported as a block
+        collection.add(
+                SimpleFeatureBuilder.build(
+                        type,
+                        new Object[] {
+                            reader.read(
+                                    "POLYGON((20 20, 30 20, 30 35, 20 35, 20 20), "
+                                            + "(22 22, 24 22, 24 24, 22 22))"),
+                            "b"
+                        },
+                        "parcels.2"));
+        return collection;
+    }
+
+    private String write(CountingCollection collection, boolean attributes) throws Exception {
+        StringWriter sw = new StringWriter();
+        DXFWriter writer = new Rel14DXFWriter(sw);
+        writer.setOption("layers", new String[] {"PARCELS"});
+        writer.setOption("writeattributes", attributes);
+        writer.write(Arrays.asList(collection), "14");
+        return sw.toString();
+    }
+
+    @Test
+    public void testSinglePass() throws Exception {
+        CountingCollection collection = buildCollection();
+        String dxf = write(collection, false);
+
+        assertEquals(1, collection.reads);
+        assertEquals(0, collection.bounds);
+        // extent computed from the features
+        assertTrue(dxf.contains("$EXTMIN\n 10\n0.0\n 20\n0.0"));
+        assertTrue(dxf.contains("$EXTMAX\n 10\n30.0\n 20\n35.0"));
+        // one block record for the polygon with holes, defined before being inserted
+        assertTrue(dxf.contains("BLOCK_RECORD\n  5\n1\n330\n0\n100\nAcDbSymbolTable\n 70\n     3"));
+        int block = dxf.indexOf("AcDbBlockBegin\n  2\n0\n");
+        int insert = dxf.indexOf("  0\nINSERT");
+        assertTrue(block > dxf.indexOf("SECTION\n  2\nBLOCKS"));
+        assertTrue(insert > dxf.indexOf("SECTION\n  2\nENTITIES"));
+        assertTrue(block < insert);
+        assertTrue(dxf.endsWith("EOF\n"));
+    }
+
+    @Test
+    public void testSinglePassAttributes() throws Exception {
+        CountingCollection collection = buildCollection();
+        String dxf = write(collection, true);
+
+        assertEquals(1, collection.reads);
+        // the attribute definitions block comes before the entities using it
+        int attdef = dxf.indexOf("  0\nATTDEF");
+        int attrib = dxf.indexOf("  0\nATTRIB\n");
+        assertTrue(attdef > dxf.indexOf("SECTION\n  2\nBLOCKS"));
+        assertTrue(attrib > dxf.indexOf("SECTION\n  2\nENTITIES"));
+    }
+}
@@ -27,6 +27,7 @@ import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.geofence.cache.CachedRuleReader;
 import org.geoserver.geofence.config.GeoFenceConfiguration;
 import org.geoserver.geofence.config.GeoFenceConfigurationManager;
 import org.geoserver.geofence.core.model.LayerAttribute;
@@ -310,6 +311,74 @@ public class GeofenceAccessManager
             }
         }
 
+        RuleFilter ruleFilter = buildResourceFilter(buildRequestFilter(user), resource);
+
+        LOGGER.log(Level.FINE, "ResourceInfo filter: {0}", ruleFilter);
+
+        AccessInfo rule = rules.getAccessInfo(ruleFilter);
+
+        if (rule == null) {
+            rule = AccessInfo.DENY_ALL;
+        }
+
+        DataAccessLimits limits = buildAccessLimits(resource, rule);
+        LOGGER.log(
+                Level.FINE,
+                "Returning {0} for layer {1} and user {2}",
+                new Object[] {limits, resource.getPrefixedName(), username});
+
+        return limits;
+    }
+
+    /**
+     * Returns the access limits for many resources at once, in the same order. The GeoFence rules
+     * are resolved with a single batched lookup when the rule reader is a {@link
+     * CachedRuleReader}, which loads the missing rules in parallel.
+     */
+    public List<DataAccessLimits> getAccessLimits(
+            Authentication user, List<? extends ResourceInfo> resources) {
+        List<DataAccessLimits> result = new ArrayList<>(resources.size());
+        if ((user != null) && !(user instanceof AnonymousAuthenticationToken) && isAdmin(user)) {
+            // shortcut, if the user is the admin, he can do everything
+            for (ResourceInfo resource : resources) {
+                result.add(buildAccessLimits(resource, AccessInfo.ALLOW_ALL));
+            }
+            return result;
+        }
+
+        RuleFilter requestFilter = buildRequestFilter(user);
+        List<RuleFilter> filters = new ArrayList<>(resources.size());
+        for (ResourceInfo resource : resources) {
+            filters.add(buildResourceFilter(requestFilter, resource));
+        }
+        List<AccessInfo> accessInfos = getAccessInfo(filters);
+        for (int i = 0; i < resources.size(); i++) {
+            AccessInfo rule = accessInfos.get(i);
+            if (rule == null) {
+                rule = AccessInfo.DENY_ALL;
+            }
+            result.add(buildAccessLimits(resources.get(i), rule));
+        }
+        return result;
+    }
+
+    /**
+     * Resolves the rules for the given filters, with a single batched lookup when the rule reader
+     * supports it. The results are in the same order as the filters.
+     */
+    List<AccessInfo> getAccessInfo(List<RuleFilter> filters) {
+        if (rules instanceof CachedRuleReader) {
+            return ((CachedRuleReader) rules).getAccessInfo(filters);
+        }
+        List<AccessInfo> result = new ArrayList<>(filters.size());
+        for (RuleFilter filter : filters) {
+            result.add(rules.getAccessInfo(filter));
+        }
+        return result;
+    }
+
+    /** Builds a filter with the user, instance, service, request and source address */
+    private RuleFilter buildRequestFilter(Authentication user) {
         // get info from the current request
         String service = null;
         String request = null;
@@ -319,12 +388,6 @@ public class GeofenceAccessManager
             request = owsRequest.getRequest();
         }
 
-        // get the resource info
-        String layer = resource.getName();
-        StoreInfo store = resource.getStore();
-        WorkspaceInfo ws = store.getWorkspace();
-        String workspace = ws.getName();
-
         // get the request infos
         RuleFilter ruleFilter = new RuleFilter(RuleFilter.SpecialFilterType.ANY);
         setRuleFilterUserOrRole(user, ruleFilter);
@@ -349,8 +412,6 @@ public class GeofenceAccessManager
         } else {
             ruleFilter.setRequest(RuleFilter.SpecialFilterType.DEFAULT);
         }
-        ruleFilter.setWorkspace(workspace);
-        ruleFilter.setLayer(layer);
 
         String sourceAddress = retrieveCallerIpAddress();
         if (sourceAddress != null) {
@@ -360,21 +421,18 @@ public class GeofenceAccessManager
             ruleFilter.setSourceAddress(RuleFilter.SpecialFilterType.DEFAULT);
         }
 
-        LOGGER.log(Level.FINE, "ResourceInfo filter: {0}", ruleFilter);
-
-        AccessInfo rule = rules.getAccessInfo(ruleFilter);
-
-        if (rule == null) {
-            rule = AccessInfo.DENY_ALL;
-        }
+        return ruleFilter;
+    }
 
-        DataAccessLimits limits = buildAccessLimits(resource, rule);
-        LOGGER.log(
-                Level.FINE,
-                "Returning {0} for layer {1} and user {2}",
-                new Object[] {limits, resource.getPrefixedName(), username});
+    /** Copies the request filter and sets the resource workspace and name in it */
+    private RuleFilter buildResourceFilter(RuleFilter requestFilter, ResourceInfo resource) {
+        StoreInfo store = resource.getStore();
+        WorkspaceInfo ws = store.getWorkspace();
 
-        return limits;
+        RuleFilter ruleFilter = requestFilter.clone();
+        ruleFilter.setWorkspace(ws.getName());
+        ruleFilter.setLayer(resource.getName());
+        return ruleFilter;
     }
 
     /** @param user */
@@ -622,11 +680,48 @@ public class GeofenceAccessManager
                 && "WMS".equalsIgnoreCase(service)
                 && "GetLegendGraphic".equalsIgnoreCase(request)) {
             overrideGetLegendGraphicRequest(gsRequest, operation, service, request, user);
+        } else if ("GetCapabilities".equalsIgnoreCase(request)) {
+            prefetchRules(user);
         }
 
         return operation;
     }
 
+    /**
+     * Capabilities documents check the access limits of each layer in turn, resolve all of their
+     * rules upfront in a single batched lookup, so that the checks find them in the cache. Skipped
+     * if the rules would not fit in the cache.
+     */
+    void prefetchRules(Authentication user) {
+        if (!(rules instanceof CachedRuleReader)) {
+            return;
+        }
+        CachedRuleReader cachedReader = (CachedRuleReader) rules;
+        WorkspaceInfo localWorkspace = LocalWorkspace.get();
+        List<ResourceInfo> resources = new ArrayList<>();
+        for (LayerInfo layer : catalog.getLayers()) {
+            ResourceInfo resource = layer.getResource();
+            if (resource == null || resource.getStore() == null) {
+                continue;
+            }
+            WorkspaceInfo ws = resource.getStore().getWorkspace();
+            if (localWorkspace == null || localWorkspace.getName().equals(ws.getName())) {
+                resources.add(resource);
+            }
+        }
+        if (resources.isEmpty() || resources.size() > cachedReader.getCacheInitParams().getSize()) {
+            return;
+        }
+
+        RuleFilter requestFilter = buildRequestFilter(user);
+        List<RuleFilter> filters = new ArrayList<>(resources.size());
+        for (ResourceInfo resource : resources) {
+            filters.add(buildResourceFilter(requestFilter, resource));
+        }
+        LOGGER.log(Level.FINE, "Prefetching rules for {0} layers", filters.size());
+        cachedReader.getAccessInfo(filters);
+    }
+
     void overrideGetLegendGraphicRequest(
             Request gsRequest,
             Operation operation,
@@ -665,10 +760,11 @@ public class GeofenceAccessManager
         // get the request object
         GetLegendGraphicRequest getLegend = (GetLegendGraphicRequest) operation.getParameters()[0];
 
+        // get the rules, they contain default and allowed styles, in a single lookup
+        List<RuleFilter> ruleFilters = new ArrayList<>(layers.size());
         for (LayerInfo layer : layers) {
             ResourceInfo resource = layer.getResource();
 
-            // get the rule, it contains default and allowed styles
             RuleFilter ruleFilter = new RuleFilter(RuleFilter.SpecialFilterType.ANY);
             setRuleFilterUserOrRole(user, ruleFilter);
             ruleFilter.setInstance(configurationManager.getConfiguration().getInstanceName());
@@ -678,9 +774,11 @@ public class GeofenceAccessManager
             ruleFilter.setLayer(resource.getName());
 
             LOGGER.log(Level.FINE, "Getting access limits for getLegendGraphic", ruleFilter);
+            ruleFilters.add(ruleFilter);
+        }
+        List<AccessInfo> layerRules = getAccessInfo(ruleFilters);
 
-            AccessInfo rule = rules.getAccessInfo(ruleFilter);
-
+        for (AccessInfo rule : layerRules) {
             // get the requested style
             String styleName = (String) gsRequest.getKvp().get("STYLE");
             if (styleName == null) {
@@ -724,8 +822,9 @@ public class GeofenceAccessManager
         // we need to tell apart the default case from the explicit request case
         List<String> styleNameList = getRequestedStyles(gsRequest, getMap);
 
-        // apply the override/security check for each layer in the request
+        // get the rules of all layers in a single lookup
         List<MapLayerInfo> layers = getMap.getLayers();
+        List<RuleFilter> ruleFilters = new ArrayList<>(layers.size());
         for (int i = 0; i < layers.size(); i++) {
             MapLayerInfo layer = layers.get(i);
             ResourceInfo info = null;
@@ -753,8 +852,13 @@ public class GeofenceAccessManager
             }
 
             LOGGER.log(Level.FINE, "Getting access limits for getMap", ruleFilter);
+            ruleFilters.add(ruleFilter);
+        }
+        List<AccessInfo> layerRules = getAccessInfo(ruleFilters);
 
-            AccessInfo rule = rules.getAccessInfo(ruleFilter);
+        // apply the override/security check for each layer in the request
+        for (int i = 0; i < layers.size(); i++) {
+            AccessInfo rule = layerRules.get(i);
 
             // get the requested style name
             String styleName = styleNameList.get(i);
@@ -10,9 +10,24 @@ import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -29,6 +44,8 @@ import org.geotools.util.logging.Logging;
  *
  * <p>Cache eviction policy is LRU.<br>
  * Cache coherence is handled by entry timeout.<br>
+ * Entries past the refresh time are reloaded in the background.<br>
+ * Missing rules are cached as well, failed authentications are not.<br>
  *
  * <p>
  *
@@ -38,13 +55,88 @@ public class CachedRuleReader implements RuleReaderService {
 
     static final Logger LOGGER = Logging.getLogger(CachedRuleReader.class);
 
+    /**
+     * Number of threads used to refresh expired entries in the background, configurable with the
+     * GEOFENCE_CACHE_LOADERS system variable
+     */
+    static final int LOADER_THREADS = Math.max(1, Integer.getInteger("GEOFENCE_CACHE_LOADERS", 4));
+
+    /**
+     * Number of threads used to resolve the misses of batched lookups, configurable with the
+     * GEOFENCE_CACHE_BATCH_LOADERS system variable
+     */
+    static final int BATCH_LOADER_THREADS =
+            Math.max(1, Integer.getInteger("GEOFENCE_CACHE_BATCH_LOADERS", 8));
+
+    /** Maximum number of refreshes waiting for a loader thread */
+    static final int REFRESH_QUEUE_SIZE = 1000;
+
+    private static final AtomicInteger LOADER_COUNT = new AtomicInteger();
+
+    /**
+     * Refreshes expired entries, shared among the cache instances, which are rebuilt at each
+     * configuration change. When the queue is full the refresh is skipped, the current value is
+     * kept and will be refreshed on a later access
+     */
+    static final ThreadPoolExecutor LOADER_EXECUTOR =
+            buildExecutor(
+                    "GeoFence cache loader ",
+                    LOADER_THREADS,
+                    new LinkedBlockingQueue<>(REFRESH_QUEUE_SIZE),
+                    new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * Resolves the misses of batched lookups, separate from the refreshes so that a batch never
+     * waits behind them. There is no queue, when all threads are busy the requesting thread loads
+     * the entry itself
+     */
+    static final ThreadPoolExecutor BATCH_EXECUTOR =
+            buildExecutor(
+                    "GeoFence cache batch loader ",
+                    BATCH_LOADER_THREADS,
+                    new SynchronousQueue<>(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private static ThreadPoolExecutor buildExecutor(
+            String prefix,
+            int threads,
+            BlockingQueue<Runnable> queue,
+            RejectedExecutionHandler handler) {
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        threads,
+                        threads,
+                        60,
+                        TimeUnit.SECONDS,
+                        queue,
+                        r -> {
+                            Thread thread = new Thread(r, prefix + LOADER_COUNT.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        },
+                        handler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     private RuleReaderService realRuleReaderService;
 
-    private LoadingCache<RuleFilter, AccessInfo> ruleCache;
+    /**
+     * The rule and admin caches hold an empty optional when GeoFence found no matching rule, so
+     * that negative results are cached too
+     */
+    private LoadingCache<RuleFilter, Optional<AccessInfo>> ruleCache;
 
+    /** Failed authentications are not cached, they are retried at each attempt */
     private LoadingCache<NamePw, AuthUser> userCache;
 
-    private LoadingCache<RuleFilter, AccessInfo> authCache;
+    private LoadingCache<RuleFilter, Optional<AccessInfo>> authCache;
+
+    private final AtomicLong ruleRefreshes = new AtomicLong();
+
+    private final AtomicLong authRefreshes = new AtomicLong();
+
+    private final AtomicLong userRefreshes = new AtomicLong();
 
     private final GeoFenceConfigurationManager configurationManager;
 
@@ -68,9 +160,32 @@ public class CachedRuleReader implements RuleReaderService {
 
         cacheConfiguration = configurationManager.getCacheConfiguration();
 
-        ruleCache = getCacheBuilder().build(new RuleLoader());
+        ruleCache =
+                getCacheBuilder()
+                        .build(
+                                new BackgroundLoader<RuleFilter, AccessInfo>(ruleRefreshes) {
+                                    @Override
+                                    AccessInfo loadValue(RuleFilter filter) {
+                                        // the service, when integrated, may modify the filter
+                                        return realRuleReaderService.getAccessInfo(
+                                                filter.clone());
+                                    }
+                                });
         userCache = getCacheBuilder().build(new UserLoader());
-        authCache = getCacheBuilder().build(new AuthLoader());
+        authCache =
+                getCacheBuilder()
+                        .build(
+                                new BackgroundLoader<RuleFilter, AccessInfo>(authRefreshes) {
+                                    @Override
+                                    AccessInfo loadValue(RuleFilter filter) {
+                                        // the service, when integrated, may modify the filter
+                                        return realRuleReaderService.getAdminAuthorization(
+                                                filter.clone());
+                                    }
+                                });
+        ruleRefreshes.set(0);
+        authRefreshes.set(0);
+        userRefreshes.set(0);
     }
 
     protected CacheBuilder getCacheBuilder() {
@@ -97,64 +212,74 @@ public class CachedRuleReader implements RuleReaderService {
         return builder;
     }
 
-    private class RuleLoader extends CacheLoader<RuleFilter, AccessInfo> {
+    /**
+     * Loads values from the real service, caching a missing value as an empty optional.
+     *
+     * <p>Entries past the refresh time are reloaded in the background, while the current value
+     * keeps being served until the reload completes (or the entry expires). Batched lookups
+     * resolve their misses in parallel.
+     */
+    private abstract static class BackgroundLoader<K, V> extends CacheLoader<K, Optional<V>> {
 
-        @Override
-        public AccessInfo load(RuleFilter filter) throws Exception {
-            if (LOGGER.isLoggable(Level.FINE)) LOGGER.log(Level.FINE, "Loading {0}", filter);
-            // the service, when integrated, may modify the filter
-            RuleFilter clone = filter.clone();
-            return realRuleReaderService.getAccessInfo(clone);
-        }
+        private final AtomicLong refreshes;
 
-        @Override
-        public ListenableFuture<AccessInfo> reload(final RuleFilter filter, AccessInfo accessInfo)
-                throws Exception {
-            if (LOGGER.isLoggable(Level.FINE)) LOGGER.log(Level.FINE, "Reloading {0}", filter);
-
-            // the service, when integrated, may modify the filter
-            RuleFilter clone = filter.clone();
-
-            // this is a sync implementation
-            AccessInfo ret = realRuleReaderService.getAccessInfo(clone);
-            return Futures.immediateFuture(ret);
-
-            // next there is an asynchronous implementation, but in tests it seems to hang
-            // return ListenableFutureTask.create(new Callable<AccessInfo>() {
-            // @Override
-            // public AccessInfo call() throws Exception {
-            // if(LOGGER.isLoggable(Level.FINE))
-            // LOGGER.log(Level.FINE, "Asynch reloading {0}", filter);
-            // return realRuleReaderService.getAccessInfo(filter);
-            // }
-            // });
+        BackgroundLoader(AtomicLong refreshes) {
+            this.refreshes = refreshes;
         }
-    }
 
-    private class AuthLoader extends CacheLoader<RuleFilter, AccessInfo> {
+        abstract V loadValue(K key);
 
         @Override
-        public AccessInfo load(RuleFilter filter) throws Exception {
-            if (LOGGER.isLoggable(Level.FINE)) LOGGER.log(Level.FINE, "Loading {0}", filter);
-            // the service, when integrated, may modify the filter
-            RuleFilter clone = filter.clone();
-            return realRuleReaderService.getAdminAuthorization(clone);
+        public Optional<V> load(K key) throws Exception {
+            if (LOGGER.isLoggable(Level.FINE)) LOGGER.log(Level.FINE, "Loading {0}", key);
+            return Optional.ofNullable(loadValue(key));
         }
 
         @Override
-        public ListenableFuture<AccessInfo> reload(final RuleFilter filter, AccessInfo accessInfo)
+        public ListenableFuture<Optional<V>> reload(final K key, Optional<V> oldValue)
                 throws Exception {
-            if (LOGGER.isLoggable(Level.FINE)) LOGGER.log(Level.FINE, "Reloading {0}", filter);
+            if (LOGGER.isLoggable(Level.FINE)) LOGGER.log(Level.FINE, "Reloading {0}", key);
+            return refreshInBackground(
+                    () -> {
+                        refreshes.incrementAndGet();
+                        return load(key);
+                    },
+                    oldValue);
+        }
 
-            // the service, when integrated, may modify the filter
-            RuleFilter clone = filter.clone();
+        @Override
+        public Map<K, Optional<V>> loadAll(Iterable<? extends K> keys) throws Exception {
+            Map<K, Future<Optional<V>>> futures = new LinkedHashMap<>();
+            for (K key : keys) {
+                futures.put(key, BATCH_EXECUTOR.submit(() -> load(key)));
+            }
+            Map<K, Optional<V>> result = new LinkedHashMap<>();
+            for (Map.Entry<K, Future<Optional<V>>> entry : futures.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().get());
+            }
+            return result;
+        }
+    }
 
-            // this is a sync implementation
-            AccessInfo ret = realRuleReaderService.getAdminAuthorization(clone);
-            return Futures.immediateFuture(ret);
+    /**
+     * Runs the refresh on the loader threads, if they are all busy and the queue is full the old
+     * value is kept instead
+     */
+    static <V> ListenableFuture<V> refreshInBackground(Callable<V> loader, V oldValue) {
+        ListenableFutureTask<V> task = ListenableFutureTask.create(loader);
+        try {
+            LOADER_EXECUTOR.execute(task);
+            return task;
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Refresh queue full, keeping the current value", e);
+            return Futures.immediateFuture(oldValue);
         }
     }
 
+    /**
+     * Authenticates users, throwing an exception on failure so that failed authentications are not
+     * cached. Successful ones are refreshed in the background, like rules.
+     */
     private class UserLoader extends CacheLoader<NamePw, AuthUser> {
 
         @Override
@@ -167,17 +292,15 @@ public class CachedRuleReader implements RuleReaderService {
         }
 
         @Override
-        public ListenableFuture<AuthUser> reload(final NamePw user, AuthUser authUser)
-                throws NoAuthException {
+        public ListenableFuture<AuthUser> reload(final NamePw user, AuthUser authUser) {
             if (LOGGER.isLoggable(Level.FINE))
                 LOGGER.log(Level.FINE, "Reloading user '" + user.getName() + "'");
-
-            // this is a sync implementation
-            AuthUser auth = realRuleReaderService.authorize(user.getName(), user.getPw());
-            if (auth == null) throw new NoAuthException("Can't auth user [" + user.getName() + "]");
-            return Futures.immediateFuture(auth);
-
-            // todo: we may want a asynchronous implementation
+            return refreshInBackground(
+                    () -> {
+                        userRefreshes.incrementAndGet();
+                        return load(user);
+                    },
+                    authUser);
         }
     }
 
@@ -232,13 +355,38 @@ public class CachedRuleReader implements RuleReaderService {
 
         AccessInfo accessInfo = null;
         try {
-            accessInfo = ruleCache.get(filter);
+            accessInfo = ruleCache.get(filter).orElse(null);
         } catch (ExecutionException ex) {
             // throw new RuntimeException(ex); // fixme: handle me
         }
         return accessInfo;
     }
 
+    /**
+     * Resolves the access info for many filters at once, loading the ones missing from the cache
+     * in parallel. The results are returned in the same order as the filters, with null values
+     * where GeoFence found no matching rule.
+     */
+    public List<AccessInfo> getAccessInfo(List<RuleFilter> filters) {
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.log(Level.FINE, "Batch request for {0} filters", filters.size());
+
+        List<AccessInfo> result = new ArrayList<>(filters.size());
+        try {
+            Map<RuleFilter, Optional<AccessInfo>> infos = ruleCache.getAll(filters);
+            for (RuleFilter filter : filters) {
+                result.add(infos.get(filter).orElse(null));
+            }
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            LOGGER.log(Level.WARNING, "Batch rule lookup failed, resolving one by one", ex);
+            result.clear();
+            for (RuleFilter filter : filters) {
+                result.add(getAccessInfo(filter));
+            }
+        }
+        return result;
+    }
+
     @Override
     public AccessInfo getAdminAuthorization(RuleFilter filter) {
         // return realRuleReaderService.getAdminAuthorization(filter);
@@ -248,7 +396,7 @@ public class CachedRuleReader implements RuleReaderService {
         }
 
         try {
-            return authCache.get(filter);
+            return authCache.get(filter).orElse(null);
         } catch (ExecutionException ex) {
             throw new RuntimeException(ex); // fixme: handle me
         }
@@ -290,9 +438,6 @@ public class CachedRuleReader implements RuleReaderService {
     public AuthUser authorize(String username, String password) {
         try {
             return userCache.get(new NamePw(username, password));
-            // } catch (NoAuthException ex) {
-            // LOGGER.warning(ex.getMessage());
-            // return null;
         } catch (ExecutionException ex) {
             LOGGER.warning(ex.getMessage());
             return null;
@@ -332,6 +477,35 @@ public class CachedRuleReader implements RuleReaderService {
         return userCache.size();
     }
 
+    /** Number of rule cache entries recording that no rule matched */
+    public long getNegativeCacheSize() {
+        return countNegatives(ruleCache);
+    }
+
+    /** Number of admin auth cache entries recording that no rule matched */
+    public long getAdminAuthNegativeCacheSize() {
+        return countNegatives(authCache);
+    }
+
+    private long countNegatives(LoadingCache<?, ? extends Optional<?>> cache) {
+        return cache.asMap().values().stream().filter(v -> !v.isPresent()).count();
+    }
+
+    /** Number of rule cache entries refreshed in the background */
+    public long getRefreshCount() {
+        return ruleRefreshes.get();
+    }
+
+    /** Number of admin auth cache entries refreshed in the background */
+    public long getAdminAuthRefreshCount() {
+        return authRefreshes.get();
+    }
+
+    /** Number of user cache entries refreshed in the background */
+    public long getUserRefreshCount() {
+        return userRefreshes.get();
+    }
+
     /** May be useful if an external peer doesn't want to use the guava dep. */
     public String getStatsString() {
         return ruleCache.stats().toString();
@@ -246,6 +246,10 @@ public class GeofencePage extends GeoServerSecuredPage {
 
     private static final String KEY_RULE_EVICTION = "rule.evict";
 
+    private static final String KEY_RULE_NEGATIVE = "rule.negative";
+
+    private static final String KEY_RULE_REFRESH = "rule.refresh";
+
     private static final String KEY_ADMIN_SIZE = "admin.size";
 
     private static final String KEY_ADMIN_HIT = "admin.hit";
@@ -260,6 +264,10 @@ public class GeofencePage extends GeoServerSecuredPage {
 
     private static final String KEY_ADMIN_EVICTION = "admin.evict";
 
+    private static final String KEY_ADMIN_NEGATIVE = "admin.negative";
+
+    private static final String KEY_ADMIN_REFRESH = "admin.refresh";
+
     private static final String KEY_USER_SIZE = "user.size";
 
     private static final String KEY_USER_HIT = "user.hit";
@@ -274,6 +282,8 @@ public class GeofencePage extends GeoServerSecuredPage {
 
     private static final String KEY_USER_EVICTION = "user.evict";
 
+    private static final String KEY_USER_REFRESH = "user.refresh";
+
     private void updateStatsValues(CachedRuleReader cacheRuleReader) {
 
         statsValues.put(KEY_RULE_SIZE, "" + cacheRuleReader.getCacheSize());
@@ -283,6 +293,8 @@ public class GeofencePage extends GeoServerSecuredPage {
         statsValues.put(KEY_RULE_LOADKO, "" + cacheRuleReader.getStats().loadExceptionCount());
         statsValues.put(KEY_RULE_LOADTIME, "" + cacheRuleReader.getStats().totalLoadTime());
         statsValues.put(KEY_RULE_EVICTION, "" + cacheRuleReader.getStats().evictionCount());
+        statsValues.put(KEY_RULE_NEGATIVE, "" + cacheRuleReader.getNegativeCacheSize());
+        statsValues.put(KEY_RULE_REFRESH, "" + cacheRuleReader.getRefreshCount());
 
         statsValues.put(KEY_ADMIN_SIZE, "" + cacheRuleReader.getAdminAuthCacheSize());
         statsValues.put(KEY_ADMIN_HIT, "" + cacheRuleReader.getAdminAuthStats().hitCount());
@@ -295,6 +307,8 @@ public class GeofencePage extends GeoServerSecuredPage {
                 KEY_ADMIN_LOADTIME, "" + cacheRuleReader.getAdminAuthStats().totalLoadTime());
         statsValues.put(
                 KEY_ADMIN_EVICTION, "" + cacheRuleReader.getAdminAuthStats().evictionCount());
+        statsValues.put(KEY_ADMIN_NEGATIVE, "" + cacheRuleReader.getAdminAuthNegativeCacheSize());
+        statsValues.put(KEY_ADMIN_REFRESH, "" + cacheRuleReader.getAdminAuthRefreshCount());
 
         statsValues.put(KEY_USER_SIZE, "" + cacheRuleReader.getUserCacheSize());
         statsValues.put(KEY_USER_HIT, "" + cacheRuleReader.getUserStats().hitCount());
@@ -303,6 +317,7 @@ public class GeofencePage extends GeoServerSecuredPage {
         statsValues.put(KEY_USER_LOADKO, "" + cacheRuleReader.getUserStats().loadExceptionCount());
         statsValues.put(KEY_USER_LOADTIME, "" + cacheRuleReader.getUserStats().totalLoadTime());
         statsValues.put(KEY_USER_EVICTION, "" + cacheRuleReader.getUserStats().evictionCount());
+        statsValues.put(KEY_USER_REFRESH, "" + cacheRuleReader.getUserRefreshCount());
     }
 
     /** Creates a new wicket model from the configuration object. */
@@ -0,0 +1,153 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.geofence.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Ticker;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoserver.geofence.config.GeoFenceConfigurationManager;
+import org.geoserver.geofence.services.RuleReaderService;
+import org.geoserver.geofence.services.dto.AccessInfo;
+import org.geoserver.geofence.services.dto.RuleFilter;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests batched lookups, negative caching and background refresh, without a GeoFence server */
+public class CachedRuleReaderTest {
+
+    static class ManualTicker extends Ticker {
+
+        volatile long nano = 0;
+
+        @Override
+        public long read() {
+            return nano;
+        }
+
+        public void setMillisec(long milli) {
+            this.nano = milli * 1000000;
+        }
+    }
+
+    Map<RuleFilter, AccessInfo> responses = new HashMap<>();
+
+    AtomicInteger calls = new AtomicInteger();
+
+    AtomicInteger authCalls = new AtomicInteger();
+
+    ManualTicker ticker = new ManualTicker();
+
+    CachedRuleReader reader;
+
+    RuleFilter allowed1;
+
+    RuleFilter allowed2;
+
+    RuleFilter unmatched;
+
+    @Before
+    public void setup() {
+        allowed1 = filter("user1");
+        allowed2 = filter("user2");
+        unmatched = filter("user3");
+        responses.put(allowed1, AccessInfo.ALLOW_ALL);
+        responses.put(allowed2, AccessInfo.ALLOW_ALL);
+
+        // only the rule lookups are needed, a proxy avoids implementing the whole API
+        RuleReaderService service =
+                (RuleReaderService)
+                        Proxy.newProxyInstance(
+                                getClass().getClassLoader(),
+                                new Class[] {RuleReaderService.class},
+                                (proxy, method, args) -> {
+                                    if ("getAccessInfo".equals(method.getName())
+                                            && args.length == 1) {
+                                        calls.incrementAndGet();
+                                        return responses.get(args[0]);
+                                    }
+                                    if ("authorize".equals(method.getName())) {
+                                        // no user can log in
+                                        authCalls.incrementAndGet();
+                                        return null;
+                                    }
+                                    throw new UnsupportedOperationException(method.getName());
+                                });
+
+        CacheConfiguration config = new CacheConfiguration();
+        config.setSize(100);
+        config.setRefreshMilliSec(500);
+        config.setExpireMilliSec(10000);
+        config.setCustomTicker(ticker);
+        GeoFenceConfigurationManager configManager = new GeoFenceConfigurationManager();
+        configManager.setCacheConfiguration(config);
+
+        reader = new CachedRuleReader(configManager);
+        reader.setRealRuleReaderService(service);
+    }
+
+    private RuleFilter filter(String user) {
+        RuleFilter filter = new RuleFilter(RuleFilter.SpecialFilterType.ANY);
+        filter.setUser(user);
+        filter.setWorkspace("ws");
+        filter.setLayer("layer");
+        return filter;
+    }
+
+    @Test
+    public void testBatchAndNegativeCaching() {
+        List<RuleFilter> filters = Arrays.asList(allowed1, unmatched, allowed2);
+        List<AccessInfo> infos = reader.getAccessInfo(filters);
+        assertEquals(3, infos.size());
+        assertSame(AccessInfo.ALLOW_ALL, infos.get(0));
+        assertNull(infos.get(1));
+        assertSame(AccessInfo.ALLOW_ALL, infos.get(2));
+        assertEquals(3, calls.get());
+
+        // all cached now, including the missing rule
+        infos = reader.getAccessInfo(filters);
+        assertNull(infos.get(1));
+        assertNull(reader.getAccessInfo(unmatched));
+        assertSame(AccessInfo.ALLOW_ALL, reader.getAccessInfo(allowed1));
+        assertEquals(3, calls.get());
+        assertEquals(3, reader.getCacheSize());
+        assertEquals(1, reader.getNegativeCacheSize());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        assertSame(AccessInfo.ALLOW_ALL, reader.getAccessInfo(allowed1));
+        assertEquals(1, calls.get());
+
+        // the rule changes, past the refresh time the old value is returned while reloading
+        responses.remove(allowed1);
+        ticker.setMillisec(600);
+        assertSame(AccessInfo.ALLOW_ALL, reader.getAccessInfo(allowed1));
+
+        long timeout = System.currentTimeMillis() + 10000;
+        while (reader.getAccessInfo(allowed1) != null && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertNull(reader.getAccessInfo(allowed1));
+        assertEquals(2, calls.get());
+        assertEquals(1, reader.getRefreshCount());
+        assertEquals(1, reader.getNegativeCacheSize());
+    }
+
+    @Test
+    public void testFailedAuthenticationNotCached() {
+        assertNull(reader.authorize("user1", "wrong"));
+        assertNull(reader.authorize("user1", "wrong"));
+        assertEquals(2, authCalls.get());
+        assertEquals(0, reader.getUserCacheSize());
+    }
+}
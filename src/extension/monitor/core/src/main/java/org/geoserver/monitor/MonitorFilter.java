@@ -23,6 +23,7 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.geoserver.filters.AsyncFilterSupport;
 import org.geoserver.filters.GeoServerFilter;
 import org.geoserver.monitor.RequestData.Status;
 import org.geoserver.platform.GeoServerExtensions;
@@ -142,18 +143,48 @@ public class MonitorFilter implements GeoServerFilter {
             error = t;
         }
 
-        data = monitor.current();
+        // asynchronous requests are still running at this point, complete them at the end
+        final RequestData current = monitor.current();
+        final MonitorServletRequest monitorRequest = (MonitorServletRequest) request;
+        final MonitorServletResponse monitorResponse = (MonitorServletResponse) response;
+        final Throwable failure = error;
+        final Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (request.isAsyncStarted()) {
+            Monitor.REQUEST.remove();
+        }
+        AsyncFilterSupport.runAfterResponse(
+                request,
+                () -> complete(current, monitorRequest, monitorResponse, req, resp, failure, auth));
 
-        data.setBody(getBody((MonitorServletRequest) request));
-        data.setBodyContentLength(((MonitorServletRequest) request).getBytesRead());
+        if (error != null) {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else {
+                throw new RuntimeException(error);
+            }
+        }
+    }
+
+    /** Fills in the response data, completes the request and schedules its post processing */
+    void complete(
+            RequestData data,
+            MonitorServletRequest request,
+            MonitorServletResponse response,
+            HttpServletRequest req,
+            HttpServletResponse resp,
+            Throwable error,
+            Authentication auth) {
+        Monitor.REQUEST.set(data);
+
+        data.setBody(getBody(request));
+        data.setBodyContentLength(request.getBytesRead());
         data.setResponseContentType(response.getContentType());
-        data.setResponseLength(((MonitorServletResponse) response).getContentLength());
-        data.setResponseStatus(((MonitorServletResponse) response).getStatus());
+        data.setResponseLength(response.getContentLength());
+        data.setResponseStatus(response.getStatus());
 
         // GWC headers integration.
-        String cacheResult =
-                ((MonitorServletResponse) response).getHeader(GEOWEBCACHE_CACHE_RESULT);
-        String missReason = ((MonitorServletResponse) response).getHeader(GEOWEBCACHE_MISS_REASON);
+        String cacheResult = response.getHeader(GEOWEBCACHE_CACHE_RESULT);
+        String missReason = response.getHeader(GEOWEBCACHE_MISS_REASON);
         data.setCacheResult(cacheResult);
         data.setMissReason(missReason);
 
@@ -175,24 +206,10 @@ public class MonitorFilter implements GeoServerFilter {
         monitor.complete();
 
         // post processing
-        PostProcessTask task =
-                new PostProcessTask(
-                        monitor,
-                        data,
-                        req,
-                        resp,
-                        SecurityContextHolder.getContext().getAuthentication());
+        PostProcessTask task = new PostProcessTask(monitor, data, req, resp, auth);
         // Execution Audit
         task.setExecutionAudit(executionAudit);
         postProcessExecutor.execute(task);
-
-        if (error != null) {
-            if (error instanceof RuntimeException) {
-                throw (RuntimeException) error;
-            } else {
-                throw new RuntimeException(error);
-            }
-        }
     }
 
     public void destroy() {
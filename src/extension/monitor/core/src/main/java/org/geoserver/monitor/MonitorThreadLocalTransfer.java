@@ -0,0 +1,38 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.Map;
+import org.geoserver.threadlocals.ThreadLocalTransfer;
+
+/**
+ * Transfers the monitored request across thread pools, so that requests executed asynchronously
+ * still get their service, operation and resources recorded
+ */
+public class MonitorThreadLocalTransfer implements ThreadLocalTransfer {
+
+    static final String KEY = Monitor.class.getName() + "#REQUEST";
+
+    @Override
+    public void collect(Map<String, Object> storage) {
+        RequestData data = Monitor.REQUEST.get();
+        if (data != null) {
+            storage.put(KEY, data);
+        }
+    }
+
+    @Override
+    public void apply(Map<String, Object> storage) {
+        RequestData data = (RequestData) storage.get(KEY);
+        if (data != null) {
+            Monitor.REQUEST.set(data);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        Monitor.REQUEST.remove();
+    }
+}
@@ -169,6 +169,9 @@ public class RequestData implements Serializable {
     /** If there was a cache miss, the reason for it */
     private String missReason;
 
+    /** The per layer rendering, labelling and encoding times of a profiled GetMap, if any */
+    private String renderingProfile;
+
     public long getId() {
         return id;
     }
@@ -470,6 +473,7 @@ public class RequestData implements Serializable {
         clone.setBbox(bbox);
         clone.setCacheResult(cacheResult);
         clone.setMissReason(missReason);
+        clone.setRenderingProfile(renderingProfile);
 
         return clone;
     }
@@ -518,4 +522,12 @@ public class RequestData implements Serializable {
     public void setMissReason(String missReason) {
         this.missReason = missReason;
     }
+
+    public String getRenderingProfile() {
+        return renderingProfile;
+    }
+
+    public void setRenderingProfile(String renderingProfile) {
+        this.renderingProfile = renderingProfile;
+    }
 }
@@ -30,6 +30,7 @@ import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.map.RenderingProfile;
 
 public class MonitorCallback implements DispatcherCallback {
 
@@ -106,16 +107,22 @@ public class MonitorCallback implements DispatcherCallback {
     }
 
     public void finished(Request request) {
-        if (request.getError() != null) {
+        RenderingProfile profile = RenderingProfile.get(request);
+        if (request.getError() != null || profile != null) {
             RequestData data = monitor.current();
             if (data == null) {
                 // will happen in cases where the filter is not active
                 return;
             }
 
-            data.setStatus(Status.FAILED);
-            data.setErrorMessage(request.getError().getLocalizedMessage());
-            data.setError(request.getError());
+            if (profile != null) {
+                data.setRenderingProfile(profile.toString());
+            }
+            if (request.getError() != null) {
+                data.setStatus(Status.FAILED);
+                data.setErrorMessage(request.getError().getLocalizedMessage());
+                data.setError(request.getError());
+            }
 
             monitor.update();
         }
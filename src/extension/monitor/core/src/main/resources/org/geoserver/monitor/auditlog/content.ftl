@@ -25,6 +25,7 @@
    <ResponseContentType>${responseContentType!""}</ResponseContentType>
    <CacheResult>${cacheResult!""}</CacheResult>
    <MissReason>${missReason!""}</MissReason>
+   <RenderingProfile>${renderingProfile!""}</RenderingProfile>
    <#if error??>
    <Failed>true</Failed>
    <ErrorMessage>${errorMessage!""}</ErrorMessage>
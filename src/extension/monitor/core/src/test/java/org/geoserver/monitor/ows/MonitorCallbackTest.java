@@ -48,6 +48,7 @@ import org.geoserver.monitor.MonitorConfig;
 import org.geoserver.monitor.MonitorDAO;
 import org.geoserver.monitor.MonitorTestData;
 import org.geoserver.monitor.RequestData;
+import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.Operation;
@@ -61,6 +62,8 @@ import org.geoserver.wms.GetLegendGraphicRequest;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.RenderingProfile;
 import org.geotools.feature.NameImpl;
 import org.geotools.filter.text.cql2.CQL;
 import org.geotools.filter.text.cql2.CQLException;
@@ -79,6 +82,7 @@ import org.opengis.feature.type.FeatureType;
 import org.opengis.filter.Filter;
 import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.springframework.mock.web.MockHttpServletRequest;
 
 public class MonitorCallbackTest {
 
@@ -300,6 +304,29 @@ public class MonitorCallbackTest {
                 new ReferencedEnvelope(env, crs).toBounds(logCrs), data.getBbox(), 0.1);
     }
 
+    @Test
+    public void testWMSGetMapRenderingProfile() throws Exception {
+        GetMapRequest gm = new GetMapRequest();
+        gm.getFormatOptions().put(RenderingProfile.PROFILE_FORMAT_OPTION, "true");
+        Request request = new Request();
+        request.setHttpRequest(new MockHttpServletRequest());
+        WMSMapContent mapContent = new WMSMapContent(gm);
+        Dispatcher.REQUEST.set(request);
+        try {
+            RenderingProfile profile = RenderingProfile.start(mapContent);
+            profile.addLayer("acme:foo", 1, 0);
+            profile.setEncodingTime(0);
+        } finally {
+            Dispatcher.REQUEST.remove();
+            mapContent.dispose();
+        }
+
+        callback.finished(request);
+        assertEquals(
+                "acme:foo: query=0ms features=1 render=0ms; encoding=0ms",
+                data.getRenderingProfile());
+    }
+
     @Test
     public void testWMSReflect() throws Exception {
         GetMapRequest gm = new GetMapRequest();
@@ -111,7 +111,7 @@ public class Executions {
         }
 
         Query queryFilter = new Query("GetExecutions", builder.getFilter());
-        int total = statusTracker.getStore().list(queryFilter).size();
+        int total = statusTracker.getStore().count(queryFilter.getFilter());
 
         // Now let's check the ordering and act accordingly
         if (request.orderBy != null && !request.orderBy.isEmpty()) {
@@ -153,6 +153,7 @@ public class Executions {
             throw new WPSException(
                     Executions.NO_SUCH_PROCESS_CODE, "No Process Execution available.");
         }
+        statuses = statusTracker.addQueuePositions(statuses);
 
         // Going to collect all the responses outputs
         GetExecutionsTransformer executionsTransformer =
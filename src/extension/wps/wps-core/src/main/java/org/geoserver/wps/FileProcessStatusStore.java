@@ -0,0 +1,734 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.XStreamException;
+import com.thoughtworks.xstream.converters.SingleValueConverter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.beanutils.BeanComparator;
+import org.geoserver.config.util.SecureXStream;
+import org.geoserver.wps.executor.ExecutionStatus;
+import org.geoserver.wps.executor.ProcessState;
+import org.geotools.data.Query;
+import org.geotools.process.ProcessException;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * A disk backed implementation of the {@link ProcessStatusStore} interface, for single node
+ * installations that need the execution statuses to survive a restart.
+ *
+ * <p>Each change is appended to a log file, which is replayed at startup. The statuses are kept in
+ * memory, indexed by execution id, user name, process name and phase, and sorted by creation time,
+ * so that the typical GetExecutions queries (equality filters on the indexed properties, sorted by
+ * creation time, paged) can be answered without scanning and sorting all the statuses. Once the
+ * log contains enough obsolete records, it gets compacted by rewriting only the live statuses.
+ *
+ * <p>The statuses are stored as XML, using a {@link SecureXStream} that only allows the types
+ * making up a status. Of the process failure, only the message is kept.
+ */
+public class FileProcessStatusStore implements ProcessStatusStore, Closeable {
+
+    static final Logger LOGGER = Logging.getLogger(FileProcessStatusStore.class);
+
+    static final String LOG_FILE = "executions.log";
+
+    static final byte SAVE = 1;
+
+    static final byte REMOVE = 2;
+
+    static final String USER_NAME = "userName";
+
+    static final String PROCESS_NAME = "processName";
+
+    static final String PHASE = "phase";
+
+    static final String CREATION_TIME = "creationTime";
+
+    /** Sorts statuses by creation time, using the execution id to break ties */
+    static final Comparator<ExecutionStatus> CREATION_ORDER =
+            new Comparator<ExecutionStatus>() {
+
+                @Override
+                public int compare(ExecutionStatus o1, ExecutionStatus o2) {
+                    long t1 = o1.getCreationTime() == null ? 0 : o1.getCreationTime().getTime();
+                    long t2 = o2.getCreationTime() == null ? 0 : o2.getCreationTime().getTime();
+                    int result = Long.compare(t1, t2);
+                    if (result == 0) {
+                        result = o1.getExecutionId().compareTo(o2.getExecutionId());
+                    }
+                    return result;
+                }
+            };
+
+    final File logFile;
+
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    final Map<String, ExecutionStatus> statuses = new HashMap<>();
+
+    final TreeSet<ExecutionStatus> byCreationTime = new TreeSet<>(CREATION_ORDER);
+
+    final Map<String, Map<String, Set<String>>> indexes = new HashMap<>();
+
+    final XStream xstream = buildXStream();
+
+    DataOutputStream out;
+
+    /** Number of records in the log, live or obsolete */
+    int logRecords;
+
+    /** Minimum number of obsolete records in the log before a compaction is attempted */
+    int compactionThreshold = 1000;
+
+    public FileProcessStatusStore(File directory) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create status store directory " + directory);
+        }
+        this.logFile = new File(directory, LOG_FILE);
+        indexes.put(USER_NAME, new HashMap<>());
+        indexes.put(PROCESS_NAME, new HashMap<>());
+        indexes.put(PHASE, new HashMap<>());
+
+        load();
+        out = openLog();
+        failInterruptedExecutions();
+    }
+
+    /**
+     * The processes that were queued or running when the store got closed are not going to
+     * complete, mark them as failed
+     */
+    private void failInterruptedExecutions() throws IOException {
+        List<ExecutionStatus> interrupted = new ArrayList<>();
+        for (ExecutionStatus status : statuses.values()) {
+            if (!status.getPhase().isExecutionCompleted()) {
+                interrupted.add(status);
+            }
+        }
+        for (ExecutionStatus status : interrupted) {
+            ExecutionStatus failed = new ExecutionStatus(status);
+            failed.setException(
+                    new ProcessException(
+                            "The process execution was interrupted by a GeoServer restart"));
+            failed.setLastUpdated(new Date());
+            save(failed);
+        }
+    }
+
+    /** Replays the log, truncating it at the last complete record if its tail is corrupted */
+    private void load() throws IOException {
+        if (!logFile.exists()) {
+            return;
+        }
+
+        long validLength = 0;
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    if (op == SAVE) {
+                        int length = in.readInt();
+                        byte[] bytes = new byte[length];
+                        in.readFully(bytes);
+                        ExecutionStatus status = deserialize(bytes);
+                        index(status);
+                        validLength += 1 + 4 + length;
+                    } else if (op == REMOVE) {
+                        String executionId = in.readUTF();
+                        unindex(executionId);
+                        // readUTF reads an unsigned short length followed by the modified UTF-8
+                        validLength += 1 + 2 + modifiedUtf8Length(executionId);
+                    } else {
+                        throw new IOException("Unknown record type " + op);
+                    }
+                    logRecords++;
+                } catch (IOException | XStreamException e) {
+                    LOGGER.log(
+                            Level.WARNING,
+                            "Truncated or invalid record found in "
+                                    + logFile
+                                    + ", discarding the tail of the log",
+                            e);
+                    break;
+                }
+            }
+        }
+
+        if (validLength < logFile.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(logFile, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+    }
+
+    private static int modifiedUtf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    private DataOutputStream openLog() throws IOException {
+        return new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(logFile, true)));
+    }
+
+    @Override
+    public void save(ExecutionStatus status) {
+        lock.writeLock().lock();
+        try {
+            ExecutionStatus oldStatus = statuses.get(status.getExecutionId());
+            if (oldStatus != null) {
+                ProcessState previousPhase = oldStatus.getPhase();
+                ProcessState currPhase = status.getPhase();
+                if (!currPhase.isValidSuccessor(previousPhase)) {
+                    throw new WPSException(
+                            "Cannot switch process status from "
+                                    + previousPhase
+                                    + " to "
+                                    + currPhase);
+                }
+            }
+            ExecutionStatus copy = new ExecutionStatus(status);
+            byte[] bytes = serialize(copy);
+            out.writeByte(SAVE);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.flush();
+            logRecords++;
+            index(copy);
+            compactIfNeeded();
+        } catch (IOException e) {
+            throw new WPSException(
+                    "Failed to save status for execution " + status.getExecutionId(), e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ExecutionStatus get(String executionId) {
+        lock.readLock().lock();
+        try {
+            ExecutionStatus status = statuses.get(executionId);
+            return status == null ? null : new ExecutionStatus(status);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ExecutionStatus remove(String executionId) {
+        lock.writeLock().lock();
+        try {
+            if (!statuses.containsKey(executionId)) {
+                return null;
+            }
+            writeRemove(executionId);
+            ExecutionStatus removed = unindex(executionId);
+            compactIfNeeded();
+            return removed;
+        } catch (IOException e) {
+            throw new WPSException("Failed to remove status for execution " + executionId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int remove(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            List<String> removed = new ArrayList<>();
+            for (ExecutionStatus status : candidates(filter)) {
+                if (filter.evaluate(status)) {
+                    removed.add(status.getExecutionId());
+                }
+            }
+            for (String executionId : removed) {
+                writeRemove(executionId);
+                unindex(executionId);
+            }
+            compactIfNeeded();
+            return removed.size();
+        } catch (IOException e) {
+            throw new WPSException("Failed to remove statuses matching " + filter, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ExecutionStatus> list(Query query) {
+        Filter filter = query.getFilter() == null ? Filter.INCLUDE : query.getFilter();
+        int startIndex = query.getStartIndex() == null ? 0 : query.getStartIndex();
+        int maxFeatures = query.getMaxFeatures();
+
+        lock.readLock().lock();
+        try {
+            SortBy[] sorts = query.getSortBy();
+            Boolean creationOrder = getCreationOrder(sorts);
+            if (creationOrder != null) {
+                // the candidates are already in the desired order, page while scanning
+                Iterable<ExecutionStatus> candidates = candidates(filter);
+                if (!creationOrder) {
+                    candidates = reverse(candidates);
+                }
+                List<ExecutionStatus> result = new ArrayList<>();
+                int skipped = 0;
+                for (ExecutionStatus status : candidates) {
+                    if (result.size() >= maxFeatures) {
+                        break;
+                    }
+                    if (filter.evaluate(status)) {
+                        if (skipped < startIndex) {
+                            skipped++;
+                        } else {
+                            result.add(new ExecutionStatus(status));
+                        }
+                    }
+                }
+                return result;
+            }
+
+            // generic sorting, collect and sort
+            List<ExecutionStatus> result = new ArrayList<>();
+            for (ExecutionStatus status : candidates(filter)) {
+                if (filter.evaluate(status)) {
+                    result.add(status);
+                }
+            }
+            Collections.sort(result, getComparator(sorts));
+            if (startIndex > 0) {
+                result =
+                        startIndex >= result.size()
+                                ? Collections.emptyList()
+                                : result.subList(startIndex, result.size());
+            }
+            if (result.size() > maxFeatures) {
+                result = result.subList(0, maxFeatures);
+            }
+            List<ExecutionStatus> copies = new ArrayList<>(result.size());
+            for (ExecutionStatus status : result) {
+                copies.add(new ExecutionStatus(status));
+            }
+            return copies;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int count(Filter filter) {
+        lock.readLock().lock();
+        try {
+            if (filter == null || filter == Filter.INCLUDE) {
+                return statuses.size();
+            }
+            int count = 0;
+            for (ExecutionStatus status : candidates(filter)) {
+                if (filter.evaluate(status)) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean supportsPredicate() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsPaging() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            out.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Rewrites the log with just the live statuses, if it contains enough obsolete records */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            File tmp = new File(logFile.getParentFile(), LOG_FILE + ".tmp");
+            try (DataOutputStream tmpOut =
+                    new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(tmp, false)))) {
+                for (ExecutionStatus status : byCreationTime) {
+                    byte[] bytes = serialize(status);
+                    tmpOut.writeByte(SAVE);
+                    tmpOut.writeInt(bytes.length);
+                    tmpOut.write(bytes);
+                }
+            }
+            out.close();
+            try {
+                Files.move(
+                        tmp.toPath(),
+                        logFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                logRecords = statuses.size();
+            } finally {
+                out = openLog();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        int obsolete = logRecords - statuses.size();
+        if (obsolete > compactionThreshold && obsolete > statuses.size()) {
+            compact();
+        }
+    }
+
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Sets the minimum number of obsolete records in the log before a compaction is attempted.
+     * Compaction also requires obsolete records to outnumber the live ones.
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    private void writeRemove(String executionId) throws IOException {
+        out.writeByte(REMOVE);
+        out.writeUTF(executionId);
+        out.flush();
+        logRecords++;
+    }
+
+    private void index(ExecutionStatus status) {
+        String executionId = status.getExecutionId();
+        ExecutionStatus old = statuses.put(executionId, status);
+        if (old != null) {
+            unindexProperties(old);
+        }
+        byCreationTime.add(status);
+        for (Map.Entry<String, Map<String, Set<String>>> entry : indexes.entrySet()) {
+            String key = getIndexKey(status, entry.getKey());
+            Set<String> ids = entry.getValue().get(key);
+            if (ids == null) {
+                ids = new HashSet<>();
+                entry.getValue().put(key, ids);
+            }
+            ids.add(executionId);
+        }
+    }
+
+    private ExecutionStatus unindex(String executionId) {
+        ExecutionStatus old = statuses.remove(executionId);
+        if (old != null) {
+            unindexProperties(old);
+        }
+        return old;
+    }
+
+    private void unindexProperties(ExecutionStatus status) {
+        byCreationTime.remove(status);
+        for (Map.Entry<String, Map<String, Set<String>>> entry : indexes.entrySet()) {
+            String key = getIndexKey(status, entry.getKey());
+            Set<String> ids = entry.getValue().get(key);
+            if (ids != null) {
+                ids.remove(status.getExecutionId());
+                if (ids.isEmpty()) {
+                    entry.getValue().remove(key);
+                }
+            }
+        }
+    }
+
+    private String getIndexKey(ExecutionStatus status, String property) {
+        Object value;
+        if (USER_NAME.equals(property)) {
+            value = status.getUserName();
+        } else if (PROCESS_NAME.equals(property)) {
+            value = status.getProcessName();
+        } else {
+            value = status.getPhase();
+        }
+        return value == null ? null : normalize(value);
+    }
+
+    /**
+     * Keys are case insensitive, so that the index returns a superset of the matches even if the
+     * filter evaluation performs case insensitive comparisons or conversions (e.g., to enums)
+     */
+    private String normalize(Object value) {
+        return value.toString().toUpperCase();
+    }
+
+    /**
+     * Returns the statuses that might match the filter, in creation order, using the indexes when
+     * possible. The caller still has to evaluate the filter against each one of them
+     */
+    private Iterable<ExecutionStatus> candidates(Filter filter) {
+        Set<String> ids = candidateIds(filter);
+        if (ids == null) {
+            return byCreationTime;
+        }
+        List<ExecutionStatus> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            ExecutionStatus status = statuses.get(id);
+            if (status != null) {
+                result.add(status);
+            }
+        }
+        Collections.sort(result, CREATION_ORDER);
+        return result;
+    }
+
+    /**
+     * Returns the ids of the statuses that might match the filter, or null if the indexes cannot
+     * be used to narrow down the search
+     */
+    private Set<String> candidateIds(Filter filter) {
+        if (filter == Filter.EXCLUDE) {
+            return Collections.emptySet();
+        } else if (filter instanceof PropertyIsEqualTo) {
+            PropertyIsEqualTo equal = (PropertyIsEqualTo) filter;
+            String property = getPropertyName(equal.getExpression1(), equal.getExpression2());
+            Object value = getLiteralValue(equal.getExpression1(), equal.getExpression2());
+            if (property == null || value == null || !indexes.containsKey(property)) {
+                return null;
+            }
+            Set<String> ids = indexes.get(property).get(normalize(value));
+            return ids == null ? Collections.emptySet() : ids;
+        } else if (filter instanceof And) {
+            Set<String> smallest = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                Set<String> ids = candidateIds(child);
+                if (ids != null && (smallest == null || ids.size() < smallest.size())) {
+                    smallest = ids;
+                }
+            }
+            return smallest;
+        } else if (filter instanceof Or) {
+            Set<String> union = new HashSet<>();
+            for (Filter child : ((Or) filter).getChildren()) {
+                Set<String> ids = candidateIds(child);
+                if (ids == null) {
+                    return null;
+                }
+                union.addAll(ids);
+            }
+            return union;
+        }
+        return null;
+    }
+
+    private String getPropertyName(Expression e1, Expression e2) {
+        if (e1 instanceof PropertyName && e2 instanceof Literal) {
+            return ((PropertyName) e1).getPropertyName();
+        } else if (e2 instanceof PropertyName && e1 instanceof Literal) {
+            return ((PropertyName) e2).getPropertyName();
+        }
+        return null;
+    }
+
+    private Object getLiteralValue(Expression e1, Expression e2) {
+        if (e1 instanceof Literal) {
+            return ((Literal) e1).getValue();
+        } else if (e2 instanceof Literal) {
+            return ((Literal) e2).getValue();
+        }
+        return null;
+    }
+
+    private Iterable<ExecutionStatus> reverse(Iterable<ExecutionStatus> candidates) {
+        if (candidates instanceof TreeSet) {
+            return ((TreeSet<ExecutionStatus>) candidates).descendingSet();
+        }
+        List<ExecutionStatus> list = new ArrayList<>();
+        for (ExecutionStatus status : candidates) {
+            list.add(status);
+        }
+        Collections.reverse(list);
+        return list;
+    }
+
+    /**
+     * Returns true if the sort is by ascending creation time (or no sort at all), false for
+     * descending creation time, null for any other sort
+     */
+    private Boolean getCreationOrder(SortBy[] sorts) {
+        if (sorts == null || sorts.length == 0) {
+            return true;
+        } else if (sorts.length == 1) {
+            SortBy sort = sorts[0];
+            if (sort == SortBy.NATURAL_ORDER) {
+                return true;
+            } else if (sort == SortBy.REVERSE_ORDER) {
+                return false;
+            } else if (sort.getPropertyName() != null
+                    && CREATION_TIME.equals(sort.getPropertyName().getPropertyName())) {
+                return sort.getSortOrder() != SortOrder.DESCENDING;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Comparator<ExecutionStatus> getComparator(SortBy[] sorts) {
+        List<Comparator<ExecutionStatus>> comparators = new ArrayList<>();
+        for (SortBy sort : sorts) {
+            if (sort == SortBy.NATURAL_ORDER) {
+                comparators.add(CREATION_ORDER);
+            } else if (sort == SortBy.REVERSE_ORDER) {
+                comparators.add(Collections.reverseOrder(CREATION_ORDER));
+            } else {
+                String property = sort.getPropertyName().getPropertyName();
+                // map property to ExecutionStatus values
+                if ("node".equalsIgnoreCase(property)) {
+                    property = "nodeId";
+                } else if ("user".equalsIgnoreCase(property)) {
+                    property = USER_NAME;
+                }
+                Comparator<ExecutionStatus> comparator = new BeanComparator(property);
+                if (sort.getSortOrder() == SortOrder.DESCENDING) {
+                    comparator = Collections.reverseOrder(comparator);
+                }
+                comparators.add(comparator);
+            }
+        }
+        // keep the results stable across pages
+        comparators.add(CREATION_ORDER);
+        return new CompositeComparator<>(comparators);
+    }
+
+    private static XStream buildXStream() {
+        SecureXStream xstream = new SecureXStream();
+        xstream.allowTypes(new Class[] {ExecutionStatus.class, ProcessState.class});
+        xstream.alias("executionStatus", ExecutionStatus.class);
+        xstream.registerLocalConverter(
+                ExecutionStatus.class, "exception", new ExceptionMessageConverter());
+        return xstream;
+    }
+
+    private byte[] serialize(ExecutionStatus status) throws IOException {
+        try {
+            return xstream.toXML(status).getBytes(StandardCharsets.UTF_8);
+        } catch (XStreamException e) {
+            throw new IOException("Failed to encode the status of " + status.getExecutionId(), e);
+        }
+    }
+
+    private ExecutionStatus deserialize(byte[] bytes) throws IOException {
+        Object status = xstream.fromXML(new String(bytes, StandardCharsets.UTF_8));
+        if (!(status instanceof ExecutionStatus)) {
+            throw new IOException("Unexpected record contents " + status);
+        }
+        return (ExecutionStatus) status;
+    }
+
+    /** Stores just the message of the process failure, restoring it as a ProcessException */
+    static class ExceptionMessageConverter implements SingleValueConverter {
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean canConvert(Class type) {
+            return Throwable.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public String toString(Object obj) {
+            String message = ((Throwable) obj).getMessage();
+            return message == null ? "" : message;
+        }
+
+        @Override
+        public Object fromString(String str) {
+            return new ProcessException(str.isEmpty() ? null : str);
+        }
+    }
+
+    /** Returns the ids of all statuses in the store, in creation order. Used for testing */
+    Collection<String> getExecutionIds() {
+        lock.readLock().lock();
+        try {
+            List<String> result = new ArrayList<>();
+            for (Iterator<ExecutionStatus> it = byCreationTime.iterator(); it.hasNext(); ) {
+                result.add(it.next().getExecutionId());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Returns the number of records in the log. Used for testing */
+    int getLogRecords() {
+        return logRecords;
+    }
+}
@@ -230,6 +230,11 @@ public class GetExecutionsTransformer extends TransformerBase {
                                 Converters.convert(status.getNextPoll(), XMLGregorianCalendar.class)
                                         .toString());
                         element("wps:PercentCompleted", String.valueOf(status.getProgress()));
+                        if (status.getQueuePosition() != null) {
+                            element(
+                                    "wps:QueuePosition",
+                                    String.valueOf(status.getQueuePosition()));
+                        }
                         if (status.getException() != null) {
                             StringBuffer stackTrace = new StringBuffer();
                             EList exceptions =
@@ -35,6 +35,14 @@ public interface ProcessStatusStore {
      */
     List<ExecutionStatus> list(Query query);
 
+    /**
+     * Counts the process statuses matching the given filter. The default implementation lists
+     * them, stores should override it if they can count more efficiently
+     */
+    default int count(Filter filter) {
+        return list(new Query(null, filter)).size();
+    }
+
     /**
      * Does the underlying store support the use of Predicates like FullText
      *
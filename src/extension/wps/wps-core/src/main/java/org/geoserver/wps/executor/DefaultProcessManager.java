@@ -5,13 +5,13 @@
  */
 package org.geoserver.wps.executor;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import org.geoserver.platform.ExtensionPriority;
@@ -27,62 +27,122 @@ import org.opengis.util.ProgressListener;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 
+/**
+ * The default process manager, runs processes in two thread pools, one for synchronous and one for
+ * asynchronous requests. In each pool the queued processes are sorted by priority first, and then
+ * shared fairly among users, see {@link FairShareProcessExecutor}.
+ */
 public class DefaultProcessManager
         implements ProcessManager, ExtensionPriority, ApplicationListener<ApplicationEvent> {
 
     ConcurrentHashMap<String, Future<Map<String, Object>>> executions =
             new ConcurrentHashMap<String, Future<Map<String, Object>>>();
 
-    ThreadPoolExecutor synchService;
+    FairShareProcessExecutor synchService;
 
-    ThreadPoolExecutor asynchService;
+    FairShareProcessExecutor asynchService;
 
     WPSResourceManager resourceManager;
 
+    ProcessStatusTracker statusTracker;
+
+    Map<String, Integer> processPriorities = Collections.emptyMap();
+
+    boolean fairShareByProcess;
+
+    long maxQueuedCost;
+
     public DefaultProcessManager(WPSResourceManager resourceManager) {
         this.resourceManager = resourceManager;
     }
 
     public void setMaxAsynchronousProcesses(int maxAsynchronousProcesses) {
-        if (asynchService == null) {
-            // create a fixed size pool. If we allow a delta between core and max
-            // the pool will create new threads only if the queue is full, but the linked queue
-            // never is
-            asynchService =
-                    new ThreadPoolExecutor(
-                            maxAsynchronousProcesses,
-                            maxAsynchronousProcesses,
-                            0L,
-                            TimeUnit.MILLISECONDS,
-                            new LinkedBlockingQueue<Runnable>());
-        } else {
-            // JDK 11 checks the relation between core and max pool size on each set,
-            // need to lower core pool size before changing max
-            asynchService.setCorePoolSize(1);
-            asynchService.setMaximumPoolSize(maxAsynchronousProcesses);
-            asynchService.setCorePoolSize(maxAsynchronousProcesses);
-        }
+        asynchService = resizeService(asynchService, maxAsynchronousProcesses);
     }
 
     public void setMaxSynchronousProcesses(int maxSynchronousProcesses) {
-        if (synchService == null) {
+        synchService = resizeService(synchService, maxSynchronousProcesses);
+    }
+
+    private FairShareProcessExecutor resizeService(FairShareProcessExecutor service, int size) {
+        if (service == null) {
             // create a fixed size pool. If we allow a delta between core and max
-            // the pool will create new threads only if the queue is full, but the linked queue
+            // the pool will create new threads only if the queue is full, but the priority queue
             // never is
-            synchService =
-                    new ThreadPoolExecutor(
-                            maxSynchronousProcesses,
-                            maxSynchronousProcesses,
-                            0L,
-                            TimeUnit.MILLISECONDS,
-                            new LinkedBlockingQueue<Runnable>());
+            service = new FairShareProcessExecutor(size);
+            service.setMaxQueuedCost(maxQueuedCost);
+            if (statusTracker != null) {
+                statusTracker.addQueue(service);
+            }
         } else {
             // JDK 11 checks the relation between core and max pool size on each set,
             // need to lower core pool size before changing max
-            synchService.setCorePoolSize(1);
-            synchService.setMaximumPoolSize(maxSynchronousProcesses);
-            synchService.setCorePoolSize(maxSynchronousProcesses);
+            service.setCorePoolSize(1);
+            service.setMaximumPoolSize(size);
+            service.setCorePoolSize(size);
+        }
+        return service;
+    }
+
+    /**
+     * Sets the maximum estimated cost of the processes a single user (or user/process couple, see
+     * {@link #setFairShareByProcess(boolean)}) can have waiting in the queue. Zero or a negative
+     * value mean no limit. The cost of a process is one, plus one for each long input parse (e.g.,
+     * remote input fetch, sub-process execution)
+     */
+    public void setMaxQueuedCost(long maxQueuedCost) {
+        this.maxQueuedCost = maxQueuedCost;
+        if (synchService != null) {
+            synchService.setMaxQueuedCost(maxQueuedCost);
+        }
+        if (asynchService != null) {
+            asynchService.setMaxQueuedCost(maxQueuedCost);
+        }
+    }
+
+    public long getMaxQueuedCost() {
+        return maxQueuedCost;
+    }
+
+    /**
+     * When true, the execution threads will be shared fairly among each user and process couple,
+     * otherwise, just among users
+     */
+    public void setFairShareByProcess(boolean fairShareByProcess) {
+        this.fairShareByProcess = fairShareByProcess;
+    }
+
+    public boolean isFairShareByProcess() {
+        return fairShareByProcess;
+    }
+
+    /**
+     * Sets the process priorities, as a map from process name (e.g. "gs:Download") to priority.
+     * Processes with a higher priority are executed first, processes not in the map have a zero
+     * priority
+     */
+    public void setProcessPriorities(Map<String, Integer> processPriorities) {
+        this.processPriorities =
+                processPriorities == null
+                        ? Collections.emptyMap()
+                        : new HashMap<>(processPriorities);
+    }
+
+    public Map<String, Integer> getProcessPriorities() {
+        return Collections.unmodifiableMap(processPriorities);
+    }
+
+    /** Sets the status tracker that will report the queue position of waiting processes */
+    public void setStatusTracker(ProcessStatusTracker statusTracker) {
+        this.statusTracker = statusTracker;
+        if (synchService != null) {
+            statusTracker.addQueue(synchService);
+        }
+        if (asynchService != null) {
+            statusTracker.addQueue(asynchService);
         }
     }
 
@@ -130,15 +190,52 @@ public class DefaultProcessManager
             boolean background)
             throws ProcessException {
         ProcessCallable callable = new ProcessCallable(processName, inputs, listener);
-        Future<Map<String, Object>> future;
-        if (background) {
-            future = asynchService.submit(callable);
-        } else {
-            future = synchService.submit(callable);
-        }
+        FairShareProcessExecutor service = background ? asynchService : synchService;
+        String name = processName.getURI();
+        Future<Map<String, Object>> future =
+                service.submit(
+                        callable,
+                        executionId,
+                        name,
+                        getFairShareKey(name),
+                        getPriority(name),
+                        estimateCost(inputs));
         executions.put(executionId, future);
     }
 
+    /** Returns the key used to share the execution threads fairly among requests */
+    String getFairShareKey(String processName) {
+        String user = null;
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null) {
+            user = authentication.getName();
+        }
+        if (user == null) {
+            user = "anonymous";
+        }
+        if (fairShareByProcess) {
+            return user + "/" + processName;
+        }
+        return user;
+    }
+
+    int getPriority(String processName) {
+        Integer priority = processPriorities.get(processName);
+        return priority == null ? 0 : priority;
+    }
+
+    /**
+     * Estimates the cost of running the process with the given inputs. Without knowing anything
+     * about the process internals, the only information available up front are the inputs that
+     * require a lengthy retrieval (remote fetches, sub-processes)
+     */
+    long estimateCost(Map<String, Object> inputs) {
+        if (inputs instanceof LazyInputMap) {
+            return 1 + ((LazyInputMap) inputs).longStepCount();
+        }
+        return 1;
+    }
+
     @Override
     public Map<String, Object> getOutput(String executionId, long timeout) throws ProcessException {
         Future<Map<String, Object>> future = executions.get(executionId);
@@ -180,6 +277,13 @@ public class DefaultProcessManager
     public void cancel(String executionId) {
         Future future = executions.get(executionId);
         if (future != null) {
+            // if still queued, remove it right away so that it stops occupying a queue slot
+            if (future instanceof FairShareProcessExecutor.ScheduledProcess) {
+                FairShareProcessExecutor.ScheduledProcess scheduled =
+                        (FairShareProcessExecutor.ScheduledProcess) future;
+                synchService.dequeue(scheduled);
+                asynchService.dequeue(scheduled);
+            }
             future.cancel(true);
         }
     }
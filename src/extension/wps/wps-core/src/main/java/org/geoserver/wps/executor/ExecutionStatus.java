@@ -125,6 +125,9 @@ public class ExecutionStatus implements Serializable, Comparable<ExecutionStatus
     /** What is the process currently working on */
     String task;
 
+    /** Position in the execution queue (starting from 1), when the process is queued */
+    Integer queuePosition;
+
     /** The process failure */
     Throwable exception;
 
@@ -172,6 +175,7 @@ public class ExecutionStatus implements Serializable, Comparable<ExecutionStatus
         this.expirationDate = other.expirationDate;
         this.estimatedCompletion = other.estimatedCompletion;
         this.nextPoll = other.nextPoll;
+        this.queuePosition = other.queuePosition;
     }
 
     public void setException(Throwable exception) {
@@ -210,6 +214,9 @@ public class ExecutionStatus implements Serializable, Comparable<ExecutionStatus
 
     public void setPhase(ProcessState phase) {
         this.phase = phase;
+        if (phase != ProcessState.QUEUED) {
+            this.queuePosition = null;
+        }
         if (phase != null
                 && phase.isExecutionCompleted()
                 // if there is already a completionTime don't overwrite it!
@@ -322,6 +329,18 @@ public class ExecutionStatus implements Serializable, Comparable<ExecutionStatus
         this.nextPoll = nextPoll;
     }
 
+    /**
+     * The position of the process in the execution queue, starting from 1, or null if the process
+     * is not queued, or its position is unknown
+     */
+    public Integer getQueuePosition() {
+        return queuePosition;
+    }
+
+    public void setQueuePosition(Integer queuePosition) {
+        this.queuePosition = queuePosition;
+    }
+
     @Override
     public String toString() {
         return "ExecutionStatus [processName="
@@ -350,6 +369,8 @@ public class ExecutionStatus implements Serializable, Comparable<ExecutionStatus
                 + nextPoll
                 + ", task="
                 + task
+                + ", queuePosition="
+                + queuePosition
                 + ", exception="
                 + exception
                 + ", nodeId="
@@ -376,6 +397,7 @@ public class ExecutionStatus implements Serializable, Comparable<ExecutionStatus
         result = prime * result + ((processName == null) ? 0 : processName.hashCode());
         result = prime * result + Float.floatToIntBits(progress);
         result = prime * result + ((task == null) ? 0 : task.hashCode());
+        result = prime * result + ((queuePosition == null) ? 0 : queuePosition.hashCode());
         result = prime * result + ((userName == null) ? 0 : userName.hashCode());
         return result;
     }
@@ -421,6 +443,9 @@ public class ExecutionStatus implements Serializable, Comparable<ExecutionStatus
         if (task == null) {
             if (other.task != null) return false;
         } else if (!task.equals(other.task)) return false;
+        if (queuePosition == null) {
+            if (other.queuePosition != null) return false;
+        } else if (!queuePosition.equals(other.queuePosition)) return false;
         if (userName == null) {
             if (other.userName != null) return false;
         } else if (!userName.equals(other.userName)) return false;
@@ -0,0 +1,346 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.geotools.process.ProcessException;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A fixed size thread pool running processes according to their priority and, among processes
+ * with the same priority, using start-time fair queuing across "fair share keys" (the user name,
+ * and optionally the process name). A user submitting hundreds of processes will see them executed
+ * in order, but won't starve the other users, whose requests will be interleaved with the
+ * existing ones.
+ *
+ * <p>Each queued process has an estimated cost, used both to advance the virtual clock of its fair
+ * share key (expensive requests delay the next ones from the same key more) and to perform a
+ * simple admission control, limiting the total estimated cost a single key can have waiting in
+ * the queue.
+ *
+ * <p>The queue position and estimated completion time of the waiting processes are computed on
+ * demand, when their status is read (see {@link ProcessStatusTracker}), as every dispatch moves
+ * all the queued processes, and writing their status each time would hammer the status store.
+ */
+class FairShareProcessExecutor extends ThreadPoolExecutor {
+
+    static final Logger LOGGER = Logging.getLogger(FairShareProcessExecutor.class);
+
+    /** Weight of the latest observation in the moving average of execution times */
+    static final double DURATION_WEIGHT = 0.2;
+
+    /** Used to keep the insertion order among tasks with the same priority and start tag */
+    final AtomicLong sequence = new AtomicLong();
+
+    /** The virtual clock, the start tag of the last task that got dispatched to a thread */
+    double virtualTime;
+
+    /** The finish tag of the last task submitted by each fair share key */
+    final Map<String, Double> lastFinishTags = new HashMap<>();
+
+    /** The total cost currently waiting in the queue for each fair share key */
+    final Map<String, Long> queuedCosts = new HashMap<>();
+
+    /** Moving average of the execution times, per process name */
+    final Map<String, Double> averageDurations = new ConcurrentHashMap<>();
+
+    /** Moving average of the execution times, for all processes */
+    volatile double averageDuration;
+
+    /** The maximum cost a single fair share key can have queued, zero or negative means no limit */
+    long maxQueuedCost;
+
+    public FairShareProcessExecutor(int poolSize) {
+        super(
+                poolSize,
+                poolSize,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Queues a process for execution
+     *
+     * @param callable The process execution
+     * @param executionId The process execution id
+     * @param processName The process name, used to estimate the execution time
+     * @param fairShareKey The key used to share the execution threads fairly
+     * @param priority The process priority, higher priorities are executed first
+     * @param cost The estimated process cost, a positive number
+     * @throws ProcessException If the fair share key has already too many processes queued
+     */
+    public ScheduledProcess submit(
+            Callable<Map<String, Object>> callable,
+            String executionId,
+            String processName,
+            String fairShareKey,
+            int priority,
+            long cost)
+            throws ProcessException {
+        ScheduledProcess task;
+        synchronized (this) {
+            Long queued = queuedCosts.get(fairShareKey);
+            long queuedCost = queued == null ? 0 : queued;
+            if (maxQueuedCost > 0 && queuedCost > 0 && queuedCost + cost > maxQueuedCost) {
+                throw new ProcessException(
+                        "Too many processes queued for "
+                                + fairShareKey
+                                + ", the estimated cost of the queued processes ("
+                                + queuedCost
+                                + ") plus the new one ("
+                                + cost
+                                + ") exceeds the maximum allowed ("
+                                + maxQueuedCost
+                                + "), please try again later");
+            }
+            queuedCosts.put(fairShareKey, queuedCost + cost);
+
+            // start time fair queuing, the task starts either at the current virtual time,
+            // or after the last one submitted for the same key, whatever comes last
+            Double lastFinish = lastFinishTags.get(fairShareKey);
+            double startTag =
+                    lastFinish == null ? virtualTime : Math.max(virtualTime, lastFinish);
+            lastFinishTags.put(fairShareKey, startTag + cost);
+
+            task =
+                    new ScheduledProcess(
+                            callable,
+                            executionId,
+                            processName,
+                            fairShareKey,
+                            priority,
+                            cost,
+                            startTag,
+                            sequence.getAndIncrement());
+        }
+        execute(task);
+        return task;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof ScheduledProcess) {
+            ScheduledProcess task = (ScheduledProcess) r;
+            task.startTime = System.currentTimeMillis();
+            dequeued(task, true);
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        if (r instanceof ScheduledProcess) {
+            ScheduledProcess task = (ScheduledProcess) r;
+            if (task.startTime > 0 && !task.isCancelled()) {
+                double duration = System.currentTimeMillis() - task.startTime;
+                Double previous = averageDurations.get(task.processName);
+                averageDurations.put(task.processName, average(previous, duration));
+                averageDuration = average(averageDuration > 0 ? averageDuration : null, duration);
+            }
+        }
+    }
+
+    /**
+     * Removes a process from the queue, without running it.
+     *
+     * @return true if the task was still waiting in the queue, false otherwise
+     */
+    public boolean dequeue(ScheduledProcess task) {
+        if (remove(task)) {
+            dequeued(task, false);
+            return true;
+        }
+        return false;
+    }
+
+    private double average(Double previous, double duration) {
+        if (previous == null) {
+            return duration;
+        }
+        return previous * (1 - DURATION_WEIGHT) + duration * DURATION_WEIGHT;
+    }
+
+    private synchronized void dequeued(ScheduledProcess task, boolean started) {
+        if (task.dequeued) {
+            return;
+        }
+        task.dequeued = true;
+        if (started) {
+            virtualTime = Math.max(virtualTime, task.startTag);
+        }
+
+        Long queued = queuedCosts.get(task.fairShareKey);
+        if (queued != null) {
+            long remaining = queued - task.cost;
+            if (remaining > 0) {
+                queuedCosts.put(task.fairShareKey, remaining);
+            } else {
+                queuedCosts.remove(task.fairShareKey);
+            }
+        }
+
+        // clean up the keys that cannot influence the start tags anymore
+        for (Iterator<Double> it = lastFinishTags.values().iterator(); it.hasNext(); ) {
+            if (it.next() <= virtualTime) {
+                it.remove();
+            }
+        }
+    }
+
+    /** Returns the tasks waiting in the queue, in the order they are going to be executed */
+    public List<ScheduledProcess> getQueuedProcesses() {
+        Object[] queued = getQueue().toArray();
+        List<ScheduledProcess> result = new ArrayList<>(queued.length);
+        for (Object o : queued) {
+            if (o instanceof ScheduledProcess) {
+                result.add((ScheduledProcess) o);
+            }
+        }
+        ScheduledProcess[] sorted = result.toArray(new ScheduledProcess[result.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    /**
+     * Returns the current queue position and estimated completion time of the waiting processes,
+     * by execution id
+     */
+    Map<String, QueuePosition> getQueuePositions() {
+        List<ScheduledProcess> queued = getQueuedProcesses();
+        if (queued.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, QueuePosition> result = new HashMap<>();
+        int threads = Math.max(1, getMaximumPoolSize());
+        long now = System.currentTimeMillis();
+        double waitDuration = averageDuration;
+        int position = 1;
+        for (ScheduledProcess task : queued) {
+            Date estimatedCompletion = null;
+            if (waitDuration > 0) {
+                // rough estimate, all threads busy with the average process, the ones ahead
+                // in the queue spread evenly among them, then our own run
+                Double ownDuration = averageDurations.get(task.processName);
+                double expected =
+                        waitDuration * (1 + (position - 1) / threads)
+                                + (ownDuration != null ? ownDuration : waitDuration);
+                estimatedCompletion = new Date(now + (long) expected);
+            }
+            result.put(task.executionId, new QueuePosition(position, estimatedCompletion));
+            position++;
+        }
+        return result;
+    }
+
+    public long getMaxQueuedCost() {
+        return maxQueuedCost;
+    }
+
+    public void setMaxQueuedCost(long maxQueuedCost) {
+        this.maxQueuedCost = maxQueuedCost;
+    }
+
+    /** The position of a process in the queue, and its estimated completion time */
+    static class QueuePosition {
+
+        final int position;
+
+        final Date estimatedCompletion;
+
+        QueuePosition(int position, Date estimatedCompletion) {
+            this.position = position;
+            this.estimatedCompletion = estimatedCompletion;
+        }
+    }
+
+    /** A process waiting for execution, sorted by priority, start tag and submission order */
+    static class ScheduledProcess extends FutureTask<Map<String, Object>>
+            implements Comparable<ScheduledProcess> {
+
+        final String executionId;
+
+        final String processName;
+
+        final String fairShareKey;
+
+        final int priority;
+
+        final long cost;
+
+        final double startTag;
+
+        final long sequence;
+
+        volatile long startTime;
+
+        boolean dequeued;
+
+        public ScheduledProcess(
+                Callable<Map<String, Object>> callable,
+                String executionId,
+                String processName,
+                String fairShareKey,
+                int priority,
+                long cost,
+                double startTag,
+                long sequence) {
+            super(callable);
+            this.executionId = executionId;
+            this.processName = processName;
+            this.fairShareKey = fairShareKey;
+            this.priority = priority;
+            this.cost = cost;
+            this.startTag = startTag;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(ScheduledProcess other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            int result = Double.compare(startTag, other.startTag);
+            if (result == 0) {
+                result = Long.compare(sequence, other.sequence);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "ScheduledProcess [executionId="
+                    + executionId
+                    + ", processName="
+                    + processName
+                    + ", fairShareKey="
+                    + fairShareKey
+                    + ", priority="
+                    + priority
+                    + ", cost="
+                    + cost
+                    + ", startTag="
+                    + startTag
+                    + "]";
+        }
+    }
+}
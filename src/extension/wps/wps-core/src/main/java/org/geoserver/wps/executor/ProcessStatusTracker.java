@@ -4,16 +4,28 @@
  */
 package org.geoserver.wps.executor;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.geoserver.platform.ExtensionPriority;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.wps.FileProcessStatusStore;
 import org.geoserver.wps.MemoryProcessStatusStore;
 import org.geoserver.wps.ProcessEvent;
 import org.geoserver.wps.ProcessListener;
 import org.geoserver.wps.ProcessStatusStore;
 import org.geoserver.wps.WPSException;
+import org.geoserver.wps.executor.FairShareProcessExecutor.QueuePosition;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.util.logging.Logging;
 import org.opengis.filter.And;
@@ -37,12 +49,26 @@ public class ProcessStatusTracker
 
     static final Logger LOGGER = Logging.getLogger(ProcessStatusTracker.class);
 
+    /**
+     * System/context/environment variable enabling a disk backed status store, in the data
+     * directory, when no other store has been configured
+     */
+    public static final String PERSISTENT_STATUS_STORE = "WPS_PERSISTENT_STATUS_STORE";
+
     ProcessStatusStore store;
 
+    List<FairShareProcessExecutor> queues = new CopyOnWriteArrayList<>();
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         ProcessStatusStore store =
                 GeoServerExtensions.bean(ProcessStatusStore.class, applicationContext);
+        if (store == null
+                && Boolean.valueOf(
+                        GeoServerExtensions.getProperty(
+                                PERSISTENT_STATUS_STORE, applicationContext))) {
+            store = buildFileStore(applicationContext);
+        }
         if (store == null) {
             store = new MemoryProcessStatusStore();
         }
@@ -50,6 +76,28 @@ public class ProcessStatusTracker
         this.store = store;
     }
 
+    private ProcessStatusStore buildFileStore(ApplicationContext applicationContext) {
+        GeoServerResourceLoader loader =
+                GeoServerExtensions.bean(GeoServerResourceLoader.class, applicationContext);
+        if (loader == null) {
+            LOGGER.warning(
+                    "Cannot locate the data directory, falling back on the in memory status store");
+            return null;
+        }
+        try {
+            File directory = loader.get("wps/executions").dir();
+            LOGGER.info("Using a disk backed WPS status store at " + directory);
+            return new FileProcessStatusStore(directory);
+        } catch (IOException e) {
+            LOGGER.log(
+                    Level.SEVERE,
+                    "Failed to setup the disk backed status store, "
+                            + "falling back on the in memory one",
+                    e);
+            return null;
+        }
+    }
+
     @Override
     public void submitted(ProcessEvent event) throws WPSException {
         if (store == null) {
@@ -74,6 +122,48 @@ public class ProcessStatusTracker
         }
     }
 
+    /**
+     * Registers a queue of processes waiting for execution, their position in the queue will be
+     * added to the statuses returned by {@link #getStatus(String)} and {@link
+     * #addQueuePositions(List)}
+     */
+    void addQueue(FairShareProcessExecutor queue) {
+        if (!queues.contains(queue)) {
+            queues.add(queue);
+        }
+    }
+
+    /**
+     * Adds the current queue position and estimated completion to the statuses of the processes
+     * waiting for execution. The positions are computed when the status is read, and never saved
+     * in the store, as each dispatch would otherwise require saving the status of all queued
+     * processes.
+     */
+    public List<ExecutionStatus> addQueuePositions(List<ExecutionStatus> statuses) {
+        Map<String, QueuePosition> positions = null;
+        List<ExecutionStatus> result = new ArrayList<>(statuses.size());
+        for (ExecutionStatus status : statuses) {
+            if (status != null && status.getPhase() == ProcessState.QUEUED) {
+                if (positions == null) {
+                    positions = new HashMap<>();
+                    for (FairShareProcessExecutor queue : queues) {
+                        positions.putAll(queue.getQueuePositions());
+                    }
+                }
+                QueuePosition position = positions.get(status.getExecutionId());
+                if (position != null) {
+                    status = new ExecutionStatus(status);
+                    status.setQueuePosition(position.position);
+                    if (position.estimatedCompletion != null) {
+                        status.setEstimatedCompletion(position.estimatedCompletion);
+                    }
+                }
+            }
+            result.add(status);
+        }
+        return result;
+    }
+
     @Override
     public void succeeded(ProcessEvent event) throws WPSException {
         ExecutionStatus newStatus = event.getStatus();
@@ -120,7 +210,11 @@ public class ProcessStatusTracker
     }
 
     public ExecutionStatus getStatus(String executionId) {
-        return store.get(executionId);
+        ExecutionStatus status = store.get(executionId);
+        if (status != null && status.getPhase() == ProcessState.QUEUED) {
+            status = addQueuePositions(Collections.singletonList(status)).get(0);
+        }
+        return status;
     }
 
     public void cleanExpiredStatuses(long expirationThreshold) {
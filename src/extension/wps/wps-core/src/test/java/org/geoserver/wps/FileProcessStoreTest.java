@@ -0,0 +1,140 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.geoserver.wps.executor.ExecutionStatus;
+import org.geoserver.wps.executor.ProcessState;
+import org.geotools.feature.NameImpl;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.process.ProcessException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests the disk backed implementation of {@link ProcessStatusStore} */
+public class FileProcessStoreTest extends AbstractProcessStoreTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    File directory;
+
+    @Override
+    protected ProcessStatusStore buildStore() throws IOException {
+        directory = new File(folder.getRoot(), "executions");
+        return new FileProcessStatusStore(directory);
+    }
+
+    @After
+    public void closeStore() throws IOException {
+        ((FileProcessStatusStore) store).close();
+    }
+
+    private FileProcessStatusStore reopen() throws IOException {
+        ((FileProcessStatusStore) store).close();
+        store = new FileProcessStatusStore(directory);
+        return (FileProcessStatusStore) store;
+    }
+
+    @Test
+    public void testSurvivesRestart() throws Exception {
+        store.remove("abcde1");
+        FileProcessStatusStore reopened = reopen();
+
+        assertEquals(Arrays.asList("abcde2", "abcde3", "abcde4"), reopened.getExecutionIds());
+        assertNull(reopened.get("abcde1"));
+        assertEquals(s2, reopened.get("abcde2"));
+        // the running ones have been interrupted by the restart
+        assertEquals(ProcessState.FAILED, reopened.get("abcde3").getPhase());
+        assertEquals(ProcessState.FAILED, reopened.get("abcde4").getPhase());
+    }
+
+    @Test
+    public void testTruncatedLog() throws Exception {
+        ((FileProcessStatusStore) store).close();
+        File log = new File(directory, FileProcessStatusStore.LOG_FILE);
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+
+        FileProcessStatusStore reopened = reopen();
+        assertEquals(Arrays.asList("abcde1", "abcde2", "abcde3"), reopened.getExecutionIds());
+
+        // and we can keep on writing to it
+        ExecutionStatus status = new ExecutionStatus(new NameImpl("test5"), "abcde5", false);
+        reopened.save(status);
+        reopened = reopen();
+        assertEquals(status, reopened.get("abcde5"));
+    }
+
+    @Test
+    public void testExceptionMessageSurvivesRestart() throws Exception {
+        ExecutionStatus status = new ExecutionStatus(new NameImpl("test5"), "abcde5", false);
+        status.setException(new IllegalStateException("Something went wrong"));
+        store.save(status);
+
+        FileProcessStatusStore reopened = reopen();
+        Throwable exception = reopened.get("abcde5").getException();
+        assertTrue(exception instanceof ProcessException);
+        assertEquals("Something went wrong", exception.getMessage());
+    }
+
+    @Test
+    public void testForbiddenTypeDiscarded() throws Exception {
+        ((FileProcessStatusStore) store).close();
+        File log = new File(directory, FileProcessStatusStore.LOG_FILE);
+        byte[] record = "<java.io.File><path>/tmp</path></java.io.File>".getBytes("UTF-8");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(log, true))) {
+            out.writeByte(FileProcessStatusStore.SAVE);
+            out.writeInt(record.length);
+            out.write(record);
+        }
+
+        // the record is not decoded, the log is truncated right before it
+        FileProcessStatusStore reopened = reopen();
+        assertEquals(
+                Arrays.asList("abcde1", "abcde2", "abcde3", "abcde4"), reopened.getExecutionIds());
+        String contents = new String(Files.readAllBytes(log.toPath()), "UTF-8");
+        assertFalse(contents.contains("java.io.File"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        FileProcessStatusStore fileStore = (FileProcessStatusStore) store;
+        fileStore.setCompactionThreshold(10);
+        for (int i = 0; i < 20; i++) {
+            s3.setProgress(i);
+            fileStore.save(s3);
+        }
+        // compaction kicked in at least once
+        assertTrue(fileStore.getLogRecords() < 24);
+
+        FileProcessStatusStore reopened = reopen();
+        assertEquals(4, reopened.getExecutionIds().size());
+        // the last update survived
+        assertEquals(19f, reopened.get("abcde3").getProgress(), 0f);
+    }
+
+    @Test
+    public void testCount() throws Exception {
+        assertEquals(4, store.count(ECQL.toFilter("INCLUDE")));
+        assertEquals(2, store.count(ECQL.toFilter("phase = 'RUNNING'")));
+        assertEquals(2, store.count(ECQL.toFilter("phase = 'RUNNING' and processName = 'test3'")));
+        assertEquals(2, store.count(ECQL.toFilter("processName = 'test1' or phase = 'FAILED'")));
+        assertEquals(0, store.count(ECQL.toFilter("processName = 'test1' and phase = 'FAILED'")));
+    }
+}
@@ -0,0 +1,184 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.geoserver.wps.MemoryProcessStatusStore;
+import org.geotools.feature.NameImpl;
+import org.geotools.process.ProcessException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FairShareProcessExecutorTest {
+
+    FairShareProcessExecutor executor;
+
+    CountDownLatch blocker;
+
+    List<String> executed;
+
+    @Before
+    public void setup() throws Exception {
+        executor = new FairShareProcessExecutor(1);
+        executed = Collections.synchronizedList(new ArrayList<>());
+        // occupy the only thread so that everything else gets queued
+        blocker = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.submit(
+                () -> {
+                    started.countDown();
+                    blocker.await();
+                    return null;
+                },
+                "blocker",
+                "gs:Block",
+                "admin",
+                0,
+                1);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+    }
+
+    private Callable<Map<String, Object>> recorder(final String id) {
+        return () -> {
+            executed.add(id);
+            return null;
+        };
+    }
+
+    private void submit(String id, String user, int priority, long cost) {
+        executor.submit(recorder(id), id, "gs:Test", user, priority, cost);
+    }
+
+    private void runQueue() throws InterruptedException {
+        blocker.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFifoSingleUser() throws Exception {
+        submit("a1", "a", 0, 1);
+        submit("a2", "a", 0, 1);
+        submit("a3", "a", 0, 1);
+        runQueue();
+
+        assertEquals(Arrays.asList("a1", "a2", "a3"), executed);
+    }
+
+    @Test
+    public void testFairShare() throws Exception {
+        submit("a1", "a", 0, 1);
+        submit("a2", "a", 0, 1);
+        submit("a3", "a", 0, 1);
+        submit("a4", "a", 0, 1);
+        submit("b1", "b", 0, 1);
+        submit("b2", "b", 0, 1);
+        runQueue();
+
+        // b requests are interleaved with the a ones, instead of waiting for all of them
+        assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3", "a4"), executed);
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        submit("a1", "a", 0, 1);
+        submit("a2", "a", 0, 1);
+        submit("b1", "b", 10, 1);
+        runQueue();
+
+        assertEquals(Arrays.asList("b1", "a1", "a2"), executed);
+    }
+
+    @Test
+    public void testCostDelaysSameUser() throws Exception {
+        submit("a1", "a", 0, 3);
+        submit("a2", "a", 0, 1);
+        submit("b1", "b", 0, 1);
+        submit("b2", "b", 0, 1);
+        runQueue();
+
+        // a1 is expensive, so b gets to run two requests before a2
+        assertEquals(Arrays.asList("a1", "b1", "b2", "a2"), executed);
+    }
+
+    @Test
+    public void testAdmissionControl() throws Exception {
+        executor.setMaxQueuedCost(2);
+        submit("a1", "a", 0, 1);
+        submit("a2", "a", 0, 1);
+        try {
+            submit("a3", "a", 0, 1);
+            fail("Should have refused the third request");
+        } catch (ProcessException e) {
+            assertTrue(e.getMessage().contains("Too many processes queued"));
+        }
+        // other users are not affected
+        submit("b1", "b", 0, 1);
+        runQueue();
+
+        assertEquals(Arrays.asList("a1", "b1", "a2"), executed);
+    }
+
+    @Test
+    public void testDequeue() throws Exception {
+        submit("a1", "a", 0, 1);
+        FairShareProcessExecutor.ScheduledProcess a2 =
+                executor.submit(recorder("a2"), "a2", "gs:Test", "a", 0, 1);
+        submit("a3", "a", 0, 1);
+        assertEquals(3, executor.getQueuedProcesses().size());
+
+        assertTrue(executor.dequeue(a2));
+        assertEquals(2, executor.getQueuedProcesses().size());
+        runQueue();
+
+        assertEquals(Arrays.asList("a1", "a3"), executed);
+    }
+
+    @Test
+    public void testQueuePositions() throws Exception {
+        ProcessStatusTracker tracker = new ProcessStatusTracker();
+        tracker.store = new MemoryProcessStatusStore();
+        tracker.addQueue(executor);
+        for (String id : Arrays.asList("a1", "a2", "b1")) {
+            tracker.store.save(new ExecutionStatus(new NameImpl("gs", "Test"), id, true));
+        }
+        submit("a1", "a", 0, 1);
+        submit("a2", "a", 0, 1);
+        submit("b1", "b", 0, 1);
+
+        // positions are computed on read, following the fair share order
+        assertEquals(Integer.valueOf(1), tracker.getStatus("a1").getQueuePosition());
+        assertEquals(Integer.valueOf(2), tracker.getStatus("b1").getQueuePosition());
+        assertEquals(Integer.valueOf(3), tracker.getStatus("a2").getQueuePosition());
+        // and never stored
+        assertNull(tracker.store.get("a2").getQueuePosition());
+
+        // the positions follow the queue
+        executor.dequeue(executor.getQueuedProcesses().get(0));
+        List<ExecutionStatus> statuses =
+                tracker.addQueuePositions(
+                        Arrays.asList(tracker.store.get("b1"), tracker.store.get("a2")));
+        assertEquals(Integer.valueOf(1), statuses.get(0).getQueuePosition());
+        assertEquals(Integer.valueOf(2), statuses.get(1).getQueuePosition());
+    }
+}
@@ -23,6 +23,7 @@ import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geoserver.wms.map.TransparencyScanner;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.metadata.i18n.ErrorKeys;
@@ -113,6 +114,11 @@ public class GeoServerMetaTile extends MetaTile {
                 tileContext.setMapHeight(tileDim.height);
                 tileContext.setPalette(metaTileContext.getPalette());
                 tileContext.setTransparent(tileContext.isTransparent());
+                // if the meta tile is known to be opaque, so are its tiles
+                Object opaque = metaTileContext.getMetadata().get(TransparencyScanner.OPAQUE_KEY);
+                if (opaque != null) {
+                    tileContext.getMetadata().put(TransparencyScanner.OPAQUE_KEY, opaque);
+                }
                 long[][] tileIndexes = getTilesGridPositions();
                 BoundingBox tileBounds = gridSubset.boundsFromIndex(tileIndexes[tileIdx]);
                 ReferencedEnvelope tilebbox =
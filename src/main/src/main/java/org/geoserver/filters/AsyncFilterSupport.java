@@ -0,0 +1,96 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletRequest;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Helps filters that have work to do once the response has been fully written (closing streams,
+ * recording statistics, logging) to support requests switched to asynchronous mode by the
+ * servlet. In that case the filter chain returns as soon as the request goes asynchronous, before
+ * the response is written, so the work is deferred to the completion of the asynchronous request.
+ */
+public class AsyncFilterSupport {
+
+    static final Logger LOGGER = Logging.getLogger(AsyncFilterSupport.class);
+
+    private AsyncFilterSupport() {
+        // utility class
+    }
+
+    /** Work to be done once the response has been written */
+    @FunctionalInterface
+    public interface ResponseTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs the task once the response has been written. To be called after the filter chain
+     * returned: if the request did not go asynchronous, or has already been completed, the task
+     * is run right away, otherwise it's run when the asynchronous request completes, fails or
+     * times out.
+     */
+    public static void runAfterResponse(ServletRequest request, ResponseTask task)
+            throws IOException {
+        if (request.isAsyncStarted()) {
+            try {
+                AsyncContext context = request.getAsyncContext();
+                context.addListener(new CompletionListener(task));
+                return;
+            } catch (IllegalStateException e) {
+                // the asynchronous processing completed in the meantime, the response is written
+                LOGGER.log(Level.FINEST, "Asynchronous request already completed", e);
+            }
+        }
+        task.run();
+    }
+
+    /** Runs the task only once, whatever way the asynchronous request ends */
+    static class CompletionListener implements AsyncListener {
+
+        final ResponseTask task;
+
+        final AtomicBoolean done = new AtomicBoolean();
+
+        CompletionListener(ResponseTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            run();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            // a new asynchronous cycle, the listener has to be registered again
+            event.getAsyncContext().addListener(this);
+        }
+
+        private void run() throws IOException {
+            if (done.compareAndSet(false, true)) {
+                task.run();
+            }
+        }
+    }
+}
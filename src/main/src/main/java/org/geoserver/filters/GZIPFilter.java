@@ -45,7 +45,8 @@ public class GZIPFilter implements Filter {
                         new GZIPResponseWrapper(
                                 response, myCompressedTypes, request.getRequestURL().toString());
                 chain.doFilter(req, wrappedResponse);
-                wrappedResponse.finishResponse();
+                // asynchronous requests are still writing the response at this point
+                AsyncFilterSupport.runAfterResponse(req, wrappedResponse::finishResponse);
                 return;
             }
         }
@@ -84,8 +84,13 @@ public class LoggingFilter implements Filter {
             logger.info(message + (body == null ? "" : "\n" + body + "\n"));
             long startTime = System.currentTimeMillis();
             chain.doFilter(req, res);
-            long requestTime = System.currentTimeMillis() - startTime;
-            logger.info(path + " took " + requestTime + "ms");
+            final String logPath = path;
+            AsyncFilterSupport.runAfterResponse(
+                    req,
+                    () -> {
+                        long requestTime = System.currentTimeMillis() - startTime;
+                        logger.info(logPath + " took " + requestTime + "ms");
+                    });
         } else {
             chain.doFilter(req, res);
         }
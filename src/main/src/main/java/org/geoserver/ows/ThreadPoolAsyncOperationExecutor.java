@@ -0,0 +1,197 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+
+/**
+ * An {@link AsyncOperationExecutor} running the operations of each configured service in a
+ * dedicated, bounded thread pool. Services without a configured pool size are executed
+ * synchronously, in the servlet container thread.
+ *
+ * <p>Pool sizes can be configured in the application context, or using the {@link
+ * #POOL_SIZES_PROPERTY} system/context/environment variable, as a comma separated list of
+ * service:size couples, e.g., <code>WCS:4,WPS:2</code>.
+ */
+public class ThreadPoolAsyncOperationExecutor
+        implements AsyncOperationExecutor,
+                ApplicationContextAware,
+                ApplicationListener<ApplicationEvent> {
+
+    static final Logger LOGGER = Logging.getLogger(ThreadPoolAsyncOperationExecutor.class);
+
+    /** Variable used to configure the pool sizes, e.g., <code>WCS:4,WPS:2</code> */
+    public static final String POOL_SIZES_PROPERTY = "OWS_ASYNC_POOL_SIZES";
+
+    /** Pool sizes, by upper case service id */
+    Map<String, Integer> poolSizes = Collections.emptyMap();
+
+    /** Maximum number of requests waiting for a thread, per service */
+    int queueSize = 100;
+
+    long timeout = 0;
+
+    Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    @Override
+    public void setApplicationContext(ApplicationContext context) {
+        String sizes = GeoServerExtensions.getProperty(POOL_SIZES_PROPERTY, context);
+        if (sizes != null && !sizes.trim().isEmpty()) {
+            setPoolSizes(parsePoolSizes(sizes));
+        }
+    }
+
+    static Map<String, Integer> parsePoolSizes(String spec) {
+        Map<String, Integer> result = new HashMap<>();
+        for (String entry : spec.split("\\s*,\\s*")) {
+            String[] kv = entry.trim().split("\\s*:\\s*");
+            if (kv.length != 2) {
+                LOGGER.warning("Invalid asynchronous pool size specification: " + entry);
+                continue;
+            }
+            try {
+                result.put(kv[0], Integer.valueOf(kv[1]));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid asynchronous pool size specification: " + entry);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isAsynchronous(Service service, Operation operation) {
+        return service != null && getPoolSize(service) > 0;
+    }
+
+    private int getPoolSize(Service service) {
+        Integer size = poolSizes.get(service.getId().toUpperCase());
+        return size == null ? 0 : size;
+    }
+
+    @Override
+    public void execute(Service service, final Runnable task) throws RejectedExecutionException {
+        final int size = getPoolSize(service);
+        ThreadPoolExecutor executor =
+                executors.computeIfAbsent(
+                        service.getId().toUpperCase(), id -> buildExecutor(id, size));
+
+        // collect the thread locals in the calling thread
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        executor.execute(
+                new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            transfer.apply();
+                            task.run();
+                        } finally {
+                            transfer.cleanup();
+                            CRS.cleanupThreadLocals();
+                        }
+                    }
+                });
+    }
+
+    private ThreadPoolExecutor buildExecutor(final String serviceId, int size) {
+        // fixed size pool with a bounded queue, requests are rejected when the queue is full
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        size,
+                        size,
+                        60L,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(queueSize),
+                        new ThreadFactory() {
+                            AtomicInteger counter = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread =
+                                        new Thread(
+                                                r,
+                                                "ows-async-"
+                                                        + serviceId.toLowerCase()
+                                                        + "-"
+                                                        + counter.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Sets the pool sizes, as a map from service id (e.g. "WCS") to number of threads. Changes
+     * affect only the pools that have not been created yet.
+     */
+    public void setPoolSizes(Map<String, Integer> poolSizes) {
+        Map<String, Integer> sizes = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : poolSizes.entrySet()) {
+            sizes.put(entry.getKey().toUpperCase(), entry.getValue());
+        }
+        this.poolSizes = sizes;
+    }
+
+    public Map<String, Integer> getPoolSizes() {
+        return Collections.unmodifiableMap(poolSizes);
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /** Sets the maximum number of requests waiting for a thread, for each service */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @Override
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /** Sets the asynchronous request timeout, in milliseconds. Zero means no timeout */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextClosedEvent) {
+            for (ThreadPoolExecutor executor : executors.values()) {
+                try {
+                    executor.shutdownNow();
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Failed to shut down asynchronous executor", e);
+                }
+            }
+            executors.clear();
+        }
+    }
+}
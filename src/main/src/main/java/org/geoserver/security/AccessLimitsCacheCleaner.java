@@ -0,0 +1,26 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+
+/**
+ * Drops the access limits memoized by the secure catalog during an OWS request once the request
+ * is finished, so that they are not kept around by the request thread
+ */
+public class AccessLimitsCacheCleaner extends AbstractDispatcherCallback {
+
+    SecureCatalogImpl catalog;
+
+    public AccessLimitsCacheCleaner(SecureCatalogImpl catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public void finished(Request request) {
+        catalog.clearRequestAccessCache();
+    }
+}
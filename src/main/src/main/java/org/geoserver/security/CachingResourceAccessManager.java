@@ -0,0 +1,430 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * A {@link ResourceAccessManager} wrapper memoizing the access limits computed by the delegate.
+ *
+ * <p>Within an OWS request (that is, while {@link Dispatcher#REQUEST} is set) the limits for a
+ * given user and catalog object are computed only once, as the same checks are repeated many
+ * times while building capabilities documents or rendering layer groups. Optionally, the limits
+ * can also be shared among requests for a short time, keyed by the user roles: this is enabled by
+ * setting the {@link #TTL_PROPERTY} variable to a positive number of seconds, and is safe only if
+ * the access manager decisions depend solely on the user roles, the requested service and the
+ * catalog object (as is the case for the default, file based, data access rules).
+ *
+ * <p>All cached limits are dropped on catalog changes, data access rule changes, and whenever
+ * {@link #invalidateAll()} is called.
+ */
+public class CachingResourceAccessManager extends ResourceAccessManagerWrapper
+        implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(CachingResourceAccessManager.class);
+
+    /** Variable used to disable the request scoped cache, enabled by default */
+    public static final String REQUEST_CACHE_PROPERTY = "GEOSERVER_REQUEST_ACCESS_CACHE";
+
+    /** Variable used to set the time to live of the cross request cache, in seconds */
+    public static final String TTL_PROPERTY = "GEOSERVER_ACCESS_CACHE_TTL";
+
+    /** Variable used to set the maximum number of entries in the cross request cache */
+    public static final String MAX_ENTRIES_PROPERTY = "GEOSERVER_ACCESS_CACHE_SIZE";
+
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /** Marks a cached null, that is, no limits */
+    static final Object NO_LIMITS = new Object();
+
+    /** Bumped at each invalidation, caches built against an older generation are discarded */
+    static final AtomicLong GENERATION = new AtomicLong();
+
+    /** The cache key, the context contains everything but the catalog object */
+    static final class Key {
+        final String context;
+
+        final char kind;
+
+        final String id;
+
+        final String containers;
+
+        Key(String context, char kind, String id, String containers) {
+            this.context = context;
+            this.kind = kind;
+            this.id = id;
+            this.containers = containers;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return kind == key.kind
+                    && id.equals(key.id)
+                    && Objects.equals(context, key.context)
+                    && Objects.equals(containers, key.containers);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, kind, id, containers);
+        }
+    }
+
+    /** The limits computed during a single request, by a single user */
+    static final class RequestScope {
+        final WeakReference<Request> request;
+
+        final WeakReference<Authentication> user;
+
+        final long generation;
+
+        final String service;
+
+        final String operation;
+
+        final WorkspaceInfo localWorkspace;
+
+        final PublishedInfo localPublished;
+
+        final Map<Key, Object> limits = new HashMap<>();
+
+        RequestScope(Request request, Authentication user, long generation) {
+            this.request = new WeakReference<>(request);
+            this.user = user != null ? new WeakReference<>(user) : null;
+            this.generation = generation;
+            this.service = request.getService();
+            this.operation = request.getRequest();
+            this.localWorkspace = LocalWorkspace.get();
+            this.localPublished = LocalPublished.get();
+        }
+
+        boolean matches(Request request, Authentication user, long generation) {
+            return this.request.get() == request
+                    && (this.user == null ? user == null : this.user.get() == user)
+                    && this.generation == generation
+                    && Objects.equals(service, request.getService())
+                    && Objects.equals(operation, request.getRequest())
+                    && localWorkspace == LocalWorkspace.get()
+                    && localPublished == LocalPublished.get();
+        }
+    }
+
+    /** A limits entry in the cross request cache */
+    static final class SharedEntry {
+        final Object limits;
+
+        final long expiration;
+
+        SharedEntry(Object limits, long expiration) {
+            this.limits = limits;
+            this.expiration = expiration;
+        }
+    }
+
+    ThreadLocal<RequestScope> requestScope = new ThreadLocal<>();
+
+    boolean requestCacheEnabled = true;
+
+    long timeToLive;
+
+    int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    long sharedGeneration = GENERATION.get();
+
+    LinkedHashMap<Key, SharedEntry> shared = new LinkedHashMap<>(16, 0.75f, true);
+
+    public CachingResourceAccessManager(ResourceAccessManager delegate) {
+        setDelegate(delegate);
+        String requestCache = GeoServerExtensions.getProperty(REQUEST_CACHE_PROPERTY);
+        if (requestCache != null) {
+            requestCacheEnabled = Boolean.parseBoolean(requestCache.trim());
+        }
+        Long ttl = parseLong(TTL_PROPERTY);
+        if (ttl != null) {
+            timeToLive = ttl * 1000;
+        }
+        Long max = parseLong(MAX_ENTRIES_PROPERTY);
+        if (max != null) {
+            maxEntries = max.intValue();
+        }
+    }
+
+    private static Long parseLong(String property) {
+        String value = GeoServerExtensions.getProperty(property);
+        if (value != null) {
+            try {
+                return Long.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + property + ": " + value);
+            }
+        }
+        return null;
+    }
+
+    /** Drops all the limits cached by any instance of this class */
+    public static void invalidateAll() {
+        GENERATION.incrementAndGet();
+    }
+
+    public ResourceAccessManager getDelegate() {
+        return delegate;
+    }
+
+    public boolean isRequestCacheEnabled() {
+        return requestCacheEnabled;
+    }
+
+    public void setRequestCacheEnabled(boolean requestCacheEnabled) {
+        this.requestCacheEnabled = requestCacheEnabled;
+    }
+
+    /** Time to live of the cross request cache, in milliseconds, 0 or less means disabled */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public synchronized void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+        shared.clear();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        shared.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends AccessLimits> T cached(
+            Authentication user,
+            char kind,
+            CatalogInfo info,
+            String containers,
+            Supplier<T> loader) {
+        Request request = Dispatcher.REQUEST.get();
+        String id = info != null ? info.getId() : null;
+        if (request == null || id == null || !requestCacheEnabled) {
+            return loader.get();
+        }
+
+        // request scoped lookup
+        long generation = GENERATION.get();
+        RequestScope scope = requestScope.get();
+        if (scope == null || !scope.matches(request, user, generation)) {
+            scope = new RequestScope(request, user, generation);
+            requestScope.set(scope);
+        }
+        Key requestKey = new Key(null, kind, id, containers);
+        Object limits = scope.limits.get(requestKey);
+        if (limits == null) {
+            // cross request lookup, if enabled
+            Key sharedKey = null;
+            if (timeToLive > 0) {
+                sharedKey = new Key(getSharedContext(user, scope), kind, id, containers);
+                limits = getShared(sharedKey, generation);
+            }
+            if (limits == null) {
+                T computed = loader.get();
+                limits = computed != null ? computed : NO_LIMITS;
+                if (sharedKey != null) {
+                    putShared(sharedKey, limits, generation);
+                }
+            }
+            scope.limits.put(requestKey, limits);
+        }
+
+        return limits == NO_LIMITS ? null : (T) limits;
+    }
+
+    /** Builds the part of the cross request key that depends on the user and the request */
+    private String getSharedContext(Authentication user, RequestScope scope) {
+        List<String> roles = new ArrayList<>();
+        if (user != null && user.getAuthorities() != null) {
+            for (GrantedAuthority authority : user.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            Collections.sort(roles);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(user == null ? "" : user.isAuthenticated()).append('|');
+        sb.append(scope.service).append('|').append(scope.operation).append('|');
+        sb.append(scope.localWorkspace != null ? scope.localWorkspace.getId() : "").append('|');
+        sb.append(scope.localPublished != null ? scope.localPublished.getId() : "").append('|');
+        sb.append(roles);
+        return sb.toString();
+    }
+
+    private synchronized Object getShared(Key key, long generation) {
+        if (sharedGeneration != generation) {
+            shared.clear();
+            sharedGeneration = generation;
+            return null;
+        }
+        SharedEntry entry = shared.get(key);
+        if (entry == null) {
+            return null;
+        } else if (entry.expiration < System.currentTimeMillis()) {
+            shared.remove(key);
+            return null;
+        }
+        return entry.limits;
+    }
+
+    private synchronized void putShared(Key key, Object limits, long generation) {
+        // do not store limits computed against rules or a catalog that has since changed
+        if (sharedGeneration != generation) {
+            return;
+        }
+        shared.put(key, new SharedEntry(limits, System.currentTimeMillis() + timeToLive));
+        Iterator<SharedEntry> it = shared.values().iterator();
+        while (shared.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /** Clears the cached limits of the current thread */
+    public void clearRequestCache() {
+        requestScope.remove();
+    }
+
+    private String getContainersKey(List<LayerGroupInfo> containers) {
+        if (containers == null || containers.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (LayerGroupInfo container : containers) {
+            if (container == null || container.getId() == null) {
+                return null;
+            }
+            sb.append(container.getId()).append(',');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public DataAccessLimits getAccessLimits(Authentication user, ResourceInfo resource) {
+        return cached(user, 'r', resource, "", () -> delegate.getAccessLimits(user, resource));
+    }
+
+    @Override
+    public DataAccessLimits getAccessLimits(Authentication user, LayerInfo layer) {
+        return cached(user, 'l', layer, "", () -> delegate.getAccessLimits(user, layer));
+    }
+
+    @Override
+    public DataAccessLimits getAccessLimits(
+            Authentication user, LayerInfo layer, List<LayerGroupInfo> containers) {
+        String containersKey = getContainersKey(containers);
+        if (containersKey == null) {
+            return delegate.getAccessLimits(user, layer, containers);
+        }
+        return cached(
+                user,
+                'L',
+                layer,
+                containersKey,
+                () -> delegate.getAccessLimits(user, layer, containers));
+    }
+
+    @Override
+    public WorkspaceAccessLimits getAccessLimits(Authentication user, WorkspaceInfo workspace) {
+        return cached(user, 'w', workspace, "", () -> delegate.getAccessLimits(user, workspace));
+    }
+
+    @Override
+    public StyleAccessLimits getAccessLimits(Authentication user, StyleInfo style) {
+        return cached(user, 's', style, "", () -> delegate.getAccessLimits(user, style));
+    }
+
+    @Override
+    public LayerGroupAccessLimits getAccessLimits(Authentication user, LayerGroupInfo layerGroup) {
+        return cached(user, 'g', layerGroup, "", () -> delegate.getAccessLimits(user, layerGroup));
+    }
+
+    @Override
+    public LayerGroupAccessLimits getAccessLimits(
+            Authentication user, LayerGroupInfo layerGroup, List<LayerGroupInfo> containers) {
+        String containersKey = getContainersKey(containers);
+        if (containersKey == null) {
+            return delegate.getAccessLimits(user, layerGroup, containers);
+        }
+        return cached(
+                user,
+                'G',
+                layerGroup,
+                containersKey,
+                () -> delegate.getAccessLimits(user, layerGroup, containers));
+    }
+
+    @Override
+    public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
+        return delegate.getSecurityFilter(user, clazz);
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        invalidateAll();
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        invalidateAll();
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        invalidateAll();
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        invalidateAll();
+    }
+
+    @Override
+    public void reloaded() {
+        invalidateAll();
+    }
+}
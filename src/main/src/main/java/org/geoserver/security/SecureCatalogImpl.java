@@ -88,8 +88,14 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
 
     protected ResourceAccessManager accessManager;
 
+    /** Memoizes the access limits of {@link #accessManager}, if set */
+    CachingResourceAccessManager cachingManager;
+
     public SecureCatalogImpl(Catalog catalog) throws Exception {
         this(catalog, lookupResourceAccessManager());
+        // the same objects are checked many times during a single request, memoize the limits
+        this.cachingManager = new CachingResourceAccessManager(accessManager);
+        catalog.addListener(cachingManager);
     }
 
     public String getId() {
@@ -100,6 +106,23 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
         return accessManager;
     }
 
+    /** Returns the access manager to be used for access checks, possibly a memoizing one */
+    ResourceAccessManager getLimitsManager() {
+        CachingResourceAccessManager caching = cachingManager;
+        if (caching != null && caching.getDelegate() == accessManager) {
+            return caching;
+        }
+        return accessManager;
+    }
+
+    /** Drops the access limits memoized for the current thread, to be called when a request ends */
+    public void clearRequestAccessCache() {
+        CachingResourceAccessManager caching = cachingManager;
+        if (caching != null) {
+            caching.clearRequestCache();
+        }
+    }
+
     static ResourceAccessManager lookupResourceAccessManager() throws Exception {
         ResourceAccessManager manager = GeoServerExtensions.bean(ResourceAccessManager.class);
         if (manager == null) {
@@ -817,7 +840,7 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
 
     protected WrapperPolicy buildWrapperPolicy(
             Authentication user, @Nonnull CatalogInfo info, MixedModeBehavior mixedModeBehavior) {
-        return buildWrapperPolicy(accessManager, user, info, mixedModeBehavior);
+        return buildWrapperPolicy(getLimitsManager(), user, info, mixedModeBehavior);
     }
 
     /**
@@ -835,7 +858,7 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
             String resourceName,
             MixedModeBehavior mixedModeBehavior) {
         return SecureCatalogImpl.buildWrapperPolicy(
-                accessManager,
+                getLimitsManager(),
                 user,
                 info,
                 resourceName,
@@ -859,7 +882,7 @@ public class SecureCatalogImpl extends AbstractDecorator<Catalog> implements Cat
             MixedModeBehavior mixedModeBehavior,
             List<LayerGroupInfo> containers) {
         return SecureCatalogImpl.buildWrapperPolicy(
-                accessManager, user, info, resourceName, mixedModeBehavior, containers);
+                getLimitsManager(), user, info, resourceName, mixedModeBehavior, containers);
     }
 
     static WrapperPolicy buildWrapperPolicy(
@@ -0,0 +1,259 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.geoserver.security.AccessMode;
+import org.geoserver.security.GeoServerSecurityFilterChainProxy;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * An immutable, compiled form of a {@link SecureTreeNode} tree. Each node gets an integer index,
+ * and the role set governing each node and access mode (the node's own one, or the one inherited
+ * from the closest ancestor having a rule) is resolved once, at build time. The distinct role sets
+ * are indexed as well, along with an inverted index going from a role to the role sets containing
+ * it.
+ *
+ * <p>Given a user, the set of nodes that can be accessed in each mode is then computed once per
+ * distinct combination of granted authorities, as a {@link BitSet}, and access decisions become a
+ * bit lookup. The decisions are the same as {@link SecureTreeNode#canAccess(Authentication,
+ * AccessMode)}.
+ */
+class CompiledAuthorizationTree {
+
+    /** Maximum number of distinct authority combinations whose grants are kept around */
+    static final int MAX_GRANTS = 1000;
+
+    static final AccessMode[] MODES = AccessMode.values();
+
+    /** The nodes accessible, and the nodes with an accessible descendant, for a set of roles */
+    static final class Grants {
+        final BitSet[] access;
+
+        final BitSet[] subtreeAccess;
+
+        Grants(BitSet[] access, BitSet[] subtreeAccess) {
+            this.access = access;
+            this.subtreeAccess = subtreeAccess;
+        }
+    }
+
+    final SecureTreeNode root;
+
+    /** Node to index map */
+    final Map<SecureTreeNode, Integer> indexes = new IdentityHashMap<>();
+
+    /** The nodes in breadth first order, parents always come before their children */
+    final List<SecureTreeNode> nodes = new ArrayList<>();
+
+    /** Index of the first child of each node and number of children */
+    final int[] childStart;
+
+    final int[] childCount;
+
+    /**
+     * For each mode, for each node, the index of the distinct role set governing access, or -1 if
+     * no rule is found (open access)
+     */
+    final int[][] roleSets = new int[MODES.length][];
+
+    /** Bits of the role sets that allow access to everybody */
+    final BitSet everybody = new BitSet();
+
+    /** Bits of all the role sets, useful for the administrator */
+    final BitSet allRoleSets = new BitSet();
+
+    /** From a role to the indexes of the role sets containing it */
+    final Map<String, BitSet> roleIndex = new HashMap<>();
+
+    final Map<Set<String>, Grants> grants = new ConcurrentHashMap<>();
+
+    final long lastModified;
+
+    CompiledAuthorizationTree(SecureTreeNode root, long lastModified) {
+        this.root = root;
+        this.lastModified = lastModified;
+
+        // index the nodes, breadth first, so that children of a node are contiguous
+        nodes.add(root);
+        indexes.put(root, 0);
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            Collection<SecureTreeNode> children = nodes.get(i).getChildren().values();
+            starts.add(nodes.size());
+            counts.add(children.size());
+            for (SecureTreeNode child : children) {
+                indexes.put(child, nodes.size());
+                nodes.add(child);
+            }
+        }
+        int size = nodes.size();
+        childStart = new int[size];
+        childCount = new int[size];
+        for (int i = 0; i < size; i++) {
+            childStart[i] = starts.get(i);
+            childCount[i] = counts.get(i);
+        }
+
+        // resolve the role sets, parents are always resolved before children
+        Map<Set<String>, Integer> distinctSets = new HashMap<>();
+        for (AccessMode mode : MODES) {
+            int[] modeSets = new int[size];
+            for (int i = 0; i < size; i++) {
+                SecureTreeNode node = nodes.get(i);
+                Set<String> roles = node.getAuthorizedRoles(mode);
+                if (roles != null) {
+                    modeSets[i] = indexRoleSet(roles, distinctSets);
+                } else if (node.parent != null && indexes.containsKey(node.parent)) {
+                    modeSets[i] = modeSets[indexes.get(node.parent)];
+                } else {
+                    modeSets[i] = -1;
+                }
+            }
+            roleSets[mode.ordinal()] = modeSets;
+        }
+    }
+
+    private int indexRoleSet(Set<String> roles, Map<Set<String>, Integer> distinctSets) {
+        Integer index = distinctSets.get(roles);
+        if (index == null) {
+            index = distinctSets.size();
+            distinctSets.put(roles, index);
+            allRoleSets.set(index);
+            if (roles.equals(SecureTreeNode.EVERYBODY)) {
+                everybody.set(index);
+            }
+            for (String role : roles) {
+                roleIndex.computeIfAbsent(role, r -> new BitSet()).set(index);
+            }
+        }
+        return index;
+    }
+
+    /** The tree this object has been compiled from */
+    SecureTreeNode getRoot() {
+        return root;
+    }
+
+    /** The last modified of the rules used to build this tree */
+    long getLastModified() {
+        return lastModified;
+    }
+
+    /** Number of nodes in the tree */
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Same as {@link SecureTreeNode#canAccess(Authentication, AccessMode)}, but using the compiled
+     * grants
+     */
+    boolean canAccess(Authentication user, SecureTreeNode node, AccessMode mode) {
+        if (GeoServerSecurityFilterChainProxy.isSecurityEnabledForCurrentRequest() == false) {
+            return true;
+        }
+        Integer index = indexes.get(node);
+        if (index == null) {
+            // not part of this tree
+            return node.canAccess(user, mode);
+        }
+        return getGrants(user).access[mode.ordinal()].get(index);
+    }
+
+    /** Returns true if the user can access the specified node, or any of the nodes below it */
+    boolean canAccessSubtree(Authentication user, SecureTreeNode node, AccessMode mode) {
+        if (GeoServerSecurityFilterChainProxy.isSecurityEnabledForCurrentRequest() == false) {
+            return true;
+        }
+        Integer index = indexes.get(node);
+        if (index == null) {
+            return node.canAccess(user, mode);
+        }
+        return getGrants(user).subtreeAccess[mode.ordinal()].get(index);
+    }
+
+    Grants getGrants(Authentication user) {
+        Set<String> roles = getRoles(user);
+        Grants result = grants.get(roles);
+        if (result == null) {
+            result = compile(roles);
+            if (grants.size() >= MAX_GRANTS) {
+                grants.clear();
+            }
+            grants.put(roles, result);
+        }
+        return result;
+    }
+
+    private Set<String> getRoles(Authentication user) {
+        if (user == null || user.getAuthorities() == null) {
+            return Collections.emptySet();
+        }
+        Set<String> roles = new HashSet<>();
+        for (GrantedAuthority authority : user.getAuthorities()) {
+            roles.add(authority.getAuthority());
+        }
+        return roles;
+    }
+
+    private Grants compile(Set<String> roles) {
+        // the role sets matching the user roles
+        BitSet matched;
+        if (roles.contains(SecureTreeNode.ROOT_ROLE)) {
+            // root can do everything
+            matched = (BitSet) allRoleSets.clone();
+        } else {
+            matched = (BitSet) everybody.clone();
+            for (String role : roles) {
+                BitSet sets = roleIndex.get(role);
+                if (sets != null) {
+                    matched.or(sets);
+                }
+            }
+        }
+
+        int size = nodes.size();
+        BitSet[] access = new BitSet[MODES.length];
+        BitSet[] subtreeAccess = new BitSet[MODES.length];
+        for (int m = 0; m < MODES.length; m++) {
+            int[] modeSets = roleSets[m];
+            BitSet modeAccess = new BitSet(size);
+            for (int i = 0; i < size; i++) {
+                int set = modeSets[i];
+                if (set < 0 || matched.get(set)) {
+                    modeAccess.set(i);
+                }
+            }
+            // children have higher indexes than their parents, walk backwards to roll up
+            BitSet modeSubtree = (BitSet) modeAccess.clone();
+            for (int i = size - 1; i >= 0; i--) {
+                if (!modeSubtree.get(i)) {
+                    int start = childStart[i];
+                    int next = modeSubtree.nextSetBit(start);
+                    if (next >= 0 && next < start + childCount[i]) {
+                        modeSubtree.set(i);
+                    }
+                }
+            }
+            access[m] = modeAccess;
+            subtreeAccess[m] = modeSubtree;
+        }
+
+        return new Grants(access, subtreeAccess);
+    }
+}
@@ -22,6 +22,7 @@ import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.resource.Resource;
 import org.geoserver.security.AccessMode;
+import org.geoserver.security.CachingResourceAccessManager;
 import org.geoserver.security.CatalogMode;
 import org.geotools.feature.NameImpl;
 import org.geotools.util.logging.Logging;
@@ -120,6 +121,27 @@ public class DataAccessRuleDAO extends AbstractAccessRuleDAO<DataAccessRule> {
         }
 
         rules = result;
+        CachingResourceAccessManager.invalidateAll();
+    }
+
+    @Override
+    public boolean addRule(DataAccessRule rule) {
+        boolean result = super.addRule(rule);
+        CachingResourceAccessManager.invalidateAll();
+        return result;
+    }
+
+    @Override
+    public boolean removeRule(DataAccessRule rule) {
+        boolean result = super.removeRule(rule);
+        CachingResourceAccessManager.invalidateAll();
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        CachingResourceAccessManager.invalidateAll();
     }
 
     /**
@@ -247,6 +269,7 @@ public class DataAccessRuleDAO extends AbstractAccessRuleDAO<DataAccessRule> {
 
     public void setCatalogMode(CatalogMode catalogMode) {
         this.catalogMode = catalogMode;
+        CachingResourceAccessManager.invalidateAll();
     }
 
     public static CatalogMode getByAlias(String alias) {
@@ -13,6 +13,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -103,13 +106,35 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         }
     }
 
-    SecureTreeNode root;
+    /**
+     * When set to true, changes in the rules are compiled in a background thread while the
+     * previous authorization tree keeps on serving requests, and the new one is swapped in once
+     * ready
+     */
+    static final String ASYNC_RELOAD_PROPERTY = "GEOSERVER_ACCESS_RULES_ASYNC_RELOAD";
+
+    /** Compiles authorization trees in the background, shared among all instances */
+    static final ExecutorService REBUILD_EXECUTOR =
+            Executors.newSingleThreadExecutor(
+                    r -> {
+                        Thread thread = new Thread(r, "GeoServer access rules compiler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    volatile SecureTreeNode root;
+
+    volatile CompiledAuthorizationTree compiled;
 
     DataAccessRuleDAO dao;
 
     Catalog rawCatalog;
 
-    long lastLoaded = Long.MIN_VALUE;
+    volatile long lastLoaded = Long.MIN_VALUE;
+
+    boolean asyncReload = Boolean.valueOf(GeoServerExtensions.getProperty(ASYNC_RELOAD_PROPERTY));
+
+    final AtomicBoolean rebuilding = new AtomicBoolean();
 
     LayerGroupContainmentCache groupsCache;
 
@@ -128,7 +153,7 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
     public DefaultResourceAccessManager(DataAccessRuleDAO dao, Catalog rawCatalog) {
         this.dao = dao;
         this.rawCatalog = rawCatalog;
-        this.root = buildAuthorizationTree(dao);
+        setAuthorizationTree(new CompiledAuthorizationTree(buildAuthorizationTree(dao), 0));
         this.groupsCache = new LayerGroupContainmentCache(rawCatalog);
     }
 
@@ -136,47 +161,48 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         return dao.getMode();
     }
 
+    /** Returns true if the rule changes are compiled in the background */
+    public boolean isAsyncReload() {
+        return asyncReload;
+    }
+
+    /**
+     * Enables or disables the background compilation of rule changes. When disabled, the first
+     * request noticing a change rebuilds the authorization tree and waits for it
+     */
+    public void setAsyncReload(boolean asyncReload) {
+        this.asyncReload = asyncReload;
+    }
+
+    /** Returns the compiled authorization tree currently in use */
+    CompiledAuthorizationTree getAuthorizationTree() {
+        return compiled;
+    }
+
+    private void setAuthorizationTree(CompiledAuthorizationTree tree) {
+        this.compiled = tree;
+        this.root = tree.getRoot();
+    }
+
     public boolean canAccess(Authentication user, WorkspaceInfo workspace, AccessMode mode) {
         checkPropertyFile();
-        SecureTreeNode node = root.getDeepestNode(new String[] {workspace.getName()});
-        if (node.canAccess(user, mode)) {
+        CompiledAuthorizationTree tree = getAuthorizationTree();
+        SecureTreeNode node = tree.getRoot().getDeepestNode(new String[] {workspace.getName()});
+        if (tree.canAccess(user, node, mode)) {
             return true;
         }
 
         // perform a drill down search, we still allow access to the workspace
         // if there is anything inside the workspace that can be read (otherwise
         // we are denying access to everything below it, which is not the spirit of the
-        // tree override design)
-        if (mode == AccessMode.READ && canAccessChild(node, user, mode)) {
+        // tree override design). The compiled tree has the answer precomputed
+        if (mode == AccessMode.READ && tree.canAccessSubtree(user, node, mode)) {
             return true;
         } else {
             return false;
         }
     }
 
-    /**
-     * Returns true if the user can access the specified node, or one of the nodes below it
-     *
-     * <p>the specified nodes
-     *
-     * @param node
-     * @param user
-     * @param mode
-     * @return
-     */
-    private boolean canAccessChild(SecureTreeNode node, Authentication user, AccessMode mode) {
-        if (node.canAccess(user, mode)) {
-            return true;
-        }
-        for (SecureTreeNode child : node.getChildren().values()) {
-            if (canAccessChild(child, user, mode)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
     public boolean canAccess(
             Authentication user, LayerInfo layer, AccessMode mode, boolean directAccess) {
         checkPropertyFile();
@@ -211,9 +237,11 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
 
         // if we have a catalog rule that is at resource level, it's the most specific type,
         // it wins. Or it could be that we do not need to check layer groups at all
-        SecureTreeNode securityNode = root.getDeepestNode(new String[] {workspace, resourceName});
+        CompiledAuthorizationTree tree = getAuthorizationTree();
+        SecureTreeNode securityNode =
+                tree.getRoot().getDeepestNode(new String[] {workspace, resourceName});
         int catalogNodeDepth = securityNode.getDepth();
-        boolean rulesAllowAccess = securityNode.canAccess(user, mode);
+        boolean rulesAllowAccess = tree.canAccess(user, securityNode, mode);
         if (catalogNodeDepth == SecureTreeNode.RESOURCE_DEPTH
                 || !layerGroupContainmentCheckRequired()) {
             return rulesAllowAccess;
@@ -237,7 +265,7 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
                                     if (gi == null) {
                                         return false;
                                     }
-                                    SecureTreeNode node = getNodeForGroup(gi);
+                                    SecureTreeNode node = getNodeForGroup(tree, gi);
                                     return (node != null && node.getDepth() > catalogNodeDepth)
                                             || (sg.getMode() == Mode.OPAQUE_CONTAINER);
                                 })
@@ -278,7 +306,7 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
                             if (gi == null) {
                                 return false;
                             }
-                            SecureTreeNode node = getNodeForGroup(gi);
+                            SecureTreeNode node = getNodeForGroup(tree, gi);
                             return node == null
                                     && canAccess(user, gi, directAccess)
                                     && (!directAccess
@@ -308,13 +336,13 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         return false;
     }
 
-    private SecureTreeNode getNodeForGroup(LayerGroupInfo lg) {
+    private SecureTreeNode getNodeForGroup(CompiledAuthorizationTree tree, LayerGroupInfo lg) {
         SecureTreeNode node;
         if (lg.getWorkspace() == null) {
-            node = root.getNode(lg.getName());
+            node = tree.getRoot().getNode(lg.getName());
         } else {
             String[] path = getLayerGroupPath(lg);
-            node = root.getNode(path);
+            node = tree.getRoot().getNode(path);
         }
         return node;
     }
@@ -337,10 +365,40 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
 
     private void rebuildAuthorizationTree(boolean force) {
         long daoLastModified = dao.getLastModified();
-        if (lastLoaded < daoLastModified || force) {
-            root = buildAuthorizationTree(dao);
-            lastLoaded = daoLastModified;
+        if (lastLoaded >= daoLastModified && !force) {
+            return;
         }
+
+        if (force || !asyncReload) {
+            synchronized (this) {
+                if (lastLoaded < daoLastModified || force) {
+                    compileAuthorizationTree(daoLastModified);
+                }
+            }
+        } else if (rebuilding.compareAndSet(false, true)) {
+            // keep on using the current tree until the new one is ready
+            REBUILD_EXECUTOR.execute(
+                    () -> {
+                        try {
+                            synchronized (this) {
+                                long lastModified = dao.getLastModified();
+                                if (lastLoaded < lastModified) {
+                                    compileAuthorizationTree(lastModified);
+                                }
+                            }
+                        } catch (Exception e) {
+                            LOGGER.log(Level.SEVERE, "Failed to compile the access rules", e);
+                        } finally {
+                            rebuilding.set(false);
+                        }
+                    });
+        }
+    }
+
+    private void compileAuthorizationTree(long daoLastModified) {
+        SecureTreeNode tree = buildAuthorizationTree(dao);
+        setAuthorizationTree(new CompiledAuthorizationTree(tree, daoLastModified));
+        lastLoaded = daoLastModified;
     }
 
     SecureTreeNode buildAuthorizationTree(DataAccessRuleDAO dao) {
@@ -476,8 +534,9 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
     private boolean canAccess(
             Authentication user, LayerGroupInfo layerGroup, boolean directAccess) {
         String[] path = getLayerGroupPath(layerGroup);
-        SecureTreeNode node = root.getDeepestNode(path);
-        boolean catalogNodeAllowsAccess = node.canAccess(user, AccessMode.READ);
+        CompiledAuthorizationTree tree = getAuthorizationTree();
+        SecureTreeNode node = tree.getRoot().getDeepestNode(path);
+        boolean catalogNodeAllowsAccess = tree.canAccess(user, node, AccessMode.READ);
         boolean allowAccess;
         if (node != null && !catalogNodeAllowsAccess) {
             allowAccess = false;
@@ -532,15 +591,17 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
             return InMemorySecurityFilter.buildUserAccessFilter(this, user);
         }
 
+        CompiledAuthorizationTree tree = getAuthorizationTree();
+        SecureTreeNode root = tree.getRoot();
         if (WorkspaceInfo.class.isAssignableFrom(clazz)) {
             // base access
-            boolean rootAccess = canAccess(user, root);
+            boolean rootAccess = canAccess(user, tree, root);
             List<Filter> exceptions = new ArrayList<>();
             // exceptions
             for (Map.Entry<String, SecureTreeNode> entry : root.getChildren().entrySet()) {
                 String wsName = entry.getKey();
                 SecureTreeNode node = entry.getValue();
-                boolean nodeAccess = canAccess(user, node);
+                boolean nodeAccess = canAccess(user, tree, node);
                 if (nodeAccess != rootAccess) {
                     if (rootAccess) {
                         exceptions.add(Predicates.notEqual("name", wsName));
@@ -558,7 +619,7 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
                 || ResourceInfo.class.isAssignableFrom(clazz)
                 || CoverageInfo.class.isAssignableFrom(clazz)) {
             // base access
-            boolean rootAccess = canAccess(user, root);
+            boolean rootAccess = canAccess(user, tree, root);
             List<Filter> exceptions = new ArrayList<>();
 
             // get the right ws property name
@@ -573,14 +634,14 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
             for (Map.Entry<String, SecureTreeNode> wsEntry : root.getChildren().entrySet()) {
                 String wsName = wsEntry.getKey();
                 SecureTreeNode wsNode = wsEntry.getValue();
-                boolean wsAccess = canAccess(user, wsNode);
+                boolean wsAccess = canAccess(user, tree, wsNode);
 
                 List<Filter> layerExceptions = new ArrayList<>();
                 for (Map.Entry<String, SecureTreeNode> layerEntry :
                         wsNode.getChildren().entrySet()) {
                     String layerName = layerEntry.getKey();
                     SecureTreeNode layerNode = layerEntry.getValue();
-                    boolean layerAccess = canAccess(user, layerNode);
+                    boolean layerAccess = canAccess(user, tree, layerNode);
                     if (layerAccess != wsAccess) {
                         if (wsAccess) {
                             layerExceptions.add(
@@ -633,13 +694,13 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         } else if (StyleInfo.class.isAssignableFrom(clazz)
                 || LayerGroupInfo.class.isAssignableFrom(clazz)) {
             // we just check for workspace containment
-            boolean rootAccess = canAccess(user, root);
+            boolean rootAccess = canAccess(user, tree, root);
             List<Filter> exceptions = new ArrayList<>();
             // exceptions
             for (Map.Entry<String, SecureTreeNode> entry : root.getChildren().entrySet()) {
                 String wsName = entry.getKey();
                 SecureTreeNode node = entry.getValue();
-                boolean nodeAccess = canAccess(user, node);
+                boolean nodeAccess = canAccess(user, tree, node);
                 if (nodeAccess != rootAccess) {
                     if (rootAccess) {
                         exceptions.add(Predicates.notEqual("workspace.name", wsName));
@@ -659,11 +720,12 @@ public class DefaultResourceAccessManager implements ResourceAccessManager, Data
         }
     }
 
-    private boolean canAccess(Authentication user, SecureTreeNode node) {
-        boolean access = node.canAccess(user, AccessMode.READ);
+    private boolean canAccess(
+            Authentication user, CompiledAuthorizationTree tree, SecureTreeNode node) {
+        boolean access = tree.canAccess(user, node, AccessMode.READ);
         if (access && AdminRequest.get() != null) {
             // admin request, we need to check if we can also admin those
-            return node.canAccess(user, AccessMode.ADMIN);
+            return tree.canAccess(user, node, AccessMode.ADMIN);
         } else {
             return access;
         }
@@ -0,0 +1,169 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.IOUtils;
+import org.geoserver.filters.GZIPFilter;
+import org.geoserver.platform.Service;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+
+/** Runs asynchronous OWS requests through the servlet filters post processing the response */
+public class AsyncDispatchFilterTest {
+
+    FileSystemXmlApplicationContext context;
+
+    Dispatcher dispatcher;
+
+    ThreadPoolAsyncOperationExecutor executor;
+
+    Service service;
+
+    @Before
+    public void setupDispatcher() {
+        context =
+                new FileSystemXmlApplicationContext(
+                        DispatcherTest.class.getResource("applicationContext.xml").toString());
+        dispatcher = (Dispatcher) context.getBean("dispatcher");
+        service = (Service) context.getBean("helloWorldService");
+
+        executor = new ThreadPoolAsyncOperationExecutor();
+        executor.setPoolSizes(Collections.singletonMap("hello", 1));
+        dispatcher.asyncExecutor = executor;
+    }
+
+    @After
+    public void shutdown() {
+        context.close();
+        for (ThreadPoolExecutor pool : executor.executors.values()) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGZIPAsynchronous() throws Exception {
+        // keep the single pool thread busy, so that the request is executed after the
+        // filter chain returned, like it normally happens in a servlet container
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(
+                service,
+                () -> {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+
+        MockHttpServletRequest request = helloRequest();
+        request.addHeader("accept-encoding", "gzip");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        GZIPFilter filter = new GZIPFilter();
+        MockFilterConfig config = new MockFilterConfig(new MockServletContext());
+        config.addInitParameter("compressed-types", "text/plain");
+        filter.init(config);
+
+        MockFilterChain chain = new MockFilterChain(servlet(), filter);
+        chain.doFilter(request, response);
+
+        // the request went asynchronous, nothing has been written, not even the gzip header
+        assertTrue(request.isAsyncStarted());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        // listeners are notified in registration order, the filter one comes first
+        CountDownLatch completed = new CountDownLatch(1);
+        request.getAsyncContext().addListener(new CompletionListener(completed));
+        release.countDown();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+
+        // the gzipped stream has been completed after the response got written
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        try (GZIPInputStream is =
+                new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            assertEquals("Hello world!", IOUtils.toString(is, "UTF-8"));
+        }
+    }
+
+    HttpServlet servlet() {
+        return new HttpServlet() {
+            @Override
+            public void service(ServletRequest request, ServletResponse response)
+                    throws ServletException, IOException {
+                try {
+                    dispatcher.handleRequest(
+                            (HttpServletRequest) request, (HttpServletResponse) response);
+                } catch (Exception e) {
+                    throw new ServletException(e);
+                }
+            }
+        };
+    }
+
+    MockHttpServletRequest helloRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setScheme("http");
+        request.setServerName("localhost");
+        request.setServerPort(8080);
+        request.setContextPath("/geoserver");
+        request.setMethod("GET");
+        request.setRequestURI("/geoserver/ows");
+        request.addParameter("service", "hello");
+        request.addParameter("request", "Hello");
+        request.addParameter("version", "1.0.0");
+        request.addParameter("message", "Hello world!");
+        request.setQueryString("service=hello&request=Hello&version=1.0.0&message=Hello+world!");
+        request.setAsyncSupported(true);
+        return request;
+    }
+
+    static class CompletionListener implements AsyncListener {
+
+        CountDownLatch latch;
+
+        CompletionListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {}
+
+        @Override
+        public void onError(AsyncEvent event) {}
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+    }
+}
@@ -0,0 +1,195 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.LayerInfoImpl;
+import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+public class CachingResourceAccessManagerTest {
+
+    /** Counts the calls, returns limits only for workspaces */
+    static class CountingAccessManager implements ResourceAccessManager {
+
+        AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public WorkspaceAccessLimits getAccessLimits(Authentication user, WorkspaceInfo workspace) {
+            calls.incrementAndGet();
+            return new WorkspaceAccessLimits(CatalogMode.HIDE, true, false, false);
+        }
+
+        @Override
+        public DataAccessLimits getAccessLimits(Authentication user, LayerInfo layer) {
+            calls.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public DataAccessLimits getAccessLimits(Authentication user, ResourceInfo resource) {
+            calls.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public StyleAccessLimits getAccessLimits(Authentication user, StyleInfo style) {
+            calls.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public LayerGroupAccessLimits getAccessLimits(
+                Authentication user, LayerGroupInfo layerGroup) {
+            calls.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public Filter getSecurityFilter(Authentication user, Class<? extends CatalogInfo> clazz) {
+            return null;
+        }
+    }
+
+    CountingAccessManager counting;
+
+    CachingResourceAccessManager manager;
+
+    WorkspaceInfoImpl workspace;
+
+    LayerInfoImpl layer;
+
+    Authentication user;
+
+    @Before
+    public void setUp() {
+        counting = new CountingAccessManager();
+        manager = new CachingResourceAccessManager(counting);
+        workspace = new WorkspaceInfoImpl();
+        workspace.setId("ws1");
+        workspace.setName("ws1");
+        layer = new LayerInfoImpl();
+        layer.setId("layer1");
+        user = authentication("user", "ROLE_A");
+    }
+
+    @After
+    public void cleanup() {
+        Dispatcher.REQUEST.remove();
+        manager.clearRequestCache();
+    }
+
+    private Authentication authentication(String name, String... roles) {
+        SimpleGrantedAuthority[] authorities = new SimpleGrantedAuthority[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            authorities[i] = new SimpleGrantedAuthority(roles[i]);
+        }
+        return new UsernamePasswordAuthenticationToken(name, "secret", Arrays.asList(authorities));
+    }
+
+    private Request request(String service) {
+        Request request = new Request();
+        request.setService(service);
+        Dispatcher.REQUEST.set(request);
+        return request;
+    }
+
+    @Test
+    public void testNoRequestNoCache() {
+        manager.getAccessLimits(user, workspace);
+        manager.getAccessLimits(user, workspace);
+        assertEquals(2, counting.calls.get());
+    }
+
+    @Test
+    public void testRequestScope() {
+        request("WMS");
+        WorkspaceAccessLimits limits = manager.getAccessLimits(user, workspace);
+        assertSame(limits, manager.getAccessLimits(user, workspace));
+        // null limits are cached too
+        assertNull(manager.getAccessLimits(user, layer));
+        assertNull(manager.getAccessLimits(user, layer));
+        assertEquals(2, counting.calls.get());
+
+        // a different user in the same request
+        manager.getAccessLimits(authentication("other", "ROLE_A"), workspace);
+        assertEquals(3, counting.calls.get());
+
+        // a new request
+        request("WMS");
+        manager.getAccessLimits(user, workspace);
+        assertEquals(4, counting.calls.get());
+    }
+
+    @Test
+    public void testObjectsWithoutIdNotCached() {
+        request("WMS");
+        WorkspaceInfoImpl fake = new WorkspaceInfoImpl();
+        fake.setName("fake");
+        manager.getAccessLimits(user, fake);
+        manager.getAccessLimits(user, fake);
+        assertEquals(2, counting.calls.get());
+    }
+
+    @Test
+    public void testInvalidation() {
+        request("WMS");
+        manager.getAccessLimits(user, workspace);
+        CachingResourceAccessManager.invalidateAll();
+        manager.getAccessLimits(user, workspace);
+        assertEquals(2, counting.calls.get());
+
+        // catalog events invalidate as well
+        manager.handlePostModifyEvent(null);
+        manager.getAccessLimits(user, workspace);
+        assertEquals(3, counting.calls.get());
+    }
+
+    @Test
+    public void testSharedCache() {
+        manager.setTimeToLive(60000);
+        request("WMS");
+        manager.getAccessLimits(user, workspace);
+
+        // same roles, different request and authentication object
+        request("WMS");
+        manager.getAccessLimits(authentication("user2", "ROLE_A"), workspace);
+        assertEquals(1, counting.calls.get());
+
+        // different roles
+        manager.getAccessLimits(authentication("user3", "ROLE_B"), workspace);
+        assertEquals(2, counting.calls.get());
+
+        // different service
+        request("WFS");
+        manager.getAccessLimits(user, workspace);
+        assertEquals(3, counting.calls.get());
+
+        // invalidation also clears the shared cache
+        CachingResourceAccessManager.invalidateAll();
+        request("WMS");
+        manager.getAccessLimits(user, workspace);
+        assertEquals(4, counting.calls.get());
+    }
+}
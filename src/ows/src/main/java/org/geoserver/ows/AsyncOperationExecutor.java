@@ -0,0 +1,41 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.concurrent.RejectedExecutionException;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+
+/**
+ * Runs the execution and response encoding of OWS operations outside of the servlet container
+ * thread, using the Servlet 3 asynchronous request support.
+ *
+ * <p>When a single instance of this interface is found in the application context, the {@link
+ * Dispatcher} will ask it whether each operation should be run asynchronously, and if so, hand
+ * over the execution to it, freeing the container thread. The servlet and all filters in the chain
+ * must be marked as supporting asynchronous requests, otherwise the dispatcher falls back on
+ * synchronous execution.
+ */
+public interface AsyncOperationExecutor {
+
+    /** Returns true if the given operation should be executed asynchronously */
+    boolean isAsynchronous(Service service, Operation operation);
+
+    /**
+     * Runs the task, the execution and encoding of the operation, on a thread pool dedicated to
+     * the service. Implementations are responsible for transferring the thread locals from the
+     * calling thread to the one running the task.
+     *
+     * @throws RejectedExecutionException if the service pool is saturated, in this case the
+     *     dispatcher will run the task in the calling thread
+     */
+    void execute(Service service, Runnable task) throws RejectedExecutionException;
+
+    /**
+     * The timeout for asynchronous requests, in milliseconds. Zero or negative values mean no
+     * timeout
+     */
+    long getTimeout();
+}
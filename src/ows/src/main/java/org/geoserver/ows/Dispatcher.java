@@ -27,8 +27,10 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
@@ -56,6 +58,9 @@ import org.geotools.xsd.EMFUtils;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -130,6 +135,9 @@ public class Dispatcher extends AbstractController {
     /** list of callbacks */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /** executor for asynchronous operations, if any */
+    AsyncOperationExecutor asyncExecutor;
+
     /** SOAP namespaces */
     public static final String SOAP_12_NS = "http://www.w3.org/2003/05/soap-envelope";
 
@@ -138,6 +146,9 @@ public class Dispatcher extends AbstractController {
     /** SOAP mime type */
     static final String SOAP_MIME = "application/soap+xml";
 
+    /** Realm used in the authentication challenge, matches the security subsystem one */
+    static final String SECURITY_REALM = "GeoServer Realm";
+
     private Method getEntityResolver = null;
 
     {
@@ -179,6 +190,19 @@ public class Dispatcher extends AbstractController {
         // load life cycle callbacks
         callbacks = GeoServerExtensions.extensions(DispatcherCallback.class, context);
 
+        // load the asynchronous executor, if any
+        List<AsyncOperationExecutor> executors =
+                GeoServerExtensions.extensions(AsyncOperationExecutor.class, context);
+        if (executors.size() == 1) {
+            asyncExecutor = executors.get(0);
+        } else if (executors.size() > 1) {
+            logger.log(
+                    Level.WARNING,
+                    "Found multiple asynchronous operation executors, "
+                            + "will execute all requests synchronously: "
+                            + executors);
+        }
+
         // setup the xml lookahead value
         String lookahead = GeoServerExtensions.getProperty("XML_LOOKAHEAD", context);
         if (lookahead != null) {
@@ -228,6 +252,7 @@ public class Dispatcher extends AbstractController {
         request.setHttpResponse(httpResponse);
 
         Service service = null;
+        boolean asynchronous = false;
 
         try {
             // initialize the request and allow callbacks to override it
@@ -260,6 +285,13 @@ public class Dispatcher extends AbstractController {
                 flagAsSOAP(operation);
             }
 
+            // hand over to the asynchronous executor, if configured to do so
+            if (isAsynchronous(request, service, operation)) {
+                asynchronous = true;
+                executeAsynchronously(request, service, operation);
+                return null;
+            }
+
             // execute it
             Object result = execute(request, operation);
 
@@ -273,13 +305,113 @@ public class Dispatcher extends AbstractController {
             if (isSecurityException(t)) throw (Exception) t;
             exception(t, service, request);
         } finally {
-            fireFinishedCallback(request);
+            // in asynchronous mode the finished callbacks are fired by the executing thread
+            if (!asynchronous) {
+                fireFinishedCallback(request);
+            }
             REQUEST.remove();
         }
 
         return null;
     }
 
+    boolean isAsynchronous(Request request, Service service, Operation operation) {
+        return asyncExecutor != null
+                && request.getHttpRequest().isAsyncSupported()
+                && asyncExecutor.isAsynchronous(service, operation);
+    }
+
+    /**
+     * Executes the operation and writes its response in a thread provided by the {@link
+     * AsyncOperationExecutor}, releasing the servlet container thread. If the executor is
+     * saturated, the operation is executed in the current thread.
+     */
+    void executeAsynchronously(
+            final Request request, final Service service, final Operation operation) {
+        final AsyncContext asyncContext =
+                request.getHttpRequest()
+                        .startAsync(request.getHttpRequest(), request.getHttpResponse());
+        long timeout = asyncExecutor.getTimeout();
+        asyncContext.setTimeout(timeout > 0 ? timeout : 0);
+
+        Runnable task =
+                new Runnable() {
+
+                    @Override
+                    public void run() {
+                        REQUEST.set(request);
+                        try {
+                            Object result = execute(request, operation);
+                            if (result != null) {
+                                response(result, request, operation);
+                            }
+                        } catch (Throwable t) {
+                            handleAsynchronousException(t, service, request);
+                        } finally {
+                            try {
+                                fireFinishedCallback(request);
+                            } finally {
+                                REQUEST.remove();
+                                asyncContext.complete();
+                            }
+                        }
+                    }
+                };
+
+        try {
+            asyncExecutor.execute(service, task);
+        } catch (RejectedExecutionException e) {
+            logger.log(
+                    Level.FINE,
+                    "Asynchronous executor for "
+                            + service.getId()
+                            + " is saturated, running the request in the container thread",
+                    e);
+            task.run();
+        }
+    }
+
+    /**
+     * Handles an exception occurred during asynchronous execution. The security filters are no
+     * longer in the call stack, so security exceptions are turned directly into HTTP errors
+     */
+    void handleAsynchronousException(Throwable t, Service service, Request request) {
+        try {
+            if (!isSecurityException(t)) {
+                exception(t, service, request);
+                return;
+            }
+        } catch (Throwable e) {
+            if (!isSecurityException(e)) {
+                logger.log(Level.SEVERE, "Failed to handle the asynchronous request failure", e);
+                return;
+            }
+            t = e;
+        }
+
+        HttpServletResponse response = request.getHttpResponse();
+        if (response.isCommitted()) {
+            logger.log(Level.FINE, "Security exception after response was committed", t);
+            return;
+        }
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        boolean authenticated =
+                auth != null
+                        && auth.isAuthenticated()
+                        && !(auth instanceof AnonymousAuthenticationToken);
+        try {
+            if (authenticated) {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN, t.getMessage());
+            } else {
+                // same challenge as the default basic authentication entry point
+                response.setHeader("WWW-Authenticate", "Basic realm=\"" + SECURITY_REALM + "\"");
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED, t.getMessage());
+            }
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to report security exception to the client", e);
+        }
+    }
+
     void flagAsSOAP(Operation op) {
         for (Object reqObj : op.getParameters()) {
             if (OwsUtils.has(reqObj, "formatOptions")) {
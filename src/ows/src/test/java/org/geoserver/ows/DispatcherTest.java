@@ -21,7 +21,11 @@ import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
@@ -576,6 +580,108 @@ public class DispatcherTest extends TestCase {
         assertEquals(TestDispatcherCallback.Status.FINISHED, callback.dispatcherStatus.get());
     }
 
+    public void testAsynchronousDispatch() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context =
+                new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+
+        // record the thread running the operation
+        final AtomicReference<Thread> executionThread = new AtomicReference<>();
+        final AtomicBoolean finished = new AtomicBoolean();
+        dispatcher.callbacks.add(
+                new AbstractDispatcherCallback() {
+                    @Override
+                    public Object operationExecuted(
+                            Request request, Operation operation, Object result) {
+                        executionThread.set(Thread.currentThread());
+                        assertSame(request, Dispatcher.REQUEST.get());
+                        return result;
+                    }
+
+                    @Override
+                    public void finished(Request request) {
+                        finished.set(true);
+                    }
+                });
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        dispatcher.asyncExecutor =
+                new AsyncOperationExecutor() {
+
+                    @Override
+                    public boolean isAsynchronous(Service service, Operation operation) {
+                        return "hello".equals(service.getId());
+                    }
+
+                    @Override
+                    public void execute(Service service, Runnable task) {
+                        executor.execute(task);
+                    }
+
+                    @Override
+                    public long getTimeout() {
+                        return 0;
+                    }
+                };
+
+        try {
+            MockHttpServletRequest request = setupRequest();
+            request.setAsyncSupported(true);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            dispatcher.handleRequest(request, response);
+            assertNotNull(request.getAsyncContext());
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+            assertEquals("Hello world!", response.getContentAsString());
+            assertTrue(finished.get());
+            assertNotNull(executionThread.get());
+            assertNotSame(Thread.currentThread(), executionThread.get());
+            assertNull(Dispatcher.REQUEST.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testAsynchronousDispatchNotSupported() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context =
+                new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        dispatcher.asyncExecutor =
+                new AsyncOperationExecutor() {
+
+                    @Override
+                    public boolean isAsynchronous(Service service, Operation operation) {
+                        return true;
+                    }
+
+                    @Override
+                    public void execute(Service service, Runnable task) {
+                        fail("Should not have been called, the request is not async capable");
+                    }
+
+                    @Override
+                    public long getTimeout() {
+                        return 0;
+                    }
+                };
+
+        // async not supported by the request, falls back on synchronous execution
+        MockHttpServletRequest request = setupRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        dispatcher.handleRequest(request, response);
+        assertNull(request.getAsyncContext());
+        assertEquals("Hello world!", response.getContentAsString());
+    }
+
     public void testDispatcherCallbackFailInit() throws Exception {
         URL url = getClass().getResource("applicationContext.xml");
 
@@ -0,0 +1,121 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.security.AccessMode;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.Authentication;
+
+public class CompiledAuthorizationTreeTest extends AbstractAuthorizationTest {
+
+    /** A DAO whose rules are changed only programmatically */
+    static class ProgrammaticRuleDAO extends DataAccessRuleDAO {
+
+        ProgrammaticRuleDAO(Catalog rawCatalog, Properties props) {
+            super(rawCatalog, null);
+            loadRules(props);
+            lastModified = 1;
+        }
+
+        @Override
+        protected void checkPropertyFile(boolean force) {
+            // skip checking
+        }
+    }
+
+    @Before
+    public void setupCatalog() {
+        populateCatalog();
+    }
+
+    private Properties loadProperties(String propertyFile) throws Exception {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream(propertyFile));
+        return props;
+    }
+
+    @Test
+    public void testSameDecisionsAsTree() throws Exception {
+        DefaultResourceAccessManager manager = buildAccessManager("complex.properties");
+        CompiledAuthorizationTree compiled = manager.getAuthorizationTree();
+        SecureTreeNode tree = compiled.getRoot();
+        assertSame(tree, manager.root);
+        // root, topp, nurc, the three topp layers and arc.grid
+        assertEquals(7, compiled.size());
+
+        List<Authentication> users = Arrays.asList(anonymous, roUser, rwUser, milUser, root, null);
+        for (SecureTreeNode node : compiled.nodes) {
+            for (AccessMode mode : AccessMode.values()) {
+                for (Authentication user : users) {
+                    assertEquals(
+                            node + " " + mode + " " + user,
+                            node.canAccess(user, mode),
+                            compiled.canAccess(user, node, mode));
+                }
+            }
+        }
+
+        // the drill down check
+        SecureTreeNode nurc = tree.getChild("nurc");
+        assertFalse(compiled.canAccess(milUser, nurc, AccessMode.READ));
+        assertTrue(compiled.canAccessSubtree(milUser, nurc, AccessMode.READ));
+        assertFalse(compiled.canAccessSubtree(anonymous, nurc, AccessMode.READ));
+        assertTrue(manager.canAccess(milUser, nurcWs, AccessMode.READ));
+        assertFalse(manager.canAccess(anonymous, nurcWs, AccessMode.READ));
+    }
+
+    @Test
+    public void testGrantsSharedByRoleSet() throws Exception {
+        DefaultResourceAccessManager manager = buildAccessManager("complex.properties");
+        CompiledAuthorizationTree compiled = manager.getAuthorizationTree();
+        CompiledAuthorizationTree.Grants grants = compiled.getGrants(roUser);
+        assertSame(grants, compiled.getGrants(roUser));
+        assertNotSame(grants, compiled.getGrants(rwUser));
+        assertEquals(2, compiled.grants.size());
+    }
+
+    @Test
+    public void testSynchronousReload() throws Exception {
+        Properties props = loadProperties("complex.properties");
+        DataAccessRuleDAO dao = new ProgrammaticRuleDAO(catalog, props);
+        DefaultResourceAccessManager manager = new DefaultResourceAccessManager(dao, catalog);
+        assertTrue(manager.canAccess(roUser, roadsLayer, AccessMode.READ));
+        CompiledAuthorizationTree compiled = manager.getAuthorizationTree();
+
+        dao.addRule(new DataAccessRule("topp", "roads", AccessMode.READ, "WRITER"));
+        assertFalse(manager.canAccess(roUser, roadsLayer, AccessMode.READ));
+        assertNotSame(compiled, manager.getAuthorizationTree());
+    }
+
+    @Test
+    public void testAsynchronousReload() throws Exception {
+        Properties props = loadProperties("complex.properties");
+        DataAccessRuleDAO dao = new ProgrammaticRuleDAO(catalog, props);
+        DefaultResourceAccessManager manager = new DefaultResourceAccessManager(dao, catalog);
+        manager.setAsyncReload(true);
+        assertTrue(manager.canAccess(roUser, roadsLayer, AccessMode.READ));
+
+        dao.addRule(new DataAccessRule("topp", "roads", AccessMode.READ, "WRITER"));
+        // the new tree gets eventually swapped in
+        long timeout = System.currentTimeMillis() + 10000;
+        while (manager.canAccess(roUser, roadsLayer, AccessMode.READ)
+                && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertFalse(manager.canAccess(roUser, roadsLayer, AccessMode.READ));
+        assertEquals(dao.getLastModified(), manager.getAuthorizationTree().getLastModified());
+    }
+}
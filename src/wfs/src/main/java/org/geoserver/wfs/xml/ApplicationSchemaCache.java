@@ -0,0 +1,344 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.eclipse.xsd.XSDImport;
+import org.eclipse.xsd.XSDSchema;
+import org.eclipse.xsd.XSDSchemaContent;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.WFSInfo;
+import org.geotools.util.logging.Logging;
+import org.geotools.xsd.Schemas;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.FeatureType;
+
+/**
+ * Caches the application schemas built for simple feature types, so that GetFeature requests
+ * hitting the same set of feature types can reuse them instead of building a new schema, and
+ * entering the global locks protecting the GML and WFS schemas, each time.
+ *
+ * <p>The schemas are keyed by schema builder (GML version), schema flavour, base URL as seen by the
+ * URL manglers, and the sorted list of feature types, including their attribute names, since the
+ * secure catalog might be hiding some of them from the current user.
+ *
+ * <p>EMF schemas are not thread safe, even lookups can modify them, so a schema instance is never
+ * shared: each entry holds a small pool of equivalent schemas, a request borrows one for its whole
+ * duration and gives it back when it ends, a new one is built when all of them are in use. Entries
+ * are removed when the feature types, their stores, namespaces or the WFS configuration change, the
+ * pooled schemas are disposed right away, the borrowed ones when the request using them ends.
+ */
+public class ApplicationSchemaCache implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(ApplicationSchemaCache.class);
+
+    /** Variable used to configure the maximum number of cached schemas, 0 disables the cache */
+    public static final String MAX_ENTRIES_PROPERTY = "WFS_SCHEMA_CACHE_SIZE";
+
+    static final int DEFAULT_MAX_ENTRIES = 100;
+
+    /** Maximum number of idle schemas kept for each entry */
+    static final int MAX_IDLE_SCHEMAS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** Builds a schema that is not scheduled for disposal at the end of the request */
+    @FunctionalInterface
+    public interface SchemaLoader {
+        XSDSchema load() throws IOException;
+    }
+
+    /** The idle schemas built for a given key, accessed while holding the cache lock */
+    static class CachedSchema {
+        final List<String> featureTypeIds;
+
+        final Deque<XSDSchema> idle = new ArrayDeque<>();
+
+        boolean retired;
+
+        CachedSchema(List<String> featureTypeIds) {
+            this.featureTypeIds = featureTypeIds;
+        }
+    }
+
+    /** The cached schemas, in access order */
+    LinkedHashMap<String, CachedSchema> schemas = new LinkedHashMap<>(16, 0.75f, true);
+
+    int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    public ApplicationSchemaCache(GeoServer geoServer) {
+        String max = GeoServerExtensions.getProperty(MAX_ENTRIES_PROPERTY);
+        if (max != null) {
+            try {
+                maxEntries = Integer.parseInt(max.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + MAX_ENTRIES_PROPERTY + ": " + max);
+            }
+        }
+        geoServer.getCatalog().addListener(this);
+        geoServer.addListener(
+                new ConfigurationListenerAdapter() {
+                    @Override
+                    public void handleGlobalChange(
+                            GeoServerInfo global,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        clear();
+                    }
+
+                    @Override
+                    public void handleServiceChange(
+                            ServiceInfo service,
+                            List<String> propertyNames,
+                            List<Object> oldValues,
+                            List<Object> newValues) {
+                        if (service instanceof WFSInfo) {
+                            clear();
+                        }
+                    }
+
+                    @Override
+                    public void reloaded() {
+                        clear();
+                    }
+                });
+    }
+
+    /** Returns the cache registered in the application context, if any */
+    public static ApplicationSchemaCache get() {
+        return GeoServerExtensions.bean(ApplicationSchemaCache.class);
+    }
+
+    /**
+     * Returns the cached schema for the given feature types, building it with the loader if
+     * missing. Returns null if the schema cannot be cached (the cache is disabled, some of the
+     * feature types are not simple, or the call is not part of an OWS request), in this case the
+     * caller should build the schema as usual.
+     *
+     * <p>The returned schema is reserved to the current OWS request until it ends, outside of one
+     * there is no way to tell when it can be given back, so nothing is cached.
+     *
+     * @param flavour the class building the schema out of the schema builder, as different
+     *     classes may add different imports to it
+     */
+    public XSDSchema getSchema(
+            Class<?> flavour,
+            FeatureTypeSchemaBuilder builder,
+            FeatureTypeInfo[] featureTypes,
+            String baseURL,
+            SchemaLoader loader)
+            throws IOException {
+        if (maxEntries <= 0 || Dispatcher.REQUEST.get() == null) {
+            return null;
+        }
+        String key = buildKey(flavour, builder, featureTypes, baseURL);
+        if (key == null) {
+            return null;
+        }
+
+        CachedSchema cached;
+        XSDSchema schema = null;
+        synchronized (this) {
+            cached = schemas.get(key);
+            if (cached != null) {
+                schema = cached.idle.poll();
+            }
+        }
+        if (schema == null) {
+            // no entry yet, or all its schemas are in use: build a new one outside of the lock
+            schema = loader.load();
+            synchronized (this) {
+                if (cached == null) {
+                    cached = schemas.get(key);
+                }
+                if (cached == null) {
+                    List<String> ids = new ArrayList<>();
+                    for (FeatureTypeInfo ft : featureTypes) {
+                        ids.add(ft.getId());
+                    }
+                    cached = new CachedSchema(ids);
+                    schemas.put(key, cached);
+                    evict();
+                }
+            }
+        }
+        final CachedSchema entry = cached;
+        final XSDSchema borrowed = schema;
+        SchemaCleanerCallback.addCleanup(() -> release(entry, borrowed));
+        return schema;
+    }
+
+    /** Builds the key, or returns null if the feature types are not suitable for caching */
+    String buildKey(
+            Class<?> flavour,
+            FeatureTypeSchemaBuilder builder,
+            FeatureTypeInfo[] featureTypes,
+            String baseURL) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(flavour.getName()).append('|').append(builder.getClass().getName()).append('|');
+        // the URL manglers may alter the schema locations, based on configuration and request
+        sb.append(ResponseUtils.buildURL(baseURL, "wfs", null, URLType.SERVICE));
+
+        FeatureTypeInfo[] sorted = featureTypes.clone();
+        Arrays.sort(sorted, (ft1, ft2) -> ft1.getId().compareTo(ft2.getId()));
+        for (FeatureTypeInfo ft : sorted) {
+            FeatureType type;
+            try {
+                type = ft.getFeatureType();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Feature type " + ft.getId() + " is not available", e);
+                return null;
+            }
+            if (!(type instanceof SimpleFeatureType) || ft.getId() == null) {
+                return null;
+            }
+            sb.append('|').append(ft.getId()).append('(');
+            for (AttributeDescriptor ad : ((SimpleFeatureType) type).getAttributeDescriptors()) {
+                sb.append(ad.getLocalName()).append(',');
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    /** Gives back a schema at the end of the request, disposing it if it cannot be pooled */
+    private void release(CachedSchema cached, XSDSchema schema) {
+        synchronized (this) {
+            if (!cached.retired && cached.idle.size() < MAX_IDLE_SCHEMAS) {
+                cached.idle.push(schema);
+                return;
+            }
+        }
+        dispose(schema);
+    }
+
+    private void evict() {
+        Iterator<CachedSchema> it = schemas.values().iterator();
+        while (schemas.size() > maxEntries && it.hasNext()) {
+            CachedSchema cached = it.next();
+            it.remove();
+            retire(cached);
+        }
+    }
+
+    /** Disposes the idle schemas, the borrowed ones will be disposed when released */
+    private void retire(CachedSchema cached) {
+        cached.retired = true;
+        for (XSDSchema schema : cached.idle) {
+            dispose(schema);
+        }
+        cached.idle.clear();
+    }
+
+    private void dispose(XSDSchema schema) {
+        // dispose the nested application schemas built along with this one, the GML and WFS ones
+        // have been parsed from a location and are shared
+        for (XSDSchemaContent content : schema.getContents()) {
+            if (content instanceof XSDImport) {
+                XSDSchema resolved = ((XSDImport) content).getResolvedSchema();
+                if (resolved != null && resolved.getSchemaLocation() == null) {
+                    Schemas.dispose(resolved);
+                }
+            }
+        }
+        Schemas.dispose(schema);
+    }
+
+    /** Removes the cached schemas referring to the specified feature type */
+    public synchronized void remove(String featureTypeId) {
+        for (Iterator<CachedSchema> it = schemas.values().iterator(); it.hasNext(); ) {
+            CachedSchema cached = it.next();
+            if (cached.featureTypeIds.contains(featureTypeId)) {
+                it.remove();
+                retire(cached);
+            }
+        }
+    }
+
+    /** Removes all cached schemas */
+    public synchronized void clear() {
+        for (CachedSchema cached : schemas.values()) {
+            retire(cached);
+        }
+        schemas.clear();
+    }
+
+    /** Number of cached schemas */
+    public synchronized int size() {
+        return schemas.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** Sets the maximum number of cached schemas, 0 or less disables the cache */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) {
+        // new feature types do not affect the cached schemas
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        invalidate(event.getSource());
+    }
+
+    private void invalidate(CatalogInfo source) {
+        if (source instanceof FeatureTypeInfo) {
+            remove(source.getId());
+        } else if (source instanceof StoreInfo
+                || source instanceof NamespaceInfo
+                || source instanceof WorkspaceInfo) {
+            // these affect all the contained feature types, and are rarely modified
+            clear();
+        }
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+}
@@ -111,7 +111,23 @@ public class ApplicationSchemaXSD1 extends XSD {
             schema = schemaBuilder.build(new FeatureTypeInfo[0], baseURL, true, true);
             schemaBuilder.addApplicationTypes(schema);
         } else {
-            // simple feature so we add only the feature types we need
+            // simple feature so we add only the feature types we need, reusing a cached
+            // schema if possible
+            ApplicationSchemaCache cache = ApplicationSchemaCache.get();
+            if (cache != null) {
+                XSDSchema cached =
+                        cache.getSchema(
+                                getClass(),
+                                schemaBuilder,
+                                types,
+                                baseURL,
+                                () ->
+                                        importWfsSchema(
+                                                schemaBuilder.build(types, baseURL, true, false)));
+                if (cached != null) {
+                    return cached;
+                }
+            }
             schema = schemaBuilder.build(types, baseURL, true, true);
         }
         // add an explicit dependency on WFS 1.0.0 schema
@@ -31,8 +31,26 @@ public class ApplicationSchemaXSD2 extends ApplicationSchemaXSD1 {
         for (Set<FeatureTypeInfo> fts : featureTypes.values()) {
             types.addAll(fts);
         }
-        XSDSchema schema =
-                schemaBuilder.build(types.toArray(new FeatureTypeInfo[types.size()]), baseURL, 1);
+        FeatureTypeInfo[] typeArray = types.toArray(new FeatureTypeInfo[types.size()]);
+        ApplicationSchemaCache cache = ApplicationSchemaCache.get();
+        if (cache != null) {
+            XSDSchema cached =
+                    cache.getSchema(
+                            getClass(),
+                            schemaBuilder,
+                            typeArray,
+                            baseURL,
+                            () ->
+                                    setGmlPrefix(
+                                            schemaBuilder.build(typeArray, baseURL, true, false)));
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return setGmlPrefix(schemaBuilder.build(typeArray, baseURL, 1));
+    }
+
+    private XSDSchema setGmlPrefix(XSDSchema schema) {
         // make sure that GML 3.2 namespace is used
         schema.getQNamePrefixToNamespaceMap().put("gml", GML.NAMESPACE);
         return schema;
@@ -146,7 +146,9 @@ public abstract class FeatureTypeSchemaBuilder {
             boolean scheduleSchemaCleanup)
             throws IOException {
         // build the schema and make sure to schedule it for destruction at the end of the request
-        XSDSchema schema = buildSchemaInternal(featureTypeInfos, baseUrl, resolveAppSchemaImports);
+        XSDSchema schema =
+                buildSchemaInternal(
+                        featureTypeInfos, baseUrl, resolveAppSchemaImports, scheduleSchemaCleanup);
         if (schema != null && scheduleSchemaCleanup) {
             SchemaCleanerCallback.addSchema(schema);
         }
@@ -156,6 +158,20 @@ public abstract class FeatureTypeSchemaBuilder {
     public final XSDSchema buildSchemaInternal(
             FeatureTypeInfo[] featureTypeInfos, String baseUrl, boolean resolveAppSchemaImports)
             throws IOException {
+        return buildSchemaInternal(featureTypeInfos, baseUrl, resolveAppSchemaImports, true);
+    }
+
+    /**
+     * Builds the schema, the resolved application schema imports are scheduled for cleanup at the
+     * end of the request only if <code>scheduleSchemaCleanup</code> is true (when false, they are
+     * part of a schema that outlives the request)
+     */
+    private XSDSchema buildSchemaInternal(
+            FeatureTypeInfo[] featureTypeInfos,
+            String baseUrl,
+            boolean resolveAppSchemaImports,
+            boolean scheduleSchemaCleanup)
+            throws IOException {
 
         XSDFactory factory = XSDFactory.eINSTANCE;
         XSDSchema schema = factory.createXSDSchema();
@@ -337,7 +353,9 @@ public abstract class FeatureTypeSchemaBuilder {
                                 build(
                                         featureTypes.toArray(
                                                 new FeatureTypeInfo[featureTypes.size()]),
-                                        baseUrl);
+                                        baseUrl,
+                                        false,
+                                        scheduleSchemaCleanup);
 
                         // ensure we declare the wfs and gml namespaces as well
                         schema.getQNamePrefixToNamespaceMap().put("gml", gmlNamespace);
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -120,14 +121,22 @@ public class GML32OutputFormat extends GML3OutputFormat {
     }
 
     @Override
-    protected void setAdditionalSchemaLocations(
-            Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
+    protected Map<String, String> getAdditionalSchemaLocations(
+            GetFeatureRequest request, WFSInfo wfs) {
         // since wfs 2.0 schema does not depend on gml 3.2 schema we register it manually
         String loc =
                 wfs.isCanonicalSchemaLocation()
                         ? GML.CANONICAL_SCHEMA_LOCATION
                         : ResponseUtils.buildSchemaURL(request.getBaseUrl(), "gml/3.2.1/gml.xsd");
-        encoder.setSchemaLocation(GML.NAMESPACE, loc);
+        return Collections.singletonMap(GML.NAMESPACE, loc);
+    }
+
+    @Override
+    protected SimpleFeatureGMLWriter createStreamingWriter(WFSInfo wfs) {
+        return new SimpleFeatureGMLWriter(
+                SimpleFeatureGMLWriter.Version.GML32,
+                catalog,
+                wfs.getGML().get(WFSInfo.Version.V_20).getSrsNameStyle());
     }
 
     @Override
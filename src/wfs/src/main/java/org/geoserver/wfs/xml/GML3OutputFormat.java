@@ -21,9 +21,11 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,9 +73,17 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
     public static final boolean OPTIMIZED_ENCODING =
             Boolean.parseBoolean(System.getProperty("GML_OPTIMIZED_ENCODING", "true"));
 
+    /**
+     * Enables writing simple features directly with a {@link SimpleFeatureGMLWriter}, bypassing
+     * the GeoTools encoder
+     */
+    public static final boolean STREAMING_ENCODING =
+            Boolean.parseBoolean(System.getProperty("GML_STREAMING_ENCODING", "false"));
+
     GeoServer geoServer;
     Catalog catalog;
     WFSConfiguration configuration;
+    boolean streamingEncoding = STREAMING_ENCODING;
     protected static DOMSource xslt;
 
     static {
@@ -119,6 +129,18 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         return "GML3";
     }
 
+    public boolean isStreamingEncoding() {
+        return streamingEncoding;
+    }
+
+    /**
+     * Enables or disables the direct streaming of simple features, see {@link
+     * #STREAMING_ENCODING}
+     */
+    public void setStreamingEncoding(boolean streamingEncoding) {
+        this.streamingEncoding = streamingEncoding;
+    }
+
     protected void write(
             FeatureCollectionResponse results, OutputStream output, Operation getFeature)
             throws ServiceException, IOException, UnsupportedEncodingException {
@@ -191,6 +213,18 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
 
         WFSInfo wfs = getInfo();
 
+        if (writeStreaming(
+                results,
+                output,
+                request,
+                ns2metas,
+                wfs,
+                numDecimals,
+                padWithZeros,
+                forcedDecimal)) {
+            return;
+        }
+
         // set feature bounding parameter
         // JD: this is quite bad as its not at all thread-safe, once we remove the configuration
         // as being a singleton on trunk/2.0.x this should not be an issue
@@ -242,16 +276,46 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
             encoder.setOmitXMLDeclaration(dispatcherRequest.isSOAP());
         }
 
+        for (Map.Entry<String, String> entry :
+                getSchemaLocations(request, ns2metas, wfs).entrySet()) {
+            encoder.setSchemaLocation(entry.getKey(), entry.getValue());
+        }
+
+        // declare the namespaces of the resources that are not feature types
+        for (Map.Entry<String, Set<ResourceInfo>> entry : ns2metas.entrySet()) {
+            for (ResourceInfo ri : entry.getValue()) {
+                if (!(ri instanceof FeatureTypeInfo)) {
+                    encoder.getNamespaces()
+                            .declarePrefix(ri.getStore().getWorkspace().getName(), entry.getKey());
+                }
+            }
+        }
+
+        setAdditionalSchemaLocations(encoder, request, wfs);
+        if (isComplexFeature(results)) {
+            complexFeatureStreamIntercept(results, output, encoder);
+        } else {
+            encode(results, output, encoder);
+        }
+    }
+
+    /**
+     * Returns the schema locations to be declared in the response, the WFS one and the
+     * DescribeFeatureType (or user provided) ones for the feature types, in declaration order
+     */
+    protected Map<String, String> getSchemaLocations(
+            GetFeatureRequest request, Map<String, Set<ResourceInfo>> ns2metas, WFSInfo wfs)
+            throws IOException {
+        Map<String, String> locations = new LinkedHashMap<>();
         if (wfs.isCanonicalSchemaLocation()) {
-            encoder.setSchemaLocation(getWfsNamespace(), getCanonicalWfsSchemaLocation());
+            locations.put(getWfsNamespace(), getCanonicalWfsSchemaLocation());
         } else {
-            encoder.setSchemaLocation(
+            locations.put(
                     getWfsNamespace(),
                     buildSchemaURL(request.getBaseURL(), getRelativeWfsSchemaLocation()));
         }
 
         // declare application schema namespaces
-
         Map<String, String> params =
                 params(
                         "service",
@@ -260,15 +324,12 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                         request.getVersion(),
                         "request",
                         "DescribeFeatureType");
-        for (Iterator i = ns2metas.entrySet().iterator(); i.hasNext(); ) {
-            Map.Entry entry = (Map.Entry) i.next();
-
-            String namespaceURI = (String) entry.getKey();
-            Set metas = (Set) entry.getValue();
+        for (Map.Entry<String, Set<ResourceInfo>> entry : ns2metas.entrySet()) {
+            String namespaceURI = entry.getKey();
 
             StringBuffer typeNames = new StringBuffer();
-            for (Iterator m = metas.iterator(); m.hasNext(); ) {
-                ResourceInfo ri = (ResourceInfo) m.next();
+            for (Iterator<ResourceInfo> m = entry.getValue().iterator(); m.hasNext(); ) {
+                ResourceInfo ri = m.next();
                 if (ri instanceof FeatureTypeInfo) {
                     FeatureTypeInfo meta = (FeatureTypeInfo) ri;
                     FeatureType featureType = meta.getFeatureType();
@@ -276,7 +337,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                     if (userSchemaLocation != null && userSchemaLocation instanceof Map) {
                         Map<String, String> schemaURIs = (Map<String, String>) userSchemaLocation;
                         for (String namespace : schemaURIs.keySet()) {
-                            encoder.setSchemaLocation(namespace, schemaURIs.get(namespace));
+                            locations.put(namespace, schemaURIs.get(namespace));
                         }
                     } else {
                         typeNames.append(meta.getPrefixedName());
@@ -284,9 +345,6 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                             typeNames.append(",");
                         }
                     }
-                } else {
-                    encoder.getNamespaces()
-                            .declarePrefix(ri.getStore().getWorkspace().getName(), namespaceURI);
                 }
             }
 
@@ -300,16 +358,69 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
                                 + namespaceURI
                                 + ". Using a built schema location by default: "
                                 + schemaLocation);
-                encoder.setSchemaLocation(namespaceURI, schemaLocation);
+                locations.put(namespaceURI, schemaLocation);
             }
         }
 
-        setAdditionalSchemaLocations(encoder, request, wfs);
-        if (isComplexFeature(results)) {
-            complexFeatureStreamIntercept(results, output, encoder);
-        } else {
-            encode(results, output, encoder);
+        return locations;
+    }
+
+    /**
+     * Writes the response with a {@link SimpleFeatureGMLWriter}, if enabled and if the response
+     * contents allow it
+     *
+     * @return true if the response has been written, false if the encoder should be used instead
+     */
+    private boolean writeStreaming(
+            FeatureCollectionResponse results,
+            OutputStream output,
+            GetFeatureRequest request,
+            Map<String, Set<ResourceInfo>> ns2metas,
+            WFSInfo wfs,
+            int numDecimals,
+            boolean padWithZeros,
+            boolean forcedDecimal)
+            throws IOException {
+        if (!streamingEncoding || request == null || isComplexFeature(results)) {
+            return false;
         }
+        for (Set<ResourceInfo> metas : ns2metas.values()) {
+            for (ResourceInfo meta : metas) {
+                if (!(meta instanceof FeatureTypeInfo)) {
+                    return false;
+                }
+            }
+        }
+        SimpleFeatureGMLWriter writer = createStreamingWriter(wfs);
+        if (writer == null || !writer.canWrite(results)) {
+            return false;
+        }
+
+        writer.setNumberFormatting(numDecimals, padWithZeros, forcedDecimal);
+        writer.setFeatureBounding(wfs.isFeatureBounding());
+        // cite compliance forces us to forgo srsDimension attribute
+        writer.setSrsDimension(!wfs.isCiteCompliant());
+        writer.setEncodeFeatureMember(wfs.isEncodeFeatureMember());
+        writer.setEncodeMeasures(encodeMeasures(results.getFeature(), catalog));
+        writer.setCharset(Charset.forName(geoServer.getSettings().getCharset()));
+        Request dispatcherRequest = Dispatcher.REQUEST.get();
+        writer.setOmitXMLDeclaration(dispatcherRequest != null && dispatcherRequest.isSOAP());
+
+        Map<String, String> schemaLocations = getSchemaLocations(request, ns2metas, wfs);
+        schemaLocations.putAll(getAdditionalSchemaLocations(request, wfs));
+        writer.write(results, schemaLocations, output);
+        return true;
+    }
+
+    /**
+     * Builds the writer used to stream out simple features, or returns null if streaming is not
+     * supported by this output format
+     */
+    protected SimpleFeatureGMLWriter createStreamingWriter(WFSInfo wfs) {
+        return new SimpleFeatureGMLWriter(
+                SimpleFeatureGMLWriter.Version.GML31,
+                catalog,
+                wfs.getGML().get(WFSInfo.Version.V_11).getSrsNameStyle());
     }
 
     protected void updateConfiguration(
@@ -371,7 +482,16 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
 
     protected void setAdditionalSchemaLocations(
             Encoder encoder, GetFeatureRequest request, WFSInfo wfs) {
-        // hook for subclasses
+        for (Map.Entry<String, String> entry :
+                getAdditionalSchemaLocations(request, wfs).entrySet()) {
+            encoder.setSchemaLocation(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /** Hook for subclasses, returns extra schema locations to be declared in the response */
+    protected Map<String, String> getAdditionalSchemaLocations(
+            GetFeatureRequest request, WFSInfo wfs) {
+        return Collections.emptyMap();
     }
 
     protected void encode(FeatureCollectionResponse results, OutputStream output, Encoder encoder)
@@ -21,6 +21,8 @@ public class SchemaCleanerCallback extends AbstractDispatcherCallback {
 
     static final ThreadLocal<List<XSDSchema>> schemas = new ThreadLocal<List<XSDSchema>>();
 
+    static final ThreadLocal<List<Runnable>> cleanups = new ThreadLocal<List<Runnable>>();
+
     /**
      * Schedules a XSDSchema for removal at the end of the request
      *
@@ -39,6 +41,21 @@ public class SchemaCleanerCallback extends AbstractDispatcherCallback {
         list.add(schema);
     }
 
+    /**
+     * Schedules a cleanup action to be run at the end of the request, e.g., releasing a shared
+     * schema
+     *
+     * @param cleanup
+     */
+    public static void addCleanup(Runnable cleanup) {
+        List<Runnable> list = cleanups.get();
+        if (list == null) {
+            list = new ArrayList<Runnable>();
+            cleanups.set(list);
+        }
+        list.add(cleanup);
+    }
+
     @Override
     public void finished(Request request) {
         List<XSDSchema> list = schemas.get();
@@ -48,5 +65,12 @@ public class SchemaCleanerCallback extends AbstractDispatcherCallback {
                 Schemas.dispose(schema);
             }
         }
+        List<Runnable> actions = cleanups.get();
+        if (actions != null) {
+            cleanups.remove();
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
     }
 }
@@ -0,0 +1,752 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.wfs.GMLInfo.SrsNameStyle;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.geometry.jts.CurvedGeometry;
+import org.geotools.gml2.bindings.GML2EncodingUtils;
+import org.geotools.xs.bindings.XSDateBinding;
+import org.geotools.xs.bindings.XSDateTimeBinding;
+import org.geotools.xs.bindings.XSTimeBinding;
+import org.geotools.xsd.SimpleBinding;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Writes GetFeature responses made of simple features straight to a {@link XMLStreamWriter},
+ * without going through the GeoTools {@link org.geotools.xsd.Encoder} and its schema driven
+ * bindings.
+ *
+ * <p>The element names, value kinds and srsName of each feature type are computed once per
+ * response, features and geometries are then written using the GML 3.1 or GML 3.2 encoding, with
+ * the same rules for srsName, srsDimension, feature bounds and number of decimals used by the
+ * encoder. Callers must check {@link #canWrite(FeatureCollectionResponse)} first, and fall back on
+ * the encoder if the response contains anything this writer cannot handle (complex features,
+ * curves, lock ids, GetFeatureById and the like).
+ */
+public class SimpleFeatureGMLWriter {
+
+    static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    /** Attributes clashing with the GML ones, the encoder handles them specially */
+    static final Set<String> GML_ATTRIBUTES =
+            new HashSet<>(
+                    Arrays.asList(
+                            "name",
+                            "description",
+                            "boundedBy",
+                            "metaDataProperty",
+                            "location",
+                            "descriptionReference",
+                            "identifier"));
+
+    /** Non geometric attribute bindings that can be written as plain text */
+    static final List<Class<?>> TEXT_BINDINGS =
+            Arrays.asList(
+                    String.class,
+                    Number.class,
+                    Boolean.class,
+                    Character.class,
+                    Date.class,
+                    Calendar.class,
+                    UUID.class);
+
+    /** The GML/WFS version couples supported by the writer */
+    public enum Version {
+        /** WFS 1.1 and GML 3.1 */
+        GML31(org.geotools.gml3.GML.NAMESPACE, org.geoserver.wfs.xml.v1_1_0.WFS.NAMESPACE),
+        /** WFS 2.0 and GML 3.2 */
+        GML32(org.geotools.gml3.v3_2.GML.NAMESPACE, org.geotools.wfs.v2_0.WFS.NAMESPACE);
+
+        final String gmlNamespace;
+
+        final String wfsNamespace;
+
+        Version(String gmlNamespace, String wfsNamespace) {
+            this.gmlNamespace = gmlNamespace;
+            this.wfsNamespace = wfsNamespace;
+        }
+    }
+
+    /** The precomputed structure of a feature type */
+    static class FeatureTemplate {
+        final String prefix;
+
+        final String namespaceURI;
+
+        final String localName;
+
+        final PropertyTemplate[] properties;
+
+        FeatureTemplate(
+                String prefix,
+                String namespaceURI,
+                String localName,
+                PropertyTemplate[] properties) {
+            this.prefix = prefix;
+            this.namespaceURI = namespaceURI;
+            this.localName = localName;
+            this.properties = properties;
+        }
+    }
+
+    /** The precomputed structure of a feature attribute */
+    static class PropertyTemplate {
+        final String name;
+
+        final boolean geometry;
+
+        final boolean optional;
+
+        final boolean nillable;
+
+        final String srsName;
+
+        /** The XML schema binding encoding the values, for temporal attributes */
+        final SimpleBinding temporalBinding;
+
+        PropertyTemplate(
+                String name,
+                boolean geometry,
+                boolean optional,
+                boolean nillable,
+                String srsName,
+                SimpleBinding temporalBinding) {
+            this.name = name;
+            this.geometry = geometry;
+            this.optional = optional;
+            this.nillable = nillable;
+            this.srsName = srsName;
+            this.temporalBinding = temporalBinding;
+        }
+    }
+
+    Version version;
+
+    Catalog catalog;
+
+    SrsNameStyle srsNameStyle;
+
+    int numDecimals = -1;
+
+    double scale;
+
+    DecimalFormat decimalFormat;
+
+    boolean featureBounding;
+
+    boolean srsDimension = true;
+
+    boolean encodeFeatureMember;
+
+    boolean encodeMeasures;
+
+    boolean omitXMLDeclaration;
+
+    Charset charset = Charset.forName("UTF-8");
+
+    Map<SimpleFeatureType, FeatureTemplate> templates = new IdentityHashMap<>();
+
+    Map<CoordinateReferenceSystem, String> srsNames = new IdentityHashMap<>();
+
+    StringBuilder buffer = new StringBuilder();
+
+    public SimpleFeatureGMLWriter(Version version, Catalog catalog, SrsNameStyle srsNameStyle) {
+        this.version = version;
+        this.catalog = catalog;
+        this.srsNameStyle = srsNameStyle;
+    }
+
+    /**
+     * Sets the number formatting options for coordinates, same semantic as the GML encoders
+     * configuration
+     */
+    public void setNumberFormatting(int numDecimals, boolean padWithZeros, boolean forceDecimal) {
+        this.numDecimals = numDecimals;
+        this.decimalFormat = null;
+        this.scale = numDecimals >= 0 ? Math.pow(10, numDecimals) : 0;
+        if (numDecimals >= 0 && (padWithZeros || forceDecimal)) {
+            decimalFormat = new DecimalFormat("0", new DecimalFormatSymbols(Locale.ENGLISH));
+            decimalFormat.setGroupingUsed(false);
+            decimalFormat.setMaximumFractionDigits(numDecimals);
+            decimalFormat.setMinimumFractionDigits(padWithZeros ? numDecimals : 0);
+        }
+    }
+
+    /** When true, each feature gets a gml:boundedBy element */
+    public void setFeatureBounding(boolean featureBounding) {
+        this.featureBounding = featureBounding;
+    }
+
+    /** When false, the srsDimension attribute is omitted (e.g., for CITE compliance) */
+    public void setSrsDimension(boolean srsDimension) {
+        this.srsDimension = srsDimension;
+    }
+
+    /** When true, uses a gml:featureMember per feature instead of a gml:featureMembers (GML 3.1) */
+    public void setEncodeFeatureMember(boolean encodeFeatureMember) {
+        this.encodeFeatureMember = encodeFeatureMember;
+    }
+
+    /** When true, the measures found in the coordinates are written after the spatial ordinates */
+    public void setEncodeMeasures(boolean encodeMeasures) {
+        this.encodeMeasures = encodeMeasures;
+    }
+
+    public void setOmitXMLDeclaration(boolean omitXMLDeclaration) {
+        this.omitXMLDeclaration = omitXMLDeclaration;
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Checks whether the response can be written by this class, and prepares the feature type
+     * templates along the way
+     */
+    public boolean canWrite(FeatureCollectionResponse results) {
+        if (results.isGetFeatureById()
+                || results.getLockId() != null
+                || results.getFeatures() == null) {
+            return false;
+        }
+        List<FeatureCollection> collections = results.getFeatures();
+        // WFS 2.0 nests each query result in its own collection, leave that to the encoder
+        if (version == Version.GML32 && collections.size() != 1) {
+            return false;
+        }
+        for (FeatureCollection collection : collections) {
+            if (!(collection instanceof SimpleFeatureCollection)
+                    || !(collection.getSchema() instanceof SimpleFeatureType)) {
+                return false;
+            }
+            SimpleFeatureType schema = (SimpleFeatureType) collection.getSchema();
+            if (!templates.containsKey(schema)) {
+                FeatureTemplate template = buildTemplate(schema);
+                if (template == null) {
+                    return false;
+                }
+                templates.put(schema, template);
+            }
+        }
+        return true;
+    }
+
+    FeatureTemplate buildTemplate(SimpleFeatureType schema) {
+        String namespaceURI = schema.getName().getNamespaceURI();
+        if (namespaceURI == null) {
+            return null;
+        }
+        NamespaceInfo ns = catalog.getNamespaceByURI(namespaceURI);
+        if (ns == null
+                || "gml".equals(ns.getPrefix())
+                || "wfs".equals(ns.getPrefix())
+                || "xsi".equals(ns.getPrefix())) {
+            return null;
+        }
+
+        List<AttributeDescriptor> descriptors = schema.getAttributeDescriptors();
+        PropertyTemplate[] properties = new PropertyTemplate[descriptors.size()];
+        for (int i = 0; i < properties.length; i++) {
+            AttributeDescriptor ad = descriptors.get(i);
+            Class<?> binding = ad.getType().getBinding();
+            if (GML_ATTRIBUTES.contains(ad.getLocalName())) {
+                return null;
+            }
+            String srsName = null;
+            boolean geometry = ad instanceof GeometryDescriptor;
+            if (geometry) {
+                if (!Geometry.class.isAssignableFrom(binding)
+                        || CurvedGeometry.class.isAssignableFrom(binding)) {
+                    return null;
+                }
+                srsName = getSrsName(((GeometryDescriptor) ad).getCoordinateReferenceSystem());
+            } else if (!TEXT_BINDINGS.stream().anyMatch(c -> c.isAssignableFrom(binding))) {
+                return null;
+            }
+            properties[i] =
+                    new PropertyTemplate(
+                            ad.getLocalName(),
+                            geometry,
+                            ad.getMinOccurs() == 0,
+                            ad.isNillable(),
+                            srsName,
+                            getTemporalBinding(binding));
+        }
+
+        return new FeatureTemplate(
+                ns.getPrefix(), namespaceURI, schema.getTypeName(), properties);
+    }
+
+    /**
+     * Returns the binding the encoder would use for the given temporal attribute binding, the same
+     * way the feature type schema maps them to XML schema types, or null if the binding is not
+     * temporal
+     */
+    static SimpleBinding getTemporalBinding(Class<?> binding) {
+        if (java.sql.Date.class.isAssignableFrom(binding)) {
+            return new XSDateBinding();
+        } else if (java.sql.Time.class.isAssignableFrom(binding)) {
+            return new XSTimeBinding();
+        } else if (Date.class.isAssignableFrom(binding)
+                || Calendar.class.isAssignableFrom(binding)) {
+            return new XSDateTimeBinding();
+        }
+        return null;
+    }
+
+    String getSrsName(CoordinateReferenceSystem crs) {
+        if (crs == null) {
+            return null;
+        }
+        if (srsNames.containsKey(crs)) {
+            return srsNames.get(crs);
+        }
+        String code = GML2EncodingUtils.epsgCode(crs);
+        String srsName = code == null ? null : srsNameStyle.getPrefix() + code;
+        srsNames.put(crs, srsName);
+        return srsName;
+    }
+
+    /**
+     * Writes out the response, {@link #canWrite(FeatureCollectionResponse)} must have been called
+     * before
+     *
+     * @param schemaLocations the xsi:schemaLocation contents, namespace URI to location
+     */
+    public void write(
+            FeatureCollectionResponse results,
+            Map<String, String> schemaLocations,
+            OutputStream output)
+            throws IOException {
+        BufferedOutputStream bos = new BufferedOutputStream(output, 32 * 1024);
+        try {
+            XMLStreamWriter w =
+                    XMLOutputFactory.newInstance()
+                            .createXMLStreamWriter(bos, charset.name());
+            if (!omitXMLDeclaration) {
+                w.writeStartDocument(charset.name(), "1.0");
+            }
+            writeCollectionStart(w, results, schemaLocations);
+
+            boolean membersOpen = false;
+            for (FeatureCollection collection : results.getFeatures()) {
+                FeatureTemplate template = templates.get(collection.getSchema());
+                try (SimpleFeatureIterator it =
+                        ((SimpleFeatureCollection) collection).features()) {
+                    while (it.hasNext()) {
+                        SimpleFeature feature = it.next();
+                        if (version == Version.GML32) {
+                            w.writeStartElement("wfs", "member", version.wfsNamespace);
+                        } else if (encodeFeatureMember) {
+                            w.writeStartElement("gml", "featureMember", version.gmlNamespace);
+                        } else if (!membersOpen) {
+                            w.writeStartElement("gml", "featureMembers", version.gmlNamespace);
+                            membersOpen = true;
+                        }
+                        writeFeature(w, template, feature);
+                        if (version == Version.GML32 || encodeFeatureMember) {
+                            w.writeEndElement();
+                        }
+                    }
+                }
+            }
+            if (membersOpen) {
+                w.writeEndElement();
+            }
+
+            w.writeEndElement();
+            w.writeEndDocument();
+            w.flush();
+            w.close();
+            bos.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to write out the GML response", e);
+        }
+    }
+
+    private void writeCollectionStart(
+            XMLStreamWriter w,
+            FeatureCollectionResponse results,
+            Map<String, String> schemaLocations)
+            throws XMLStreamException {
+        w.writeStartElement("wfs", "FeatureCollection", version.wfsNamespace);
+        w.writeNamespace("wfs", version.wfsNamespace);
+        w.writeNamespace("gml", version.gmlNamespace);
+        w.writeNamespace("xsi", XSI_NAMESPACE);
+        Map<String, String> prefixes = new LinkedHashMap<>();
+        for (FeatureTemplate template : templates.values()) {
+            prefixes.put(template.prefix, template.namespaceURI);
+        }
+        for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+            w.writeNamespace(entry.getKey(), entry.getValue());
+        }
+
+        if (version == Version.GML32) {
+            BigInteger matched = results.getTotalNumberOfFeatures();
+            BigInteger returned = results.getNumberOfFeatures();
+            w.writeAttribute("numberMatched", matched != null ? matched.toString() : "unknown");
+            w.writeAttribute("numberReturned", returned != null ? returned.toString() : "0");
+            writeTimeStamp(w, results);
+            if (results.getNext() != null) {
+                w.writeAttribute("next", results.getNext());
+            }
+            if (results.getPrevious() != null) {
+                w.writeAttribute("previous", results.getPrevious());
+            }
+        } else {
+            if (results.getNumberOfFeatures() != null) {
+                w.writeAttribute("numberOfFeatures", results.getNumberOfFeatures().toString());
+            }
+            writeTimeStamp(w, results);
+        }
+
+        if (schemaLocations != null && !schemaLocations.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> entry : schemaLocations.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(entry.getKey()).append(' ').append(entry.getValue());
+            }
+            w.writeAttribute("xsi", XSI_NAMESPACE, "schemaLocation", sb.toString());
+        }
+    }
+
+    private void writeTimeStamp(XMLStreamWriter w, FeatureCollectionResponse results)
+            throws XMLStreamException {
+        Calendar timeStamp = results.getTimeStamp();
+        if (timeStamp != null) {
+            w.writeAttribute("timeStamp", formatValue(timeStamp, new XSDateTimeBinding()));
+        }
+    }
+
+    void writeFeature(XMLStreamWriter w, FeatureTemplate template, SimpleFeature feature)
+            throws XMLStreamException {
+        String gml = version.gmlNamespace;
+        w.writeStartElement(template.prefix, template.localName, template.namespaceURI);
+        if (feature.getID() != null) {
+            w.writeAttribute("gml", gml, "id", feature.getID());
+        }
+
+        if (featureBounding) {
+            BoundingBox bounds = feature.getBounds();
+            if (bounds != null && !bounds.isEmpty()) {
+                writeBounds(w, bounds);
+            }
+        }
+
+        PropertyTemplate[] properties = template.properties;
+        for (int i = 0; i < properties.length; i++) {
+            PropertyTemplate property = properties[i];
+            Object value = feature.getAttribute(i);
+            if (value == null) {
+                if (property.optional) {
+                    continue;
+                }
+                w.writeStartElement(template.prefix, property.name, template.namespaceURI);
+                if (property.nillable) {
+                    w.writeAttribute("xsi", XSI_NAMESPACE, "nil", "true");
+                }
+                w.writeEndElement();
+                continue;
+            }
+
+            w.writeStartElement(template.prefix, property.name, template.namespaceURI);
+            if (property.geometry) {
+                Geometry geometry = (Geometry) value;
+                String srsName = property.srsName;
+                if (geometry.getUserData() instanceof CoordinateReferenceSystem) {
+                    srsName = getSrsName((CoordinateReferenceSystem) geometry.getUserData());
+                }
+                String id = version == Version.GML32 ? feature.getID() + "." + property.name : null;
+                writeGeometry(w, geometry, id, srsName, true);
+            } else {
+                w.writeCharacters(formatValue(value, property.temporalBinding));
+            }
+            w.writeEndElement();
+        }
+
+        w.writeEndElement();
+    }
+
+    private void writeBounds(XMLStreamWriter w, BoundingBox bounds)
+            throws XMLStreamException {
+        String gml = version.gmlNamespace;
+        w.writeStartElement("gml", "boundedBy", gml);
+        w.writeStartElement("gml", "Envelope", gml);
+        if (srsDimension) {
+            w.writeAttribute("srsDimension", "2");
+        }
+        String srsName = getSrsName(bounds.getCoordinateReferenceSystem());
+        if (srsName != null) {
+            w.writeAttribute("srsName", srsName);
+        }
+        buffer.setLength(0);
+        appendOrdinate(bounds.getMinX());
+        buffer.append(' ');
+        appendOrdinate(bounds.getMinY());
+        writeTextElement(w, "lowerCorner");
+        buffer.setLength(0);
+        appendOrdinate(bounds.getMaxX());
+        buffer.append(' ');
+        appendOrdinate(bounds.getMaxY());
+        writeTextElement(w, "upperCorner");
+        w.writeEndElement();
+        w.writeEndElement();
+    }
+
+    void writeGeometry(
+            XMLStreamWriter w, Geometry geometry, String id, String srsName, boolean root)
+            throws XMLStreamException {
+        if (geometry instanceof CurvedGeometry) {
+            // curves are not part of the simple features profile, linearize them
+            geometry = ((CurvedGeometry<?>) geometry).linearize();
+        }
+        String gml = version.gmlNamespace;
+        if (geometry instanceof Point) {
+            startGeometry(w, "Point", geometry, id, srsName, root);
+            appendCoordinates(((Point) geometry).getCoordinateSequence(), dimension(geometry));
+            writeTextElement(w, "pos");
+            w.writeEndElement();
+        } else if (geometry instanceof LinearRing) {
+            startGeometry(w, "LinearRing", geometry, id, srsName, root);
+            writePosList(w, ((LinearRing) geometry).getCoordinateSequence(), dimension(geometry));
+            w.writeEndElement();
+        } else if (geometry instanceof LineString) {
+            startGeometry(w, "LineString", geometry, id, srsName, root);
+            writePosList(w, ((LineString) geometry).getCoordinateSequence(), dimension(geometry));
+            w.writeEndElement();
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            int dimension = dimension(geometry);
+            startGeometry(w, "Polygon", geometry, id, srsName, root);
+            if (!polygon.isEmpty()) {
+                writeRing(w, "exterior", polygon.getExteriorRing(), dimension);
+                for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    writeRing(w, "interior", polygon.getInteriorRingN(i), dimension);
+                }
+            }
+            w.writeEndElement();
+        } else if (geometry instanceof GeometryCollection) {
+            String name;
+            String member;
+            if (geometry instanceof MultiPoint) {
+                name = "MultiPoint";
+                member = "pointMember";
+            } else if (geometry instanceof MultiLineString) {
+                name = version == Version.GML32 ? "MultiCurve" : "MultiLineString";
+                member = version == Version.GML32 ? "curveMember" : "lineStringMember";
+            } else if (geometry instanceof MultiPolygon) {
+                name = "MultiSurface";
+                member = "surfaceMember";
+            } else {
+                name = "MultiGeometry";
+                member = "geometryMember";
+            }
+            startGeometry(w, name, geometry, id, srsName, root);
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                w.writeStartElement("gml", member, gml);
+                String memberId = id == null ? null : id + "." + (i + 1);
+                writeGeometry(w, geometry.getGeometryN(i), memberId, null, false);
+                w.writeEndElement();
+            }
+            w.writeEndElement();
+        } else {
+            throw new IllegalArgumentException(
+                    "Cannot encode geometry of type " + geometry.getGeometryType());
+        }
+    }
+
+    private void startGeometry(
+            XMLStreamWriter w,
+            String name,
+            Geometry geometry,
+            String id,
+            String srsName,
+            boolean root)
+            throws XMLStreamException {
+        String gml = version.gmlNamespace;
+        w.writeStartElement("gml", name, gml);
+        if (id != null) {
+            w.writeAttribute("gml", gml, "id", id);
+        }
+        if (root) {
+            if (srsName != null) {
+                w.writeAttribute("srsName", srsName);
+            }
+            if (srsDimension) {
+                int dimension = dimension(geometry);
+                CoordinateSequence cs = firstSequence(geometry);
+                if (encodeMeasures && cs != null && cs.getMeasures() > 0) {
+                    dimension++;
+                }
+                w.writeAttribute("srsDimension", String.valueOf(dimension));
+            }
+        }
+    }
+
+    private void writeRing(XMLStreamWriter w, String name, LineString ring, int dimension)
+            throws XMLStreamException {
+        String gml = version.gmlNamespace;
+        w.writeStartElement("gml", name, gml);
+        w.writeStartElement("gml", "LinearRing", gml);
+        writePosList(w, ring.getCoordinateSequence(), dimension);
+        w.writeEndElement();
+        w.writeEndElement();
+    }
+
+    private void writePosList(XMLStreamWriter w, CoordinateSequence cs, int dimension)
+            throws XMLStreamException {
+        appendCoordinates(cs, dimension);
+        writeTextElement(w, "posList");
+    }
+
+    private void writeTextElement(XMLStreamWriter w, String name) throws XMLStreamException {
+        w.writeStartElement("gml", name, version.gmlNamespace);
+        w.writeCharacters(buffer.toString());
+        w.writeEndElement();
+    }
+
+    private void appendCoordinates(CoordinateSequence cs, int dimension) {
+        buffer.setLength(0);
+        boolean measures = encodeMeasures && cs.getMeasures() > 0;
+        for (int i = 0; i < cs.size(); i++) {
+            if (i > 0) {
+                buffer.append(' ');
+            }
+            appendOrdinate(cs.getOrdinate(i, 0));
+            buffer.append(' ');
+            appendOrdinate(cs.getOrdinate(i, 1));
+            if (dimension > 2) {
+                buffer.append(' ');
+                appendOrdinate(cs.getOrdinate(i, 2));
+            }
+            if (measures) {
+                buffer.append(' ');
+                appendOrdinate(cs.getM(i));
+            }
+        }
+    }
+
+    /** Returns the number of spatial dimensions in the geometry, 2 or 3, measures excluded */
+    static int dimension(Geometry geometry) {
+        CoordinateSequence cs = firstSequence(geometry);
+        if (cs == null || cs.size() == 0) {
+            return 2;
+        }
+        int dimension = cs.getDimension() - cs.getMeasures();
+        if (dimension > 2 && Double.isNaN(cs.getOrdinate(0, 2))) {
+            return 2;
+        }
+        return dimension > 2 ? 3 : 2;
+    }
+
+    private static CoordinateSequence firstSequence(Geometry geometry) {
+        if (geometry instanceof Point) {
+            return ((Point) geometry).getCoordinateSequence();
+        } else if (geometry instanceof LineString) {
+            return ((LineString) geometry).getCoordinateSequence();
+        } else if (geometry instanceof Polygon) {
+            return ((Polygon) geometry).getExteriorRing().getCoordinateSequence();
+        } else if (geometry instanceof GeometryCollection) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                CoordinateSequence cs = firstSequence(geometry.getGeometryN(i));
+                if (cs != null && cs.size() > 0) {
+                    return cs;
+                }
+            }
+        }
+        return null;
+    }
+
+    void appendOrdinate(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            buffer.append(formatDouble(value));
+        } else if (decimalFormat != null) {
+            buffer.append(decimalFormat.format(value));
+        } else if (scale > 0 && Math.abs(value * scale) < 1e15) {
+            buffer.append(Math.round(value * scale) / scale);
+        } else {
+            buffer.append(value);
+        }
+    }
+
+    /**
+     * Formats a non geometric value. Temporal values are formatted by the binding of the attribute
+     * XML schema type, so that, for example, a date is not written as a date time
+     */
+    static String formatValue(Object value, SimpleBinding temporalBinding) {
+        if (temporalBinding != null && (value instanceof Date || value instanceof Calendar)) {
+            try {
+                return temporalBinding.encode(value, null);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Failed to encode temporal value " + value, e);
+            }
+        } else if (value instanceof Double) {
+            return formatDouble((Double) value);
+        } else if (value instanceof Float) {
+            Float f = (Float) value;
+            return f.isNaN() || f.isInfinite() ? formatDouble(f) : f.toString();
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        return value.toString();
+    }
+
+    static String formatDouble(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (value == Double.POSITIVE_INFINITY) {
+            return "INF";
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return "-INF";
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,193 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.xml.namespace.QName;
+import org.custommonkey.xmlunit.XMLAssert;
+import org.eclipse.xsd.XSDSchema;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.wfs.WFSTestSupport;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.xsd.Encoder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.w3c.dom.Document;
+
+public class ApplicationSchemaCacheTest extends WFSTestSupport {
+
+    ApplicationSchemaCache cache;
+
+    @Before
+    public void clearCache() {
+        cache = ApplicationSchemaCache.get();
+        cache.clear();
+    }
+
+    private Document getFeature(String version, String typeName) throws Exception {
+        return getAsDOM(
+                "wfs?request=GetFeature&service=WFS&version=" + version + "&typeName=" + typeName);
+    }
+
+    @Test
+    public void testSchemaReused() throws Exception {
+        String typeName = getLayerId(MockData.BASIC_POLYGONS);
+        for (int i = 0; i < 2; i++) {
+            Document dom = getFeature("1.1.0", typeName);
+            XMLAssert.assertXpathEvaluatesTo("3", "count(//cite:BasicPolygons)", dom);
+            assertEquals(1, cache.size());
+        }
+
+        // GML 3.2 uses a different schema
+        Document dom = getFeature("2.0.0", typeName);
+        XMLAssert.assertXpathEvaluatesTo("3", "count(//cite:BasicPolygons)", dom);
+        assertEquals(2, cache.size());
+
+        // a different set of feature types, different schema
+        dom = getFeature("1.1.0", typeName + "," + getLayerId(MockData.BRIDGES));
+        XMLAssert.assertXpathEvaluatesTo("1", "count(//cite:Bridges)", dom);
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testInvalidateOnFeatureTypeChange() throws Exception {
+        getFeature("1.1.0", getLayerId(MockData.BASIC_POLYGONS));
+        getFeature("1.1.0", getLayerId(MockData.BRIDGES));
+        assertEquals(2, cache.size());
+
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo ft = catalog.getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        String title = ft.getTitle();
+        ft.setTitle("New title");
+        try {
+            catalog.save(ft);
+            // only the schema of the modified type is gone
+            assertEquals(1, cache.size());
+        } finally {
+            ft = catalog.getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+            ft.setTitle(title);
+            catalog.save(ft);
+        }
+
+        // and it's rebuilt when needed
+        Document dom = getFeature("1.1.0", getLayerId(MockData.BASIC_POLYGONS));
+        XMLAssert.assertXpathEvaluatesTo("3", "count(//cite:BasicPolygons)", dom);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testNotCachedOutsideRequests() throws Exception {
+        // nobody would release the schema, so it must not be cached
+        assertNull(Dispatcher.REQUEST.get());
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.BRIDGES));
+        XSDSchema schema =
+                cache.getSchema(
+                        ApplicationSchemaXSD1.class,
+                        new FeatureTypeSchemaBuilder.GML3(getGeoServer()),
+                        new FeatureTypeInfo[] {ft},
+                        "http://localhost:8080/geoserver",
+                        () -> {
+                            fail("The schema should not have been built");
+                            return null;
+                        });
+        assertNull(schema);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentEncoding() throws Exception {
+        final int threads = 4;
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        SimpleFeature feature =
+                DataUtilities.first(
+                        (SimpleFeatureCollection) ft.getFeatureSource(null, null).getFeatures());
+
+        // the first threads encode at the same time, each one must get its own schema
+        Set<XSDSchema> schemas =
+                Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < threads * 2; i++) {
+                final boolean hold = i < threads;
+                results.add(
+                        executor.submit(
+                                () ->
+                                        encode(
+                                                ft,
+                                                feature,
+                                                schema -> {
+                                                    if (hold) {
+                                                        schemas.add(schema);
+                                                        barrier.await(10, TimeUnit.SECONDS);
+                                                    }
+                                                })));
+            }
+            for (Future<String> result : results) {
+                assertTrue(result.get().contains(MockData.BASIC_POLYGONS.getLocalPart()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads, schemas.size());
+        assertEquals(1, cache.size());
+
+        // the released schemas are pooled and reused
+        encode(ft, feature, schema -> assertTrue(schemas.contains(schema)));
+        assertEquals(1, cache.size());
+    }
+
+    @FunctionalInterface
+    interface SchemaCheck {
+        void check(XSDSchema schema) throws Exception;
+    }
+
+    /** Encodes the feature against the application schema, as a GetFeature request would do */
+    private String encode(FeatureTypeInfo ft, SimpleFeature feature, SchemaCheck check)
+            throws Exception {
+        org.geoserver.wfs.xml.v1_1_0.WFSConfiguration configuration = getXmlConfiguration11();
+        String namespaceURI = ft.getNamespace().getURI();
+        Dispatcher.REQUEST.set(new Request());
+        try {
+            ApplicationSchemaXSD1 xsd =
+                    new ApplicationSchemaXSD1(
+                            configuration.getSchemaBuilder(),
+                            Collections.singletonMap(namespaceURI, Collections.singleton(ft)));
+            xsd.setBaseURL("http://localhost:8080/geoserver");
+            XSDSchema schema = xsd.getSchema();
+            check.check(schema);
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            QName name = new QName(namespaceURI, ft.getName());
+            new Encoder(configuration, schema).encode(feature, name, bos);
+            return bos.toString("UTF-8");
+        } finally {
+            new SchemaCleanerCallback().finished(null);
+            Dispatcher.REQUEST.remove();
+        }
+    }
+}
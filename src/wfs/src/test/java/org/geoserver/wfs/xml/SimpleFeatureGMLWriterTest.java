@@ -0,0 +1,199 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.namespace.QName;
+import org.custommonkey.xmlunit.XMLAssert;
+import org.geoserver.data.test.MockData;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.WFSTestSupport;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class SimpleFeatureGMLWriterTest extends WFSTestSupport {
+
+    static final String GML32 = org.geotools.gml3.v3_2.GML.NAMESPACE;
+
+    static final String WFS20 = org.geotools.wfs.v2_0.WFS.NAMESPACE;
+
+    /** Dates, timestamps and large projected ordinates */
+    static final QName STREAMING_PARITY =
+            new QName(MockData.CITE_URI, "StreamingParity", MockData.CITE_PREFIX);
+
+    @Override
+    protected void setUpInternal(SystemTestData testData) throws Exception {
+        testData.addVectorLayer(STREAMING_PARITY, Collections.emptyMap(), getClass(), getCatalog());
+    }
+
+    @After
+    public void disableStreaming() {
+        setStreaming(false);
+    }
+
+    private void setStreaming(boolean streaming) {
+        ((GML3OutputFormat) GeoServerExtensions.bean("gml3OutputFormat"))
+                .setStreamingEncoding(streaming);
+        ((GML3OutputFormat) GeoServerExtensions.bean("gml32OutputFormat"))
+                .setStreamingEncoding(streaming);
+    }
+
+    /** Collects the text of the leaf elements of each feature, by feature id */
+    private Map<String, List<String>> getValues(
+            Document dom, String namespaceURI, String localName) {
+        Map<String, List<String>> result = new HashMap<>();
+        NodeList features = dom.getElementsByTagNameNS(namespaceURI, localName);
+        for (int i = 0; i < features.getLength(); i++) {
+            Element feature = (Element) features.item(i);
+            List<String> values = new ArrayList<>();
+            NodeList elements = feature.getElementsByTagName("*");
+            for (int j = 0; j < elements.getLength(); j++) {
+                Element element = (Element) elements.item(j);
+                if (element.getElementsByTagName("*").getLength() == 0) {
+                    values.add(element.getLocalName() + "=" + element.getTextContent());
+                }
+            }
+            result.put(feature.getAttributeNS(feature.getNamespaceURI(), "id"), values);
+        }
+        return result;
+    }
+
+    private Set<String> getIds(Document dom, String namespaceURI, String localName) {
+        Set<String> ids = new HashSet<>();
+        NodeList features = dom.getElementsByTagNameNS(namespaceURI, localName);
+        for (int i = 0; i < features.getLength(); i++) {
+            Element feature = (Element) features.item(i);
+            ids.add(feature.getAttributeNS(feature.getNamespaceURI(), "id"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void testGML31() throws Exception {
+        String request =
+                "wfs?request=GetFeature&service=WFS&version=1.1.0&typeName="
+                        + getLayerId(MockData.BASIC_POLYGONS);
+        Document encoded = getAsDOM(request);
+        setStreaming(true);
+        Document streamed = getAsDOM(request);
+
+        XMLAssert.assertXpathEvaluatesTo("3", "/wfs:FeatureCollection/@numberOfFeatures", streamed);
+        XMLAssert.assertXpathEvaluatesTo(
+                "3", "count(//gml:featureMembers/cite:BasicPolygons)", streamed);
+        XMLAssert.assertXpathEvaluatesTo(
+                "3", "count(//cite:BasicPolygons/cite:the_geom/gml:MultiSurface)", streamed);
+        XMLAssert.assertXpathEvaluatesTo(
+                "0",
+                "count(//gml:MultiSurface[not(starts-with(@srsName, 'urn:x-ogc:def:crs:EPSG:'))])",
+                streamed);
+        XMLAssert.assertXpathExists("//gml:surfaceMember/gml:Polygon/gml:exterior", streamed);
+        String schemaLocation =
+                streamed.getDocumentElement()
+                        .getAttributeNS(SimpleFeatureGMLWriter.XSI_NAMESPACE, "schemaLocation");
+        assertTrue(schemaLocation.contains("DescribeFeatureType"));
+
+        // same features as the encoder
+        Set<String> ids = getIds(streamed, MockData.CITE_URI, "BasicPolygons");
+        assertEquals(3, ids.size());
+        assertEquals(getIds(encoded, MockData.CITE_URI, "BasicPolygons"), ids);
+    }
+
+    @Test
+    public void testGML32() throws Exception {
+        String request =
+                "wfs?request=GetFeature&service=WFS&version=2.0.0&typeNames="
+                        + getLayerId(MockData.BASIC_POLYGONS);
+        Document encoded = getAsDOM(request);
+        setStreaming(true);
+        Document streamed = getAsDOM(request);
+
+        Element root = streamed.getDocumentElement();
+        assertEquals(WFS20, root.getNamespaceURI());
+        assertEquals("3", root.getAttribute("numberMatched"));
+        assertEquals("3", root.getAttribute("numberReturned"));
+        assertEquals(3, streamed.getElementsByTagNameNS(WFS20, "member").getLength());
+
+        // geometries have their own ids in GML 3.2
+        NodeList surfaces = streamed.getElementsByTagNameNS(GML32, "MultiSurface");
+        assertEquals(3, surfaces.getLength());
+        for (int i = 0; i < surfaces.getLength(); i++) {
+            Element surface = (Element) surfaces.item(i);
+            assertTrue(surface.getAttributeNS(GML32, "id").endsWith(".the_geom"));
+        }
+
+        Set<String> ids = getIds(streamed, MockData.CITE_URI, "BasicPolygons");
+        assertEquals(3, ids.size());
+        assertEquals(getIds(encoded, MockData.CITE_URI, "BasicPolygons"), ids);
+    }
+
+    @Test
+    public void testFallbackMultipleQueries() throws Exception {
+        setStreaming(true);
+        // WFS 2.0 responses with multiple queries are left to the encoder
+        Document dom =
+                getAsDOM(
+                        "wfs?request=GetFeature&service=WFS&version=2.0.0&typeNames=("
+                                + getLayerId(MockData.BASIC_POLYGONS)
+                                + ")("
+                                + getLayerId(MockData.BRIDGES)
+                                + ")");
+        NodeList collections = dom.getElementsByTagNameNS(WFS20, "FeatureCollection");
+        // the outer collection, plus one per query
+        assertEquals(3, collections.getLength());
+        assertEquals(3, dom.getElementsByTagNameNS(MockData.CITE_URI, "BasicPolygons").getLength());
+        assertEquals(1, dom.getElementsByTagNameNS(MockData.CITE_URI, "Bridges").getLength());
+    }
+
+    @Test
+    public void testValuesParityGML31() throws Exception {
+        checkValuesParity("1.1.0", "typeName");
+    }
+
+    @Test
+    public void testValuesParityGML32() throws Exception {
+        checkValuesParity("2.0.0", "typeNames");
+    }
+
+    private void checkValuesParity(String version, String typeNameParam) throws Exception {
+        String request =
+                "wfs?request=GetFeature&service=WFS&version="
+                        + version
+                        + "&"
+                        + typeNameParam
+                        + "="
+                        + getLayerId(STREAMING_PARITY);
+        Document encoded = getAsDOM(request);
+        setStreaming(true);
+        Document streamed = getAsDOM(request);
+
+        Map<String, List<String>> expected =
+                getValues(encoded, MockData.CITE_URI, STREAMING_PARITY.getLocalPart());
+        assertEquals(2, expected.size());
+        // the encoder writes dates as xs:date, not as date times
+        for (String value : expected.get("StreamingParity.sp1")) {
+            if (value.startsWith("day=")) {
+                assertTrue(value, value.startsWith("day=2006-10-25"));
+                assertFalse(value, value.contains("T"));
+            }
+        }
+        // same dates, timestamps and coordinates as the encoder
+        assertEquals(
+                expected, getValues(streamed, MockData.CITE_URI, STREAMING_PARITY.getLocalPart()));
+    }
+}
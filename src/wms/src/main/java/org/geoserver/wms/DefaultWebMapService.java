@@ -115,6 +115,12 @@ public class DefaultWebMapService
     /** Use a global rendering pool, or use a new pool each time */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /** Max number of threads a single GetMap can use to render layers in parallel */
+    private static Integer PARALLEL_RENDERING_THREADS = null;
+
+    /** Profile all GetMap requests, or only the ones asking for it */
+    private static Boolean RENDERING_PROFILE = null;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
@@ -193,6 +199,22 @@ public class DefaultWebMapService
             if (usePool == null) USE_GLOBAL_RENDERING_POOL = true;
             else USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // per request thread budget for parallel layer rendering
+        if (PARALLEL_RENDERING_THREADS == null) {
+            String threads = GeoServerExtensions.getProperty("PARALLEL_RENDERING_THREADS", context);
+            // default to 0, parallel layer rendering is disabled
+            if (threads == null) PARALLEL_RENDERING_THREADS = 0;
+            else PARALLEL_RENDERING_THREADS = Integer.valueOf(threads);
+        }
+
+        // rendering profile for all requests
+        if (RENDERING_PROFILE == null) {
+            String profile = GeoServerExtensions.getProperty("RENDERING_PROFILE", context);
+            // default to false, only requests using the profile format option are profiled
+            if (profile == null) RENDERING_PROFILE = false;
+            else RENDERING_PROFILE = Boolean.valueOf(profile);
+        }
     }
 
     /**
@@ -211,6 +233,22 @@ public class DefaultWebMapService
         return MAX_FILTER_RULES;
     }
 
+    /**
+     * Returns the max number of threads a single GetMap request can use to render its layers in
+     * parallel (defaults to 0, values lower than 2 disable parallel layer rendering)
+     */
+    public static int getParallelRenderingThreads() {
+        return PARALLEL_RENDERING_THREADS == null ? 0 : PARALLEL_RENDERING_THREADS;
+    }
+
+    /**
+     * If true all GetMap requests are profiled, otherwise only the ones using the profile format
+     * option (defaults to false)
+     */
+    public static boolean isRenderingProfileEnabled() {
+        return RENDERING_PROFILE != null && RENDERING_PROFILE;
+    }
+
     /** If true (default) the direct raster rendering path is enabled */
     public static boolean isDirectRasterPathEnabled() {
         return !BYPASS_DIRECT;
@@ -100,6 +100,30 @@ public class FeatureInfoRequestParameters {
         this.propertyNames = request.getPropertyNames();
     }
 
+    /** Copy constructor, shares the request derived information and positions on the given layer */
+    private FeatureInfoRequestParameters(FeatureInfoRequestParameters other, int layerIndex) {
+        this.layers = other.layers;
+        this.filters = other.filters;
+        this.sorts = other.sorts;
+        this.styles = other.styles;
+        this.x = other.x;
+        this.y = other.y;
+        this.buffer = other.buffer;
+        this.viewParams = other.viewParams;
+        this.getMapReq = other.getMapReq;
+        this.requestedCRS = other.requestedCRS;
+        this.maxFeatures = other.maxFeatures;
+        this.width = other.width;
+        this.height = other.height;
+        this.bbox = other.bbox;
+        this.scaleDenominator = other.scaleDenominator;
+        this.elevations = other.elevations;
+        this.times = other.times;
+        this.ff = other.ff;
+        this.propertyNames = other.propertyNames;
+        this.currentLayer = layerIndex;
+    }
+
     private double getScaleDenominator(GetMapRequest request) {
         final Envelope envelope = request.getBbox();
         final CoordinateReferenceSystem mapcrs = request.getCrs();
@@ -156,6 +180,15 @@ public class FeatureInfoRequestParameters {
         currentLayer++;
     }
 
+    /**
+     * Returns a copy of these parameters positioned on the specified layer, allowing layers to be
+     * identified concurrently. The information computed from the request (bounds, scale, styles)
+     * is shared, not recomputed.
+     */
+    FeatureInfoRequestParameters forLayer(int layerIndex) {
+        return new FeatureInfoRequestParameters(this, layerIndex);
+    }
+
     /** Returns the current layer */
     public MapLayerInfo getLayer() {
         return layers.get(currentLayer);
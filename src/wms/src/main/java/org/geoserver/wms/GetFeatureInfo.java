@@ -9,27 +9,67 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import net.opengis.wfs.FeatureCollectionType;
 import net.opengis.wfs.WfsFactory;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wms.featureinfo.FeatureCollectionDecorator;
 import org.geoserver.wms.featureinfo.LayerIdentifier;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.Query;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.store.MaxFeaturesFeatureCollection;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.NameImpl;
+import org.geotools.feature.collection.MaxSimpleFeatureCollection;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.Filter;
+import org.springframework.beans.factory.DisposableBean;
 
 /**
  * WMS GetFeatureInfo operation
  *
+ * <p>When more than one layer is queried, and the parallelism is greater than one, the layers are
+ * identified concurrently, using at most {@link #getParallelism()} threads per request. The
+ * results are still assembled in the order of the query layers, and the layers not yet identified
+ * are skipped as soon as FEATURE_COUNT is satisfied.
+ *
  * @author Gabriel Roldan
  */
-public class GetFeatureInfo {
+public class GetFeatureInfo implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(GetFeatureInfo.class);
+
+    /**
+     * Variable used to configure the maximum number of layers identified in parallel by a single
+     * request. Defaults to 1, sequential identification
+     */
+    public static final String PARALLELISM_PROPERTY = "WMS_GFI_PARALLELISM";
+
+    /** Variable used to configure the maximum number of identification threads, overall */
+    public static final String MAX_THREADS_PROPERTY = "WMS_GFI_MAX_THREADS";
+
+    Integer parallelism;
+
+    int maxThreads = Runtime.getRuntime().availableProcessors() * 4;
+
+    ThreadPoolExecutor executor;
 
     @SuppressWarnings({"unchecked", "rawtypes"})
     public FeatureCollectionType run(final GetFeatureInfoRequest request) throws ServiceException {
@@ -60,11 +100,16 @@ public class GetFeatureInfo {
     private List<FeatureCollection> execute(GetFeatureInfoRequest request) throws Exception {
         final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
         FeatureInfoRequestParameters requestParams = new FeatureInfoRequestParameters(request);
+        List<LayerIdentifier> identifiers = GeoServerExtensions.extensions(LayerIdentifier.class);
+
+        int parallelism = Math.min(getParallelism(), requestedLayers.size());
+        if (parallelism > 1) {
+            return executeParallel(request, requestParams, identifiers, parallelism);
+        }
 
         List<FeatureCollection> results = new ArrayList<FeatureCollection>(requestedLayers.size());
 
         int maxFeatures = request.getFeatureCount();
-        List<LayerIdentifier> identifiers = GeoServerExtensions.extensions(LayerIdentifier.class);
         for (int i = 0; i < requestedLayers.size(); i++) {
             final MapLayerInfo layer = requestedLayers.get(i);
             try {
@@ -93,6 +138,262 @@ public class GetFeatureInfo {
         return results;
     }
 
+    /**
+     * Identifies the layers concurrently. Each layer is identified with the full FEATURE_COUNT, as
+     * the number of features found in the layers above it is not known yet, the collections are
+     * then trimmed while assembling the results in query layer order.
+     */
+    @SuppressWarnings("rawtypes")
+    private List<FeatureCollection> executeParallel(
+            GetFeatureInfoRequest request,
+            FeatureInfoRequestParameters requestParams,
+            List<LayerIdentifier> identifiers,
+            int parallelism)
+            throws Exception {
+        final List<MapLayerInfo> requestedLayers = request.getQueryLayers();
+        ParallelIdentification identification =
+                new ParallelIdentification(
+                        requestParams, identifiers, request.getFeatureCount(), parallelism);
+        try {
+            identification.start();
+
+            List<FeatureCollection> results =
+                    new ArrayList<FeatureCollection>(requestedLayers.size());
+            int maxFeatures = request.getFeatureCount();
+            for (int i = 0; i < requestedLayers.size() && maxFeatures > 0; i++) {
+                final MapLayerInfo layer = requestedLayers.get(i);
+                try {
+                    List<FeatureCollection> identifiedCollections = identification.getResult(i);
+                    if (identifiedCollections != null) {
+                        FeatureInfoRequestParameters params = requestParams.forLayer(i);
+                        for (FeatureCollection identifierCollection : identifiedCollections) {
+                            if (maxFeatures <= 0) {
+                                break;
+                            }
+                            FeatureCollection fc =
+                                    limit(
+                                            selectProperties(params, identifierCollection),
+                                            maxFeatures);
+                            maxFeatures = addToResults(fc, results, layer, request, maxFeatures);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new ServiceException(
+                            "Failed to run GetFeatureInfo on layer " + layer.getName(), e);
+                }
+            }
+            return results;
+        } finally {
+            // stops the workers from picking up new layers, either we have enough features or
+            // we are failing
+            identification.stop();
+        }
+    }
+
+    /**
+     * Limits the collection to the given number of features, used by the parallel identification
+     * only, where each layer is identified with the full FEATURE_COUNT. The collection is wrapped
+     * rather than counted, as counting might cost as much as a second query
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private FeatureCollection limit(FeatureCollection collection, int maxFeatures) {
+        if (collection == null) {
+            return null;
+        } else if (collection instanceof SimpleFeatureCollection) {
+            SimpleFeatureCollection simple = (SimpleFeatureCollection) collection;
+            return new MaxSimpleFeatureCollection(simple, maxFeatures);
+        } else {
+            return new MaxFeaturesFeatureCollection(collection, maxFeatures);
+        }
+    }
+
+    /**
+     * Returns the maximum number of layers identified in parallel by a single request, as
+     * configured, or as read from the {@link #PARALLELISM_PROPERTY} variable
+     */
+    public int getParallelism() {
+        if (parallelism == null) {
+            parallelism = readIntProperty(PARALLELISM_PROPERTY, 1);
+        }
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of layers identified in parallel by a single request, a value of 1
+     * or less disables parallel identification
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /** Returns the maximum number of threads used for layer identification, across all requests */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Sets the maximum number of threads used for layer identification, across all requests. When
+     * all are busy, the layers are identified in the request thread instead
+     */
+    public synchronized void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+        if (executor != null) {
+            executor.setMaximumPoolSize(Math.max(1, maxThreads));
+        }
+    }
+
+    private int readIntProperty(String name, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            maxThreads = readIntProperty(MAX_THREADS_PROPERTY, maxThreads);
+            // no queue, when all threads are busy the request thread does the work
+            executor =
+                    new ThreadPoolExecutor(
+                            0,
+                            Math.max(1, maxThreads),
+                            60L,
+                            TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(),
+                            new ThreadFactory() {
+                                AtomicInteger counter = new AtomicInteger();
+
+                                @Override
+                                public Thread newThread(Runnable r) {
+                                    Thread thread =
+                                            new Thread(
+                                                    r,
+                                                    "wms-getfeatureinfo-"
+                                                            + counter.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+        }
+        return executor;
+    }
+
+    @Override
+    public synchronized void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Identifies the layers of a single request using a bounded number of workers. Each worker
+     * picks the next layer to identify in query order, so that the top layers, the ones more
+     * likely to satisfy FEATURE_COUNT, are identified first.
+     */
+    @SuppressWarnings("rawtypes")
+    private class ParallelIdentification {
+
+        final FeatureInfoRequestParameters requestParams;
+
+        final List<LayerIdentifier> identifiers;
+
+        final int featureCount;
+
+        final int workers;
+
+        final List<CompletableFuture<List<FeatureCollection>>> results;
+
+        final AtomicInteger nextLayer = new AtomicInteger();
+
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        ParallelIdentification(
+                FeatureInfoRequestParameters requestParams,
+                List<LayerIdentifier> identifiers,
+                int featureCount,
+                int workers) {
+            this.requestParams = requestParams;
+            this.identifiers = identifiers;
+            this.featureCount = featureCount;
+            this.workers = workers;
+            int layers = requestParams.layers.size();
+            this.results = new ArrayList<>(layers);
+            for (int i = 0; i < layers; i++) {
+                results.add(new CompletableFuture<>());
+            }
+        }
+
+        void start() {
+            ExecutorService executor = getExecutor();
+            final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+            for (int i = 0; i < workers; i++) {
+                try {
+                    executor.execute(
+                            () -> {
+                                try {
+                                    transfer.apply();
+                                    identifyLayers(null);
+                                } finally {
+                                    transfer.cleanup();
+                                    CRS.cleanupThreadLocals();
+                                }
+                            });
+                } catch (RejectedExecutionException e) {
+                    // pool saturated, the request thread will pick up the slack while
+                    // waiting for the results
+                    LOGGER.log(Level.FINE, "GetFeatureInfo pool saturated", e);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Identifies layers until there are none left, or the identification is stopped, or the
+         * awaited result (if not null) is available
+         */
+        void identifyLayers(CompletableFuture<?> awaited) {
+            int i;
+            while (!stopped.get()
+                    && (awaited == null || !awaited.isDone())
+                    && (i = nextLayer.getAndIncrement()) < results.size()) {
+                CompletableFuture<List<FeatureCollection>> result = results.get(i);
+                try {
+                    FeatureInfoRequestParameters params = requestParams.forLayer(i);
+                    LayerIdentifier identifier = getLayerIdentifier(params.getLayer(), identifiers);
+                    result.complete(identifier.identify(params, featureCount));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            }
+        }
+
+        List<FeatureCollection> getResult(int layerIndex) throws Exception {
+            CompletableFuture<List<FeatureCollection>> result = results.get(layerIndex);
+            // identify in the request thread as well, instead of idling (this also takes care
+            // of the case where the pool was saturated)
+            identifyLayers(result);
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw new ServiceException(cause);
+            }
+        }
+
+        void stop() {
+            stopped.set(true);
+        }
+    }
+
     private LayerIdentifier getLayerIdentifier(
             MapLayerInfo layer, List<LayerIdentifier> identifiers) {
         for (LayerIdentifier identifier : identifiers) {
@@ -8,6 +8,7 @@ package org.geoserver.wms;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.legendgraphic.BufferedImageLegendGraphic;
+import org.geoserver.wms.legendgraphic.LegendGraphicCache;
 
 /**
  * WMS GetLegendGraphic operation default implementation.
@@ -18,10 +19,17 @@ public class GetLegendGraphic {
 
     private final WMS wms;
 
+    private LegendGraphicCache legendCache;
+
     public GetLegendGraphic(final WMS wms) {
         this.wms = wms;
     }
 
+    /** Sets the cache used to avoid rebuilding the same legends over and over */
+    public void setLegendCache(LegendGraphicCache legendCache) {
+        this.legendCache = legendCache;
+    }
+
     /**
      * Produces a representation of the map's legend graphic given by the {@code request} by means
      * of a {@link GetLegendGraphicOutputFormat}.
@@ -45,7 +53,17 @@ public class GetLegendGraphic {
                     "There is no support for creating legends in " + outputFormat + " format",
                     "InvalidFormat");
         }
+        Object key = legendCache != null ? legendCache.getKey(request) : null;
+        if (key != null) {
+            Object legend = legendCache.getLegend(key);
+            if (legend != null) {
+                return legend;
+            }
+        }
         Object legend = format.produceLegendGraphic(request);
+        if (key != null) {
+            legendCache.putLegend(key, legend);
+        }
         return legend;
     }
 }
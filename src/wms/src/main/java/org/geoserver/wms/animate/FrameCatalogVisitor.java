@@ -11,18 +11,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
 import javax.media.jai.RenderedImageList;
 import org.apache.commons.beanutils.BeanUtils;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.util.CaseInsensitiveMap;
 import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
@@ -31,26 +29,38 @@ import org.geoserver.wms.WebMapService;
 import org.geoserver.wms.map.GetMapKvpRequestReader;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geoserver.wms.map.StreamingRenderedImageList;
+import org.geotools.util.logging.Logging;
 
 /**
  * The Frame Visitor contains the logic to produce frame images.<br>
- * The "visit" method initializes the runnables and the animatorExecutor service, while the
- * "produce" method runs the tasks and generated the frames images.
+ * The "visit" method collects the frame loaders, while the "produce" method returns a list of
+ * frames rendered on demand by the animatorExecutor service, at most {@link #FRAMES_WINDOW} frames
+ * ahead of the encoder consuming them.
  *
  * @author Alessio Fabiani, GeoSolutions S.A.S., alessio.fabiani@geo-solutions.it
  * @author Andrea Aime, GeoSolutions S.A.S., andrea.aime@geo-solutions.it
  */
 public class FrameCatalogVisitor {
 
+    static final Logger LOGGER = Logging.getLogger(FrameCatalogVisitor.class);
+
+    /**
+     * Max number of frames being rendered, or rendered and waiting to be encoded, for a single
+     * animation
+     */
+    public static final String FRAMES_WINDOW = "ANIMATOR_FRAMES_WINDOW";
+
+    static final int DEFAULT_FRAMES_WINDOW = 4;
+
     /** total number of available frames for this visitor */
     int framesNumber;
 
-    /** the list of runnables to be executed */
-    List<Future<RenderedImage>> tasks;
+    /** the list of frame loaders to be executed */
+    List<Callable<RenderedImage>> loaders;
 
     /**
-     * Adds a new visitor to the runnables list and initializes the animatorExecutor service is not
-     * yet initialied.
+     * Adds a new frame loader to the list
      *
      * @param request
      * @param wms
@@ -64,65 +74,61 @@ public class FrameCatalogVisitor {
             WMS wmsConfiguration,
             String aparam,
             String avalue) {
-        if (this.tasks == null) {
-            this.tasks = new LinkedList<Future<RenderedImage>>();
+        if (this.loaders == null) {
+            this.loaders = new ArrayList<Callable<RenderedImage>>();
         }
 
-        FrameLoader loader = new FrameLoader(request, wms, wmsConfiguration, aparam, avalue);
-
-        final FutureTask<RenderedImage> task = new FutureTask<RenderedImage>(loader);
-        this.tasks.add(task);
+        this.loaders.add(new FrameLoader(request, wms, wmsConfiguration, aparam, avalue));
         this.framesNumber++;
-
-        // run the loading in this thread
-        wmsConfiguration.getAnimatorExecutorService().execute(task);
     }
 
     /**
-     * Invokes the Executor service and produces the frames images.
+     * Returns the list of frames, rendered on demand by the animatorExecutor service while the
+     * list is being read. The first frame is rendered before returning, in order to report
+     * rendering errors and check the max rendering size before the animation encoding starts.
+     * Frames whose loader returns null are skipped, if all of them do the list is empty.
      *
      * @param wmsConfiguration
      * @throws IOException
      */
     public RenderedImageList produce(WMS wmsConfiguration) throws IOException {
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
+        if (loaders == null || loaders.isEmpty()) {
+            dispose();
+            throw new IOException("Empty list of frames.");
+        }
 
-        long gifAnimatedSize = 0;
+        StreamingRenderedImageList frames =
+                new StreamingRenderedImageList(
+                        loaders, wmsConfiguration.getAnimatorExecutorService(), getFramesWindow());
+        dispose();
 
-        for (Future<RenderedImage> future : tasks) {
-            RenderedImage image = null;
-            try {
-                image = future.get();
-            } catch (InterruptedException e) {
-                dispose();
-                throw new IOException(e);
-            } catch (ExecutionException e) {
-                dispose();
-                throw new IOException(e);
-            }
+        // the first non null frame, the null ones are skipped
+        RenderedImage first = (RenderedImage) frames.get(0);
+        if (first == null) {
+            frames.close();
+            throw new IOException("Empty list of frames.");
+        }
+        // the frames share the same size and structure, estimate the total from the first one
+        Long maxRenderingSize = wmsConfiguration.getMaxRenderingSize();
+        if (maxRenderingSize != null
+                && getImageSizeInBytes(first) * frames.size() >= maxRenderingSize) {
+            frames.close();
+            throw new IOException("Max rendering size exceed!");
+        }
 
-            if (image == null) {
-                continue;
-            }
+        return frames;
+    }
 
-            // collect the images
-            gifAnimatedSize += getImageSizeInBytes(image);
-            if (wmsConfiguration.getMaxRenderingSize() != null
-                    && gifAnimatedSize >= wmsConfiguration.getMaxRenderingSize()) {
-                dispose();
-                throw new IOException("Max rendering size exceed!");
+    private int getFramesWindow() {
+        String value = GeoServerExtensions.getProperty(FRAMES_WINDOW);
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + FRAMES_WINDOW + ": " + value);
             }
-
-            images.add(image);
         }
-
-        if (images == null || images.size() == 0) {
-            dispose();
-            throw new IOException("Empty list of frames.");
-        }
-
-        dispose();
-        return new RenderedImageList(images);
+        return DEFAULT_FRAMES_WINDOW;
     }
 
     private long getImageSizeInBytes(RenderedImage image) {
@@ -134,13 +140,11 @@ public class FrameCatalogVisitor {
         return (long) Math.ceil(2 * tileWidth * tileLength * numBands * (sampleSize[0] / 8.0));
     }
 
-    /** Suddenly stops the Executor service and clear instantiated visitors. */
+    /** Clears the collected frame loaders. */
     private void dispose() {
         this.framesNumber = 0;
 
-        if (this.tasks != null) this.tasks.clear();
-
-        this.tasks = null;
+        this.loaders = null;
     }
 }
 
@@ -255,6 +255,12 @@ public class VectorRenderingLayerIdentifier extends AbstractVectorLayerIdentifie
                 return graphics;
             }
 
+            @Override
+            protected int getParallelRenderingThreads(WMSMapContent mapContent) {
+                // the listener needs to check what gets painted on the single graphics
+                return 0;
+            }
+
             @Override
             protected void onBeforeRender(StreamingRenderer renderer) {
                 // force the renderer into serial painting mode, as we need to check what
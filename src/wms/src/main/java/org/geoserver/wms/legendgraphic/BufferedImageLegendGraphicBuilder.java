@@ -20,6 +20,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
 import org.geoserver.catalog.LegendInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetLegendGraphicRequest;
 import org.geoserver.wms.GetLegendGraphicRequest.LegendRequest;
@@ -507,7 +508,11 @@ public class BufferedImageLegendGraphicBuilder extends LegendGraphicBuilder {
             return null; // should log this!
         }
         try {
-            BufferedImage image = ImageIO.read(url);
+            BufferedImage image = readExternalImage(url);
+            if (image == null) {
+                LOGGER.fine("Unable to decode legend graphic: " + url);
+                return null;
+            }
 
             if (image.getWidth() == w && image.getHeight() == h) {
                 return image;
@@ -532,6 +537,15 @@ public class BufferedImageLegendGraphicBuilder extends LegendGraphicBuilder {
         }
     }
 
+    /** Reads an external legend image, going through the legend cache if available */
+    private BufferedImage readExternalImage(URL url) throws IOException {
+        LegendGraphicCache cache = GeoServerExtensions.bean(LegendGraphicCache.class);
+        if (cache != null) {
+            return cache.getExternalImage(url);
+        }
+        return ImageIO.read(url);
+    }
+
     /**
      * Receives a list of <code>BufferedImages</code> and produces a new one which holds all the
      * images in <code>imageStack</code> one above the other, handling labels.
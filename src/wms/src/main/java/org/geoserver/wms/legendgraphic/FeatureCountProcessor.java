@@ -25,6 +25,7 @@ import org.geoserver.wms.GetLegendGraphicRequest.LegendRequest;
 import org.geoserver.wms.GetMap;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.map.GetMapKvpRequestReader;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
 import org.geotools.factory.CommonFactoryFinder;
@@ -112,6 +113,12 @@ class FeatureCountProcessor {
             return new NoOpGraphics2D();
         }
 
+        @Override
+        protected int getParallelRenderingThreads(WMSMapContent mapContent) {
+            // nothing gets painted, there is no point in splitting the work
+            return 0;
+        }
+
         @Override
         protected void onBeforeRender(StreamingRenderer renderer) {
             super.onBeforeRender(renderer);
@@ -0,0 +1,290 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.GetLegendGraphicRequest.LegendRequest;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Caches the legend graphics produced by GetLegendGraphic, keyed by the normalized request
+ * parameters along with the layers and styles the request resolved to and the public base URL, and
+ * the external legend images referenced by the layers and styles {@link
+ * org.geoserver.catalog.LegendInfo}.
+ *
+ * <p>Legends depend only on the configuration, so the legend cache is flushed on any change
+ * affecting styles, layers, layer groups or resources. Requests using SLD or SLD_BODY, and
+ * requests counting the matched features, are not cached. The external legend images are not
+ * under GeoServer control, and expire after a configurable amount of time instead.
+ *
+ * <p>Both caches are bounded in memory by the {@link #LEGEND_CACHE_SIZE} global variable, in
+ * megabytes, zero disables them. The external images expiration is set in seconds by the {@link
+ * #LEGEND_CACHE_EXTERNAL_TIMEOUT} global variable.
+ */
+public class LegendGraphicCache implements CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(LegendGraphicCache.class);
+
+    /** Max memory used by each cache, in megabytes */
+    public static final String LEGEND_CACHE_SIZE = "LEGEND_CACHE_SIZE";
+
+    /** Expiration of the cached external legend images, in seconds */
+    public static final String LEGEND_CACHE_EXTERNAL_TIMEOUT = "LEGEND_CACHE_EXTERNAL_TIMEOUT";
+
+    static final int DEFAULT_SIZE = 16;
+
+    static final int DEFAULT_EXTERNAL_TIMEOUT = 600;
+
+    /** Weight of legends that are not images, it's a rough guess, they are small anyways */
+    static final int DEFAULT_WEIGHT = 4096;
+
+    /** Parameters that do not affect the legend */
+    static final List<String> IGNORED_PARAMETERS = Arrays.asList("SERVICE", "REQUEST");
+
+    private static final Weigher<Object, Object> WEIGHER =
+            (key, value) -> {
+                Object legend = value;
+                if (value instanceof LegendGraphic) {
+                    legend = ((LegendGraphic) value).getLegend();
+                }
+                if (legend instanceof BufferedImage) {
+                    BufferedImage image = (BufferedImage) legend;
+                    long size = (long) image.getWidth() * image.getHeight() * 4;
+                    return (int) Math.min(Integer.MAX_VALUE, size);
+                }
+                return DEFAULT_WEIGHT;
+            };
+
+    private final Catalog catalog;
+
+    private final Cache<Object, Object> legends;
+
+    private final Cache<Object, Object> externalImages;
+
+    private final boolean enabled;
+
+    public LegendGraphicCache(Catalog catalog) {
+        this(
+                catalog,
+                getIntProperty(LEGEND_CACHE_SIZE, DEFAULT_SIZE),
+                getIntProperty(LEGEND_CACHE_EXTERNAL_TIMEOUT, DEFAULT_EXTERNAL_TIMEOUT));
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param catalog The catalog whose changes flush the legend cache
+     * @param size The max memory used by each cache, in megabytes, zero disables caching
+     * @param externalTimeout The expiration of the external legend images, in seconds
+     */
+    public LegendGraphicCache(Catalog catalog, int size, int externalTimeout) {
+        this.catalog = catalog;
+        this.enabled = size > 0;
+        long weight = Math.max(0, size) * 1024L * 1024L;
+        this.legends = CacheBuilder.newBuilder().maximumWeight(weight).weigher(WEIGHER).build();
+        this.externalImages =
+                CacheBuilder.newBuilder()
+                        .maximumWeight(weight)
+                        .weigher(WEIGHER)
+                        .expireAfterWrite(externalTimeout, TimeUnit.SECONDS)
+                        .build();
+        if (catalog != null) {
+            catalog.addListener(this);
+        }
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value + ", using default");
+            }
+        }
+        return defaultValue;
+    }
+
+    /** Returns true if caching is enabled */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cache key for the given request, or null if the request legend cannot be cached
+     */
+    public Object getKey(GetLegendGraphicRequest request) {
+        Map<String, String> rawKvp = request.getRawKvp();
+        if (!enabled || rawKvp == null) {
+            return null;
+        }
+        Map<String, Object> parameters = new TreeMap<>();
+        for (Map.Entry<String, String> entry : rawKvp.entrySet()) {
+            String name = entry.getKey().toUpperCase();
+            if (!IGNORED_PARAMETERS.contains(name)) {
+                parameters.put(name, entry.getValue());
+            }
+        }
+        // not cacheable, the style is not part of the configuration, or the legend depends on data
+        if (parameters.containsKey("SLD")
+                || parameters.containsKey("SLD_BODY")
+                || Boolean.TRUE.equals(
+                        request.getLegendOption(
+                                GetLegendGraphicRequest.COUNT_MATCHED_KEY, Boolean.class))) {
+            return null;
+        }
+        // the layers and styles the request resolved to, they depend on the workspace the
+        // request was made against, and on what the current user is allowed to see
+        List<Object> layers = new ArrayList<>();
+        for (LegendRequest legend : request.getLegends()) {
+            layers.add(
+                    Arrays.asList(
+                            legend.getLayerName(),
+                            legend.getLayer(),
+                            legend.getStyleName(),
+                            legend.getRule()));
+        }
+        // legends can link back to GeoServer (e.g., the graphics in JSON legends), the links
+        // depend on the URL the request was made against and on the proxy configuration
+        String baseUrl = request.getBaseUrl();
+        String publicUrl = null;
+        if (baseUrl != null) {
+            publicUrl = ResponseUtils.buildURL(baseUrl, "", null, URLType.RESOURCE);
+        }
+        return Arrays.asList(parameters, layers, request.getLocale(), publicUrl);
+    }
+
+    /** Returns the cached legend for the given key, or null if not found */
+    public Object getLegend(Object key) {
+        return legends.getIfPresent(key);
+    }
+
+    /** Caches the legend for the given key */
+    public void putLegend(Object key, Object legend) {
+        if (legend != null) {
+            legends.put(key, legend);
+        }
+    }
+
+    /**
+     * Returns the external legend image at the given URL, downloading it only if not found in the
+     * cache
+     *
+     * @return the image, or null if the URL contents could not be decoded as an image
+     */
+    public BufferedImage getExternalImage(URL url) throws IOException {
+        String key = url.toExternalForm();
+        BufferedImage image = (BufferedImage) externalImages.getIfPresent(key);
+        if (image == null) {
+            image = ImageIO.read(url);
+            if (image != null && enabled) {
+                externalImages.put(key, image);
+            }
+        }
+        return image;
+    }
+
+    /** Returns the number of cached legends */
+    long size() {
+        return legends.size();
+    }
+
+    /** Drops all the cached legends and external images */
+    public void clear() {
+        legends.invalidateAll();
+        externalImages.invalidateAll();
+    }
+
+    private void handleEvent(CatalogEvent event) {
+        Object source = event.getSource();
+        if (source instanceof StyleInfo
+                || source instanceof LayerInfo
+                || source instanceof LayerGroupInfo
+                || source instanceof ResourceInfo) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Flushing the legend cache due to a change in " + source);
+            }
+            legends.invalidateAll();
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // a new layer can change the meaning of an unqualified layer name
+        handleEvent(event);
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        handleEvent(event);
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        handleEvent(event);
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+        if (catalog != null) {
+            catalog.removeListener(this);
+        }
+    }
+
+    @Override
+    public void beforeReload() {}
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
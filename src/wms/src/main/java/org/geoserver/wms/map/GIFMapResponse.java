@@ -13,9 +13,7 @@ import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.IIOImage;
@@ -170,7 +168,8 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
         param.setCompressionQuality(0.75f);
 
         ImageOutputStream otStream = null;
-        List<RenderedImage> images = new ArrayList<RenderedImage>();
+        // the primary image of the list, disposed only once the list is not used anymore
+        RenderedImage firstFrame = null;
         try {
             otStream = ImageIO.createImageOutputStream(outStream);
             gifWriter.setOutput(otStream);
@@ -216,8 +215,11 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
             //
             for (int i = 0; i < numfiles; i++) {
                 if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Writing image " + i);
-                // get the image
+                // get the image, frames might be rendered on demand
                 RenderedImage ri = (RenderedImage) ril.get(i);
+                if (ri == null) {
+                    continue;
+                }
                 // convert it to gif compatible
                 ri = applyPalette(ri, mapContent, MIME_TYPE, false);
                 if (ri != null) {
@@ -228,7 +230,13 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
 
                     // write
                     gifWriter.writeToSequence(new IIOImage(ri, null, imageMetadata), param);
-                    images.add(ri);
+
+                    // let go of the image chain as soon as possible to free memory
+                    if (i == 0) {
+                        firstFrame = ri;
+                    } else {
+                        disposeImage(ri);
+                    }
                 }
             }
 
@@ -256,19 +264,26 @@ public final class GIFMapResponse extends RenderedImageMapResponse {
                 // swallow
             }
 
-            // let go of the image chain as soon as possible to free memory
-            for (RenderedImage image : images) {
-                if (image instanceof PlanarImage) {
-                    ImageUtilities.disposePlanarImageChain((PlanarImage) image);
-                } else if (image instanceof BufferedImage) {
-                    ((BufferedImage) image).flush();
-                }
+            // stop rendering frames that won't be used, in case of errors
+            if (ril instanceof StreamingRenderedImageList) {
+                ((StreamingRenderedImageList) ril).close();
+            }
+            if (firstFrame != null) {
+                disposeImage(firstFrame);
             }
         }
 
         if (LOGGER.isLoggable(Level.FINE)) LOGGER.fine("Done writing animated gif");
     }
 
+    private void disposeImage(RenderedImage image) {
+        if (image instanceof PlanarImage) {
+            ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+        } else if (image instanceof BufferedImage) {
+            ((BufferedImage) image).flush();
+        }
+    }
+
     public String getContentDisposition() {
         // can be null
         return null;
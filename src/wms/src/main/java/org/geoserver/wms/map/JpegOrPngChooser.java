@@ -4,13 +4,10 @@
  */
 package org.geoserver.wms.map;
 
-import java.awt.RenderingHints;
+import java.awt.image.ColorModel;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
-import javax.media.jai.RenderedOp;
-import javax.media.jai.operator.ExtremaDescriptor;
 import org.geoserver.wms.WMSMapContent;
-import org.geotools.image.util.ImageUtilities;
 
 /**
  * A support object attaching itself to the WebMapContent and deciding which format should be used
@@ -40,7 +37,9 @@ public class JpegOrPngChooser {
     public static JpegOrPngChooser getFromMapContent(RenderedImage image, WMSMapContent ctx) {
         JpegOrPngChooser chooser = (JpegOrPngChooser) ctx.getMetadata().get(JPEG_PNG_CHOOSER);
         if (chooser == null) {
-            chooser = new JpegOrPngChooser(image);
+            boolean opaque =
+                    Boolean.TRUE.equals(ctx.getMetadata().get(TransparencyScanner.OPAQUE_KEY));
+            chooser = new JpegOrPngChooser(image, opaque);
             ctx.getMetadata().put(JPEG_PNG_CHOOSER, chooser);
         }
         return chooser;
@@ -49,7 +48,18 @@ public class JpegOrPngChooser {
     boolean jpegPreferred;
 
     public JpegOrPngChooser(RenderedImage image) {
-        this.jpegPreferred = isBestFormatJpeg(image);
+        this(image, false);
+    }
+
+    /**
+     * Builds a chooser for the given image
+     *
+     * @param image The image to be encoded
+     * @param knownOpaque True if the image is known to be fully opaque, allows to skip the
+     *     transparency scan
+     */
+    public JpegOrPngChooser(RenderedImage image, boolean knownOpaque) {
+        this.jpegPreferred = isBestFormatJpeg(image, knownOpaque);
     }
 
     /**
@@ -74,28 +84,26 @@ public class JpegOrPngChooser {
     }
 
     /**
-     * Returns true if the best format to encode the image is jpeg (the image is rgb, or rgba
-     * without any actual transparency use)
+     * Returns true if the best format to encode the image is jpeg (the image is rgb, or rgba or
+     * paletted without any actual transparency use)
      *
      * @param renderedImage
-     * @param renderingHints
+     * @param knownOpaque
      * @return
      */
-    private boolean isBestFormatJpeg(RenderedImage renderedImage) {
+    private boolean isBestFormatJpeg(RenderedImage renderedImage, boolean knownOpaque) {
         int numBands = renderedImage.getSampleModel().getNumBands();
+        ColorModel cm = renderedImage.getColorModel();
         if (numBands == 4 || numBands == 2) {
-            RenderingHints renderingHints = ImageUtilities.getRenderingHints(renderedImage);
-            RenderedOp extremaOp =
-                    ExtremaDescriptor.create(renderedImage, null, 1, 1, false, 1, renderingHints);
-            double[][] extrema = (double[][]) extremaOp.getProperty("Extrema");
-            double[] mins = extrema[0];
-
-            return mins[mins.length - 1] == 255; // fully opaque
-        } else if (renderedImage.getColorModel() instanceof IndexColorModel) {
-            // JPEG would still compress a bit better, but in order to figure out
-            // if the image has transparency we'd have to expand to RGB or roll
-            // a new JAI image op that looks for the transparent pixels. Out of scope for the moment
-            return false;
+            if (cm != null && !cm.hasAlpha()) {
+                // not a gray/rgb image with alpha, jpeg cannot encode it
+                return false;
+            }
+            return knownOpaque || TransparencyScanner.isOpaque(renderedImage);
+        } else if (cm instanceof IndexColorModel) {
+            // the scan stops at the first transparent pixel, and is skipped altogether
+            // if the palette has no transparent entries
+            return knownOpaque || TransparencyScanner.isOpaque(renderedImage);
         } else {
             // otherwise support RGB or gray
             return (numBands == 3) || (numBands == 1);
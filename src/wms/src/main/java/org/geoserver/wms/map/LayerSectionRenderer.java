@@ -0,0 +1,180 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.wms.map.ParallelLayerRenderer.RecordingLabelCache;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.LabelCache;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A renderer painting each layer in its own section, handing over each section to a {@link
+ * SectionHandler} as soon as the layer is painted, so that vector outputs can write it out and
+ * release it, instead of accumulating the whole map in memory.
+ *
+ * <p>Labels are not painted in the layer sections, their label cache calls are recorded instead,
+ * and replayed into a single label cache after all layers are painted, so that label conflict
+ * resolution works across the whole map. The labels are then painted on the graphics passed to
+ * {@link #paint(Graphics2D, Rectangle, ReferencedEnvelope, AffineTransform)}, which makes up the
+ * last section of the map.
+ *
+ * <p>Render listeners and {@link #stopRendering()} are propagated to the layer renderers, so the
+ * usual {@link MaxErrorEnforcer} and {@link RenderExceptionStrategy} can be used against this
+ * renderer.
+ */
+public class LayerSectionRenderer extends StreamingRenderer {
+
+    static final Logger LOGGER = Logging.getLogger(LayerSectionRenderer.class);
+
+    /** Provides the graphics each layer is painted onto, and writes them out once painted */
+    public interface SectionHandler {
+
+        /** Returns the graphics the layer is going to be painted onto */
+        Graphics2D startSection(Layer layer) throws IOException;
+
+        /** Called once the layer has been painted, the section can be written out and released */
+        void endSection(Layer layer, Graphics2D graphics) throws IOException;
+    }
+
+    private final Supplier<StreamingRenderer> rendererBuilder;
+
+    private final SectionHandler handler;
+
+    private final List<RenderListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile StreamingRenderer current;
+
+    private volatile LabelCache labelCache;
+
+    private volatile boolean stopped;
+
+    /**
+     * Builds a new section renderer
+     *
+     * @param rendererBuilder Builds the renderers painting the single layers
+     * @param handler Provides the graphics for the layers, and writes them out once painted
+     */
+    public LayerSectionRenderer(
+            Supplier<StreamingRenderer> rendererBuilder, SectionHandler handler) {
+        this.rendererBuilder = rendererBuilder;
+        this.handler = handler;
+    }
+
+    @Override
+    public void addRenderListener(RenderListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeRenderListener(RenderListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void stopRendering() {
+        stopped = true;
+        super.stopRendering();
+        StreamingRenderer renderer = current;
+        if (renderer != null) {
+            renderer.stopRendering();
+        }
+        LabelCache cache = labelCache;
+        if (cache != null) {
+            cache.stop();
+        }
+    }
+
+    @Override
+    public void paint(
+            Graphics2D graphics,
+            Rectangle paintArea,
+            ReferencedEnvelope mapArea,
+            AffineTransform worldToScreen) {
+        labelCache = ParallelLayerRenderer.getTargetLabelCache(getRendererHints());
+        labelCache.start();
+
+        List<RecordingLabelCache> caches = new ArrayList<>();
+        List<Layer> layers = getMapContent().layers();
+        for (int i = 0; i < layers.size() && !stopped; i++) {
+            Layer layer = layers.get(i);
+            RecordingLabelCache cache = new RecordingLabelCache(i + "_");
+            caches.add(cache);
+            MapContent content = new MapContent();
+            content.getViewport().setBounds(mapArea);
+            content.addLayer(layer);
+            try {
+                Graphics2D sectionGraphics = handler.startSection(layer);
+                current = buildLayerRenderer(content, cache);
+                // a stop might have been requested while the renderer was being set up
+                if (stopped) {
+                    break;
+                }
+                current.paint(sectionGraphics, paintArea, mapArea, worldToScreen);
+                handler.endSection(layer, sectionGraphics);
+            } catch (IOException e) {
+                fireError(e);
+                stopRendering();
+            } finally {
+                current = null;
+                // remove the layer first, it's still in use by the main map content
+                content.removeLayer(layer);
+                content.dispose();
+            }
+        }
+
+        if (stopped) {
+            return;
+        }
+
+        // paint the labels of all layers on top
+        for (RecordingLabelCache cache : caches) {
+            cache.replay(labelCache, graphics, paintArea);
+        }
+        labelCache.end(graphics, paintArea);
+    }
+
+    private StreamingRenderer buildLayerRenderer(MapContent content, LabelCache cache) {
+        StreamingRenderer renderer = rendererBuilder.get();
+        renderer.setMapContent(content);
+        RenderingHints java2dHints = getJava2DHints();
+        if (java2dHints != null) {
+            renderer.setJava2DHints((RenderingHints) java2dHints.clone());
+        }
+        Map<Object, Object> hints = new HashMap<>();
+        if (getRendererHints() != null) {
+            hints.putAll(getRendererHints());
+        }
+        hints.put(LABEL_CACHE_KEY, cache);
+        renderer.setRendererHints(hints);
+        for (RenderListener listener : listeners) {
+            renderer.addRenderListener(listener);
+        }
+        return renderer;
+    }
+
+    private void fireError(Exception e) {
+        LOGGER.log(Level.FINE, "Failed to write out a layer section", e);
+        for (RenderListener listener : listeners) {
+            listener.errorOccurred(e);
+        }
+    }
+}
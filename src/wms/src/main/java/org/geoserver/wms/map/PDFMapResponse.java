@@ -9,6 +9,7 @@ import com.lowagie.text.Document;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.FontFactory;
 import com.lowagie.text.pdf.DefaultFontMapper;
+import com.lowagie.text.pdf.FontMapper;
 import com.lowagie.text.pdf.PdfContentByte;
 import com.lowagie.text.pdf.PdfGraphics2D;
 import com.lowagie.text.pdf.PdfPatternPainter;
@@ -23,13 +24,17 @@ import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.PathIterator;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.Icon;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
@@ -39,6 +44,7 @@ import org.geoserver.wms.decoration.MapDecorationLayout;
 import org.geoserver.wms.map.PDFMapOutputFormat.PDFMap;
 import org.geotools.geometry.jts.Decimator;
 import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.map.Layer;
 import org.geotools.referencing.operation.transform.AffineTransform2D;
 import org.geotools.renderer.lite.LabelCache;
 import org.geotools.renderer.lite.ParallelLinesFiller;
@@ -78,6 +84,9 @@ public class PDFMapResponse extends AbstractMapResponse {
     /** A kilobyte */
     private static final int KB = 1024;
 
+    /** The PDF is kept in memory up to this size, and spooled to a temporary file past it */
+    static final int SPOOL_THRESHOLD = 1024 * KB;
+
     private WMS wms;
 
     public PDFMapResponse(WMS wms) {
@@ -88,9 +97,11 @@ public class PDFMapResponse extends AbstractMapResponse {
     /**
      * Writes the PDF.
      *
-     * <p>NOTE: the document seems to actually be created in memory, and being written down to
-     * {@code output} once we call {@link Document#close()}. If there's no other way to do so, it'd
-     * be better to actually split out the process into produceMap/write?
+     * <p>Each layer is painted in its own PDF template, which is written out and released as soon
+     * as the layer is complete, so that the memory used depends on the largest layer, rather than
+     * on the whole map. The labels of all layers are painted last, in their own template, so that
+     * they sit on top of the map. The released templates are spooled, and copied to the output only
+     * once the rendering succeeded, so that errors can still be reported as a service exception.
      *
      * @see org.geoserver.ows.Response#write(java.lang.Object, java.io.OutputStream,
      *     org.geoserver.platform.Operation)
@@ -109,6 +120,8 @@ public class PDFMapResponse extends AbstractMapResponse {
             LOGGER.fine("setting up " + width + "x" + height + " image");
         }
 
+        DeferredFileOutputStream spool =
+                new DeferredFileOutputStream(SPOOL_THRESHOLD, "pdf", ".tmp", null);
         try {
             // step 1: creation of a document-object
             // width of document-object is width*72 inches
@@ -119,7 +132,7 @@ public class PDFMapResponse extends AbstractMapResponse {
             document.setMargins(0, 0, 0, 0);
 
             // step 2: creation of the writer
-            PdfWriter writer = PdfWriter.getInstance(document, output);
+            PdfWriter writer = PdfWriter.getInstance(document, spool);
 
             // step 3: we open the document
             document.open();
@@ -131,13 +144,13 @@ public class PDFMapResponse extends AbstractMapResponse {
             DefaultFontMapper mapper = new DefaultFontMapper();
             FontFactory.registerDirectories();
 
-            // we create a template and a Graphics2D object that corresponds
-            // with it
+            // each section of the map is a template with a Graphics2D object
+            // that corresponds with it
             PdfContentByte cb = writer.getDirectContent();
-            PdfTemplate tp = cb.createTemplate(width, height);
-            PdfGraphics2D graphic = (PdfGraphics2D) tp.createGraphics(width, height, mapper);
+            PDFSectionHandler sections = new PDFSectionHandler(writer, cb, width, height, mapper);
 
-            // we set graphics options
+            // we set graphics options, the background is the first section
+            PdfGraphics2D graphic = sections.createSection();
             if (!mapContent.isTransparent()) {
                 graphic.setColor(mapContent.getBgColor());
                 graphic.fillRect(0, 0, width, height);
@@ -162,15 +175,20 @@ public class PDFMapResponse extends AbstractMapResponse {
                 type = AlphaComposite.SRC_OVER;
                 graphic.setComposite(AlphaComposite.getInstance(type));
             }
+            sections.writeSection(graphic);
 
             Rectangle paintArea = new Rectangle(width, height);
 
-            StreamingRenderer renderer;
-            if (ENCODE_TILING_PATTERNS) {
-                renderer = new PDFStreamingRenderer();
-            } else {
-                renderer = new StreamingRenderer();
-            }
+            StreamingRenderer renderer =
+                    new LayerSectionRenderer(
+                            () -> {
+                                if (ENCODE_TILING_PATTERNS) {
+                                    return new PDFStreamingRenderer();
+                                } else {
+                                    return new StreamingRenderer();
+                                }
+                            },
+                            sections);
             renderer.setMapContent(mapContent);
             // TODO: expose the generalization distance as a param
             // ((StreamingRenderer) renderer).setGeneralizationDistance(0);
@@ -209,9 +227,13 @@ public class PDFMapResponse extends AbstractMapResponse {
             nonIgnorableExceptionListener = new RenderExceptionStrategy(renderer);
             renderer.addRenderListener(nonIgnorableExceptionListener);
 
-            // enforce max memory usage
+            // labels and decorations go in the last section, on top of all layers
+            graphic = sections.createSection();
+
+            // enforce max memory usage, for each section
             int maxMemory = wms.getMaxRequestMemory() * KB;
             PDFMaxSizeEnforcer memoryChecker = new PDFMaxSizeEnforcer(renderer, graphic, maxMemory);
+            sections.memoryChecker = memoryChecker;
 
             // render the map
             renderer.paint(
@@ -219,6 +241,8 @@ public class PDFMapResponse extends AbstractMapResponse {
                     paintArea,
                     mapContent.getRenderingArea(),
                     mapContent.getRenderingTransform());
+            // the layer sections are released, go back checking the labels and decorations one
+            memoryChecker.watch(graphic);
 
             // render the watermark
             MapDecorationLayout.Block watermark =
@@ -253,15 +277,88 @@ public class PDFMapResponse extends AbstractMapResponse {
                                 + "KB");
             }
 
-            graphic.dispose();
-            cb.addTemplate(tp, 0, 0);
+            sections.writeSection(graphic);
 
             // step 5: we close the document
             document.close();
             writer.flush();
             writer.close();
+
+            // the rendering succeeded, send out the document
+            spool.close();
+            if (spool.isInMemory()) {
+                output.write(spool.getData());
+            } else {
+                Files.copy(spool.getFile().toPath(), output);
+            }
         } catch (DocumentException t) {
             throw new ServiceException("Error setting up the PDF", t, "internalError");
+        } finally {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close the PDF spool", e);
+            }
+            File file = spool.getFile();
+            if (file != null && file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Paints each map section in its own template, writing it out to the PDF spool as soon as
+     * completed, so that its contents do not need to be kept in memory
+     */
+    private static class PDFSectionHandler implements LayerSectionRenderer.SectionHandler {
+
+        final PdfWriter writer;
+
+        final PdfContentByte cb;
+
+        final int width;
+
+        final int height;
+
+        final FontMapper mapper;
+
+        PDFMaxSizeEnforcer memoryChecker;
+
+        public PDFSectionHandler(
+                PdfWriter writer, PdfContentByte cb, int width, int height, FontMapper mapper) {
+            this.writer = writer;
+            this.cb = cb;
+            this.width = width;
+            this.height = height;
+            this.mapper = mapper;
+        }
+
+        /** Creates a new template covering the whole page, and returns its graphics */
+        PdfGraphics2D createSection() {
+            PdfTemplate tp = cb.createTemplate(width, height);
+            PdfGraphics2D graphics = (PdfGraphics2D) tp.createGraphics(width, height, mapper);
+            if (memoryChecker != null) {
+                memoryChecker.watch(graphics);
+            }
+            return graphics;
+        }
+
+        /** Adds the section template to the page, and writes it out */
+        void writeSection(Graphics2D graphics) throws IOException {
+            PdfTemplate tp = (PdfTemplate) ((PdfGraphics2D) graphics).getContent();
+            graphics.dispose();
+            cb.addTemplate(tp, 0, 0);
+            writer.releaseTemplate(tp);
+        }
+
+        @Override
+        public Graphics2D startSection(Layer layer) {
+            return createSection();
+        }
+
+        @Override
+        public void endSection(Layer layer, Graphics2D graphics) throws IOException {
+            writeSection(graphics);
         }
     }
 
@@ -270,6 +367,14 @@ public class PDFMapResponse extends AbstractMapResponse {
         public PDFStreamingRenderer() {
             this.painter = new PDFStyledPainter(labelCache);
         }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public void setRendererHints(Map hints) {
+            super.setRendererHints(hints);
+            // the label cache might have been replaced, make sure the PDF painter is still used
+            this.painter = new PDFStyledPainter(labelCache);
+        }
     }
 
     /**
@@ -15,13 +15,19 @@ import org.opengis.feature.simple.SimpleFeature;
  * Attaches itself to the renderer and ensures no more than maxSize bytes are used to store the PDF
  * in memory, and stops the renderer in case that happens.
  *
+ * <p>When the PDF is written out in sections, the enforcer can be pointed at the graphics of the
+ * section being painted with {@link #watch(PdfGraphics2D)}, the limit then applies to each section.
+ *
  * @author Andrea Aime - OpenGeo
  */
 public class PDFMaxSizeEnforcer {
 
     long maxSize;
 
-    ByteBuffer pdfBytes;
+    volatile ByteBuffer pdfBytes;
+
+    /** Set when a section went beyond the limit, the sections are released as they complete */
+    volatile boolean exceeded;
 
     /**
      * Builds a new max errors enforcer. If maxErrors is not positive the enforcer will do nothing
@@ -40,6 +46,7 @@ public class PDFMaxSizeEnforcer {
 
                         public void featureRenderer(SimpleFeature feature) {
                             if (pdfBytes.size() > maxSize) {
+                                exceeded = true;
                                 renderer.stopRendering();
                             }
                         }
@@ -49,9 +56,14 @@ public class PDFMaxSizeEnforcer {
         }
     }
 
+    /** Starts checking the memory used by the given graphics, in place of the previous one */
+    public void watch(PdfGraphics2D graphics) {
+        this.pdfBytes = graphics.getContent().getInternalBuffer();
+    }
+
     /** True if the memory used by the PDF buffer exceeds the max memory settings */
     public boolean exceedsMaxSize() {
-        return maxSize > 0 && pdfBytes.size() > maxSize;
+        return maxSize > 0 && (exceeded || pdfBytes.size() > maxSize);
     }
 
     /** Returns the amount of memory currently used by the */
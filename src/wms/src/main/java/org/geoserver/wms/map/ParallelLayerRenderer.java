@@ -0,0 +1,401 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.label.LabelCacheImpl;
+import org.geotools.renderer.label.LabelCacheImpl.LabelRenderingMode;
+import org.geotools.renderer.lite.LabelCache;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Style;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.NumberRange;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+
+/**
+ * A renderer splitting the map layers in groups of consecutive layers, painting each group in its
+ * own thread onto a transparent off-screen image, and then compositing the images in z-order onto
+ * the target graphics.
+ *
+ * <p>Labels are not painted by the group renderers, their label cache calls are recorded instead,
+ * and replayed in layer order into a single label cache once all groups are done, so that label
+ * conflict resolution works across the whole map, and gives the same results as sequential
+ * rendering.
+ *
+ * <p>Render listeners and {@link #stopRendering()} are propagated to the group renderers, so the
+ * usual {@link MaxErrorEnforcer}, {@link RenderExceptionStrategy} and {@link
+ * RenderingTimeoutEnforcer} can be used against this renderer.
+ */
+class ParallelLayerRenderer extends StreamingRenderer {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelLayerRenderer.class);
+
+    private final int threads;
+
+    private final ExecutorService executor;
+
+    private final Supplier<StreamingRenderer> rendererBuilder;
+
+    private final Consumer<StreamingRenderer> rendererCustomizer;
+
+    private final List<RenderListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final List<StreamingRenderer> renderers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean stopped;
+
+    private volatile LabelCache labelCache;
+
+    /**
+     * Builds a new parallel renderer
+     *
+     * @param threads The max number of layer groups painted in parallel
+     * @param executor The executor running the group paints, if null a temporary one will be used
+     * @param rendererBuilder Builds the renderers painting the layer groups
+     * @param rendererCustomizer Customizes the group renderers before they start painting
+     */
+    public ParallelLayerRenderer(
+            int threads,
+            ExecutorService executor,
+            Supplier<StreamingRenderer> rendererBuilder,
+            Consumer<StreamingRenderer> rendererCustomizer) {
+        this.threads = threads;
+        this.executor = executor;
+        this.rendererBuilder = rendererBuilder;
+        this.rendererCustomizer = rendererCustomizer;
+    }
+
+    /**
+     * Returns true if the layers can be painted on separate surfaces and composited afterwards,
+     * that is, if no style blends its output with the layers below, or sorts features across layers
+     */
+    static boolean canRenderInParallel(List<Layer> layers) {
+        for (Layer layer : layers) {
+            Style style = layer.getStyle();
+            if (style == null) {
+                continue;
+            }
+            for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+                Map<String, String> options = fts.getOptions();
+                if (options != null
+                        && (options.containsKey(FeatureTypeStyle.COMPOSITE)
+                                || options.containsKey(FeatureTypeStyle.COMPOSITE_BASE)
+                                || options.containsKey(FeatureTypeStyle.SORT_BY_GROUP))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Splits the layers in at most {@code count} groups of consecutive layers of similar size */
+    static List<List<Layer>> getLayerGroups(List<Layer> layers, int count) {
+        int groupCount = Math.max(1, Math.min(count, layers.size()));
+        List<List<Layer>> groups = new ArrayList<>(groupCount);
+        int base = layers.size() / groupCount;
+        int remainder = layers.size() % groupCount;
+        int start = 0;
+        for (int i = 0; i < groupCount; i++) {
+            int end = start + base + (i < remainder ? 1 : 0);
+            groups.add(new ArrayList<>(layers.subList(start, end)));
+            start = end;
+        }
+        return groups;
+    }
+
+    @Override
+    public void addRenderListener(RenderListener listener) {
+        listeners.add(listener);
+        for (StreamingRenderer renderer : renderers) {
+            renderer.addRenderListener(listener);
+        }
+    }
+
+    @Override
+    public void removeRenderListener(RenderListener listener) {
+        listeners.remove(listener);
+        for (StreamingRenderer renderer : renderers) {
+            renderer.removeRenderListener(listener);
+        }
+    }
+
+    @Override
+    public void stopRendering() {
+        stopped = true;
+        super.stopRendering();
+        for (StreamingRenderer renderer : renderers) {
+            renderer.stopRendering();
+        }
+        LabelCache cache = labelCache;
+        if (cache != null) {
+            cache.stop();
+        }
+    }
+
+    @Override
+    public void paint(
+            Graphics2D graphics,
+            Rectangle paintArea,
+            ReferencedEnvelope mapArea,
+            AffineTransform worldToScreen) {
+        List<List<Layer>> groups = getLayerGroups(getMapContent().layers(), threads);
+        labelCache = getTargetLabelCache(getRendererHints());
+        labelCache.start();
+
+        List<MapContent> contents = new ArrayList<>();
+        List<BufferedImage> images = new ArrayList<>();
+        List<RecordingLabelCache> caches = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        ExecutorService service = executor;
+        if (service == null) {
+            service = Executors.newFixedThreadPool(groups.size());
+        }
+        try {
+            ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+            for (int i = 0; i < groups.size() && !stopped; i++) {
+                MapContent content = new MapContent();
+                content.getViewport().setBounds(mapArea);
+                for (Layer layer : groups.get(i)) {
+                    content.addLayer(layer);
+                }
+                contents.add(content);
+                BufferedImage image =
+                        new BufferedImage(
+                                paintArea.width,
+                                paintArea.height,
+                                BufferedImage.TYPE_INT_ARGB_PRE);
+                images.add(image);
+                RecordingLabelCache cache = new RecordingLabelCache(i + "_");
+                caches.add(cache);
+                StreamingRenderer renderer = buildGroupRenderer(content, cache);
+                Graphics2D imageGraphics = image.createGraphics();
+                imageGraphics.setRenderingHints(graphics.getRenderingHints());
+                imageGraphics.translate(-paintArea.x, -paintArea.y);
+                futures.add(
+                        service.submit(
+                                () -> {
+                                    transfer.apply();
+                                    try {
+                                        renderer.paint(
+                                                imageGraphics, paintArea, mapArea, worldToScreen);
+                                    } finally {
+                                        imageGraphics.dispose();
+                                        transfer.cleanup();
+                                    }
+                                }));
+            }
+
+            // wait for all groups to complete, errors are reported to the listeners
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stopRendering();
+                    fireError(e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    fireError(cause instanceof Exception ? (Exception) cause : e);
+                }
+            }
+
+            if (stopped) {
+                return;
+            }
+
+            // composite in z-order, then paint the labels of all layers on top
+            for (BufferedImage image : images) {
+                graphics.drawImage(image, paintArea.x, paintArea.y, null);
+            }
+            for (RecordingLabelCache cache : caches) {
+                cache.replay(labelCache, graphics, paintArea);
+            }
+            labelCache.end(graphics, paintArea);
+        } finally {
+            if (service != executor) {
+                service.shutdown();
+            }
+            for (BufferedImage image : images) {
+                image.flush();
+            }
+            for (MapContent content : contents) {
+                // remove the layers first, they are still in use by the main map content
+                for (Layer layer : new ArrayList<>(content.layers())) {
+                    content.removeLayer(layer);
+                }
+                content.dispose();
+            }
+            renderers.clear();
+        }
+    }
+
+    private StreamingRenderer buildGroupRenderer(MapContent content, LabelCache cache) {
+        StreamingRenderer renderer = rendererBuilder.get();
+        renderer.setMapContent(content);
+        RenderingHints java2dHints = getJava2DHints();
+        if (java2dHints != null) {
+            renderer.setJava2DHints((RenderingHints) java2dHints.clone());
+        }
+        Map<Object, Object> hints = new HashMap<>();
+        if (getRendererHints() != null) {
+            hints.putAll(getRendererHints());
+        }
+        hints.put(LABEL_CACHE_KEY, cache);
+        renderer.setRendererHints(hints);
+        for (RenderListener listener : listeners) {
+            renderer.addRenderListener(listener);
+        }
+        rendererCustomizer.accept(renderer);
+        renderers.add(renderer);
+        // a stop might have been requested while the renderer was being set up
+        if (stopped) {
+            renderer.stopRendering();
+        }
+        return renderer;
+    }
+
+    /** Returns the label cache configured in the hints, or builds a new one */
+    static LabelCache getTargetLabelCache(Map<?, ?> hints) {
+        if (hints != null && hints.get(LABEL_CACHE_KEY) instanceof LabelCache) {
+            return (LabelCache) hints.get(LABEL_CACHE_KEY);
+        }
+        LabelCacheImpl cache = new LabelCacheImpl();
+        Object textRendering = hints != null ? hints.get(TEXT_RENDERING_KEY) : null;
+        if (textRendering instanceof String) {
+            cache.setLabelRenderingMode(LabelRenderingMode.valueOf((String) textRendering));
+        }
+        return cache;
+    }
+
+    private void fireError(Exception e) {
+        LOGGER.log(Level.FINE, "Layer group rendering failed", e);
+        for (RenderListener listener : listeners) {
+            listener.errorOccurred(e);
+        }
+    }
+
+    /** A call recorded by the {@link RecordingLabelCache} */
+    interface LabelCall {
+        void replay(LabelCache cache, Graphics2D graphics, Rectangle paintArea);
+    }
+
+    /**
+     * A label cache recording the calls made by a group renderer, without painting anything, so
+     * that they can be replayed later against the label cache of the whole map. Layer ids are
+     * prefixed, as renderers build them out of the layer position in their own map content
+     */
+    static class RecordingLabelCache implements LabelCache {
+
+        final String prefix;
+
+        final List<LabelCall> calls = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingLabelCache(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /** Replays the recorded calls against the target label cache */
+        void replay(LabelCache cache, Graphics2D graphics, Rectangle paintArea) {
+            synchronized (calls) {
+                for (LabelCall call : calls) {
+                    call.replay(cache, graphics, paintArea);
+                }
+            }
+        }
+
+        @Override
+        public void start() {
+            // the target label cache is started by the parallel renderer
+        }
+
+        @Override
+        public void stop() {
+            // the target label cache is stopped by the parallel renderer
+        }
+
+        @Override
+        public void clear() {
+            // the target label cache is cleared when started
+        }
+
+        @Override
+        public void end(Graphics2D graphics, Rectangle displayArea) {
+            // labels are painted after the composition of all groups
+        }
+
+        @Override
+        public void clear(String layerId) {
+            calls.add((c, g, a) -> c.clear(prefix + layerId));
+        }
+
+        @Override
+        public void startLayer(String layerId) {
+            calls.add((c, g, a) -> c.startLayer(prefix + layerId));
+        }
+
+        @Override
+        public void endLayer(String layerId, Graphics2D graphics, Rectangle displayArea) {
+            calls.add((c, g, a) -> c.endLayer(prefix + layerId, g, a));
+        }
+
+        @Override
+        public void enableLayer(String layerId) {
+            calls.add((c, g, a) -> c.enableLayer(prefix + layerId));
+        }
+
+        @Override
+        public void disableLayer(String layerId) {
+            calls.add((c, g, a) -> c.disableLayer(prefix + layerId));
+        }
+
+        @Override
+        public void put(
+                String layerId,
+                TextSymbolizer symbolizer,
+                Feature feature,
+                LiteShape2 shape,
+                NumberRange<Double> scaleRange) {
+            calls.add((c, g, a) -> c.put(prefix + layerId, symbolizer, feature, shape, scaleRange));
+        }
+
+        @Override
+        public void put(Rectangle2D area) {
+            calls.add((c, g, a) -> c.put(area));
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public List orderedLabels() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -8,32 +8,68 @@ package org.geoserver.wms.map;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.namespace.QName;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMSInfo;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 import org.locationtech.jts.geom.Envelope;
-
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Caches the meta-tiles built for WMS tiled requests, so that the other tiles in the same meta-tile
+ * can be served without rendering again.
+ *
+ * <p>The cache is bounded by the estimated size in bytes of the cached images, evicting the least
+ * recently used meta-tiles first, and entries expire after a configurable time to live. WFS
+ * transactions only invalidate the meta-tiles of the modified layers touched by the modified
+ * features.
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /** Variable used to configure the maximum cache size, in bytes */
+    public static final String MAX_SIZE_PROPERTY = "WMS_META_TILE_CACHE_SIZE";
+
+    /** Variable used to configure the cached meta-tiles time to live, in seconds */
+    public static final String TTL_PROPERTY = "WMS_META_TILE_CACHE_TTL";
+
+    /** Default maximum cache size, 64MB */
+    static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /** Default time to live, 5 minutes */
+    static final long DEFAULT_TTL = 5 * 60;
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -55,9 +91,28 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     /** Canonicalizer used to return the same object when two threads ask for the same meta-tile */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    /** The cached meta-tiles, in access order, the eldest is the least recently used */
+    private LinkedHashMap<MetaTileKey, CacheElement> tileCache =
+            new LinkedHashMap<MetaTileKey, CacheElement>(16, 0.75f, true);
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    /** Time to live, in milliseconds */
+    private long timeToLive = DEFAULT_TTL * 1000;
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long invalidations;
 
     public QuickTileCache(GeoServer geoServer) {
+        this.maxSize = getLongProperty(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE);
+        this.timeToLive = getLongProperty(TTL_PROPERTY, DEFAULT_TTL) * 1000;
         geoServer.addListener(
                 new ConfigurationListenerAdapter() {
                     public void handleGlobalChange(
@@ -65,7 +120,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
                             List<String> propertyNames,
                             List<Object> oldValues,
                             List<Object> newValues) {
-                        tileCache.clear();
+                        clear();
                     }
 
                     public void handleServiceChange(
@@ -73,15 +128,30 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
                             List<String> propertyNames,
                             List<Object> oldValues,
                             List<Object> newValues) {
-                        tileCache.clear();
+                        // the configuration of the other services does not affect the maps
+                        if (service instanceof WMSInfo) {
+                            clear();
+                        }
                     }
 
                     public void reloaded() {
-                        tileCache.clear();
+                        clear();
                     }
                 });
     }
 
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
     /** For testing only */
     QuickTileCache() {}
 
@@ -116,6 +186,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
         MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        key.layers = getFeatureTypeNames(request);
 
         // since this will be used for thread synchronization, we have to make
         // sure two thread asking for the same meta tile will get the same key
@@ -123,6 +194,18 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         return metaTileKeys.unique(key);
     }
 
+    /** The names of the feature types in the map, used to invalidate the meta-tiles */
+    private Set<QName> getFeatureTypeNames(GetMapRequest request) {
+        Set<QName> names = new HashSet<>();
+        for (MapLayerInfo layer : request.getLayers()) {
+            if (layer.getType() == MapLayerInfo.TYPE_VECTOR) {
+                FeatureTypeInfo ft = layer.getFeature();
+                names.add(new QName(ft.getNamespace().getURI(), ft.getName()));
+            }
+        }
+        return names;
+    }
+
     private ReferencedEnvelope getMetaTileEnvelope(
             ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
         double minx = bbox.getMinX() + (metaTileCoords.x - tileCoords.x) * bbox.getWidth();
@@ -290,6 +373,9 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
         ReferencedEnvelope metaTileEnvelope;
 
+        /** The feature types in the map, not part of the key identity */
+        Set<QName> layers = Collections.emptySet();
+
         public MetaTileKey(
                 MapKey mapKey, Point metaTileCoords, ReferencedEnvelope metaTileEnvelope) {
             super();
@@ -327,6 +413,18 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
                     .isEquals();
         }
 
+        /** Returns true if the map contains the specified feature type */
+        boolean dependsOn(QName typeName) {
+            for (QName layer : layers) {
+                if (layer.getLocalPart().equals(typeName.getLocalPart())
+                        && (typeName.getNamespaceURI().isEmpty()
+                                || layer.getNamespaceURI().equals(typeName.getNamespaceURI()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         public int getMetaFactor() {
             return 3;
         }
@@ -347,12 +445,19 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      */
     public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+        CacheElement ce = tileCache.get(key);
 
+        if (ce != null && ce.isExpired(System.currentTimeMillis())) {
+            remove(key);
+            evictions++;
+            ce = null;
+        }
         if (ce == null) {
+            misses++;
             return null;
         }
 
+        hits++;
         return getTile(key, request, ce.tiles);
     }
 
@@ -373,41 +478,229 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Puts the specified tile array in the cache, and returns the tile the request was looking for
+     * Puts the specified tile array in the cache, evicting the least recently used meta-tiles if
+     * the cache gets over its maximum size
      *
      * @param key
      * @param request
      * @param tiles
      */
     public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+        CacheElement element = new CacheElement(tiles, System.currentTimeMillis() + timeToLive);
+        if (element.size > maxSize) {
+            // would evict everything else and still not fit
+            return;
+        }
+        remove(key);
+        tileCache.put(key, element);
+        size += element.size;
+
+        // evict the expired ones and then the least recently used ones until we fit
+        long now = System.currentTimeMillis();
+        for (Iterator<CacheElement> it = tileCache.values().iterator(); it.hasNext(); ) {
+            CacheElement ce = it.next();
+            if (size > maxSize || ce.isExpired(now)) {
+                it.remove();
+                size -= ce.size;
+                evictions++;
+            }
+        }
+    }
+
+    private void remove(MetaTileKey key) {
+        CacheElement ce = tileCache.remove(key);
+        if (ce != null) {
+            size -= ce.size;
+        }
     }
 
-    class CacheElement {
+    /** Drops all cached meta-tiles */
+    public synchronized void clear() {
+        tileCache.clear();
+        size = 0;
+    }
+
+    static class CacheElement {
         RenderedImage[] tiles;
 
-        public CacheElement(RenderedImage[] tiles) {
+        long expiration;
+
+        long size;
+
+        public CacheElement(RenderedImage[] tiles, long expiration) {
             this.tiles = tiles;
+            this.expiration = expiration;
+            for (RenderedImage tile : tiles) {
+                if (tile != null) {
+                    size += estimateSize(tile);
+                }
+            }
+        }
+
+        boolean isExpired(long now) {
+            return expiration < now;
         }
     }
 
+    /** Estimates the memory used by an image, in bytes */
+    static long estimateSize(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        long bitsPerPixel = 0;
+        for (int bits : sm.getSampleSize()) {
+            bitsPerPixel += bits;
+        }
+        return (long) image.getWidth() * image.getHeight() * bitsPerPixel / 8;
+    }
+
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        QName typeName = event.getLayerName();
+        if (typeName == null) {
+            clear();
+            return;
+        }
+
+        List<MetaTileKey> affected = new ArrayList<>();
+        synchronized (this) {
+            for (MetaTileKey key : tileCache.keySet()) {
+                if (key.dependsOn(typeName)) {
+                    affected.add(key);
+                }
+            }
+        }
+        if (affected.isEmpty()) {
+            return;
+        }
+
+        // computing the bounds might require a query, don't hold the lock meanwhile
+        ReferencedEnvelope bounds = getAffectedBounds(event);
+        Map<CoordinateReferenceSystem, ReferencedEnvelope> reprojected = new HashMap<>();
+        for (MetaTileKey key : affected) {
+            if (isAffected(key, bounds, reprojected)) {
+                synchronized (this) {
+                    if (tileCache.containsKey(key)) {
+                        remove(key);
+                        invalidations++;
+                    }
+                }
+            }
+        }
+    }
+
+    /** The bounds of the features modified by the transaction, or null if not available */
+    private ReferencedEnvelope getAffectedBounds(TransactionEvent event) {
+        try {
+            if (event.getAffectedFeatures() != null) {
+                ReferencedEnvelope bounds = event.getAffectedFeatures().getBounds();
+                if (bounds != null
+                        && !bounds.isNull()
+                        && bounds.getCoordinateReferenceSystem() != null) {
+                    return bounds;
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to compute the bounds of the transaction", e);
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the meta-tile is affected by changes in the given bounds. The meta-tile envelope is
+     * expanded by one tile in each direction, to account for symbols and labels spilling over the
+     * feature bounds
+     */
+    private boolean isAffected(
+            MetaTileKey key,
+            ReferencedEnvelope bounds,
+            Map<CoordinateReferenceSystem, ReferencedEnvelope> reprojected) {
+        if (bounds == null) {
+            return true;
+        }
+        ReferencedEnvelope metaTileEnvelope = key.getMetaTileEnvelope();
+        CoordinateReferenceSystem crs = metaTileEnvelope.getCoordinateReferenceSystem();
+        if (crs == null) {
+            return true;
+        }
+        ReferencedEnvelope target = reprojected.get(crs);
+        if (target == null) {
+            try {
+                target = bounds.transform(crs, true);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to reproject the transaction bounds", e);
+                return true;
+            }
+            reprojected.put(crs, target);
+        }
+        ReferencedEnvelope expanded = new ReferencedEnvelope(metaTileEnvelope);
+        expanded.expandBy(
+                metaTileEnvelope.getWidth() / key.getMetaFactor(),
+                metaTileEnvelope.getHeight() / key.getMetaFactor());
+        return expanded.intersects((Envelope) target);
+    }
+
+    /** Number of requests that found their meta-tile in the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** Number of requests that did not find their meta-tile in the cache */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** The ratio between hits and total lookups, or zero if there were no lookups yet */
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /** Number of meta-tiles evicted because of size constraints or expiration */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** Number of meta-tiles removed because of transactions affecting them */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /** Estimated size of the cached images, in bytes */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /** Number of meta-tiles in the cache */
+    public synchronized int getMetaTileCount() {
+        return tileCache.size();
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /** Sets the maximum size of the cached images, in bytes */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** The time to live of cached meta-tiles, in milliseconds */
+    public synchronized long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /** Sets the time to live of cached meta-tiles, in milliseconds */
+    public synchronized void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     public void beforeReload() {
@@ -416,6 +709,6 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
     }
 }
@@ -0,0 +1,426 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.media.jai.PlanarImage;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wms.CachedGridReaderLayer;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.image.util.ImageUtilities;
+import org.geotools.map.Layer;
+import org.geotools.util.logging.Logging;
+import org.opengis.parameter.GeneralParameterValue;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Prefetches, on the direct raster rendering path, the tiles surrounding the one just rendered,
+ * so that a client panning the map finds the next tile already read and rendered.
+ *
+ * <p>When a single raster layer is rendered, the eight neighbouring tiles, with the same size and
+ * request parameters, are rendered in background threads and stored in memory. A neighbour is
+ * handed out at most once, and expires shortly after being rendered, as it is only useful to a
+ * client that is actively panning. The reader picks the overview level for the neighbours the same
+ * way it did for the requested tile, since they share the same resolution. Requests whose output
+ * cannot be identified by their parameters alone, such as the ones using SLD, SLD_BODY or ENV, are
+ * not prefetched.
+ *
+ * <p>The cache is bounded in memory by the {@link #RASTER_PREFETCH_CACHE_SIZE} global variable, in
+ * megabytes, and is disabled by default. The number of threads rendering the neighbours is set by
+ * the {@link #RASTER_PREFETCH_THREADS} global variable. Like the legend cache, the prefetched tiles
+ * are flushed on any change affecting styles, layers, layer groups, resources or stores.
+ */
+public class RasterPrefetchCache implements CatalogListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(RasterPrefetchCache.class);
+
+    /** Max memory used by the prefetched tiles, in megabytes */
+    public static final String RASTER_PREFETCH_CACHE_SIZE = "RASTER_PREFETCH_CACHE_SIZE";
+
+    /** Number of threads rendering the prefetched tiles */
+    public static final String RASTER_PREFETCH_THREADS = "RASTER_PREFETCH_THREADS";
+
+    static final int DEFAULT_SIZE = 0;
+
+    static final int DEFAULT_THREADS = 2;
+
+    /** How long a prefetched tile stays around, in seconds, if no client asks for it */
+    static final int EXPIRATION = 60;
+
+    /** Max number of neighbours waiting to be rendered, further ones are just skipped */
+    static final int MAX_QUEUED = 64;
+
+    /** Parameters that do not affect the tile contents, or that are handled separately */
+    static final List<String> IGNORED_PARAMETERS = Arrays.asList("SERVICE", "REQUEST", "BBOX");
+
+    /** Parameters making the tile contents not depend on the configuration alone */
+    static final List<String> UNCACHEABLE_PARAMETERS = Arrays.asList("SLD", "SLD_BODY", "ENV");
+
+    private static final Weigher<Object, BufferedImage> WEIGHER =
+            (key, image) -> {
+                DataBuffer buffer = image.getRaster().getDataBuffer();
+                long size =
+                        (long) buffer.getSize()
+                                * buffer.getNumBanks()
+                                * DataBuffer.getDataTypeSize(buffer.getDataType())
+                                / 8;
+                return (int) Math.min(Integer.MAX_VALUE, size);
+            };
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    /** Renders a map on the direct raster path */
+    public interface TileRenderer {
+
+        /** Renders the map, returns null if it cannot be rendered on the direct raster path */
+        RenderedImage render(WMSMapContent mapContent) throws Exception;
+    }
+
+    private final Catalog catalog;
+
+    private final Cache<Object, BufferedImage> tiles;
+
+    private final Set<Object> pending = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor executor;
+
+    private final boolean enabled;
+
+    public RasterPrefetchCache(Catalog catalog) {
+        this(
+                catalog,
+                getIntProperty(RASTER_PREFETCH_CACHE_SIZE, DEFAULT_SIZE),
+                getIntProperty(RASTER_PREFETCH_THREADS, DEFAULT_THREADS));
+    }
+
+    /**
+     * Builds a new cache
+     *
+     * @param catalog The catalog whose changes flush the cache
+     * @param size The max memory used by the prefetched tiles, in megabytes, zero disables
+     *     prefetching
+     * @param threads The number of threads rendering the prefetched tiles
+     */
+    public RasterPrefetchCache(Catalog catalog, int size, int threads) {
+        this.catalog = catalog;
+        this.enabled = size > 0 && threads > 0;
+        long weight = Math.max(0, size) * 1024L * 1024L;
+        this.tiles =
+                CacheBuilder.newBuilder()
+                        .maximumWeight(weight)
+                        .weigher(WEIGHER)
+                        .expireAfterWrite(EXPIRATION, TimeUnit.SECONDS)
+                        .build();
+        if (enabled) {
+            final String prefix = "RasterPrefetch-" + POOL_COUNTER.getAndIncrement() + "-";
+            final AtomicInteger counter = new AtomicInteger();
+            this.executor =
+                    new ThreadPoolExecutor(
+                            threads,
+                            threads,
+                            60L,
+                            TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<>(MAX_QUEUED),
+                            r -> {
+                                Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+            this.executor.allowCoreThreadTimeOut(true);
+        } else {
+            this.executor = null;
+        }
+        if (catalog != null) {
+            catalog.addListener(this);
+        }
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value + ", using default");
+            }
+        }
+        return defaultValue;
+    }
+
+    /** Returns true if prefetching is enabled */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cache key for the map, or null if the map cannot be prefetched. Must be called in
+     * the request thread, as the key depends on the current user and workspace.
+     */
+    public Object getKey(WMSMapContent mapContent) {
+        return getKey(mapContent, mapContent.getViewport().getBounds());
+    }
+
+    /** Returns the cache key for the map, as if it covered the specified area */
+    Object getKey(WMSMapContent mapContent, ReferencedEnvelope area) {
+        GetMapRequest request = mapContent.getRequest();
+        if (!enabled
+                || request == null
+                || request.getRawKvp() == null
+                || mapContent.layers().size() != 1
+                || !(mapContent.layers().get(0) instanceof CachedGridReaderLayer)
+                || area == null
+                || area.getWidth() <= 0
+                || area.getHeight() <= 0) {
+            return null;
+        }
+        Map<String, String> parameters = new TreeMap<>();
+        for (Map.Entry<String, String> entry : request.getRawKvp().entrySet()) {
+            String name = entry.getKey().toUpperCase();
+            if (UNCACHEABLE_PARAMETERS.contains(name)) {
+                return null;
+            } else if (!IGNORED_PARAMETERS.contains(name)) {
+                parameters.put(name, entry.getValue());
+            }
+        }
+        // the layer names resolve differently depending on the workspace, and security
+        // might make the user see different contents
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        // tile position expressed in tile units, and tile size, rounded so that neighbours
+        // computed by adding the tile size match the bounds of the next request
+        double width = area.getWidth();
+        double height = area.getHeight();
+        return Arrays.asList(
+                parameters,
+                workspace != null ? workspace.getName() : null,
+                user != null ? user.getName() : null,
+                Math.round(area.getMinX() / width * 1000),
+                Math.round(area.getMinY() / height * 1000),
+                Math.round(Math.log(width) * 1e6),
+                Math.round(Math.log(height) * 1e6));
+    }
+
+    /**
+     * Returns the prefetched tile for the given key, if any, removing it from the cache, as it's
+     * going to be handed to the output and possibly modified
+     */
+    public BufferedImage take(Object key) {
+        BufferedImage image = tiles.getIfPresent(key);
+        if (image != null) {
+            tiles.invalidate(key);
+        }
+        return image;
+    }
+
+    /**
+     * Schedules the rendering of the tiles surrounding the one described by the map content. Must
+     * be called in the request thread, the rendering happens in background
+     *
+     * @param mapContent The map content of the tile just rendered, it's not modified
+     * @param renderer The renderer for the neighbouring tiles
+     */
+    public void prefetch(WMSMapContent mapContent, TileRenderer renderer) {
+        if (!enabled || getKey(mapContent) == null) {
+            return;
+        }
+        CachedGridReaderLayer layer = (CachedGridReaderLayer) mapContent.layers().get(0);
+        ReferencedEnvelope bounds = mapContent.getViewport().getBounds();
+        double width = bounds.getWidth();
+        double height = bounds.getHeight();
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx == 0 && dy == 0) {
+                    continue;
+                }
+                ReferencedEnvelope neighbour =
+                        new ReferencedEnvelope(
+                                bounds.getMinX() + dx * width,
+                                bounds.getMaxX() + dx * width,
+                                bounds.getMinY() + dy * height,
+                                bounds.getMaxY() + dy * height,
+                                bounds.getCoordinateReferenceSystem());
+                Object key = getKey(mapContent, neighbour);
+                if (key == null || tiles.getIfPresent(key) != null || !pending.add(key)) {
+                    continue;
+                }
+                WMSMapContent content = new WMSMapContent(mapContent, false);
+                content.addLayer(
+                        new CachedGridReaderLayer(
+                                layer.getReader(), layer.getStyle(), cloneParams(layer)));
+                content.getViewport().setBounds(neighbour);
+                try {
+                    executor.execute(() -> render(key, content, renderer));
+                } catch (RejectedExecutionException e) {
+                    // too many tiles already waiting, skip this one
+                    pending.remove(key);
+                    content.dispose();
+                }
+            }
+        }
+    }
+
+    /** The read parameters get modified while reading, each tile needs its own copy */
+    private GeneralParameterValue[] cloneParams(CachedGridReaderLayer layer) {
+        GeneralParameterValue[] params = layer.getParams();
+        if (params == null) {
+            return null;
+        }
+        GeneralParameterValue[] result = new GeneralParameterValue[params.length];
+        for (int i = 0; i < params.length; i++) {
+            result[i] = params[i] != null ? params[i].clone() : null;
+        }
+        return result;
+    }
+
+    private void render(Object key, WMSMapContent content, TileRenderer renderer) {
+        RenderedImage image = null;
+        try {
+            image = renderer.render(content);
+            if (image != null) {
+                tiles.put(key, toBufferedImage(image));
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to prefetch raster tile", e);
+        } finally {
+            if (image instanceof PlanarImage) {
+                ImageUtilities.disposePlanarImageChain((PlanarImage) image);
+            }
+            content.dispose();
+            pending.remove(key);
+        }
+    }
+
+    /**
+     * Forces the computation of the image, the rendering chain is lazy and would otherwise keep
+     * the reader resources around
+     */
+    private BufferedImage toBufferedImage(RenderedImage image) {
+        if (image instanceof BufferedImage) {
+            return (BufferedImage) image;
+        }
+        WritableRaster raster =
+                image.getColorModel()
+                        .createCompatibleWritableRaster(image.getWidth(), image.getHeight())
+                        .createWritableTranslatedChild(image.getMinX(), image.getMinY());
+        image.copyData(raster);
+        return new BufferedImage(
+                image.getColorModel(),
+                raster.createWritableTranslatedChild(0, 0),
+                image.getColorModel().isAlphaPremultiplied(),
+                null);
+    }
+
+    /** Returns the number of prefetched tiles */
+    long size() {
+        return tiles.size();
+    }
+
+    /** Drops all the prefetched tiles */
+    public void clear() {
+        tiles.invalidateAll();
+    }
+
+    private void handleEvent(CatalogEvent event) {
+        Object source = event.getSource();
+        if (source instanceof StyleInfo
+                || source instanceof LayerInfo
+                || source instanceof LayerGroupInfo
+                || source instanceof ResourceInfo
+                || source instanceof StoreInfo) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Flushing the raster prefetch cache due to a change in " + source);
+            }
+            tiles.invalidateAll();
+        }
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        // a new layer can change the meaning of an unqualified layer name
+        handleEvent(event);
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        handleEvent(event);
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the post modify event
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        handleEvent(event);
+    }
+
+    @Override
+    public void reloaded() {
+        clear();
+    }
+
+    @Override
+    public void onReset() {
+        clear();
+    }
+
+    @Override
+    public void onDispose() {
+        clear();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (catalog != null) {
+            catalog.removeListener(this);
+        }
+    }
+
+    @Override
+    public void beforeReload() {}
+
+    @Override
+    public void onReload() {
+        clear();
+    }
+}
@@ -40,6 +40,7 @@ import javax.media.jai.ROIShape;
 import javax.media.jai.operator.ConstantDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.platform.resource.Resource;
@@ -84,8 +85,11 @@ import org.geotools.renderer.lite.RenderingTransformationHelper;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.renderer.lite.gridcoverage2d.ChannelSelectionUpdateStyleVisitor;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
+import org.geotools.styling.FeatureTypeStyle;
 import org.geotools.styling.RasterSymbolizer;
+import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
 import org.geotools.util.logging.Logging;
 import org.opengis.coverage.grid.Format;
 import org.opengis.feature.Feature;
@@ -339,23 +343,52 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         // TODO: how to handle timeout here? I guess we need to move it into the dispatcher?
 
         RenderedImage image = null;
-        // fast path for pure coverage rendering
+        // fast path for pure coverage rendering (the profile overlay needs a graphics to paint on)
         if (DefaultWebMapService.isDirectRasterPathEnabled()
                 && mapContent.layers().size() == 1
                 && mapContent.getAngle() == 0.0
-                && (layout == null || layout.isEmpty())) {
+                && (layout == null || layout.isEmpty())
+                && !RenderingProfile.isOverlayRequested(mapContent)) {
             List<GridCoverage2D> renderedCoverages = new ArrayList<GridCoverage2D>(2);
+            Interpolation interpolation = null;
+            if (request.getInterpolations() != null && request.getInterpolations().size() > 0) {
+                interpolation = request.getInterpolations().get(0);
+            }
+            // a panning client might find this tile already prefetched
+            RasterPrefetchCache prefetchCache = GeoServerExtensions.bean(RasterPrefetchCache.class);
+            Object prefetchKey = prefetchCache != null ? prefetchCache.getKey(mapContent) : null;
+            if (prefetchKey != null) {
+                image = prefetchCache.take(prefetchKey);
+            }
+            RenderingProfile profile = RenderingProfile.start(mapContent);
+            long renderingStart = profile != null ? System.nanoTime() : 0;
             try {
-                Interpolation interpolation = null;
-                if (request.getInterpolations() != null && request.getInterpolations().size() > 0) {
-                    interpolation = request.getInterpolations().get(0);
+                if (image == null) {
+                    image = directRasterRender(mapContent, 0, renderedCoverages, interpolation);
                 }
-                image = directRasterRender(mapContent, 0, renderedCoverages, interpolation);
             } catch (Exception e) {
                 throw new ServiceException("Error rendering coverage on the fast path", e);
             }
 
             if (image != null) {
+                if (profile != null) {
+                    // a coverage has no features to count
+                    profile.addLayer(
+                            mapContent.layers().get(0).getTitle(),
+                            -1,
+                            System.nanoTime() - renderingStart);
+                }
+                if (prefetchKey != null) {
+                    final Interpolation prefetchInterpolation = interpolation;
+                    prefetchCache.prefetch(
+                            mapContent,
+                            content ->
+                                    directRasterRender(
+                                            content,
+                                            0,
+                                            new ArrayList<>(),
+                                            prefetchInterpolation));
+                }
                 return buildMap(mapContent, image);
             }
         }
@@ -369,6 +402,16 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         final Map<RenderingHints.Key, Object> hintsMap = new HashMap<RenderingHints.Key, Object>();
 
         final Graphics2D graphic = getGraphics(transparent, bgColor, preparedImage, hintsMap);
+        if (!transparent
+                && palette == null
+                && bgColor != null
+                && bgColor.getAlpha() == 255
+                && !usesComposition(mapContent.layers())) {
+            // the background is opaque and nothing can punch holes in it, let the
+            // output formats know there is no need to look for transparent pixels (not
+            // for paletted output, the colors might be mapped to translucent entries)
+            mapContent.getMetadata().put(TransparencyScanner.OPAQUE_KEY, Boolean.TRUE);
+        }
 
         // set up the antialias hints
         if (AA_NONE.equals(antialias)) {
@@ -423,8 +466,24 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        StreamingRenderer renderer = buildRenderer();
-        renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
+        int parallelThreads = getParallelThreads(mapContent, paintArea, maxMemory - memory);
+        StreamingRenderer renderer;
+        if (parallelThreads > 1) {
+            renderer =
+                    new ParallelLayerRenderer(
+                            parallelThreads,
+                            DefaultWebMapService.getRenderingPool(),
+                            () -> {
+                                StreamingRenderer groupRenderer = buildRenderer();
+                                groupRenderer.setThreadPool(
+                                        DefaultWebMapService.getRenderingPool());
+                                return groupRenderer;
+                            },
+                            this::onBeforeRender);
+        } else {
+            renderer = buildRenderer();
+            renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
+        }
         renderer.setMapContent(mapContent);
         renderer.setJava2DHints(hints);
 
@@ -564,7 +623,16 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         nonIgnorableExceptionListener = new RenderExceptionStrategy(renderer);
         renderer.addRenderListener(nonIgnorableExceptionListener);
 
-        onBeforeRender(renderer);
+        // collect per layer timings only when requested, it costs a synchronized call per feature
+        final RenderingProfile profile = RenderingProfile.start(mapContent);
+        if (profile != null) {
+            renderer.addRenderListener(profile);
+        }
+
+        // the parallel renderer calls back onBeforeRender on each of its layer group renderers
+        if (!(renderer instanceof ParallelLayerRenderer)) {
+            onBeforeRender(renderer);
+        }
 
         int maxRenderingTime = wms.getMaxRenderingTime(request);
         ServiceException serviceException = null;
@@ -584,11 +652,17 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         timeout.start();
         try {
             // finally render the image;
+            if (profile != null) {
+                profile.renderingStarted();
+            }
             renderer.paint(
                     graphic,
                     paintArea,
                     mapContent.getRenderingArea(),
                     mapContent.getRenderingTransform());
+            if (profile != null) {
+                profile.renderingCompleted();
+            }
 
             // apply watermarking
             if (layout != null) {
@@ -599,6 +673,11 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                             "Problem occurred while trying to watermark data", e);
                 }
             }
+
+            // paint the profile on top of everything else, if requested
+            if (profile != null && profile.isOverlay()) {
+                profile.paint(graphic, paintArea);
+            }
             timeout.stop();
 
             // Determine what (if any) exception should be thrown
@@ -660,6 +739,68 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return new StreamingRenderer();
     }
 
+    /**
+     * Returns the number of threads to be used to paint the map layers in parallel, taking into
+     * account the configured thread budget, the memory still available for the off-screen images,
+     * and whether the layer styles allow to composite them afterwards. A value lower than 2 means
+     * the layers will be painted sequentially.
+     */
+    private int getParallelThreads(
+            WMSMapContent mapContent, Rectangle paintArea, long availableMemory) {
+        List<Layer> layers = mapContent.layers();
+        int threads = Math.min(getParallelRenderingThreads(mapContent), layers.size());
+        if (threads < 2) {
+            return 0;
+        }
+        if (wms.getMaxRequestMemory() > 0) {
+            // one ARGB off-screen image per layer group
+            long imageMemory = (long) paintArea.width * paintArea.height * 4;
+            threads = (int) Math.min(threads, availableMemory / imageMemory);
+        }
+        if (threads < 2 || !ParallelLayerRenderer.canRenderInParallel(layers)) {
+            return 0;
+        }
+        return threads;
+    }
+
+    /**
+     * Returns true if any of the layers styles uses composition, either on a feature type style or
+     * on a symbolizer, which could make the background transparent (e.g., destination-out, xor)
+     */
+    private boolean usesComposition(List<Layer> layers) {
+        for (Layer layer : layers) {
+            Style style = layer.getStyle();
+            if (style == null) {
+                continue;
+            }
+            for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+                if (hasComposite(fts.getOptions())) {
+                    return true;
+                }
+                for (Rule rule : fts.rules()) {
+                    for (Symbolizer symbolizer : rule.symbolizers()) {
+                        if (hasComposite(symbolizer.getOptions())) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean hasComposite(Map<String, String> options) {
+        return options != null && options.containsKey(FeatureTypeStyle.COMPOSITE);
+    }
+
+    /**
+     * Returns the max number of threads a single request can use to paint the map layers in
+     * parallel. Subclasses needing a single renderer to paint the whole map should return 0.
+     */
+    protected int getParallelRenderingThreads(WMSMapContent mapContent) {
+        return DefaultWebMapService.getParallelRenderingThreads();
+    }
+
     private boolean getFormatOptionAsBoolean(
             final GetMapRequest request, final String formatOptionKey) {
         if (request.getFormatOptions().get(formatOptionKey) != null) {
@@ -703,6 +844,11 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         if (extension != null) {
             map.setContentDispositionHeader(mapContent, "." + extension, false);
         }
+        RenderingProfile profile = RenderingProfile.get(mapContent);
+        if (profile != null) {
+            // the encoding is yet to happen, it's only recorded in the monitoring data
+            map.setResponseHeader(RenderingProfile.PROFILE_HEADER, profile.toString());
+        }
         return map;
     }
 
@@ -108,9 +108,14 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
             final RenderedImage image = imageMap.getImage();
             final List<GridCoverage2D> renderedCoverages = imageMap.getRenderedCoverages();
             final WMSMapContent mapContent = imageMap.getMapContext();
+            final RenderingProfile profile = RenderingProfile.get(mapContent);
+            final long encodingStart = profile != null ? System.nanoTime() : 0;
             try {
                 formatImageOutputStream(image, output, mapContent);
                 output.flush();
+                if (profile != null) {
+                    profile.setEncodingTime(System.nanoTime() - encodingStart);
+                }
             } finally {
                 // let go of the coverages created for rendering
                 for (GridCoverage2D coverage : renderedCoverages) {
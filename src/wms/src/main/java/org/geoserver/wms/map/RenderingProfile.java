@@ -0,0 +1,306 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.wms.DefaultWebMapService;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.data.FeatureSource;
+import org.geotools.map.Layer;
+import org.geotools.renderer.RenderListener;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.type.Name;
+
+/**
+ * Records where the time goes while producing a GetMap: for each layer the time to the first
+ * feature, the number of features painted and the time spent painting them, then the time spent
+ * finishing the map (mostly painting the labels) and the time spent encoding the image.
+ *
+ * <p>The profile is driven by the render listener events, so the layer timings are approximate:
+ * the query time of a layer is the time elapsed between the end of the previous layer and its
+ * first feature, the render time is the time elapsed between its first and last feature. When
+ * profiling is not enabled no profile is created and no listener is added to the renderer.
+ *
+ * <p>The profile is stored in the map content metadata, and as an attribute of the current HTTP
+ * request, where the monitoring extension can pick it up.
+ */
+public class RenderingProfile implements RenderListener {
+
+    /** Format option enabling the profile, and painting it on top of the map */
+    public static final String PROFILE_FORMAT_OPTION = "profile";
+
+    /** Response header carrying the profile */
+    public static final String PROFILE_HEADER = "geoserver-rendering-profile";
+
+    /** Key of the profile in the map content metadata and in the HTTP request attributes */
+    public static final String PROFILE_KEY = RenderingProfile.class.getName();
+
+    /** The profile of a single layer */
+    public static class LayerProfile {
+
+        private final String name;
+
+        private long features;
+
+        private long first = -1;
+
+        private long last = -1;
+
+        private long queryTime;
+
+        private long renderTime;
+
+        LayerProfile(String name) {
+            this.name = name;
+        }
+
+        /** The layer name */
+        public String getName() {
+            return name;
+        }
+
+        /** The number of features painted, or -1 if not known (e.g., for a coverage) */
+        public long getFeatures() {
+            return features;
+        }
+
+        /** Time elapsed before the first feature got painted, in milliseconds */
+        public long getQueryTime() {
+            return TimeUnit.NANOSECONDS.toMillis(queryTime);
+        }
+
+        /** Time spent painting the features, in milliseconds */
+        public long getRenderTime() {
+            return TimeUnit.NANOSECONDS.toMillis(renderTime);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name);
+            sb.append(": query=").append(getQueryTime()).append("ms");
+            if (features >= 0) {
+                sb.append(" features=").append(features);
+            }
+            sb.append(" render=").append(getRenderTime()).append("ms");
+            return sb.toString();
+        }
+    }
+
+    private final Map<Name, LayerProfile> layersByType = new LinkedHashMap<>();
+
+    private final List<LayerProfile> layers = new ArrayList<>();
+
+    private final boolean overlay;
+
+    private long renderingStart = -1;
+
+    private long labelTime = -1;
+
+    private long encodingTime = -1;
+
+    RenderingProfile(WMSMapContent mapContent, boolean overlay) {
+        this.overlay = overlay;
+        for (Layer layer : mapContent.layers()) {
+            FeatureSource<?, ?> source = layer.getFeatureSource();
+            if (source != null && source.getSchema() != null) {
+                Name typeName = source.getSchema().getName();
+                if (!layersByType.containsKey(typeName)) {
+                    String name = layer.getTitle();
+                    if (name == null) {
+                        name = typeName.getLocalPart();
+                    }
+                    layersByType.put(typeName, new LayerProfile(name));
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts profiling the map, if profiling is enabled globally or by the request format
+     * options, returns null otherwise
+     */
+    public static RenderingProfile start(WMSMapContent mapContent) {
+        boolean overlay = isOverlayRequested(mapContent);
+        if (!overlay && !DefaultWebMapService.isRenderingProfileEnabled()) {
+            return null;
+        }
+
+        RenderingProfile profile = new RenderingProfile(mapContent, overlay);
+        mapContent.getMetadata().put(PROFILE_KEY, profile);
+        Request request = Dispatcher.REQUEST.get();
+        if (request != null && request.getHttpRequest() != null) {
+            request.getHttpRequest().setAttribute(PROFILE_KEY, profile);
+        }
+        return profile;
+    }
+
+    /** Returns true if the request asks for the profile to be painted on top of the map */
+    public static boolean isOverlayRequested(WMSMapContent mapContent) {
+        Object option = mapContent.getRequest().getFormatOptions().get(PROFILE_FORMAT_OPTION);
+        return option != null && Boolean.valueOf(String.valueOf(option));
+    }
+
+    /** Returns the profile of the map, or null if the map is not being profiled */
+    public static RenderingProfile get(WMSMapContent mapContent) {
+        return (RenderingProfile) mapContent.getMetadata().get(PROFILE_KEY);
+    }
+
+    /** Returns the profile of the map produced by the request, or null if none was collected */
+    public static RenderingProfile get(Request request) {
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        if (httpRequest == null) {
+            return null;
+        }
+        return (RenderingProfile) httpRequest.getAttribute(PROFILE_KEY);
+    }
+
+    /** Returns true if the profile should be painted on top of the map */
+    public boolean isOverlay() {
+        return overlay;
+    }
+
+    /** Marks the start of the rendering */
+    public synchronized void renderingStarted() {
+        renderingStart = System.nanoTime();
+    }
+
+    /** Marks the end of the rendering, the time after the last feature is accounted to labels */
+    public synchronized void renderingCompleted() {
+        long renderingEnd = System.nanoTime();
+        long lastFeature = renderingStart;
+        for (LayerProfile layer : layers) {
+            lastFeature = Math.max(lastFeature, layer.last);
+        }
+        labelTime = renderingEnd - lastFeature;
+    }
+
+    /**
+     * Adds the profile of a layer rendered without going through the render listener events, the
+     * number of features can be -1 if not known
+     */
+    public synchronized void addLayer(String name, long features, long renderTime) {
+        LayerProfile layer = new LayerProfile(name);
+        layer.features = features;
+        layer.renderTime = renderTime;
+        layers.add(layer);
+    }
+
+    /** Sets the time spent encoding the image, in nanoseconds */
+    public synchronized void setEncodingTime(long encodingTime) {
+        this.encodingTime = encodingTime;
+    }
+
+    @Override
+    public synchronized void featureRenderer(SimpleFeature feature) {
+        long now = System.nanoTime();
+        Name typeName = feature.getFeatureType().getName();
+        LayerProfile layer = layersByType.get(typeName);
+        if (layer == null) {
+            layer = new LayerProfile(typeName.getLocalPart());
+            layersByType.put(typeName, layer);
+        }
+        if (layer.features == 0) {
+            layer.first = now;
+            layers.add(layer);
+        }
+        layer.last = now;
+        layer.features++;
+    }
+
+    @Override
+    public void errorOccurred(Exception e) {
+        // nothing to do, errors are handled by the other listeners
+    }
+
+    /** Returns the layer profiles, in the order they started painting */
+    public synchronized List<LayerProfile> getLayers() {
+        List<LayerProfile> result = new ArrayList<>(layers);
+        // the events of layers painted in parallel can be interleaved
+        result.sort(Comparator.comparingLong(l -> l.first));
+        long previousEnd = renderingStart;
+        for (LayerProfile layer : result) {
+            if (layer.first >= 0) {
+                layer.queryTime = previousEnd >= 0 ? Math.max(0, layer.first - previousEnd) : 0;
+                layer.renderTime = layer.last - layer.first;
+                previousEnd = Math.max(previousEnd, layer.last);
+            }
+        }
+        return result;
+    }
+
+    /** Time spent after the last feature got painted, mostly painting labels, in milliseconds */
+    public synchronized long getLabelTime() {
+        return labelTime < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(labelTime);
+    }
+
+    /** Time spent encoding the image, in milliseconds, or -1 if not known yet */
+    public synchronized long getEncodingTime() {
+        return encodingTime < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(encodingTime);
+    }
+
+    /** Paints the profile in the top left corner of the map */
+    public void paint(Graphics2D graphics, Rectangle paintArea) {
+        List<String> lines = new ArrayList<>();
+        for (LayerProfile layer : getLayers()) {
+            lines.add(layer.toString());
+        }
+        long labels = getLabelTime();
+        if (labels >= 0) {
+            lines.add("labels=" + labels + "ms");
+        }
+
+        Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            g.clip(paintArea);
+            g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+            FontMetrics metrics = g.getFontMetrics();
+            int width = 0;
+            for (String line : lines) {
+                width = Math.max(width, metrics.stringWidth(line));
+            }
+            int lineHeight = metrics.getHeight();
+            g.setColor(new Color(255, 255, 255, 192));
+            g.fillRect(paintArea.x, paintArea.y, width + 8, lineHeight * lines.size() + 8);
+            g.setColor(Color.BLACK);
+            int y = paintArea.y + 4 + metrics.getAscent();
+            for (String line : lines) {
+                g.drawString(line, paintArea.x + 4, y);
+                y += lineHeight;
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        for (LayerProfile layer : getLayers()) {
+            parts.add(layer.toString());
+        }
+        long labels = getLabelTime();
+        if (labels >= 0) {
+            parts.add("labels=" + labels + "ms");
+        }
+        long encoding = getEncodingTime();
+        if (encoding >= 0) {
+            parts.add("encoding=" + encoding + "ms");
+        }
+        return String.join("; ", parts);
+    }
+}
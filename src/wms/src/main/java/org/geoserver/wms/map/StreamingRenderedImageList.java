@@ -0,0 +1,160 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.image.RenderedImage;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.media.jai.RenderedImageList;
+import org.geoserver.platform.ServiceException;
+
+/**
+ * A {@link RenderedImageList} whose images are produced on demand by a list of loaders, run on an
+ * executor at most {@code window} images ahead of the consumer.
+ *
+ * <p>The list is meant to be read once, in order, by an encoder streaming the images out (e.g., the
+ * animated GIF one): each image is handed out once and then forgotten, so that the memory used
+ * depends on the window size, and not on the number of images. Reading an image that has already
+ * been consumed returns null. The first image is the only exception, it's kept around as the
+ * primary image of the list, providing its size, sample and color model.
+ *
+ * <p>Loaders can return null, e.g. for frames that could not be rendered. The first non null image
+ * is returned at position 0, the positions up to its own one return null, so that reading the list
+ * in order returns all the non null images once, in their original order.
+ *
+ * <p>Call {@link #close()} to stop producing images when done, or when the encoding failed.
+ */
+public class StreamingRenderedImageList extends RenderedImageList {
+
+    private final List<Callable<RenderedImage>> loaders;
+
+    private final List<Future<RenderedImage>> futures;
+
+    private final ExecutorService executor;
+
+    private final int window;
+
+    private final int size;
+
+    private RenderedImage first;
+
+    /** The number of images read while looking for the first non null one */
+    private int scanned;
+
+    /** The number of loaders submitted to the executor so far */
+    private int submitted;
+
+    private boolean closed;
+
+    /**
+     * Builds a new list
+     *
+     * @param loaders The image loaders, one per image, in order
+     * @param executor The executor running the loaders
+     * @param window The max number of images being produced, or produced but not yet consumed
+     */
+    public StreamingRenderedImageList(
+            List<Callable<RenderedImage>> loaders, ExecutorService executor, int window) {
+        super();
+        if (loaders == null || loaders.isEmpty()) {
+            throw new IllegalArgumentException("The list of image loaders cannot be empty");
+        }
+        this.loaders = new ArrayList<>(loaders);
+        this.size = loaders.size();
+        this.futures = new ArrayList<>(Collections.nCopies(size, null));
+        this.executor = executor;
+        this.window = Math.max(1, window);
+        this.imageCollection = new ImageView();
+    }
+
+    /** Returns the max number of images being produced, or produced but not consumed yet */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Returns the image at the given position, waiting for it to be produced, and schedules the
+     * production of the following ones
+     */
+    synchronized RenderedImage getImage(int index) {
+        if (index == 0) {
+            while (first == null && scanned < size) {
+                first = produce(scanned++);
+            }
+            return first;
+        }
+        if (index < scanned) {
+            // null, or the first image, already returned at position 0
+            return null;
+        }
+        return produce(index);
+    }
+
+    private RenderedImage produce(int index) {
+        if (closed) {
+            return null;
+        }
+
+        // keep the window full
+        int limit = Math.min(size, index + window);
+        while (submitted < limit) {
+            futures.set(submitted, executor.submit(loaders.get(submitted)));
+            // the loader is not needed anymore, let it go
+            loaders.set(submitted, null);
+            submitted++;
+        }
+
+        Future<RenderedImage> future = futures.set(index, null);
+        if (future == null) {
+            // already consumed
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new ServiceException("Interrupted while waiting for image " + index, e);
+        } catch (ExecutionException e) {
+            close();
+            throw new ServiceException("Failed to produce image " + index, e.getCause());
+        }
+    }
+
+    /** Stops the production of the images not yet consumed, and releases the ones already built */
+    public synchronized void close() {
+        closed = true;
+        for (int i = 0; i < size; i++) {
+            Future<RenderedImage> future = futures.set(i, null);
+            if (future != null) {
+                future.cancel(false);
+            }
+            loaders.set(i, null);
+        }
+    }
+
+    /** Read only list view feeding the parent class methods */
+    private class ImageView extends AbstractList<RenderedImage> {
+
+        @Override
+        public RenderedImage get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Invalid image index " + index);
+            }
+            return getImage(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
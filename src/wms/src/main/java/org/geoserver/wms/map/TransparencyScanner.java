@@ -0,0 +1,164 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.function.IntPredicate;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.operator.ExtremaDescriptor;
+import org.geotools.image.util.ImageUtilities;
+
+/**
+ * Checks if an image is fully opaque, working directly on the raster data buffers and stopping at
+ * the first transparent pixel found. Images with an alpha channel are checked against the max alpha
+ * value, paletted images against the alpha table of the palette (no scan at all is needed if the
+ * palette is opaque).
+ *
+ * <p>Renderers that know the image to be opaque (e.g., because an opaque background was painted)
+ * can report it by setting {@link #OPAQUE_KEY} to {@link Boolean#TRUE} in the map content metadata,
+ * allowing to skip the scan.
+ */
+public class TransparencyScanner {
+
+    /** Map content metadata key, set to {@link Boolean#TRUE} if the image is known to be opaque */
+    public static final String OPAQUE_KEY = "opaqueImage";
+
+    private TransparencyScanner() {
+        // utility class
+    }
+
+    /** Returns true if the image has no transparent or translucent pixel */
+    public static boolean isOpaque(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        if (cm instanceof IndexColorModel) {
+            return isOpaque(image, (IndexColorModel) cm);
+        }
+
+        SampleModel sm = image.getSampleModel();
+        int numBands = sm.getNumBands();
+        boolean hasAlpha = cm != null ? cm.hasAlpha() : numBands == 2 || numBands == 4;
+        if (!hasAlpha) {
+            return true;
+        }
+        int alphaBand = numBands - 1;
+        int sampleSize = sm.getSampleSize(alphaBand);
+        int dataType = sm.getDataType();
+        if (dataType == DataBuffer.TYPE_FLOAT
+                || dataType == DataBuffer.TYPE_DOUBLE
+                || sampleSize > 30) {
+            return isOpaqueExtrema(image, alphaBand);
+        }
+        final int opaque = (1 << sampleSize) - 1;
+        return scan(image, alphaBand, sample -> sample != opaque);
+    }
+
+    private static boolean isOpaque(RenderedImage image, IndexColorModel icm) {
+        if (icm.getTransparency() == Transparency.OPAQUE) {
+            return true;
+        }
+        final int size = icm.getMapSize();
+        final boolean[] translucent = new boolean[size];
+        boolean found = false;
+        for (int i = 0; i < size; i++) {
+            if (icm.getAlpha(i) != 255) {
+                translucent[i] = true;
+                found = true;
+            }
+        }
+        if (!found) {
+            return true;
+        }
+        return scan(image, 0, sample -> sample < size && translucent[sample]);
+    }
+
+    /** Fallback for floating point alpha channels, computes the band extrema */
+    private static boolean isOpaqueExtrema(RenderedImage image, int alphaBand) {
+        RenderingHints renderingHints = ImageUtilities.getRenderingHints(image);
+        RenderedOp extremaOp =
+                ExtremaDescriptor.create(image, null, 1, 1, false, 1, renderingHints);
+        double[][] extrema = (double[][]) extremaOp.getProperty("Extrema");
+        return extrema[0][alphaBand] >= 1;
+    }
+
+    /** Scans all tiles, returns false as soon as a transparent sample is found in the given band */
+    private static boolean scan(RenderedImage image, int band, IntPredicate transparent) {
+        Rectangle bounds =
+                new Rectangle(
+                        image.getMinX(), image.getMinY(), image.getWidth(), image.getHeight());
+        int maxTileX = image.getMinTileX() + image.getNumXTiles();
+        int maxTileY = image.getMinTileY() + image.getNumYTiles();
+        for (int ty = image.getMinTileY(); ty < maxTileY; ty++) {
+            for (int tx = image.getMinTileX(); tx < maxTileX; tx++) {
+                Raster tile = image.getTile(tx, ty);
+                Rectangle area = tile.getBounds().intersection(bounds);
+                if (!area.isEmpty() && !scan(tile, area, band, transparent)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static boolean scan(Raster raster, Rectangle area, int band, IntPredicate transparent) {
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        // coordinates in the sample model space
+        int x0 = area.x - raster.getSampleModelTranslateX();
+        int y0 = area.y - raster.getSampleModelTranslateY();
+        if (sm instanceof ComponentSampleModel && db instanceof DataBufferByte) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            int bank = csm.getBankIndices()[band];
+            byte[] data = ((DataBufferByte) db).getData(bank);
+            int pixelStride = csm.getPixelStride();
+            for (int y = y0; y < y0 + area.height; y++) {
+                int idx = db.getOffsets()[bank] + csm.getOffset(x0, y, band);
+                for (int x = 0; x < area.width; x++, idx += pixelStride) {
+                    if (transparent.test(data[idx] & 0xFF)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } else if (sm instanceof SinglePixelPackedSampleModel && db instanceof DataBufferInt) {
+            SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel) sm;
+            int[] data = ((DataBufferInt) db).getData();
+            int mask = sppsm.getBitMasks()[band];
+            int shift = sppsm.getBitOffsets()[band];
+            for (int y = y0; y < y0 + area.height; y++) {
+                int idx = db.getOffset() + sppsm.getOffset(x0, y);
+                for (int x = 0; x < area.width; x++, idx++) {
+                    if (transparent.test((data[idx] & mask) >>> shift)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        // generic case, read one row at a time
+        int[] samples = new int[area.width];
+        for (int y = area.y; y < area.y + area.height; y++) {
+            raster.getSamples(area.x, y, area.width, 1, band, samples);
+            for (int sample : samples) {
+                if (transparent.test(sample)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
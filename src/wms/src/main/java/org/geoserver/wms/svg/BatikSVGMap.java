@@ -5,24 +5,26 @@
  */
 package org.geoserver.wms.svg;
 
-import org.apache.batik.svggen.SVGGraphics2D;
+import java.io.IOException;
+import java.io.Writer;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.WMSMapContent;
 
+/**
+ * A map to be rendered by {@link SVGBatikMapOutputFormat}, the rendering is deferred to the
+ * response encoding, so that the SVG can be streamed out while being rendered
+ */
 public class BatikSVGMap extends org.geoserver.wms.WebMap {
-    private SVGGraphics2D graphics;
+    private final SVGBatikMapOutputFormat format;
 
-    BatikSVGMap(WMSMapContent context, SVGGraphics2D graphics) {
+    BatikSVGMap(WMSMapContent context, SVGBatikMapOutputFormat format) {
         super(context);
-        this.graphics = graphics;
+        this.format = format;
         setMimeType(SVG.MIME_TYPE);
     }
 
-    public SVGGraphics2D getGraphics() {
-        return graphics;
-    }
-
-    @Override
-    public void disposeInternal() {
-        graphics.dispose();
+    /** Renders the map, writing out the SVG as it goes */
+    public void encode(Writer writer) throws ServiceException, IOException {
+        format.encode(mapContent, writer);
     }
 }
@@ -6,9 +6,17 @@
 package org.geoserver.wms.svg;
 
 import java.awt.Dimension;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -16,23 +24,37 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import org.apache.batik.svggen.SVGGeneratorContext;
 import org.apache.batik.svggen.SVGGraphics2D;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
 import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.LayerSectionRenderer;
+import org.geoserver.wms.map.LayerSectionRenderer.SectionHandler;
 import org.geoserver.wms.map.MaxErrorEnforcer;
 import org.geoserver.wms.map.RenderExceptionStrategy;
-import org.geotools.map.MapContent;
+import org.geotools.map.Layer;
 import org.geotools.renderer.lite.StreamingRenderer;
+import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 
 /**
  * Renders svg using the Batik SVG Toolkit. An SVG context is created for a map and then passed of
- * to {@link org.geotools.renderer.lite.StreamingRenderer}.
+ * to {@link org.geotools.renderer.lite.StreamingRenderer}. The map is rendered while the response
+ * is written, and serialized a layer at a time.
  *
  * @author Justin Deoliveira, The Open Planning Project
  */
@@ -53,6 +75,17 @@ public final class SVGBatikMapOutputFormat implements GetMapOutputFormat {
     private static MapProducerCapabilities CAPABILITIES =
             new MapProducerCapabilities(false, false, false, true, null);
 
+    /** The XML declaration and document type, the same Batik writes out */
+    private static final String SVG_HEADER =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+                    + "<!DOCTYPE svg PUBLIC '-//W3C//DTD SVG 1.0//EN'\n"
+                    + "          'http://www.w3.org/TR/2001/REC-SVG-20010904/DTD/svg10.dtd'>\n";
+
+    private static final String SVG_FOOTER = "</svg>\n";
+
+    /** Size of the serialized layers kept in memory before switching to a temporary file */
+    static final int SPOOL_THRESHOLD = 1024 * 1024;
+
     private final WMS wms;
 
     public SVGBatikMapOutputFormat(WMS wms) {
@@ -75,26 +108,18 @@ public final class SVGBatikMapOutputFormat implements GetMapOutputFormat {
         return SVG.MIME_TYPE;
     }
 
-    /** @see org.geoserver.wms.GetMapOutputFormat#produceMap(org.geoserver.wms.WMSMapContent) */
+    /**
+     * The map is rendered while writing the response, see {@link #encode(WMSMapContent, Writer)}
+     *
+     * @see org.geoserver.wms.GetMapOutputFormat#produceMap(org.geoserver.wms.WMSMapContent)
+     */
     public BatikSVGMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
-
-        StreamingRenderer renderer = setUpRenderer(mapContent);
-        SVGGraphics2D g = createSVGMap(renderer, mapContent);
-        renderer = null;
-
-        // This method of output does not output the DOCTYPE definiition
-        // TODO: make a config option that toggles wether doctype is
-        // written out.
-        // OutputFormat format = new OutputFormat();
-        // XMLSerializer serializer = new XMLSerializer(new OutputStreamWriter(out, "UTF-8"),
-        // format);
-
-        return new BatikSVGMap(mapContent, g);
+        return new BatikSVGMap(mapContent, this);
     }
 
-    private StreamingRenderer setUpRenderer(WMSMapContent mapContent) {
+    private StreamingRenderer setUpRenderer(WMSMapContent mapContent, SectionHandler sections) {
         StreamingRenderer renderer;
-        renderer = new StreamingRenderer();
+        renderer = new LayerSectionRenderer(StreamingRenderer::new, sections);
 
         // optimized data loading was not here, but yet it seems sensible to
         // have it...
@@ -116,33 +141,30 @@ public final class SVGBatikMapOutputFormat implements GetMapOutputFormat {
         return renderer;
     }
 
-    public SVGGraphics2D createSVGMap(
-            final StreamingRenderer renderer, final WMSMapContent mapContent)
+    /**
+     * Renders the map and writes it out as SVG. Each layer is painted in its own group, which is
+     * serialized and dropped from the DOM as soon as the layer is complete, so that the memory
+     * used depends on the largest layer, rather than on the whole map. The labels of all layers
+     * are painted last, in their own group. The groups are spooled, and written out only once the
+     * rendering succeeded, so that errors can still be reported as a service exception.
+     */
+    public void encode(final WMSMapContent mapContent, final Writer writer)
             throws ServiceException, IOException {
+        SVGGraphics2D g = null;
+        DeferredFileOutputStream spool =
+                new DeferredFileOutputStream(SPOOL_THRESHOLD, "svg", ".tmp", null);
+        Writer groups = new OutputStreamWriter(spool, StandardCharsets.UTF_8);
         try {
-            MapContent map = renderer.getMapContent();
-            double width = -1;
-            double height = -1;
-
-            if (map instanceof WMSMapContent) {
-                WMSMapContent wmsMap = (WMSMapContent) map;
-                width = wmsMap.getMapWidth();
-                height = wmsMap.getMapHeight();
-            } else {
-                // get fromt he map content
-                Rectangle screenArea = map.getViewport().getScreenArea();
-                width = screenArea.getWidth();
-                height = screenArea.getHeight();
-            }
-
-            if ((height == -1) || (width == -1)) {
+            int width = mapContent.getMapWidth();
+            int height = mapContent.getMapHeight();
+            if ((height <= 0) || (width <= 0)) {
                 throw new IOException("Could not determine map dimensions");
             }
 
             SVGGeneratorContext context = setupContext();
-            SVGGraphics2D g = new SVGGraphics2D(context, true);
+            g = new SVGGraphics2D(context, true);
 
-            g.setSVGCanvasSize(new Dimension((int) width, (int) height));
+            g.setSVGCanvasSize(new Dimension(width, height));
 
             // turn off/on anti aliasing
             if (wms.isSvgAntiAlias()) {
@@ -153,6 +175,26 @@ public final class SVGBatikMapOutputFormat implements GetMapOutputFormat {
                         RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
             }
 
+            final SVGGraphics2D graphics = g;
+            final Transformer transformer = getTransformer();
+            String startTag = getStartTag(graphics);
+            StreamingRenderer renderer =
+                    setUpRenderer(
+                            mapContent,
+                            new SectionHandler() {
+
+                                @Override
+                                public Graphics2D startSection(Layer layer) {
+                                    return graphics;
+                                }
+
+                                @Override
+                                public void endSection(Layer layer, Graphics2D sectionGraphics)
+                                        throws IOException {
+                                    writeGroup(graphics, groups, transformer);
+                                }
+                            });
+
             // enforce no more than x rendering errors
             int maxErrors = wms.getMaxRenderingErrors();
             MaxErrorEnforcer errorChecker = new MaxErrorEnforcer(renderer, maxErrors);
@@ -185,10 +227,104 @@ public final class SVGBatikMapOutputFormat implements GetMapOutputFormat {
                         "Rendering process failed", renderError, "internalError");
             }
 
-            return g;
-        } catch (ParserConfigurationException e) {
+            // the labels, then write out the whole document
+            writeGroup(g, groups, transformer);
+            writer.write(SVG_HEADER);
+            writer.write(startTag);
+            writer.write("\n");
+            copySpool(spool, groups, writer);
+            writer.write(SVG_FOOTER);
+            writer.flush();
+        } catch (ParserConfigurationException | TransformerException e) {
             throw new ServiceException("Unexpected exception", e, "internalError");
+        } finally {
+            if (g != null) {
+                g.dispose();
+            }
+            groups.close();
+            File file = spool.getFile();
+            if (file != null && file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    private Transformer getTransformer() throws TransformerException {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        return transformer;
+    }
+
+    /**
+     * Builds the root element start tag out of the root attributes set up by the graphics, the
+     * layer groups will follow it
+     */
+    private String getStartTag(SVGGraphics2D g) {
+        Element root = g.getRoot();
+        StringBuilder sb = new StringBuilder("<").append(root.getTagName());
+        if (!root.hasAttribute("xmlns") && root.getNamespaceURI() != null) {
+            appendAttribute(sb, "xmlns", root.getNamespaceURI());
+        }
+        NamedNodeMap attributes = root.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            appendAttribute(sb, attribute.getName(), attribute.getValue());
+        }
+        return sb.append('>').toString();
+    }
+
+    private void appendAttribute(StringBuilder sb, String name, String value) {
+        sb.append(' ').append(name).append("=\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /** Copies the spooled layer groups to the response */
+    private void copySpool(DeferredFileOutputStream spool, Writer groups, Writer writer)
+            throws IOException {
+        groups.flush();
+        if (spool.isInMemory()) {
+            writer.write(new String(spool.getData(), StandardCharsets.UTF_8));
+        } else {
+            groups.close();
+            try (Reader reader =
+                    new InputStreamReader(
+                            new FileInputStream(spool.getFile()), StandardCharsets.UTF_8)) {
+                IOUtils.copy(reader, writer);
+            }
+        }
+    }
+
+    /**
+     * Writes out the group painted so far, along with its definitions, and makes the graphics
+     * start a new one
+     */
+    private void writeGroup(SVGGraphics2D g, Writer writer, Transformer transformer)
+            throws IOException {
+        Element group = g.getTopLevelGroup(true);
+        try {
+            transformer.transform(new DOMSource(group), new StreamResult(writer));
+        } catch (TransformerException e) {
+            throw new IOException("Failed to write out the SVG group", e);
         }
+        writer.write("\n");
     }
 
     private SVGGeneratorContext setupContext()
@@ -8,7 +8,6 @@ package org.geoserver.wms.svg;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import org.apache.batik.svggen.SVGGraphics2D;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.map.AbstractMapResponse;
@@ -35,8 +34,7 @@ public final class SVGBatikMapResponse extends AbstractMapResponse {
 
         BatikSVGMap map = (BatikSVGMap) value;
         try {
-            SVGGraphics2D graphics = map.getGraphics();
-            graphics.stream(new OutputStreamWriter(output, "UTF-8"));
+            map.encode(new OutputStreamWriter(output, "UTF-8"));
         } finally {
             map.dispose();
         }
@@ -4,7 +4,9 @@
  */
 package org.geoserver.wms.utfgrid;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.opengis.feature.Feature;
 
@@ -43,6 +45,9 @@ class UTFGridEntries {
 
     Map<String, UTFGridEntry> entryMap = new HashMap<>();
 
+    /** The entries, in value order (the value of the entry at index i is i + 1) */
+    List<UTFGridEntry> entries = new ArrayList<>();
+
     int value = 1;
 
     int getKeyForFeature(Feature feature) {
@@ -51,16 +56,17 @@ class UTFGridEntries {
         if (entry == null) {
             entry = new UTFGridEntry(value++, feature);
             entryMap.put(id, entry);
+            entries.add(entry);
         }
         return entry.getValue();
     }
 
-    Map<Integer, UTFGridEntry> getEntryMap() {
-        Map<Integer, UTFGridEntry> result = new HashMap<>();
-        for (UTFGridEntry entry : entryMap.values()) {
-            result.put(entry.getValue(), entry);
+    /** Returns the entry with the given value, or null if no entry is associated to it */
+    UTFGridEntry getEntry(int value) {
+        int index = value - 1;
+        if (index < 0 || index >= entries.size()) {
+            return null;
         }
-
-        return result;
+        return entries.get(index);
     }
 }
@@ -8,13 +8,13 @@ import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import net.sf.json.util.JSONBuilder;
-import net.sf.json.util.JSONStringer;
 import org.geoserver.wms.map.RawMap;
 import org.geoserver.wms.utfgrid.UTFGridEntries.UTFGridEntry;
 import org.geotools.util.Converters;
@@ -65,7 +65,7 @@ public class UTFGridMap extends RawMap {
             pw.print("  \"");
             pw.print(entry.getKey());
             pw.print("\" : ");
-            pw.print(getAttributesJson(entry.getFeature()));
+            writeAttributesJson(pw, entry.getFeature());
             if (it.hasNext()) {
                 pw.println(",");
             }
@@ -75,8 +75,9 @@ public class UTFGridMap extends RawMap {
         pw.flush();
     }
 
-    private String getAttributesJson(Feature feature) {
-        JSONBuilder builder = new JSONStringer().object();
+    /** Streams the feature attributes as a JSON object, without building it in memory first */
+    private void writeAttributesJson(Writer writer, Feature feature) {
+        JSONBuilder builder = new JSONBuilder(writer).object();
         builder.key("id").value(feature.getIdentifier().toString());
         if (feature instanceof SimpleFeature) {
             SimpleFeature sf = (SimpleFeature) feature;
@@ -101,7 +102,6 @@ public class UTFGridMap extends RawMap {
         }
 
         builder.endObject();
-        return builder.toString();
     }
 
     private void addAttribute(JSONBuilder builder, String name, Object value) {
@@ -113,7 +113,11 @@ public class UTFGridMap extends RawMap {
 
     /**
      * Writes the grid, and maps the original values into a compact sequence of keys (the original
-     * values might be sparse due to features being fully overwritten by other features)
+     * values might be sparse due to features being fully overwritten by other features).
+     *
+     * <p>Each row is run-length encoded on the fly, looking up the entry and computing the grid
+     * char once per run of equal values (empty rows end up being a single run), and then written
+     * out in one shot.
      *
      * @param pw
      * @param image
@@ -121,23 +125,29 @@ public class UTFGridMap extends RawMap {
      */
     private List<UTFGridEntry> writeGrid(
             PrintWriter pw, RenderedImage image, UTFGridEntries entries) {
-        Map<Integer, UTFGridEntry> keyToFeature = entries.getEntryMap();
         List<UTFGridEntry> result = new ArrayList<UTFGridEntry>();
 
         int key = 1;
         Raster data = getData(image);
         int width = data.getWidth();
         int[] pixels = new int[width];
+        char[] row = new char[width];
         int height = data.getHeight();
         for (int r = 0; r < height; r++) {
-            data.getDataElements(0, r, width, 1, pixels);
-            pw.print("\"");
-            for (int i = 0; i < pixels.length; i++) {
-                int pixel = pixels[i] & 0xFFFFFF;
+            data.getDataElements(data.getMinX(), data.getMinY() + r, width, 1, pixels);
+            int start = 0;
+            while (start < width) {
+                int pixel = pixels[start] & 0xFFFFFF;
+                int end = start + 1;
+                while (end < width && (pixels[end] & 0xFFFFFF) == pixel) {
+                    end++;
+                }
+
+                char code;
                 if (pixel == 0) {
-                    pw.print(" ");
+                    code = ' ';
                 } else {
-                    UTFGridEntry entry = keyToFeature.get(pixel);
+                    UTFGridEntry entry = entries.getEntry(pixel);
                     if (entry == null) {
                         throw new RuntimeException(
                                 "Could not find entry for pixel value "
@@ -151,9 +161,14 @@ public class UTFGridMap extends RawMap {
                         entry.setKey(entryKey);
                         result.add(entry);
                     }
-                    pw.print(getGridChar(entryKey));
+                    code = getGridChar(entryKey);
                 }
+                Arrays.fill(row, start, end, code);
+                start = end;
             }
+
+            pw.print("\"");
+            pw.write(row, 0, width);
             if (r < height - 1) {
                 pw.println("\",");
             } else {
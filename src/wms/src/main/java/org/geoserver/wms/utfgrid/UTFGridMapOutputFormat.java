@@ -95,6 +95,12 @@ public class UTFGridMapOutputFormat extends AbstractMapOutputFormat {
                         return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
                     }
 
+                    @Override
+                    protected int getParallelRenderingThreads(WMSMapContent mapContent) {
+                        // the feature ids are painted on a single grid
+                        return 0;
+                    }
+
                     @Override
                     protected void onBeforeRender(StreamingRenderer renderer) {
                         // disable antialiasing, numbers signify ids, we cannot have "half tints"
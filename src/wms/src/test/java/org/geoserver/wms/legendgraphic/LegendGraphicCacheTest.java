@@ -0,0 +1,124 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.legendgraphic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.wms.GetLegendGraphicRequest;
+import org.geoserver.wms.WMSTestSupport;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LegendGraphicCacheTest extends WMSTestSupport {
+
+    private static final String LEGEND_REQUEST =
+            "wms?service=WMS&version=1.1.1&request=GetLegendGraphic&format=image/png&layer=";
+
+    private LegendGraphicCache cache;
+
+    @Before
+    public void clearCache() {
+        cache = applicationContext.getBean(LegendGraphicCache.class);
+        cache.clear();
+    }
+
+    @Test
+    public void testCacheAndInvalidation() throws Exception {
+        String lakes = getLayerId(MockData.LAKES);
+        getAsImage(LEGEND_REQUEST + lakes, "image/png");
+        assertEquals(1, cache.size());
+        // parameter names are case insensitive
+        getAsImage(LEGEND_REQUEST.replace("layer=", "LAYER=") + lakes, "image/png");
+        assertEquals(1, cache.size());
+        // a different size is a different legend
+        getAsImage(LEGEND_REQUEST + lakes + "&width=40&height=40", "image/png");
+        assertEquals(2, cache.size());
+
+        // changing a style flushes the cache
+        Catalog catalog = getCatalog();
+        StyleInfo style = catalog.getLayerByName(lakes).getDefaultStyle();
+        catalog.save(style);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        GetLegendGraphicRequest request = new GetLegendGraphicRequest(getWMS());
+        Map<String, String> kvp = new HashMap<>();
+        kvp.put("LAYER", "cite:Lakes");
+        request.setRawKvp(kvp);
+        assertNotNull(cache.getKey(request));
+
+        // requests not going through the dispatcher are not cached
+        request.setRawKvp(null);
+        assertNull(cache.getKey(request));
+
+        // styles not coming from the configuration are not cached
+        kvp.put("SLD_BODY", "<StyledLayerDescriptor/>");
+        request.setRawKvp(kvp);
+        assertNull(cache.getKey(request));
+        kvp.remove("SLD_BODY");
+
+        // legends depending on data are not cached
+        Map<String, Object> options = new HashMap<>();
+        options.put(GetLegendGraphicRequest.COUNT_MATCHED_KEY, "true");
+        request.setLegendOptions(options);
+        assertNull(cache.getKey(request));
+    }
+
+    @Test
+    public void testBaseUrlInKey() throws Exception {
+        Map<String, String> kvp = new HashMap<>();
+        kvp.put("LAYER", "cite:Lakes");
+        kvp.put("FORMAT", "application/json");
+        GetLegendGraphicRequest local = new GetLegendGraphicRequest(getWMS());
+        local.setRawKvp(kvp);
+        local.setBaseUrl("http://localhost:8080/geoserver/");
+        GetLegendGraphicRequest same = new GetLegendGraphicRequest(getWMS());
+        same.setRawKvp(kvp);
+        same.setBaseUrl("http://localhost:8080/geoserver/");
+        GetLegendGraphicRequest proxied = new GetLegendGraphicRequest(getWMS());
+        proxied.setRawKvp(kvp);
+        proxied.setBaseUrl("https://maps.example.com/geoserver/");
+
+        // the same legend, but its links point to a different server
+        assertEquals(cache.getKey(local), cache.getKey(same));
+        assertNotEquals(cache.getKey(local), cache.getKey(proxied));
+    }
+
+    @Test
+    public void testExternalImages() throws Exception {
+        File file = new File(testData.getDataDirectoryRoot(), "external-legend.png");
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB), "png", file);
+        URL url = file.toURI().toURL();
+
+        BufferedImage image = cache.getExternalImage(url);
+        assertEquals(10, image.getWidth());
+        assertSame(image, cache.getExternalImage(url));
+        cache.clear();
+        assertNotSame(image, cache.getExternalImage(url));
+
+        // nothing cached if disabled
+        LegendGraphicCache disabled = new LegendGraphicCache(null, 0, 60);
+        assertNotSame(disabled.getExternalImage(url), disabled.getExternalImage(url));
+        GetLegendGraphicRequest request = new GetLegendGraphicRequest(getWMS());
+        request.setRawKvp(new HashMap<>());
+        assertNull(disabled.getKey(request));
+    }
+}
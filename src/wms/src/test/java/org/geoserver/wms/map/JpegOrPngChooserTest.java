@@ -11,6 +11,7 @@ import static org.junit.Assert.assertTrue;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import org.junit.Before;
 import org.junit.Test;
@@ -18,16 +19,29 @@ import org.junit.Test;
 public class JpegOrPngChooserTest {
 
     private BufferedImage indexed;
+    private BufferedImage indexed_unused_transparent;
+    private BufferedImage indexed_transparent;
     private BufferedImage gray;
     private BufferedImage rgb;
     private BufferedImage rgba;
     private BufferedImage rgba_opaque;
     private BufferedImage rgba_partial;
+    private BufferedImage argb_opaque;
+    private BufferedImage argb_partial;
 
     @Before
     public void prepareImages() {
         // paletted image
         indexed = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED);
+        // paletted image with a transparent entry, not used
+        byte[] levels = new byte[] {0, (byte) 255};
+        byte[] alpha = new byte[] {(byte) 255, 0};
+        IndexColorModel icm = new IndexColorModel(8, 2, levels, levels, levels, alpha);
+        indexed_unused_transparent =
+                new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        // paletted image using the transparent entry in the last pixel
+        indexed_transparent = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        indexed_transparent.getRaster().setSample(9, 9, 0, 1);
         // gray one, no transparency
         gray = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_GRAY);
         // opaque rgb
@@ -46,16 +60,40 @@ public class JpegOrPngChooserTest {
         graphics.setColor(Color.BLACK);
         graphics.fillRect(0, 0, 10, 5);
         graphics.dispose();
+        // int packed argb, fully opaque and partially transparent
+        argb_opaque = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        graphics = argb_opaque.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, 10, 10);
+        graphics.dispose();
+        argb_partial = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+        graphics = argb_partial.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, 10, 10);
+        graphics.dispose();
+        argb_partial.setRGB(9, 9, 0x80000000);
     }
 
     @Test
     public void testJpegPngImageWriter() {
-        assertPng(indexed);
+        assertJpeg(indexed);
+        assertJpeg(indexed_unused_transparent);
+        assertPng(indexed_transparent);
         assertJpeg(gray);
         assertJpeg(rgb);
         assertPng(rgba);
         assertJpeg(rgba_opaque);
         assertPng(rgba_partial);
+        assertJpeg(argb_opaque);
+        assertPng(argb_partial);
+    }
+
+    @Test
+    public void testKnownOpaque() {
+        // the renderer knows better, no scan is performed
+        assertTrue(new JpegOrPngChooser(rgba, true).isJpegPreferred());
+        assertTrue(new JpegOrPngChooser(indexed_transparent, true).isJpegPreferred());
+        assertFalse(new JpegOrPngChooser(rgba, false).isJpegPreferred());
     }
 
     private void assertPng(RenderedImage image) {
@@ -0,0 +1,159 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.geoserver.wms.map.LayerSectionRenderer.SectionHandler;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.DirectLayer;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.map.MapViewport;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+public class LayerSectionRendererTest {
+
+    /** A layer recording the graphics it was painted onto */
+    static class RecordingLayer extends DirectLayer {
+
+        Graphics2D painted;
+
+        RecordingLayer(String title) {
+            setTitle(title);
+        }
+
+        @Override
+        public void draw(Graphics2D graphics, MapContent map, MapViewport viewport) {
+            painted = graphics;
+        }
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            return null;
+        }
+    }
+
+    /** Hands out a new image graphics for each layer, recording the calls */
+    static class RecordingHandler implements SectionHandler {
+
+        List<String> calls = new ArrayList<>();
+
+        List<Graphics2D> sections = new ArrayList<>();
+
+        boolean failOnEnd;
+
+        @Override
+        public Graphics2D startSection(Layer layer) {
+            calls.add("start " + layer.getTitle());
+            Graphics2D graphics =
+                    new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            sections.add(graphics);
+            return graphics;
+        }
+
+        @Override
+        public void endSection(Layer layer, Graphics2D graphics) throws IOException {
+            calls.add("end " + layer.getTitle());
+            graphics.dispose();
+            if (failOnEnd) {
+                throw new IOException("Failed to write the section");
+            }
+        }
+    }
+
+    private void paint(LayerSectionRenderer renderer, List<Layer> layers, Graphics2D graphics) {
+        MapContent content = new MapContent();
+        for (Layer layer : layers) {
+            content.addLayer(layer);
+        }
+        ReferencedEnvelope area = new ReferencedEnvelope(0, 10, 0, 10, DefaultGeographicCRS.WGS84);
+        content.getViewport().setBounds(area);
+        try {
+            renderer.setMapContent(content);
+            renderer.paint(graphics, new Rectangle(0, 0, 10, 10), area, new AffineTransform());
+        } finally {
+            for (Layer layer : layers) {
+                content.removeLayer(layer);
+            }
+            content.dispose();
+        }
+    }
+
+    @Test
+    public void testLayerSections() {
+        RecordingHandler handler = new RecordingHandler();
+        LayerSectionRenderer renderer = new LayerSectionRenderer(StreamingRenderer::new, handler);
+        RecordingLayer first = new RecordingLayer("first");
+        RecordingLayer second = new RecordingLayer("second");
+        List<Layer> layers = new ArrayList<>();
+        layers.add(first);
+        layers.add(second);
+        Graphics2D labels = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        try {
+            paint(renderer, layers, labels);
+        } finally {
+            labels.dispose();
+        }
+
+        // each layer is painted in its own section, in order, and each section is closed
+        // before the next one is started
+        assertEquals(4, handler.calls.size());
+        assertEquals("start first", handler.calls.get(0));
+        assertEquals("end first", handler.calls.get(1));
+        assertEquals("start second", handler.calls.get(2));
+        assertEquals("end second", handler.calls.get(3));
+        assertSame(handler.sections.get(0), first.painted);
+        assertSame(handler.sections.get(1), second.painted);
+        assertNotSame(labels, first.painted);
+    }
+
+    @Test
+    public void testSectionWriteFailure() {
+        RecordingHandler handler = new RecordingHandler();
+        handler.failOnEnd = true;
+        LayerSectionRenderer renderer = new LayerSectionRenderer(StreamingRenderer::new, handler);
+        List<Exception> errors = new ArrayList<>();
+        renderer.addRenderListener(
+                new RenderListener() {
+
+                    @Override
+                    public void featureRenderer(SimpleFeature feature) {}
+
+                    @Override
+                    public void errorOccurred(Exception e) {
+                        errors.add(e);
+                    }
+                });
+        List<Layer> layers = new ArrayList<>();
+        layers.add(new RecordingLayer("first"));
+        layers.add(new RecordingLayer("second"));
+        Graphics2D labels = new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB).createGraphics();
+        try {
+            paint(renderer, layers, labels);
+        } finally {
+            labels.dispose();
+        }
+
+        // the failure is reported, and rendering stops
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IOException);
+        assertEquals(2, handler.calls.size());
+    }
+}
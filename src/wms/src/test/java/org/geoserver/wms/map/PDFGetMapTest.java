@@ -7,8 +7,11 @@ package org.geoserver.wms.map;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.awt.Color;
 import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -31,11 +34,25 @@ import org.apache.pdfbox.pdmodel.graphics.image.PDImage;
 import org.apache.pdfbox.pdmodel.graphics.pattern.PDAbstractPattern;
 import org.apache.pdfbox.pdmodel.graphics.pattern.PDTilingPattern;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.decorators.DecoratingFeatureSource;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WMSTestSupport;
+import org.geoserver.wms.map.PDFMapOutputFormat.PDFMap;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.map.FeatureLayer;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
 import org.junit.After;
 import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.springframework.mock.web.MockHttpServletResponse;
 
 public class PDFGetMapTest extends WMSTestSupport {
@@ -85,6 +102,63 @@ public class PDFGetMapTest extends WMSTestSupport {
         assertNull(tilingPattern);
     }
 
+    @Test
+    public void testRenderingErrorBeforeOutput() throws Exception {
+        FeatureTypeInfo info =
+                getCatalog().getFeatureTypeByName(getLayerId(MockData.BASIC_POLYGONS));
+        @SuppressWarnings("unchecked")
+        FeatureSource<SimpleFeatureType, SimpleFeature> source =
+                (FeatureSource<SimpleFeatureType, SimpleFeature>)
+                        info.getFeatureSource(null, null);
+        // the second layer fails, after the first one has been painted and released
+        FeatureSource<SimpleFeatureType, SimpleFeature> failing =
+                new DecoratingFeatureSource<SimpleFeatureType, SimpleFeature>(source) {
+                    @Override
+                    public FeatureCollection<SimpleFeatureType, SimpleFeature> getFeatures(
+                            Query query) throws IOException {
+                        throw new RuntimeException(new IOException("fake IO exception"));
+                    }
+                };
+        StyleBuilder sb = new StyleBuilder();
+        Style style = sb.createStyle(sb.createPolygonSymbolizer(Color.BLUE, Color.BLACK, 1));
+
+        WMSMapContent map = new WMSMapContent(new GetMapRequest());
+        map.getViewport().setBounds(info.getLatLonBoundingBox());
+        map.setMapWidth(300);
+        map.setMapHeight(300);
+        map.addLayer(new FeatureLayer(source, style));
+        map.addLayer(new FeatureLayer(failing, style));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            new PDFMapResponse(getWMS()).write(new PDFMap(map), output, null);
+            fail("Expected a ServiceException");
+        } catch (ServiceException e) {
+            // nothing got written, the exception can still be reported to the client
+            assertEquals(0, output.size());
+        } finally {
+            map.dispose();
+        }
+    }
+
+    @Test
+    public void testLayerSections() throws Exception {
+        String request =
+                requestBase.replace(layers, layers + "," + getLayerId(MockData.LAKES))
+                        + "&styles=";
+        MockHttpServletResponse response = getAsServletResponse(request);
+        assertEquals("application/pdf", response.getContentType());
+
+        // background, one section per layer, and the labels on top, each in its own form
+        try (PDDocument doc = PDDocument.load(response.getContentAsByteArray())) {
+            int forms = 0;
+            for (COSName name : doc.getPage(0).getResources().getXObjectNames()) {
+                forms++;
+            }
+            assertEquals(4, forms);
+        }
+    }
+
     @Test
     public void testSvgFillOptimization() throws Exception {
         // get a single polygon to ease testing
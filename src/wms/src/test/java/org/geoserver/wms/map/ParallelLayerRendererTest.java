@@ -0,0 +1,147 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.geoserver.wms.map.ParallelLayerRenderer.RecordingLabelCache;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.DirectLayer;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.map.MapViewport;
+import org.geotools.renderer.lite.LabelCache;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class ParallelLayerRendererTest {
+
+    static class TestLayer extends DirectLayer {
+
+        Style style;
+
+        TestLayer(String title, Style style) {
+            setTitle(title);
+            this.style = style;
+        }
+
+        @Override
+        public Style getStyle() {
+            return style;
+        }
+
+        @Override
+        public void draw(Graphics2D graphics, MapContent map, MapViewport viewport) {}
+
+        @Override
+        public ReferencedEnvelope getBounds() {
+            return null;
+        }
+    }
+
+    private List<Layer> buildLayers(int count) {
+        List<Layer> layers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            layers.add(new TestLayer("l" + i, null));
+        }
+        return layers;
+    }
+
+    @Test
+    public void testLayerGroups() {
+        List<Layer> layers = buildLayers(7);
+        List<List<Layer>> groups = ParallelLayerRenderer.getLayerGroups(layers, 3);
+        assertEquals(3, groups.size());
+        assertEquals(layers.subList(0, 3), groups.get(0));
+        assertEquals(layers.subList(3, 5), groups.get(1));
+        assertEquals(layers.subList(5, 7), groups.get(2));
+
+        // never more groups than layers
+        groups = ParallelLayerRenderer.getLayerGroups(buildLayers(2), 4);
+        assertEquals(2, groups.size());
+        assertEquals(1, groups.get(0).size());
+        assertEquals(1, groups.get(1).size());
+    }
+
+    @Test
+    public void testCanRenderInParallel() {
+        StyleBuilder sb = new StyleBuilder();
+        Style plain = sb.createStyle(sb.createPolygonSymbolizer());
+        assertTrue(ParallelLayerRenderer.canRenderInParallel(buildLayers(3)));
+        assertTrue(
+                ParallelLayerRenderer.canRenderInParallel(
+                        Arrays.asList(new TestLayer("a", plain), new TestLayer("b", plain))));
+
+        for (String option :
+                Arrays.asList(
+                        FeatureTypeStyle.COMPOSITE,
+                        FeatureTypeStyle.COMPOSITE_BASE,
+                        FeatureTypeStyle.SORT_BY_GROUP)) {
+            Style blending = sb.createStyle(sb.createPolygonSymbolizer());
+            blending.featureTypeStyles().get(0).getOptions().put(option, "true");
+            assertFalse(
+                    option,
+                    ParallelLayerRenderer.canRenderInParallel(
+                            Arrays.asList(
+                                    new TestLayer("a", plain), new TestLayer("b", blending))));
+        }
+    }
+
+    @Test
+    public void testRecordingLabelCache() {
+        StyleBuilder sb = new StyleBuilder(CommonFactoryFinder.getStyleFactory());
+        RecordingLabelCache first = new RecordingLabelCache("0_");
+        RecordingLabelCache second = new RecordingLabelCache("1_");
+        Graphics2D groupGraphics = Mockito.mock(Graphics2D.class);
+        Rectangle area = new Rectangle(0, 0, 100, 100);
+        Rectangle2D obstacle = new Rectangle(10, 10, 5, 5);
+
+        // start, end and stop are handled by the parallel renderer
+        first.start();
+        first.startLayer("0");
+        first.put(obstacle);
+        first.put("0", sb.createTextSymbolizer(), null, null, null);
+        first.endLayer("0", groupGraphics, area);
+        first.end(groupGraphics, area);
+        second.start();
+        second.startLayer("0");
+        second.disableLayer("0");
+        second.endLayer("0", groupGraphics, area);
+        second.stop();
+
+        LabelCache target = Mockito.mock(LabelCache.class);
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        first.replay(target, graphics, area);
+        second.replay(target, graphics, area);
+
+        InOrder inOrder = Mockito.inOrder(target);
+        inOrder.verify(target).startLayer("0_0");
+        inOrder.verify(target).put(obstacle);
+        inOrder.verify(target)
+                .put(Mockito.eq("0_0"), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(target).endLayer("0_0", graphics, area);
+        inOrder.verify(target).startLayer("1_0");
+        inOrder.verify(target).disableLayer("1_0");
+        inOrder.verify(target).endLayer("1_0", graphics, area);
+        Mockito.verifyNoMoreInteractions(target);
+        Mockito.verifyZeroInteractions(groupGraphics);
+        graphics.dispose();
+    }
+}
@@ -6,13 +6,40 @@
 package org.geoserver.wms.map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.Collections;
+import javax.xml.namespace.QName;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 
 public class QuickTileCacheTest {
+
+    static final QName STATES = new QName("http://www.openplans.org/topp", "states");
+
+    /** Size of a meta-tile made of 9 256x256 4 bytes tiles */
+    static final long META_TILE_SIZE = 9 * 256 * 256 * 4;
+
     QuickTileCache cache = new QuickTileCache();
 
     @Test
@@ -68,4 +95,110 @@ public class QuickTileCacheTest {
         assertEquals(new Point(0, 2), cache.getTileOffsetsInMeta(box1, meta));
         assertEquals(new Point(1, 2), cache.getTileOffsetsInMeta(box2, meta));
     }
+
+    private MetaTileKey buildKey(int x, double minx, double miny) {
+        MetaTileKey key =
+                new MetaTileKey(
+                        new MapKey("layers=topp:states", 0.01, new Point2D.Double(0, 0)),
+                        new Point(x, 0),
+                        new ReferencedEnvelope(
+                                minx, minx + 3, miny, miny + 3, DefaultGeographicCRS.WGS84));
+        key.layers = Collections.singleton(STATES);
+        return key;
+    }
+
+    private RenderedImage[] buildTiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        }
+        return tiles;
+    }
+
+    private GetMapRequest buildRequest(double minx, double miny) {
+        GetMapRequest request = new GetMapRequest();
+        request.setBbox(new Envelope(minx, minx + 1, miny, miny + 1));
+        request.setCrs(DefaultGeographicCRS.WGS84);
+        return request;
+    }
+
+    @Test
+    public void testHitRatio() {
+        MetaTileKey key = buildKey(0, 0, 0);
+        assertNull(cache.getTile(key, buildRequest(0, 0)));
+        cache.storeTiles(key, buildTiles());
+        assertNotNull(cache.getTile(key, buildRequest(0, 0)));
+        assertNotNull(cache.getTile(key, buildRequest(1, 1)));
+        assertNotNull(cache.getTile(key, buildRequest(2, 2)));
+
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRatio(), 0d);
+        assertEquals(META_TILE_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        cache.setMaxSize(META_TILE_SIZE * 2);
+        MetaTileKey k1 = buildKey(0, 0, 0);
+        MetaTileKey k2 = buildKey(3, 3, 0);
+        MetaTileKey k3 = buildKey(6, 6, 0);
+        cache.storeTiles(k1, buildTiles());
+        cache.storeTiles(k2, buildTiles());
+        // use k1, so that k2 becomes the least recently used
+        assertNotNull(cache.getTile(k1, buildRequest(0, 0)));
+        cache.storeTiles(k3, buildTiles());
+
+        assertEquals(2, cache.getMetaTileCount());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.getTile(k1, buildRequest(0, 0)));
+        assertNull(cache.getTile(k2, buildRequest(3, 0)));
+        assertNotNull(cache.getTile(k3, buildRequest(6, 0)));
+        assertEquals(META_TILE_SIZE * 2, cache.getSize());
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        cache.setTimeToLive(-1);
+        MetaTileKey key = buildKey(0, 0, 0);
+        cache.storeTiles(key, buildTiles());
+        assertNull(cache.getTile(key, buildRequest(0, 0)));
+        assertEquals(0, cache.getMetaTileCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testTransactionInvalidation() throws Exception {
+        MetaTileKey k1 = buildKey(0, 0, 0);
+        MetaTileKey k2 = buildKey(30, 90, 0);
+        MetaTileKey other = buildKey(0, 0, 0);
+        other.mapKey = new MapKey("layers=topp:roads", 0.01, new Point2D.Double(0, 0));
+        other.layers = Collections.singleton(new QName(STATES.getNamespaceURI(), "roads"));
+        cache.storeTiles(k1, buildTiles());
+        cache.storeTiles(k2, buildTiles());
+        cache.storeTiles(other, buildTiles());
+
+        // a point inside the first meta-tile
+        cache.dataStoreChange(
+                new TransactionEvent(
+                        TransactionEventType.PRE_UPDATE, null, STATES, buildFeatures(1, 1)));
+
+        // only the meta tile of the same layer touched by the change has been dropped
+        assertEquals(2, cache.getMetaTileCount());
+        assertEquals(1, cache.getInvalidations());
+        assertNull(cache.getTile(k1, buildRequest(0, 0)));
+        assertNotNull(cache.getTile(k2, buildRequest(90, 0)));
+        assertNotNull(cache.getTile(other, buildRequest(0, 0)));
+    }
+
+    private SimpleFeatureCollection buildFeatures(double x, double y) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("states");
+        tb.add("the_geom", org.locationtech.jts.geom.Point.class, DefaultGeographicCRS.WGS84);
+        SimpleFeatureType type = tb.buildFeatureType();
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(type);
+        fb.add(new GeometryFactory().createPoint(new Coordinate(x, y)));
+        SimpleFeature feature = fb.buildFeature("states.1");
+        return DataUtilities.collection(feature);
+    }
 }
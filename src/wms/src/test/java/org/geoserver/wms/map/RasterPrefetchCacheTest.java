@@ -0,0 +1,142 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.geoserver.wms.CachedGridReaderLayer;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+public class RasterPrefetchCacheTest {
+
+    private static final CoordinateReferenceSystem WGS84 = DefaultGeographicCRS.WGS84;
+
+    private RasterPrefetchCache cache;
+
+    private Map<String, String> kvp;
+
+    private WMSMapContent mapContent;
+
+    @Before
+    public void setup() {
+        cache = new RasterPrefetchCache(null, 16, 2);
+        kvp = new HashMap<>();
+        kvp.put("LAYERS", "sf:dem");
+        kvp.put("FORMAT", "image/png");
+        kvp.put("WIDTH", "256");
+        kvp.put("HEIGHT", "256");
+        mapContent = buildMapContent(new ReferencedEnvelope(10, 20, 40, 50, WGS84));
+    }
+
+    @After
+    public void cleanup() {
+        mapContent.dispose();
+        cache.onDispose();
+    }
+
+    private WMSMapContent buildMapContent(ReferencedEnvelope bounds) {
+        GetMapRequest request = new GetMapRequest();
+        request.setRawKvp(kvp);
+        StyleBuilder sb = new StyleBuilder();
+        Style style = sb.createStyle(sb.createRasterSymbolizer());
+        WMSMapContent content = new WMSMapContent(request);
+        content.setMapWidth(256);
+        content.setMapHeight(256);
+        content.addLayer(new CachedGridReaderLayer(mock(GridCoverage2DReader.class), style));
+        content.getViewport().setBounds(bounds);
+        return content;
+    }
+
+    @Test
+    public void testNeighbourKeys() {
+        Object key = cache.getKey(mapContent);
+        assertNotNull(key);
+        // a different request for the same tile has the same key
+        WMSMapContent same = buildMapContent(new ReferencedEnvelope(10, 20, 40, 50, WGS84));
+        WMSMapContent east = buildMapContent(new ReferencedEnvelope(20, 30, 40, 50, WGS84));
+        try {
+            assertEquals(key, cache.getKey(same));
+            assertNotEquals(key, cache.getKey(east));
+            // the neighbour computed from the first tile matches the actual request
+            assertEquals(
+                    cache.getKey(east),
+                    cache.getKey(mapContent, new ReferencedEnvelope(20, 30, 40, 50, WGS84)));
+        } finally {
+            same.dispose();
+            east.dispose();
+        }
+    }
+
+    @Test
+    public void testNotCacheable() {
+        kvp.put("ENV", "color:FF0000");
+        assertNull(cache.getKey(mapContent));
+        kvp.remove("ENV");
+
+        // requests not going through the dispatcher
+        mapContent.getRequest().setRawKvp(null);
+        assertNull(cache.getKey(mapContent));
+        mapContent.getRequest().setRawKvp(kvp);
+
+        // disabled cache
+        RasterPrefetchCache disabled = new RasterPrefetchCache(null, 0, 2);
+        assertNull(disabled.getKey(mapContent));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        CountDownLatch latch = new CountDownLatch(8);
+        Set<ReferencedEnvelope> rendered = ConcurrentHashMap.newKeySet();
+        cache.prefetch(
+                mapContent,
+                content -> {
+                    try {
+                        rendered.add(content.getViewport().getBounds());
+                        return new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+        latch.await(10, TimeUnit.SECONDS);
+        // wait for the last tile to be stored
+        for (int i = 0; i < 100 && cache.size() < 8; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(8, rendered.size());
+        assertEquals(8, cache.size());
+
+        // the tile on the east side is handed out only once
+        WMSMapContent east = buildMapContent(new ReferencedEnvelope(20, 30, 40, 50, WGS84));
+        try {
+            Object key = cache.getKey(east);
+            assertNotNull(cache.take(key));
+            assertNull(cache.take(key));
+            assertEquals(7, cache.size());
+        } finally {
+            east.dispose();
+        }
+    }
+}
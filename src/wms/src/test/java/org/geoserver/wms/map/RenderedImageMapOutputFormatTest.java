@@ -88,6 +88,8 @@ import org.geotools.renderer.lite.LabelCache;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.styling.ChannelSelection;
 import org.geotools.styling.ChannelSelectionImpl;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.RasterSymbolizer;
 import org.geotools.styling.SelectedChannelType;
 import org.geotools.styling.SelectedChannelTypeImpl;
@@ -242,6 +244,44 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testSimpleGetMapQuery", image);
     }
 
+    @Test
+    public void testOpaqueHint() throws Exception {
+        // nothing can make the red background transparent
+        Style basicStyle = getCatalog().getStyleByName("Default").getStyle();
+        WMSMapContent map = buildOpaqueMap(basicStyle);
+        this.rasterMapProducer.produceMap(map).dispose();
+        assertEquals(Boolean.TRUE, map.getMetadata().get(TransparencyScanner.OPAQUE_KEY));
+
+        // a symbolizer level composite can punch holes in it
+        StyleBuilder sb = new StyleBuilder();
+        PolygonSymbolizer symbolizer = sb.createPolygonSymbolizer(Color.BLACK);
+        symbolizer.getOptions().put(FeatureTypeStyle.COMPOSITE, "destination-out");
+        map = buildOpaqueMap(sb.createStyle(symbolizer));
+        this.rasterMapProducer.produceMap(map).dispose();
+        assertNull(map.getMetadata().get(TransparencyScanner.OPAQUE_KEY));
+    }
+
+    private WMSMapContent buildOpaqueMap(Style style) throws Exception {
+        final FeatureSource fs =
+                getCatalog()
+                        .getFeatureTypeByName(
+                                MockData.BASIC_POLYGONS.getPrefix(),
+                                MockData.BASIC_POLYGONS.getLocalPart())
+                        .getFeatureSource(null, null);
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat(getMapFormat());
+        final WMSMapContent map = new WMSMapContent();
+        map.getViewport()
+                .setBounds(new ReferencedEnvelope(fs.getBounds(), DefaultGeographicCRS.WGS84));
+        map.setMapWidth(100);
+        map.setMapHeight(100);
+        map.setBgColor(Color.red);
+        map.setTransparent(false);
+        map.setRequest(request);
+        map.addLayer(new FeatureLayer(fs, style));
+        return map;
+    }
+
     @Test
     public void testAdvancedProjectionDensification() throws Exception {
         WMS wms = getWMS();
@@ -737,6 +777,64 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testBlueLake", image);
     }
 
+    @Test
+    public void testParallelLayerRendering() throws Exception {
+        RenderedImageMapOutputFormat parallelProducer =
+                new RenderedImageMapOutputFormat(getWMS()) {
+                    @Override
+                    protected int getParallelRenderingThreads(WMSMapContent mapContent) {
+                        return 3;
+                    }
+                };
+        RenderedImageMapOutputFormat sequentialProducer =
+                new RenderedImageMapOutputFormat(getWMS());
+        RenderedImageMap sequential = sequentialProducer.produceMap(buildCiteMap());
+        RenderedImageMap parallel = parallelProducer.produceMap(buildCiteMap());
+        try {
+            assertNotBlank("parallel", (BufferedImage) parallel.getImage());
+            // same layers painted in the same order, with labels on top of everything
+            ImageAssert.assertEquals(
+                    (BufferedImage) sequential.getImage(),
+                    (BufferedImage) parallel.getImage(),
+                    50);
+        } finally {
+            sequential.dispose();
+            parallel.dispose();
+        }
+    }
+
+    private WMSMapContent buildCiteMap() throws IOException {
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo typeInfo =
+                catalog.getFeatureTypeByName(
+                        MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        Envelope env = new Envelope(typeInfo.getFeatureSource(null, null).getBounds());
+        env.expandBy(env.getWidth() / 6);
+
+        GetMapRequest request = new GetMapRequest();
+        request.setFormat("image/png");
+        WMSMapContent map = new WMSMapContent();
+        int w = 400;
+        int h = (int) Math.round((env.getHeight() * w) / env.getWidth());
+        map.setMapWidth(w);
+        map.setMapHeight(h);
+        map.setBgColor(BG_COLOR);
+        map.setTransparent(false);
+        map.setRequest(request);
+        addToMap(map, MockData.FORESTS);
+        addToMap(map, MockData.LAKES);
+        addToMap(map, MockData.STREAMS);
+        addToMap(map, MockData.NAMED_PLACES);
+        addToMap(map, MockData.ROAD_SEGMENTS);
+        addToMap(map, MockData.PONDS);
+        addToMap(map, MockData.BUILDINGS);
+        addToMap(map, MockData.DIVIDED_ROUTES);
+        addToMap(map, MockData.BRIDGES);
+        addToMap(map, MockData.MAP_NEATLINE);
+        map.getViewport().setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
+        return map;
+    }
+
     @Override
     protected void onSetUp(SystemTestData testData) throws Exception {
         super.onSetUp(testData);
@@ -0,0 +1,131 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.geoserver.platform.ServiceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingRenderedImageListTest {
+
+    private ExecutorService executor;
+
+    private AtomicInteger started;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(2);
+        started = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private List<Callable<RenderedImage>> buildLoaders(int count) {
+        List<Callable<RenderedImage>> loaders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            loaders.add(
+                    () -> {
+                        started.incrementAndGet();
+                        return new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED);
+                    });
+        }
+        return loaders;
+    }
+
+    @Test
+    public void testWindow() {
+        StreamingRenderedImageList list =
+                new StreamingRenderedImageList(buildLoaders(10), executor, 3);
+        assertEquals(10, list.size());
+        // nothing is rendered until the list is read
+        assertEquals(0, started.get());
+
+        RenderedImage first = (RenderedImage) list.get(0);
+        assertTrue(started.get() <= 3);
+        // the primary image is kept around
+        assertSame(first, list.get(0));
+        assertEquals(10, list.getWidth());
+
+        for (int i = 1; i < 5; i++) {
+            assertTrue(list.get(i) instanceof BufferedImage);
+            assertTrue(started.get() <= i + 3);
+        }
+        // consumed frames are forgotten
+        assertNull(list.get(3));
+
+        // closing stops the production
+        list.close();
+        assertNull(list.get(5));
+        assertTrue(started.get() <= 8);
+    }
+
+    @Test
+    public void testFailure() {
+        List<Callable<RenderedImage>> loaders = buildLoaders(3);
+        loaders.set(
+                1,
+                () -> {
+                    throw new IllegalStateException("Rendering failed");
+                });
+        StreamingRenderedImageList list = new StreamingRenderedImageList(loaders, executor, 2);
+        list.get(0);
+        try {
+            list.get(1);
+            fail("Should have failed");
+        } catch (ServiceException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // the list has been closed
+        assertNull(list.get(2));
+    }
+
+    @Test
+    public void testNullImages() {
+        List<Callable<RenderedImage>> loaders = buildLoaders(4);
+        loaders.set(0, () -> null);
+        loaders.set(1, () -> new BufferedImage(20, 20, BufferedImage.TYPE_BYTE_INDEXED));
+        loaders.set(2, () -> null);
+        StreamingRenderedImageList list = new StreamingRenderedImageList(loaders, executor, 2);
+
+        // the first non null image is the primary one
+        RenderedImage first = (RenderedImage) list.get(0);
+        assertEquals(20, first.getWidth());
+        assertEquals(20, list.getWidth());
+        // it is not returned again at its own position, the null ones are skipped
+        assertNull(list.get(1));
+        assertNull(list.get(2));
+        assertEquals(10, ((RenderedImage) list.get(3)).getWidth());
+        assertSame(first, list.get(0));
+    }
+
+    @Test
+    public void testAllNullImages() {
+        List<Callable<RenderedImage>> loaders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            loaders.add(() -> null);
+        }
+        StreamingRenderedImageList list = new StreamingRenderedImageList(loaders, executor, 2);
+        assertNull(list.get(0));
+        assertNull(list.get(2));
+    }
+}
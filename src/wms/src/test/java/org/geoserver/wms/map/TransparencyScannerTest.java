@@ -0,0 +1,58 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.SampleModel;
+import javax.media.jai.TiledImage;
+import org.junit.Test;
+
+public class TransparencyScannerTest {
+
+    @Test
+    public void testSubImage() {
+        BufferedImage image = new BufferedImage(20, 20, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(5, 5, 10, 10);
+        graphics.dispose();
+        assertFalse(TransparencyScanner.isOpaque(image));
+        // shares the data buffer, with an offset
+        assertTrue(TransparencyScanner.isOpaque(image.getSubimage(5, 5, 10, 10)));
+        assertFalse(TransparencyScanner.isOpaque(image.getSubimage(5, 5, 11, 10)));
+        assertFalse(TransparencyScanner.isOpaque(image.getSubimage(5, 5, 10, 11)));
+    }
+
+    @Test
+    public void testTiledImage() {
+        BufferedImage source = new BufferedImage(10, 10, BufferedImage.TYPE_4BYTE_ABGR);
+        SampleModel sm = source.getSampleModel().createCompatibleSampleModel(4, 4);
+        ColorModel cm = source.getColorModel();
+        TiledImage image = new TiledImage(0, 0, 10, 10, 0, 0, sm, cm);
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                image.setSample(x, y, 3, 255);
+            }
+        }
+        assertTrue(TransparencyScanner.isOpaque(image));
+        // transparent pixel in the last, partial tile
+        image.setSample(9, 9, 3, 254);
+        assertFalse(TransparencyScanner.isOpaque(image));
+    }
+
+    @Test
+    public void testNoAlpha() {
+        BufferedImage bgr = new BufferedImage(10, 10, BufferedImage.TYPE_3BYTE_BGR);
+        assertTrue(TransparencyScanner.isOpaque(bgr));
+        BufferedImage rgb = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        assertTrue(TransparencyScanner.isOpaque(rgb));
+    }
+}
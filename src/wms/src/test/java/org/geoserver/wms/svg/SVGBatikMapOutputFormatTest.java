@@ -0,0 +1,162 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.security.decorators.DecoratingFeatureSource;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WMSTestSupport;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+public class SVGBatikMapOutputFormatTest extends WMSTestSupport {
+
+    @Test
+    public void testGroupPerLayer() throws Exception {
+        WMSMapContent map = buildMap();
+        StyleBuilder sb = new StyleBuilder();
+        map.addLayer(new FeatureLayer(buildSource("polygons", 0), polygonStyle(sb)));
+        Style labels =
+                sb.createStyle(
+                        sb.createTextSymbolizer(Color.BLACK, sb.createFont("Serif", 12), "name"));
+        map.addLayer(new FeatureLayer(buildSource("labels", 1), labels));
+
+        StringWriter writer = new StringWriter();
+        new SVGBatikMapOutputFormat(getWMS()).encode(map, writer);
+
+        Element root = parse(writer.toString()).getDocumentElement();
+        assertEquals("svg", root.getLocalName());
+        assertEquals("http://www.w3.org/2000/svg", root.getNamespaceURI());
+        assertEquals("300", root.getAttribute("width"));
+        assertEquals("300", root.getAttribute("height"));
+
+        // one group for each layer, then the labels one
+        List<Element> groups = getChildElements(root);
+        assertEquals(3, groups.size());
+        for (Element group : groups) {
+            assertEquals("g", group.getLocalName());
+        }
+        assertTrue(getChildElements(groups.get(0)).size() > 0);
+        assertTrue(getChildElements(groups.get(2)).size() > 0);
+    }
+
+    @Test
+    public void testRenderingErrorBeforeOutput() throws Exception {
+        WMSMapContent map = buildMap();
+        StyleBuilder sb = new StyleBuilder();
+        map.addLayer(new FeatureLayer(buildSource("polygons", 0), polygonStyle(sb)));
+        // the second layer fails, after the first one has been painted
+        FeatureSource<SimpleFeatureType, SimpleFeature> failing =
+                new DecoratingFeatureSource<SimpleFeatureType, SimpleFeature>(
+                        buildSource("failing", 1)) {
+                    @Override
+                    public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+                        throw new RuntimeException(new IOException("fake IO exception"));
+                    }
+                };
+        map.addLayer(new FeatureLayer(failing, polygonStyle(sb)));
+
+        StringWriter writer = new StringWriter();
+        try {
+            new SVGBatikMapOutputFormat(getWMS()).encode(map, writer);
+            fail("Expected a ServiceException");
+        } catch (ServiceException e) {
+            // nothing got written, the exception can still be reported to the client
+            assertEquals("", writer.toString());
+        }
+    }
+
+    private WMSMapContent buildMap() {
+        WMSMapContent map = new WMSMapContent();
+        map.getViewport().setBounds(new ReferencedEnvelope(-250, 250, -250, 250, null));
+        map.setMapWidth(300);
+        map.setMapHeight(300);
+        map.setTransparent(true);
+        return map;
+    }
+
+    private Style polygonStyle(StyleBuilder sb) {
+        return sb.createStyle(sb.createPolygonSymbolizer(Color.BLUE, Color.BLACK, 1));
+    }
+
+    private SimpleFeatureSource buildSource(String name, int offset) throws IOException {
+        SimpleFeatureTypeBuilder ftb = new SimpleFeatureTypeBuilder();
+        ftb.setName(name);
+        ftb.add("geom", Geometry.class);
+        ftb.add("name", String.class);
+        SimpleFeatureType type = ftb.buildFeatureType();
+
+        GeometryFactory gf = new GeometryFactory();
+        int start = -200 + offset * 150;
+        Geometry polygon =
+                gf.createPolygon(
+                        new Coordinate[] {
+                            new Coordinate(start, start),
+                            new Coordinate(start, start + 100),
+                            new Coordinate(start + 100, start + 100),
+                            new Coordinate(start + 100, start),
+                            new Coordinate(start, start)
+                        });
+        SimpleFeature feature =
+                SimpleFeatureBuilder.build(type, new Object[] {polygon, name}, null);
+
+        MemoryDataStore ds = new MemoryDataStore();
+        ds.createSchema(type);
+        ds.addFeatures(new SimpleFeature[] {feature});
+        return ds.getFeatureSource(name);
+    }
+
+    /** Parses the SVG without loading the DTD, so that the test can run offline */
+    private Document parse(String svg) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setValidating(false);
+        factory.setFeature(
+                "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        return builder.parse(new InputSource(new StringReader(svg)));
+    }
+
+    private List<Element> getChildElements(Element element) {
+        List<Element> result = new ArrayList<>();
+        for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element) {
+                result.add((Element) n);
+            }
+        }
+        return result;
+    }
+}
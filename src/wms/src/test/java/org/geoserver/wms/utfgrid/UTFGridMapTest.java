@@ -0,0 +1,69 @@
+/* (c) 2019 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.utfgrid;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import net.sf.json.JSONSerializer;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+public class UTFGridMapTest {
+
+    private SimpleFeature buildFeature(SimpleFeatureType type, String id, String name) {
+        return SimpleFeatureBuilder.build(type, new Object[] {name}, id);
+    }
+
+    @Test
+    public void testRunLengthRows() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.add("name", String.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+
+        UTFGridEntries entries = new UTFGridEntries();
+        int first = entries.getKeyForFeature(buildFeature(type, "test.1", "first"));
+        int second = entries.getKeyForFeature(buildFeature(type, "test.2", "second"));
+        // painted, but fully overwritten, should not show up in the output
+        entries.getKeyForFeature(buildFeature(type, "test.3", "hidden"));
+
+        // empty row, a row with runs of both features, and a row with a single pixel at the end
+        BufferedImage image = new BufferedImage(8, 3, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 3; x++) {
+            image.setRGB(x, 1, second);
+        }
+        for (int x = 5; x < 8; x++) {
+            image.setRGB(x, 1, first);
+        }
+        image.setRGB(7, 2, second);
+
+        UTFGridMapContent mapContent = new UTFGridMapContent(new WMSMapContent(), entries, 1);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            new UTFGridMap(mapContent, image).writeTo(bos);
+            JSONObject json = (JSONObject) JSONSerializer.toJSON(bos.toString());
+            UTFGridTester tester = new UTFGridTester(json, 8, 3, 1);
+
+            // keys are assigned in order of appearance
+            assertEquals(3, tester.getKeyCount());
+            JSONArray grid = json.getJSONArray("grid");
+            assertEquals("        ", grid.getString(0));
+            assertEquals("!!!  ###", grid.getString(1));
+            assertEquals("       !", grid.getString(2));
+            assertEquals("second", tester.getFeature('!').getString("name"));
+            assertEquals("first", tester.getFeature('#').getString("name"));
+        } finally {
+            mapContent.dispose();
+        }
+    }
+}
@@ -34,6 +34,7 @@ import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.test.SystemTestData.LayerProperty;
 import org.geoserver.test.RemoteOWSTestSupport;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wms.GetFeatureInfo;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSTestSupport;
 import org.geoserver.wms.featureinfo.*;
@@ -669,6 +670,69 @@ public class GetFeatureInfoTest extends WMSTestSupport {
         XMLAssert.assertXpathEvaluatesTo("1", "count(//cite:Lakes)", dom);
     }
 
+    /** Tests that FEATURE_COUNT and layer order are respected when identifying in parallel */
+    @Test
+    public void testTwoLayersFeatureCountParallel() throws Exception {
+        GetFeatureInfo getFeatureInfo =
+                applicationContext.getBean("wmsGetFeatureInfo", GetFeatureInfo.class);
+        getFeatureInfo.setParallelism(2);
+        try {
+            String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+            String request =
+                    "wms?REQUEST=GetFeatureInfo&EXCEPTIONS=application%2Fvnd.ogc.se_xml&"
+                            + "BBOX=-0.002356%2C-0.004819%2C0.005631%2C0.004781&SERVICE=WMS&VERSION=1.1.0&X=267&Y=325"
+                            + "&INFO_FORMAT=application/vnd.ogc.gml"
+                            + "&QUERY_LAYERS="
+                            + layer
+                            + "&Layers="
+                            + layer
+                            + " &Styles=&WIDTH=426&HEIGHT=512"
+                            + "&format=image%2Fpng&srs=EPSG%3A4326";
+            // no feature count, just the one from the top layer should be returned
+            Document dom = getAsDOM(request);
+            XMLAssert.assertXpathEvaluatesTo("1", "count(//gml:featureMember)", dom);
+            XMLAssert.assertXpathEvaluatesTo("1", "count(//cite:Forests)", dom);
+
+            // feature count set to 2, both features should be there
+            dom = getAsDOM(request + "&FEATURE_COUNT=2");
+            XMLAssert.assertXpathEvaluatesTo("2", "count(//gml:featureMember)", dom);
+            XMLAssert.assertXpathEvaluatesTo("1", "count(//cite:Forests)", dom);
+            XMLAssert.assertXpathEvaluatesTo("1", "count(//cite:Lakes)", dom);
+        } finally {
+            getFeatureInfo.setParallelism(1);
+        }
+    }
+
+    /** Tests layers are identified in parallel with their own property selection */
+    @Test
+    public void testSelectPropertiesTwoVectorLayersParallel() throws Exception {
+        GetFeatureInfo getFeatureInfo =
+                applicationContext.getBean("wmsGetFeatureInfo", GetFeatureInfo.class);
+        getFeatureInfo.setParallelism(2);
+        try {
+            String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+            String request =
+                    "wms?version=1.1.1&bbox=-0.002,-0.002,0.002,0.002&styles=&format=jpeg"
+                            + "&info_format=text/plain&request=GetFeatureInfo&layers="
+                            + layer
+                            + "&query_layers="
+                            + layer
+                            + "&width=20&height=20&x=10&y=10&buffer=10&service=wms"
+                            + "&feature_count=2&propertyName=(FID)(NAME)";
+            String result = getAsString(request);
+            assertNotNull(result);
+            int idxLakes = result.indexOf("Lakes");
+            int idxFid = result.indexOf("FID");
+            int idxName = result.indexOf("NAME");
+            assertEquals(-1, result.indexOf("the_geom"));
+            assertTrue(idxLakes > 0);
+            assertTrue(idxFid > 0 && idxFid < idxLakes);
+            assertTrue(idxName > idxLakes);
+        } finally {
+            getFeatureInfo.setParallelism(1);
+        }
+    }
+
     /**
      * Check GetFeatureInfo returns an error if the format is not known, instead of returning the
      * text format as in https://osgeo-org.atlassian.net/browse/GEOS-1924
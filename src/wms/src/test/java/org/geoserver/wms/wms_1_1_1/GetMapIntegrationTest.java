@@ -5,9 +5,12 @@
  */
 package org.geoserver.wms.wms_1_1_1;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -65,6 +68,7 @@ import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSTestSupport;
 import org.geoserver.wms.map.OpenLayersMapOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapOutputFormat;
+import org.geoserver.wms.map.RenderingProfile;
 import org.geotools.gce.imagemosaic.ImageMosaicFormat;
 import org.geotools.image.ImageWorker;
 import org.geotools.image.test.ImageAssert;
@@ -298,6 +302,46 @@ public class GetMapIntegrationTest extends WMSTestSupport {
         checkImage(response);
     }
 
+    @Test
+    public void testRenderingProfile() throws Exception {
+        String url =
+                "wms?bbox="
+                        + bbox
+                        + "&styles=&layers="
+                        + layers
+                        + "&Format=image/png"
+                        + "&request=GetMap"
+                        + "&width=550"
+                        + "&height=250"
+                        + "&srs=EPSG:4326";
+        // not profiled by default
+        MockHttpServletResponse response = getAsServletResponse(url);
+        assertNull(response.getHeader(RenderingProfile.PROFILE_HEADER));
+
+        response = getAsServletResponse(url + "&format_options=profile:true");
+        checkImage(response);
+        String profile = response.getHeader(RenderingProfile.PROFILE_HEADER);
+        assertNotNull(profile);
+        assertThat(profile, containsString("sf:states: query="));
+        assertThat(profile, containsString("labels="));
+    }
+
+    @Test
+    public void testRenderingProfileRaster() throws Exception {
+        // a single raster layer would go on the direct raster path, which cannot paint the overlay
+        MockHttpServletResponse response =
+                getAsServletResponse(
+                        "wms?bbox=145,-43,146,-41&styles=&layers="
+                                + getLayerId(MockData.TASMANIA_DEM)
+                                + "&Format=image/png&request=GetMap&width=200&height=200"
+                                + "&srs=EPSG:4326&format_options=profile:true");
+        checkImage(response);
+        String profile = response.getHeader(RenderingProfile.PROFILE_HEADER);
+        assertNotNull(profile);
+        // the labels time is only collected by the full rendering path
+        assertThat(profile, containsString("labels="));
+    }
+
     @Test
     public void testAllowedMimeTypes() throws Exception {
 